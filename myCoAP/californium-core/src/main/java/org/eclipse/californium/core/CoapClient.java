@@ -71,6 +71,9 @@ public class CoapClient {
 	/** The endpoint. */
 	private Endpoint endpoint;
 
+	/** The scheduler of re-registrations, null for the default one */
+	private ReregistrationScheduler reregistrationScheduler;
+
 	/**
 	 * Constructs a new CoapClient that has no destination URI yet.
 	 */
@@ -233,6 +236,21 @@ public class CoapClient {
 		
 		return this;
 	}
+
+	/**
+	 * Sets the scheduler re-registering the observe relations of this client.
+	 * <p>
+	 * Clients observing many resources may use a scheduler with a larger
+	 * jitter or a lower number of pending re-registrations.
+	 *
+	 * @param scheduler the scheduler, or null to use the scheduler shared by
+	 *            the relations of endpoints with the same configuration
+	 * @return the CoAP client
+	 */
+	public CoapClient setReregistrationScheduler(ReregistrationScheduler scheduler) {
+		this.reregistrationScheduler = scheduler;
+		return this;
+	}
 	
 	/**
 	 * Let the client use Confirmable requests.
@@ -874,7 +892,7 @@ public class CoapClient {
 	public CoapObserveRelation observeAndWait(Request request, CoapHandler handler) {
 		if (request.getOptions().hasObserve()) {
 			Endpoint outEndpoint = getEffectiveEndpoint(request);
-			CoapObserveRelation relation = new CoapObserveRelation(request, outEndpoint);
+			CoapObserveRelation relation = new CoapObserveRelation(request, outEndpoint, reregistrationScheduler);
 			request.addMessageObserver(new ObserveMessageObserverImpl(handler, relation));
 			CoapResponse response = synchronous(request, outEndpoint);
 			if (response == null || !response.advanced().getOptions().hasObserve()) {
@@ -901,7 +919,7 @@ public class CoapClient {
 	public CoapObserveRelation observe(Request request, CoapHandler handler) {
 		if (request.getOptions().hasObserve()) {
 			Endpoint outEndpoint = getEffectiveEndpoint(request);
-			CoapObserveRelation relation = new CoapObserveRelation(request, outEndpoint);
+			CoapObserveRelation relation = new CoapObserveRelation(request, outEndpoint, reregistrationScheduler);
 			request.addMessageObserver(new ObserveMessageObserverImpl(handler, relation));
 			send(request, outEndpoint);
 			return relation;
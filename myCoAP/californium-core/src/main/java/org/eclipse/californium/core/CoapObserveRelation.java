@@ -23,12 +23,9 @@
  ******************************************************************************/
 package org.eclipse.californium.core;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,8 +33,8 @@ import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MessageObserver;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.observe.ObserveNotificationOrderer;
-import org.eclipse.californium.elements.util.DaemonThreadFactory;
 
 /**
  * A CoapObserveRelation is a client-side control handle. It represents a CoAP
@@ -50,9 +47,11 @@ public class CoapObserveRelation {
 	/** The logger. */
 	private static final Logger LOGGER = Logger.getLogger(CoapObserveRelation.class.getCanonicalName());
 
-	/** A executor service to schedule re-registrations */
-	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(//
-			new DaemonThreadFactory("CoapObserveRelation#")); //$NON-NLS-1$
+	/** The schedulers of re-registrations shared by default, by endpoint configuration */
+	private static final Map<NetworkConfig, ReregistrationScheduler> DEFAULT_SCHEDULERS = new WeakHashMap<NetworkConfig, ReregistrationScheduler>();
+
+	/** The scheduler of re-registrations, null until the default one is used */
+	private volatile ReregistrationScheduler scheduler;
 
 	/** The endpoint. */
 	private final Endpoint endpoint;
@@ -65,9 +64,6 @@ public class CoapObserveRelation {
 	 */
 	private final AtomicBoolean registrationPending = new AtomicBoolean(true);
 
-	/** The handle to re-register for Observe notifications */
-	private final AtomicReference<ScheduledFuture<?>> reregistrationHandle = new AtomicReference<ScheduledFuture<?>>();
-
 	/** The request. */
 	private volatile Request request;
 
@@ -87,9 +83,48 @@ public class CoapObserveRelation {
 	 * @param endpoint the endpoint
 	 */
 	protected CoapObserveRelation(Request request, Endpoint endpoint) {
+		this(request, endpoint, null);
+	}
+
+	/**
+	 * Constructs a new CoapObserveRelation with the specified request, which
+	 * is re-registered by the specified scheduler.
+	 *
+	 * @param request the request
+	 * @param endpoint the endpoint
+	 * @param scheduler the scheduler of re-registrations, or null to use the
+	 *            scheduler shared by the relations of endpoints with the same
+	 *            configuration
+	 */
+	protected CoapObserveRelation(Request request, Endpoint endpoint, ReregistrationScheduler scheduler) {
 		this.request = request;
 		this.endpoint = endpoint;
 		this.orderer = new ObserveNotificationOrderer();
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Gets the scheduler of re-registrations.
+	 * <p>
+	 * The scheduler shared by default is created from the configuration of
+	 * the endpoint on first use.
+	 *
+	 * @return the scheduler
+	 */
+	private ReregistrationScheduler getScheduler() {
+		ReregistrationScheduler current = scheduler;
+		if (current == null) {
+			NetworkConfig config = endpoint.getConfig();
+			synchronized (DEFAULT_SCHEDULERS) {
+				current = DEFAULT_SCHEDULERS.get(config);
+				if (current == null) {
+					current = new ReregistrationScheduler(config);
+					DEFAULT_SCHEDULERS.put(config, current);
+				}
+			}
+			scheduler = current;
+		}
+		return current;
 	}
 
 	/**
@@ -228,7 +263,7 @@ public class CoapObserveRelation {
 		this.canceled = canceled;
 
 		if (this.canceled) {
-			setReregistrationHandle(null);
+			getScheduler().cancel(this);
 		}
 	}
 
@@ -244,32 +279,20 @@ public class CoapObserveRelation {
 	protected boolean onResponse(CoapResponse response) {
 		if (null != response && orderer.isNew(response.advanced())) {
 			current = response;
-			prepareReregistration(response, 2000);
+			prepareReregistration(response);
 			registrationPending.set(false);
+			getScheduler().completed(this);
 			return true;
 		} else {
 			return false;
 		}
 	}
 
-	private void setReregistrationHandle(ScheduledFuture<?> reregistrationHandle) {
-		ScheduledFuture<?> previousHandle = this.reregistrationHandle.getAndSet(reregistrationHandle);
-		if (previousHandle != null) {
-			previousHandle.cancel(false);
-		}
-	}
-
-	private void prepareReregistration(CoapResponse response, long backoff) {
+	private void prepareReregistration(CoapResponse response) {
 		if (!isCanceled()) {
+			long backoff = endpoint.getConfig().getLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_BACKOFF);
 			long timeout = response.getOptions().getMaxAge() * 1000 + backoff;
-			ScheduledFuture<?> f = scheduler.schedule(new Runnable() {
-	
-				@Override
-				public void run() {
-					reregister();
-				}
-			}, timeout, TimeUnit.MILLISECONDS);
-			setReregistrationHandle(f);
+			getScheduler().schedule(this, timeout);
 		}
 	}
 }
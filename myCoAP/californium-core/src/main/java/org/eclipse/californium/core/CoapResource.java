@@ -31,6 +31,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -42,9 +43,14 @@ import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.CoAP.Code;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.eclipse.californium.core.observe.NotificationDispatcher;
+import org.eclipse.californium.core.observe.NotificationDispatcher.Notification;
+import org.eclipse.californium.core.observe.NotificationDispatcher.ObservedResource;
 import org.eclipse.californium.core.observe.ObserveNotificationOrderer;
 import org.eclipse.californium.core.observe.ObserveRelation;
 import org.eclipse.californium.core.observe.ObserveRelationContainer;
@@ -160,6 +166,9 @@ public  class CoapResource implements Resource {
 	/* The type used for notifications (no change when set to null) */
 	private Type observeType = null;
 	
+	/* Indicates whether notifications are rendered once for all observers of a representation. */
+	private volatile boolean notificationFanOut;
+	
 	/* The list of observers (not CoAP observer). */
 	private List<ResourceObserver> observers;
 
@@ -169,6 +178,32 @@ public  class CoapResource implements Resource {
 	/* The notification orderer. */
 	private ObserveNotificationOrderer notificationOrderer;
 	
+	/* The dispatcher notifying the observe relations (executor of this resource when set to null). */
+	private volatile NotificationDispatcher notificationDispatcher;
+	
+	/* The view of this resource for the notification dispatcher. */
+	private final ObservedResource observedResource = new ObservedResource() {
+
+		@Override
+		public Iterable<ObserveRelation> getObserveRelations() {
+			return observeRelations;
+		}
+
+		@Override
+		public Notification startNotification() {
+			return CoapResource.this.startNotification();
+		}
+	};
+	
+	/* The notification reprocessing the request of a relation. */
+	private static final Notification REPROCESSING_NOTIFICATION = new Notification() {
+
+		@Override
+		public void notify(ObserveRelation relation) {
+			relation.notifyObservers();
+		}
+	};
+	
 	/**
 	 * Constructs a new resource with the specified name.
 	 *
@@ -681,6 +716,71 @@ public  class CoapResource implements Resource {
 		this.observeType = type;
 	}
 
+	/**
+	 * Checks whether notifications are rendered once for all observers
+	 * requesting the same representation.
+	 *
+	 * @return true if notifications are rendered once
+	 * @see #setNotificationFanOut(boolean)
+	 */
+	public boolean isNotificationFanOut() {
+		return notificationFanOut;
+	}
+
+	/**
+	 * Makes this resource render notifications once for all observers
+	 * requesting the same representation.
+	 * <p>
+	 * By default, {@link #changed()} reprocesses the request of each observer.
+	 * In fan-out mode, the request of only one observer per representation is
+	 * processed by {@link #handleGET(CoapExchange)}. Observers are considered
+	 * to request the same representation, if their requests have the same
+	 * Accept option, URI query, and ETags, so a <em>2.03 Valid</em>
+	 * notification is only copied for observers validating the same ETags.
+	 * All other observers receive a copy of the
+	 * resulting notification, which shares the serialized options and
+	 * payload, so only the message header is serialized for each observer.
+	 * <p>
+	 * The fan-out mode must therefore only be used, if the representation
+	 * does not depend on other properties of the request, e.g. the client's
+	 * address, and if the resource responds to GET requests using
+	 * {@link #handleGET(CoapExchange)}. If the handler does not respond
+	 * before it returns, or if the notification is transferred blockwise,
+	 * the request of each observer is processed.
+	 *
+	 * @param fanOut true to render notifications once
+	 */
+	public void setNotificationFanOut(boolean fanOut) {
+		this.notificationFanOut = fanOut;
+	}
+
+	/**
+	 * Gets the dispatcher notifying the observe relations of this resource.
+	 *
+	 * @return the dispatcher, or null, if the relations are notified by the
+	 *         executor of this resource
+	 */
+	public NotificationDispatcher getNotificationDispatcher() {
+		return notificationDispatcher;
+	}
+
+	/**
+	 * Sets the dispatcher notifying the observe relations of this resource.
+	 * <p>
+	 * A dispatcher notifies the relations in parallel, paces the
+	 * notifications, and coalesces changes, which occur while the relations
+	 * are being notified. This is intended for resources with a huge number
+	 * of observers. The requests are then reprocessed by the threads of the
+	 * dispatcher instead of the executor of this resource. A dispatcher may
+	 * be shared by several resources.
+	 *
+	 * @param dispatcher the dispatcher, or null, to notify the relations by
+	 *            the executor of this resource
+	 */
+	public void setNotificationDispatcher(NotificationDispatcher dispatcher) {
+		this.notificationDispatcher = dispatcher;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.californium.core.server.resources.Resource#addObserveRelation(org.eclipse.californium.core.observe.ObserveRelation)
 	 */
@@ -705,6 +805,20 @@ public  class CoapResource implements Resource {
 			obs.removedObserveRelation(relation);
 	}
 	
+	/**
+	 * Advances the Observe number of this resource's notifications to the
+	 * specified one, if it is newer than the current one.
+	 * <p>
+	 * This is used when observe relations are restored after a restart, so
+	 * that clients consider the following notifications newer than the ones
+	 * received before.
+	 * 
+	 * @param observe the Observe number
+	 */
+	public void advanceObserveNumber(int observe) {
+		notificationOrderer.advance(observe);
+	}
+
 	/**
 	 * Returns the number of observe relations that this resource has to CoAP
 	 * clients.
@@ -733,9 +847,11 @@ public  class CoapResource implements Resource {
 	 * Notifies a filtered set of CoAP clients that have established an observe
 	 * relation with this resource that the state has changed by reprocessing
 	 * their original request that has established the relation. The notification
-	 * is done by the executor of this resource or on the executor of its parent or
-	 * transitively ancestor. If no ancestor defines its own executor, the
-	 * thread that has called this method performs the notification.
+	 * is done by the notification dispatcher of this resource, if set.
+	 * Otherwise, it is done by the executor of this resource or on the executor
+	 * of its parent or transitively ancestor. If no ancestor defines its own
+	 * executor, the thread that has called this method performs the
+	 * notification.
 	 * 
 	 * @param filter filter to select set of relations. 
 	 *               <code>null</code>, if all clients should be notified.
@@ -743,6 +859,12 @@ public  class CoapResource implements Resource {
 	 * @see #changed()
 	 */
 	public void changed(final ObserveRelationFilter filter) {
+		NotificationDispatcher dispatcher = notificationDispatcher;
+		// use the threads of the dispatcher
+		if (dispatcher != null) {
+			dispatcher.changed(observedResource, filter);
+			return;
+		}
 		Executor executor = getExecutor();
 		// use thread from the protocol stage
 		if (executor == null) notifyObserverRelations(filter);
@@ -762,9 +884,117 @@ public  class CoapResource implements Resource {
 	 *               <code>null</code>, if all clients should be notified.
 	 */
 	protected void notifyObserverRelations(final ObserveRelationFilter filter) {
-		notificationOrderer.getNextObserveNumber();
+		Notification notification = startNotification();
 		for (ObserveRelation relation:observeRelations) {
-			if (null == filter || filter.accept(relation)) relation.notifyObservers();
+			if (null == filter || filter.accept(relation)) notification.notify(relation);
+		}
+	}
+
+	/**
+	 * Starts notifying the observe relations about the current state.
+	 * 
+	 * @return the notification to apply to the relations
+	 */
+	private Notification startNotification() {
+		notificationOrderer.getNextObserveNumber();
+		if (!notificationFanOut) {
+			return REPROCESSING_NOTIFICATION;
+		}
+		final ConcurrentMap<String, Response> templates = new ConcurrentHashMap<String, Response>();
+		return new Notification() {
+
+			@Override
+			public void notify(ObserveRelation relation) {
+				fanOutNotification(relation, templates);
+			}
+		};
+	}
+
+	/**
+	 * Notifies an observe relation, processing its request only if no other
+	 * relation has been notified about the same representation yet.
+	 * 
+	 * @param relation the relation to notify
+	 * @param templates the notifications rendered so far by representation
+	 */
+	private void fanOutNotification(final ObserveRelation relation, final ConcurrentMap<String, Response> templates) {
+		Exchange exchange = relation.getExchange();
+		String representation = getRepresentationKey(exchange.getRequest());
+		Response template = templates.get(representation);
+		if (template == null) {
+			template = renderNotification(relation);
+			if (template != null) {
+				templates.putIfAbsent(representation, template);
+			}
+		} else {
+			Response notification = new Response(template.getCode());
+			notification.setOptions(template.getOptions());
+			notification.setPayload(template.getPayload());
+			notification.setBodyBytes(template.getBodyBytes());
+			if (observeType != null) {
+				notification.setType(observeType);
+			}
+			exchange.sendResponse(notification);
+		}
+	}
+
+	/**
+	 * Notifies an observe relation by processing its request and creates a
+	 * template for the notifications of other relations from the response.
+	 * 
+	 * @param relation the relation to notify
+	 * @return the template, or null, if the request has not been responded to
+	 *         successfully while being processed or the response has been
+	 *         sent blockwise
+	 */
+	private Response renderNotification(final ObserveRelation relation) {
+		Exchange exchange = relation.getExchange();
+		if (exchange.getRequest().getCode() != Code.GET) {
+			relation.notifyObservers();
+			return null;
+		}
+		RenderingExchange rendering = new RenderingExchange(exchange, this);
+		handleGET(rendering);
+		Response response = rendering.response;
+		if (response == null || !CoAP.ResponseCode.isSuccess(response.getCode())) {
+			return null;
+		}
+		if (response.getOptions().hasBlock2()) {
+			// the blockwise layer has replaced the payload by the first block
+			return null;
+		}
+		Response template = new Response(response.getCode());
+		template.setOptions(response.getOptions());
+		template.setPayload(response.getPayload());
+		template.setBodyBytes(DataSerializer.getBodyByteArray(template));
+		return template;
+	}
+
+	private static String getRepresentationKey(final Request request) {
+		StringBuilder key = new StringBuilder();
+		key.append(request.getOptions().getAccept()).append('?').append(request.getOptions().getUriQueryString());
+		// a 2.03 Valid notification depends on the ETags of the request
+		for (byte[] etag : request.getOptions().getETags()) {
+			key.append('#').append(Utils.toHexString(etag));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * A CoapExchange keeping the response it has sent.
+	 */
+	private static final class RenderingExchange extends CoapExchange {
+
+		private Response response;
+
+		private RenderingExchange(final Exchange exchange, final CoapResource resource) {
+			super(exchange, resource);
+		}
+
+		@Override
+		public void respond(Response response) {
+			super.respond(response);
+			this.response = response;
 		}
 	}
 
@@ -222,6 +222,11 @@ public class CoapServer implements ServerInterface {
 		} else {
 			running = true;
 		}
+
+		if (deliverer instanceof ServerMessageDeliverer) {
+			// continue notifying the observers of the previous run
+			((ServerMessageDeliverer) deliverer).restoreObserveRelations(endpoints);
+		}
 	}
 
 	/**
@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+
+/**
+ * Schedules the re-registrations of {@link CoapObserveRelation}s.
+ * <p>
+ * The re-registrations are not scheduled one by one, but coalesced into time
+ * buckets, which are processed by a single timer thread shared by all
+ * relations. The timer thread is only kept while re-registrations are
+ * scheduled, so idle schedulers don't hold a thread. The due time of each re-registration is delayed by a random
+ * jitter, so relations, whose notifications have been received at the same
+ * time, are spread over several buckets instead of re-registering at once.
+ * <p>
+ * The number of pending re-registrations, i.e. re-registrations sent but not
+ * yet answered, is limited. Due re-registrations exceeding the limit are
+ * deferred until pending ones have completed.
+ */
+public class ReregistrationScheduler {
+
+	/** The logger. */
+	private static final Logger LOGGER = Logger.getLogger(ReregistrationScheduler.class.getCanonicalName());
+
+	/**
+	 * The time after which a pending re-registration is considered completed,
+	 * even if neither a response nor a failure has been reported.
+	 */
+	private static final long MAX_PENDING_MILLIS = 247 * 1000; // default exchange lifetime
+
+	private final long bucketMillis;
+	private final long jitterMillis;
+	private final int maxPending;
+	private final Random random = new Random();
+
+	/** The scheduled re-registrations by bucket, guarded by this */
+	private final TreeMap<Long, ArrayDeque<Entry>> buckets = new TreeMap<Long, ArrayDeque<Entry>>();
+	/** The scheduled re-registration of each relation */
+	private final ConcurrentMap<CoapObserveRelation, Entry> entries = new ConcurrentHashMap<CoapObserveRelation, Entry>();
+	/** The start time of the pending re-registrations */
+	private final ConcurrentMap<CoapObserveRelation, Long> pending = new ConcurrentHashMap<CoapObserveRelation, Long>();
+
+	private final Runnable tick = new Runnable() {
+
+		@Override
+		public void run() {
+			try {
+				reregisterDueRelations();
+			} catch (Throwable t) {
+				LOGGER.log(Level.WARNING, "Exception while re-registering observe relations", t);
+			}
+		}
+	};
+
+	/** The timer, null while no re-registrations are scheduled, guarded by this */
+	private ScheduledExecutorService timer;
+	private volatile boolean deferred;
+
+	/**
+	 * Creates a scheduler using the
+	 * {@link NetworkConfig.Keys#NOTIFICATION_REREGISTRATION_BUCKET},
+	 * {@link NetworkConfig.Keys#NOTIFICATION_REREGISTRATION_JITTER}, and
+	 * {@link NetworkConfig.Keys#NOTIFICATION_REREGISTRATION_MAX_PENDING} of a
+	 * configuration.
+	 *
+	 * @param config the configuration
+	 */
+	public ReregistrationScheduler(NetworkConfig config) {
+		this(config.getLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_BUCKET),
+				config.getLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_JITTER),
+				config.getInt(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_MAX_PENDING));
+	}
+
+	/**
+	 * Creates a scheduler.
+	 *
+	 * @param bucketMillis the width of the time buckets in milliseconds
+	 * @param jitterMillis the maximum random delay added to the due time of a
+	 *            re-registration in milliseconds, 0 for none
+	 * @param maxPending the maximum number of pending re-registrations
+	 * @throws IllegalArgumentException if the bucket width or the maximum
+	 *             number of pending re-registrations is &lt; 1 or the jitter
+	 *             is negative
+	 */
+	public ReregistrationScheduler(long bucketMillis, long jitterMillis, int maxPending) {
+		if (bucketMillis < 1) {
+			throw new IllegalArgumentException("Bucket width must be at least 1 ms");
+		} else if (jitterMillis < 0) {
+			throw new IllegalArgumentException("Jitter must not be negative");
+		} else if (maxPending < 1) {
+			throw new IllegalArgumentException("Maximum number of pending re-registrations must be at least 1");
+		}
+		this.bucketMillis = bucketMillis;
+		this.jitterMillis = jitterMillis;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Schedules the re-registration of a relation.
+	 * <p>
+	 * A re-registration already scheduled for the relation is replaced.
+	 *
+	 * @param relation the relation
+	 * @param delayMillis the delay in milliseconds, to which a random jitter
+	 *            is added
+	 */
+	public void schedule(CoapObserveRelation relation, long delayMillis) {
+		long due = System.currentTimeMillis() + delayMillis;
+		if (jitterMillis > 0) {
+			synchronized (random) {
+				due += (long) (random.nextDouble() * jitterMillis);
+			}
+		}
+		// round up, a relation is never re-registered before its due time
+		long bucket = (due + bucketMillis - 1) / bucketMillis;
+		Entry entry = new Entry(relation);
+		synchronized (this) {
+			Entry previous = entries.put(relation, entry);
+			if (previous != null) {
+				previous.canceled = true;
+			}
+			ArrayDeque<Entry> queue = buckets.get(bucket);
+			if (queue == null) {
+				queue = new ArrayDeque<Entry>();
+				buckets.put(bucket, queue);
+			}
+			queue.add(entry);
+			if (timer == null) {
+				timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("CoapObserveRelation#")); //$NON-NLS-1$
+				timer.scheduleWithFixedDelay(tick, bucketMillis, bucketMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Cancels the scheduled re-registration of a relation.
+	 * <p>
+	 * A pending re-registration of the relation is considered completed.
+	 *
+	 * @param relation the relation
+	 */
+	public void cancel(CoapObserveRelation relation) {
+		Entry entry = entries.remove(relation);
+		if (entry != null) {
+			entry.canceled = true;
+		}
+		completed(relation);
+	}
+
+	/**
+	 * Marks the pending re-registration of a relation as completed.
+	 *
+	 * @param relation the relation
+	 */
+	public void completed(CoapObserveRelation relation) {
+		if (pending.remove(relation) != null && deferred) {
+			ScheduledExecutorService timer = getTimer();
+			if (timer != null) {
+				timer.execute(tick);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of scheduled re-registrations.
+	 *
+	 * @return the number of re-registrations
+	 */
+	public int getScheduledCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of pending re-registrations.
+	 *
+	 * @return the number of re-registrations
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Stops the timer. Scheduled re-registrations are discarded.
+	 */
+	public synchronized void shutdown() {
+		if (timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+		buckets.clear();
+		entries.clear();
+		pending.clear();
+	}
+
+	private synchronized ScheduledExecutorService getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Checks, if the timer thread is running.
+	 *
+	 * @return true, if the timer is running
+	 */
+	synchronized boolean isTimerRunning() {
+		return timer != null;
+	}
+
+	/**
+	 * Re-registers the relations of all due buckets, as far as the maximum
+	 * number of pending re-registrations allows.
+	 */
+	void reregisterDueRelations() {
+		long now = System.currentTimeMillis();
+		// forget re-registrations, whose completion hasn't been reported
+		for (Iterator<Map.Entry<CoapObserveRelation, Long>> iterator = pending.entrySet().iterator(); iterator
+				.hasNext();) {
+			if (iterator.next().getValue() + MAX_PENDING_MILLIS < now) {
+				iterator.remove();
+			}
+		}
+		List<CoapObserveRelation> due = new ArrayList<CoapObserveRelation>();
+		synchronized (this) {
+			long available = maxPending - pending.size();
+			long current = now / bucketMillis;
+			deferred = false;
+			while (!buckets.isEmpty() && buckets.firstKey() <= current) {
+				ArrayDeque<Entry> queue = buckets.firstEntry().getValue();
+				while (!queue.isEmpty()) {
+					Entry entry = queue.peek();
+					if (!entry.canceled && due.size() >= available) {
+						deferred = true;
+						break;
+					}
+					queue.poll();
+					if (!entry.canceled && entries.remove(entry.relation, entry)) {
+						due.add(entry.relation);
+					}
+				}
+				if (!queue.isEmpty()) {
+					break;
+				}
+				buckets.pollFirstEntry();
+			}
+			if (buckets.isEmpty() && timer != null) {
+				// nothing left to do, the timer is started again by the next schedule
+				timer.shutdown();
+				timer = null;
+			}
+		}
+		for (CoapObserveRelation relation : due) {
+			pending.put(relation, now);
+			boolean sent = false;
+			try {
+				sent = relation.reregister();
+			} catch (IllegalStateException e) {
+				LOGGER.log(Level.FINE, "Cannot re-register observe relation: {0}", e.getMessage());
+			}
+			if (!sent) {
+				pending.remove(relation);
+			}
+		}
+		if (!due.isEmpty()) {
+			LOGGER.log(Level.FINER, "Re-registered {0} observe relations", due.size());
+		}
+	}
+
+	/**
+	 * A scheduled re-registration.
+	 */
+	private static final class Entry {
+
+		private final CoapObserveRelation relation;
+		private volatile boolean canceled;
+
+		private Entry(CoapObserveRelation relation) {
+			this.relation = relation;
+		}
+	}
+}
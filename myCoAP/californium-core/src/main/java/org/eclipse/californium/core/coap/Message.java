@@ -97,6 +97,12 @@ public abstract class Message {
 	/** The payload of this message. */
 	private byte[] payload;
 
+	/**
+	 * The decoder of the options and payload of a received message, which
+	 * are decoded on first access. {@code null}, if already decoded.
+	 */
+	private volatile BodyDecoder bodyDecoder;
+
 	/** The destination address of this message. */
 	private InetAddress destination;
 
@@ -127,6 +133,12 @@ public abstract class Message {
 	/** The serialized message as byte array. */
 	private byte[] bytes;
 
+	/**
+	 * The serialized options and payload, which may be shared with other
+	 * messages having the same options and payload.
+	 */
+	private byte[] bodyBytes;
+
 	/**
 	 * A list of all {@link ObserveManager} that should be notified when an
 	 * event for this message occurs. By default, this field is null
@@ -309,6 +321,7 @@ public abstract class Message {
 	 * @return the options
 	 */
 	public OptionSet getOptions() {
+		decodeBody();
 		if (options == null) {
 			options = new OptionSet();
 		}
@@ -317,14 +330,17 @@ public abstract class Message {
 
 	/**
 	 * Sets the set of options. This function makes a defensive copy of the
-	 * specified set of options.
+	 * specified set of options and clears the serialized
+	 * {@link #getBodyBytes() options and payload}.
 	 * Provides a fluent API to chain setters.
 	 * 
 	 * @param options the new options
 	 * @return this Message
 	 */
 	public Message setOptions(OptionSet options) {
+		decodeBody();
 		this.options = new OptionSet(options);
+		this.bodyBytes = null;
 		return this;
 	}
 
@@ -335,6 +351,7 @@ public abstract class Message {
 	 * @return the payload size
 	 */
 	public int getPayloadSize() {
+		decodeBody();
 		return payload == null ? 0 : payload.length;
 	}
 
@@ -344,6 +361,7 @@ public abstract class Message {
 	 * @return the payload
 	 */
 	public byte[] getPayload() {
+		decodeBody();
 		return payload;
 	}
 
@@ -354,6 +372,7 @@ public abstract class Message {
 	 * @return the payload as string
 	 */
 	public String getPayloadString() {
+		decodeBody();
 		if (payload==null)
 			return "";
 		return new String(payload, CoAP.UTF8_CHARSET);
@@ -361,6 +380,7 @@ public abstract class Message {
 
 	protected String getPayloadTracingString() {
 
+		decodeBody();
 		if (null == payload || 0 == payload.length) {
 			return "no payload";
 		}
@@ -404,7 +424,9 @@ public abstract class Message {
 	 */
 	public Message setPayload(String payload) {
 		if (payload == null) {
+			decodeBody();
 			this.payload = null;
+			this.bodyBytes = null;
 		} else {
 			setPayload(payload.getBytes(CoAP.UTF8_CHARSET));
 		}
@@ -412,17 +434,56 @@ public abstract class Message {
 	}
 
 	/**
-	 * Sets the payload.
+	 * Sets the payload and clears the serialized
+	 * {@link #getBodyBytes() options and payload}.
 	 * Provides a fluent API to chain setters.
 	 *
 	 * @param payload the new payload
 	 * @return this Message
 	 */
 	public Message setPayload(byte[] payload) {
+		decodeBody();
 		this.payload = payload;
+		this.bodyBytes = null;
 		return this;
 	}
 
+	/**
+	 * Sets the decoder of the options and payload of a received message.
+	 * <p>
+	 * The decoder is invoked once on the first access to the options or the
+	 * payload of this message. Used by parsers to defer the decoding of
+	 * messages, which may be dropped without ever looking at their options
+	 * or payload. Not part of the fluent API.
+	 *
+	 * @param decoder the decoder, or {@code null}, if options and payload
+	 *            have been set already.
+	 */
+	public void setBodyDecoder(BodyDecoder decoder) {
+		this.bodyDecoder = decoder;
+	}
+
+	/**
+	 * Decodes the options and payload, if a decoder is pending.
+	 */
+	private void decodeBody() {
+		if (bodyDecoder != null) {
+			synchronized (this) {
+				BodyDecoder decoder = bodyDecoder;
+				if (decoder != null) {
+					OptionSet decodedOptions = new OptionSet();
+					try {
+						payload = decoder.decode(decodedOptions);
+					} finally {
+						// don't invoke a failing decoder again on each access
+						options = decodedOptions;
+						bodyDecoder = null;
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Gets the destination address.
 	 *
@@ -634,6 +695,34 @@ public abstract class Message {
 		this.bytes = bytes;
 	}
 
+	/**
+	 * Gets the serialized options and payload of this message or null if not
+	 * serialized yet.
+	 *
+	 * @return the bytes of the serialized options and payload or null
+	 */
+	public byte[] getBodyBytes() {
+		return bodyBytes;
+	}
+
+	/**
+	 * Sets the bytes of the serialized options and payload.
+	 * <p>
+	 * If set, serializers only encode the header of this message and copy
+	 * the bytes as they are. This allows to encode the options and payload
+	 * once for several messages differing only in their header, e.g. the
+	 * notifications sent to the observers of a resource. The bytes must
+	 * therefore match the options and payload of this message. They are
+	 * cleared, if the options or the payload are replaced. Code changing
+	 * the options in place must clear them explicitly.
+	 * Not part of the fluent API.
+	 *
+	 * @param bodyBytes the serialized options and payload
+	 */
+	public void setBodyBytes(byte[] bodyBytes) {
+		this.bodyBytes = bodyBytes;
+	}
+
 	/**
 	 * Checks whether a given block offset falls into this message's payload.
 	 * 
@@ -761,4 +850,20 @@ public abstract class Message {
 		return list;
 	}
 
+	/**
+	 * Decoder for the options and the payload of a received message.
+	 *
+	 * @see Message#setBodyDecoder(BodyDecoder)
+	 */
+	public interface BodyDecoder {
+
+		/**
+		 * Decodes the options and the payload of a message.
+		 *
+		 * @param options the set to add the decoded options to.
+		 * @return the payload, or {@code null}, if the message has no
+		 *         payload.
+		 */
+		byte[] decode(OptionSet options);
+	}
 }
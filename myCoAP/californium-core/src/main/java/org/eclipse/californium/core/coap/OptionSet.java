@@ -21,10 +21,10 @@
  ******************************************************************************/
 package org.eclipse.californium.core.coap;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.eclipse.californium.core.Utils;
@@ -35,26 +35,34 @@ import org.eclipse.californium.core.Utils;
  * the CoAP, blockwise CoAP, observing CoAP and supports arbitrary defined
  * options.
  * <p>
+ * The repeatable options (If-Match, ETag, Location-Path, Uri-Path, Uri-Query
+ * and Location-Query) and the arbitrary options are kept in their encoded
+ * form in one byte array, indexed by a sorted array of (number, offset,
+ * length) entries. The lists returned for the repeatable options are views
+ * backed by this set.
+ * <p>
  * Notice that this class is not entirely thread-safe: hasObserve =&gt; (int) getObserve()
  */
 public final class OptionSet {
 
 	private static final int MAX_OBSERVE_NO = (1 << 24) - 1;
+	/**
+	 * Number of ints per entry: option number, offset and length of the value.
+	 */
+	private static final int ENTRY_SIZE = 3;
+	/**
+	 * Initial size of the array of values.
+	 */
+	private static final int INITIAL_VALUES_SIZE = 32;
 	/*
 	 * Options defined by the CoAP protocol
 	 */
-	private List<byte[]> if_match_list;
 	private String       uri_host;
-	private List<byte[]> etag_list;
 	private boolean      if_none_match; // true if option is set
 	private Integer      uri_port; // null if no port is explicitly defined
-	private List<String> location_path_list;
-	private List<String> uri_path_list;
 	private Integer      content_format;
 	private Long         max_age; // (0-4 bytes)
-	private List<String> uri_query_list;
 	private Integer      accept;
-	private List<String> location_query_list;
 	private String       proxy_uri;
 	private String       proxy_scheme;
 	private BlockOption  block1;
@@ -62,28 +70,26 @@ public final class OptionSet {
 	private Integer      size1;
 	private Integer      size2;
 	private Integer      observe;
-	
-	// Arbitrary options
-	private List<Option> others;
-	
-	// TODO: When receiving, uri_host/port should be those from the sender 
+
 	/*
-	 * Once a list is touched and constructed it must never become null again.
-	 * Non-lists can be null though.
+	 * Repeatable and arbitrary options. The entries are sorted by option
+	 * number, entries with the same number are kept in the order they have
+	 * been added. The values of removed entries are dropped, when the values
+	 * array needs to grow.
 	 */
+	private int[]        entries; // (number, offset, length) per option
+	private int          entryCount;
+	private byte[]       values;
+	private int          valuesLength;
+
+	// TODO: When receiving, uri_host/port should be those from the sender 
 	public OptionSet() {
-		if_match_list       = null; // new LinkedList<byte[]>();
 		uri_host            = null; // from sender
-		etag_list           = null; // new LinkedList<byte[]>();
 		if_none_match       = false;
 		uri_port            = null; // from sender
-		location_path_list  = null; // new LinkedList<String>();
-		uri_path_list       = null; // new LinkedList<String>();
 		content_format      = null;
 		max_age             = null;
-		uri_query_list      = null; // new LinkedList<String>();
 		accept              = null;
-		location_query_list = null; // new LinkedList<String>();
 		proxy_uri           = null;
 		proxy_scheme        = null;
 		block1              = null;
@@ -91,36 +97,24 @@ public final class OptionSet {
 		size1               = null;
 		size2               = null;
 		observe             = null;
-		
-		others              = null; // new LinkedList<>();
 	}
 
 	public void clear() {
-		if (if_match_list != null)
-			if_match_list.clear();
 		uri_host = null;
-		if (etag_list != null)
-			etag_list.clear();
 		if_none_match = false;
 		uri_port = null;
-		if (location_path_list != null)
-			location_path_list.clear();
-		if (uri_path_list != null)
-			uri_path_list.clear();
 		content_format = null;
 		max_age = null;
-		if (uri_query_list != null)
-			uri_query_list.clear();
 		accept = null;
-		if (location_query_list != null)
-			location_path_list.clear();
 		proxy_uri = null;
 		proxy_scheme = null;
 		block1 = null;
 		block2 = null;
+		size1 = null;
+		size2 = null;
 		observe = null;
-		if (others != null)
-			others.clear();
+		entryCount = 0;
+		valuesLength = 0;
 	}
 
 	/**
@@ -129,18 +123,12 @@ public final class OptionSet {
 	 */
 	public OptionSet(OptionSet origin) {
 		if (origin == null) throw new NullPointerException();
-		if_match_list       = copyList(origin.if_match_list);
 		uri_host            = origin.uri_host;
-		etag_list           = copyList(origin.etag_list);
 		if_none_match       = origin.if_none_match;
 		uri_port            = origin.uri_port;
-		location_path_list  = copyList(origin.location_path_list);
-		uri_path_list       = copyList(origin.uri_path_list);
 		content_format      = origin.content_format;
 		max_age             = origin.max_age;
-		uri_query_list      = copyList(origin.uri_query_list);
 		accept              = origin.accept;
-		location_query_list = copyList(origin.location_query_list);
 		proxy_uri           = origin.proxy_uri;
 		proxy_scheme        = origin.proxy_scheme;
 		
@@ -150,34 +138,24 @@ public final class OptionSet {
 			block2          = new BlockOption(origin.block2);
 		
 		observe = origin.observe;
-		
-		others              = copyList(origin.others);
-	}
 
-	/**
-	 * Copy the specified list.
-	 * @param <T> the generic type
-	 * @param list the list
-	 * @return a copy of the list
-	 */
-	private <T> List<T> copyList(List<T> list) {
-		if (list == null) return null;
-		else return new LinkedList<T>(list);
+		if (origin.entryCount > 0) {
+			entries = Arrays.copyOf(origin.entries, origin.entryCount * ENTRY_SIZE);
+			entryCount = origin.entryCount;
+			values = Arrays.copyOf(origin.values, origin.valuesLength);
+			valuesLength = origin.valuesLength;
+		}
 	}
 
 	/////////////////////// Getter and Setter ///////////////////////
 
 	/**
 	 * Returns the list of If-Match ETags.
-	 * The OptionSet uses lazy initialization for this list.
+	 * The list is a view backed by this OptionSet.
 	 * @return the list of If-Match ETags
 	 */
 	public List<byte[]> getIfMatch() {
-		synchronized (this) {
-			if (if_match_list == null)
-				if_match_list = new LinkedList<byte[]>();
-		}
-		return if_match_list;
+		return new OpaqueValues(OptionNumberRegistry.IF_MATCH);
 	}
 
 	/**
@@ -185,7 +163,7 @@ public final class OptionSet {
 	 * @return the count
 	 */
 	public int getIfMatchCount() {
-		return getIfMatch().size();
+		return count(OptionNumberRegistry.IF_MATCH);
 	}
 
 	/**
@@ -198,13 +176,16 @@ public final class OptionSet {
 	 */
 	public boolean isIfMatch(byte[] check) {
 		
+		int from = lowerBound(OptionNumberRegistry.IF_MATCH);
+		int to = lowerBound(OptionNumberRegistry.IF_MATCH + 1);
+
 		// if no If-Match option is present, conditional update is allowed
-		if (if_match_list==null) return true;
+		if (from == to) return true;
 		
-		for (byte[] etag:if_match_list) {
+		for (int index = from; index < to; index++) {
 			// an empty If-Match option checks for existence of the resource
-			if (etag.length==0) return true;
-			if (Arrays.equals(etag, check)) return true;
+			if (entries[index * ENTRY_SIZE + 2] == 0) return true;
+			if (entryEquals(index, check)) return true;
 		}
 		return false;
 	}
@@ -222,7 +203,7 @@ public final class OptionSet {
 			throw new IllegalArgumentException("If-Match option must not be null");
 		if (etag.length > 8)
 			throw new IllegalArgumentException("If-Match option must be smaller or equal to 8 bytes: "+Utils.toHexString(etag));
-		getIfMatch().add(etag);
+		addEntry(OptionNumberRegistry.IF_MATCH, etag);
 		return this;
 	}
 
@@ -233,7 +214,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeIfMatch(byte[] etag) {
-		getIfMatch().remove(etag);
+		removeEntry(OptionNumberRegistry.IF_MATCH, etag);
 		return this;
 	}
 
@@ -243,7 +224,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet clearIfMatchs() {
-		getIfMatch().clear();
+		removeEntries(OptionNumberRegistry.IF_MATCH);
 		return this;
 	}
 
@@ -293,15 +274,11 @@ public final class OptionSet {
 	 * In a response, there MUST only be one ETag that defines the
 	 * payload or the resource given through the Location-* options.
 	 * In a request, there can be multiple ETags for validation.
-	 * The OptionSet uses lazy initialization for this list.
+	 * The list is a view backed by this OptionSet.
 	 * @return the list of ETags
 	 */
 	public List<byte[]> getETags() {
-		synchronized (this) {
-			if (etag_list == null)
-				etag_list = new LinkedList<byte[]>();
-		}
-		return etag_list;
+		return new OpaqueValues(OptionNumberRegistry.ETAG);
 	}
 
 	/**
@@ -309,7 +286,7 @@ public final class OptionSet {
 	 * @return the count
 	 */
 	public int getETagCount() {
-		return getETags().size();
+		return count(OptionNumberRegistry.ETAG);
 	}
 
 	/**
@@ -320,11 +297,7 @@ public final class OptionSet {
 	 * @return true if ETag is included
 	 */
 	public boolean containsETag(byte[] check) {
-		if (etag_list==null) return false;
-		for (byte[] etag:etag_list) {
-			if (Arrays.equals(etag, check)) return true;
-		}
-		return false;
+		return indexOf(OptionNumberRegistry.ETAG, check) >= 0;
 	}
 
 	/**
@@ -339,7 +312,7 @@ public final class OptionSet {
 		// TODO: ProxyHttp uses ETags that are larger than 8 bytes (20).
 //		if (opaque.length < 1 || 8 < opaque.length)
 //			throw new IllegalArgumentException("ETag option's length must be between 1 and 8 inclusive but was "+opaque.length);
-		getETags().add(etag);
+		addEntry(OptionNumberRegistry.ETAG, etag);
 		return this;
 	}
 
@@ -350,7 +323,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeETag(byte[] etag) {
-		getETags().remove(etag);
+		removeEntry(OptionNumberRegistry.ETAG, etag);
 		return this;
 	}
 
@@ -360,7 +333,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet clearETags() {
-		getETags().clear();
+		removeEntries(OptionNumberRegistry.ETAG);
 		return this;
 	}
 
@@ -424,15 +397,11 @@ public final class OptionSet {
 
 	/**
 	 * Returns the list of Location-Path segment strings.
-	 * The OptionSet uses lazy initialization for this list.
+	 * The list is a view backed by this OptionSet.
 	 * @return the list of Location-Path segments
 	 */
 	public List<String> getLocationPath() {
-		synchronized (this) {
-			if (location_path_list == null)
-				location_path_list = new LinkedList<String>();
-		}
-		return location_path_list;
+		return new StringValues(OptionNumberRegistry.LOCATION_PATH);
 	}
 
 	/**
@@ -468,7 +437,7 @@ public final class OptionSet {
 	 * @return the count
 	 */
 	public int getLocationPathCount() {
-		return getLocationPath().size();
+		return count(OptionNumberRegistry.LOCATION_PATH);
 	}
 
 	/**
@@ -480,9 +449,10 @@ public final class OptionSet {
 	public OptionSet addLocationPath(String segment) {
 		if (segment == null)
 			throw new IllegalArgumentException("Location-Path option must not be null");
-		if (segment.getBytes(CoAP.UTF8_CHARSET).length > 255)
+		byte[] value = segment.getBytes(CoAP.UTF8_CHARSET);
+		if (value.length > 255)
 			throw new IllegalArgumentException("Location-Path option must be smaller or euqal to 255 bytes (UTF-8 encoded): " + segment);
-		getLocationPath().add(segment);
+		addEntry(OptionNumberRegistry.LOCATION_PATH, value);
 		return this;
 	}
 
@@ -492,7 +462,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet clearLocationPath() {
-		getLocationPath().clear();
+		removeEntries(OptionNumberRegistry.LOCATION_PATH);
 		return this;
 	}
 
@@ -521,15 +491,11 @@ public final class OptionSet {
 
 	/**
 	 * Returns the list of Uri-Path segment strings.
-	 * The OptionSet uses lazy initialization for this list.
+	 * The list is a view backed by this OptionSet.
 	 * @return the list of Uri-Path segments
 	 */
 	public List<String> getUriPath() {
-		synchronized (this) {
-			if (uri_path_list == null)
-				uri_path_list = new LinkedList<String>();
-		}
-		return uri_path_list;
+		return new StringValues(OptionNumberRegistry.URI_PATH);
 	}
 
 	/**
@@ -550,7 +516,7 @@ public final class OptionSet {
 	 * @return the count
 	 */
 	public int getURIPathCount() {
-		return getUriPath().size();
+		return count(OptionNumberRegistry.URI_PATH);
 	}
 	
 	/**
@@ -585,9 +551,10 @@ public final class OptionSet {
 	public OptionSet addUriPath(String segment) {
 		if (segment == null)
 			throw new IllegalArgumentException("URI path option must not be null");
-		if (segment.getBytes(CoAP.UTF8_CHARSET).length > 255)
+		byte[] value = segment.getBytes(CoAP.UTF8_CHARSET);
+		if (value.length > 255)
 			throw new IllegalArgumentException("Uri-Path option must be smaller or euqal to 255 bytes (UTF-8 encoded): " + segment);
-		getUriPath().add(segment);
+		addEntry(OptionNumberRegistry.URI_PATH, value);
 		return this;
 	}
 
@@ -597,7 +564,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet clearUriPath() {
-		getUriPath().clear();
+		removeEntries(OptionNumberRegistry.URI_PATH);
 		return this;
 	}
 
@@ -697,15 +664,11 @@ public final class OptionSet {
 
 	/**
 	 * Returns the list of Uri-Query arguments.
-	 * The OptionSet uses lazy initialization for this list.
+	 * The list is a view backed by this OptionSet.
 	 * @return the list of query arguments
 	 */
 	public List<String> getUriQuery() {
-		synchronized (this) {
-			if (uri_query_list == null)
-				uri_query_list = new LinkedList<String>();
-		}
-		return uri_query_list;
+		return new StringValues(OptionNumberRegistry.URI_QUERY);
 	}
 
 	/**
@@ -713,7 +676,7 @@ public final class OptionSet {
 	 * @return the count
 	 */
 	public int getURIQueryCount() {
-		return getUriQuery().size();
+		return count(OptionNumberRegistry.URI_QUERY);
 	}
 
 	/**
@@ -758,9 +721,10 @@ public final class OptionSet {
 	public OptionSet addUriQuery(String argument) {
 		if (argument == null)
 			throw new NullPointerException("Uri-Query option must not be null");
-		if (argument.getBytes(CoAP.UTF8_CHARSET).length > 255)
+		byte[] value = argument.getBytes(CoAP.UTF8_CHARSET);
+		if (value.length > 255)
 			throw new IllegalArgumentException("Uri-Query option must be smaller or euqal to 255 bytes (UTF-8 encoded): " + argument);
-		getUriQuery().add(argument);
+		addEntry(OptionNumberRegistry.URI_QUERY, value);
 		return this;
 	}
 	
@@ -771,7 +735,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeUriQuery(String argument) {
-		getUriQuery().remove(argument);
+		removeEntry(OptionNumberRegistry.URI_QUERY, argument.getBytes(CoAP.UTF8_CHARSET));
 		return this;
 	}
 	
@@ -781,7 +745,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet clearUriQuery() {
-		getUriQuery().clear();
+		removeEntries(OptionNumberRegistry.URI_QUERY);
 		return this;
 	}
 	
@@ -838,15 +802,11 @@ public final class OptionSet {
 
 	/**
 	 * Returns the list of Location-Query arguments.
-	 * The OptionSet uses lazy initialization for this list.
+	 * The list is a view backed by this OptionSet.
 	 * @return the list of query arguments
 	 */
 	public List<String> getLocationQuery() {
-		synchronized (this) {
-			if (location_query_list == null)
-				location_query_list = new LinkedList<String>();
-		}
-		return location_query_list;
+		return new StringValues(OptionNumberRegistry.LOCATION_QUERY);
 	}
 
 	/**
@@ -854,7 +814,7 @@ public final class OptionSet {
 	 * @return the count
 	 */
 	public int getLocationQueryCount() {
-		return getLocationQuery().size();
+		return count(OptionNumberRegistry.LOCATION_QUERY);
 	}
 
 	/**
@@ -898,9 +858,10 @@ public final class OptionSet {
 	public OptionSet addLocationQuery(String argument) {
 		if (argument == null)
 			throw new NullPointerException("Location-Query option must not be null");
-		if (argument.getBytes(CoAP.UTF8_CHARSET).length > 255)
+		byte[] value = argument.getBytes(CoAP.UTF8_CHARSET);
+		if (value.length > 255)
 			throw new IllegalArgumentException("Location-Query option must be smaller or euqal to 255 bytes (UTF-8 encoded): " + argument);
-		getLocationQuery().add(argument);
+		addEntry(OptionNumberRegistry.LOCATION_QUERY, value);
 		return this;
 	}
 	
@@ -911,7 +872,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeLocationQuery(String argument) {
-		getLocationQuery().remove(argument);
+		removeEntry(OptionNumberRegistry.LOCATION_QUERY, argument.getBytes(CoAP.UTF8_CHARSET));
 		return this;
 	}
 	
@@ -921,7 +882,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet clearLocationQuery() {
-		getLocationQuery().clear();
+		removeEntries(OptionNumberRegistry.LOCATION_QUERY);
 		return this;
 	}
 
@@ -1264,26 +1225,42 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasOption(int number) {
-		return Collections.binarySearch(asSortedList(), new Option(number)) >= 0;
-	}
-
-	private List<Option> getOthersInternal() {
-		synchronized (this) {
-			if (others == null)
-				others = new LinkedList<Option>();
+		switch (number) {
+			case OptionNumberRegistry.URI_HOST:       return hasUriHost();
+			case OptionNumberRegistry.IF_NONE_MATCH:  return hasIfNoneMatch();
+			case OptionNumberRegistry.URI_PORT:       return hasUriPort();
+			case OptionNumberRegistry.CONTENT_FORMAT: return hasContentFormat();
+			case OptionNumberRegistry.MAX_AGE:        return hasMaxAge();
+			case OptionNumberRegistry.ACCEPT:         return hasAccept();
+			case OptionNumberRegistry.PROXY_URI:      return hasProxyUri();
+			case OptionNumberRegistry.PROXY_SCHEME:   return hasProxyScheme();
+			case OptionNumberRegistry.BLOCK1:         return hasBlock1();
+			case OptionNumberRegistry.BLOCK2:         return hasBlock2();
+			case OptionNumberRegistry.SIZE1:          return hasSize1();
+			case OptionNumberRegistry.SIZE2:          return hasSize2();
+			case OptionNumberRegistry.OBSERVE:        return hasObserve();
+			default:                                  return count(number) > 0;
 		}
-		return others;
 	}
 
 	/**
 	 * Returns list of other options.
 	 * 
-	 * The list is unmodifiable and not sorted.
+	 * The list is unmodifiable and sorted by option number.
 	 * 
 	 * @return list of other options.
 	 */
 	public List<Option> getOthers() {
-		List<Option> others = this.others;
+		List<Option> others = null;
+		for (int index = 0; index < entryCount; index++) {
+			int number = entries[index * ENTRY_SIZE];
+			if (!isRepeatable(number)) {
+				if (others == null) {
+					others = new ArrayList<Option>();
+				}
+				others.add(new Option(number, getEntryValue(index)));
+			}
+		}
 		if (others == null) {
 			return Collections.emptyList();
 		} else {
@@ -1299,30 +1276,20 @@ public final class OptionSet {
 	public List<Option> asSortedList() {
 		ArrayList<Option> options = new ArrayList<Option>();
 		
-		if (if_match_list != null) for (byte[] value:if_match_list)
-			options.add(new Option(OptionNumberRegistry.IF_MATCH, value));
+		for (int index = 0; index < entryCount; index++)
+			options.add(new Option(entries[index * ENTRY_SIZE], getEntryValue(index)));
 		if (hasUriHost())
 			options.add(new Option(OptionNumberRegistry.URI_HOST, getUriHost()));
-		if (etag_list != null) for (byte[] value:etag_list)
-			options.add(new Option(OptionNumberRegistry.ETAG, value));
 		if (hasIfNoneMatch())
 			options.add(new Option(OptionNumberRegistry.IF_NONE_MATCH));
 		if (hasUriPort())
 			options.add(new Option(OptionNumberRegistry.URI_PORT, getUriPort()));
-		if (location_path_list != null) for (String str:location_path_list)
-			options.add(new Option(OptionNumberRegistry.LOCATION_PATH, str));
-		if (uri_path_list != null) for (String str:uri_path_list)
-			options.add(new Option(OptionNumberRegistry.URI_PATH, str));
 		if (hasContentFormat())
 			options.add(new Option(OptionNumberRegistry.CONTENT_FORMAT, getContentFormat()));
 		if (hasMaxAge())
 			options.add(new Option(OptionNumberRegistry.MAX_AGE, getMaxAge()));
-		if (uri_query_list != null) for (String str:uri_query_list)
-			options.add(new Option(OptionNumberRegistry.URI_QUERY, str));
 		if (hasAccept())
 			options.add(new Option(OptionNumberRegistry.ACCEPT, getAccept()));
-		if (location_query_list != null) for (String str:location_query_list)
-			options.add(new Option(OptionNumberRegistry.LOCATION_QUERY, str));
 		if (hasProxyUri())
 			options.add(new Option(OptionNumberRegistry.PROXY_URI, getProxyUri()));
 		if (hasProxyScheme())
@@ -1340,13 +1307,117 @@ public final class OptionSet {
 		if (hasSize2())
 			options.add(new Option(OptionNumberRegistry.SIZE2, getSize2()));
 		
-		if (others != null)
-			options.addAll(others);
-		
 		Collections.sort(options);
 		return options;
 	}
 
+	/**
+	 * Receives the options of an {@link OptionSet} in the order of their
+	 * option numbers, without creating {@link Option} instances.
+	 *
+	 * @see OptionSet#accept(OptionVisitor)
+	 */
+	public interface OptionVisitor {
+
+		/**
+		 * Visits an option with an opaque or already encoded value.
+		 *
+		 * @param number the option number
+		 * @param value the array containing the value, must not be modified
+		 * @param offset the offset of the value within the array
+		 * @param length the length of the value
+		 */
+		void visitOpaque(int number, byte[] value, int offset, int length);
+
+		/**
+		 * Visits an option with a string value.
+		 *
+		 * @param number the option number
+		 * @param value the value, to be encoded in UTF-8
+		 */
+		void visitString(int number, String value);
+
+		/**
+		 * Visits an option with an unsigned integer value.
+		 *
+		 * @param number the option number
+		 * @param value the value, to be encoded in as few bytes as possible
+		 */
+		void visitUint(int number, long value);
+	}
+
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * Passes all options to a visitor sorted according to their option number.
+	 * <p>
+	 * The result is the same as iterating over {@link #asSortedList()}, but
+	 * no options are created and, unless other options are set, no list is
+	 * created.
+	 *
+	 * @param visitor the visitor
+	 */
+	public void accept(final OptionVisitor visitor) {
+		int entry = 0;
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.URI_HOST);
+		if (uri_host != null)
+			visitor.visitString(OptionNumberRegistry.URI_HOST, uri_host);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.IF_NONE_MATCH);
+		if (if_none_match)
+			visitor.visitOpaque(OptionNumberRegistry.IF_NONE_MATCH, EMPTY, 0, 0);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.OBSERVE);
+		Integer observe = this.observe;
+		if (observe != null)
+			visitor.visitUint(OptionNumberRegistry.OBSERVE, observe & 0xFFFFFFFFL);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.URI_PORT);
+		if (uri_port != null)
+			visitor.visitUint(OptionNumberRegistry.URI_PORT, uri_port & 0xFFFFFFFFL);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.CONTENT_FORMAT);
+		if (content_format != null)
+			visitor.visitUint(OptionNumberRegistry.CONTENT_FORMAT, content_format & 0xFFFFFFFFL);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.MAX_AGE);
+		if (max_age != null)
+			visitor.visitUint(OptionNumberRegistry.MAX_AGE, max_age);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.ACCEPT);
+		if (accept != null)
+			visitor.visitUint(OptionNumberRegistry.ACCEPT, accept & 0xFFFFFFFFL);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.BLOCK2);
+		if (block2 != null)
+			visitor.visitUint(OptionNumberRegistry.BLOCK2, encode(block2));
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.BLOCK1);
+		if (block1 != null)
+			visitor.visitUint(OptionNumberRegistry.BLOCK1, encode(block1));
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.SIZE2);
+		if (size2 != null)
+			visitor.visitUint(OptionNumberRegistry.SIZE2, size2 & 0xFFFFFFFFL);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.PROXY_URI);
+		if (proxy_uri != null)
+			visitor.visitString(OptionNumberRegistry.PROXY_URI, proxy_uri);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.PROXY_SCHEME);
+		if (proxy_scheme != null)
+			visitor.visitString(OptionNumberRegistry.PROXY_SCHEME, proxy_scheme);
+		entry = acceptEntries(visitor, entry, OptionNumberRegistry.SIZE1);
+		if (size1 != null)
+			visitor.visitUint(OptionNumberRegistry.SIZE1, size1 & 0xFFFFFFFFL);
+		acceptEntries(visitor, entry, Integer.MAX_VALUE);
+	}
+
+	private int acceptEntries(final OptionVisitor visitor, int index, final int limit) {
+		for (; index < entryCount; index++) {
+			int position = index * ENTRY_SIZE;
+			if (entries[position] >= limit) {
+				break;
+			}
+			visitor.visitOpaque(entries[position], values, entries[position + 1], entries[position + 2]);
+		}
+		return index;
+	}
+
+	private static long encode(final BlockOption block) {
+		// same bytes as BlockOption.getValue()
+		return (block.getNum() << 4) | (block.isM() ? 1 << 3 : 0) | block.getSzx();
+	}
+
 	/**
 	 * Allows adding arbitrary options. Known options are checked if they are repeatable.
 	 * @param option the Option object to add
@@ -1373,11 +1444,313 @@ public final class OptionSet {
 			case OptionNumberRegistry.SIZE1:          setSize1(option.getIntegerValue()); break;
 			case OptionNumberRegistry.SIZE2:          setSize2(option.getIntegerValue()); break;
 			case OptionNumberRegistry.OBSERVE:        setObserve(option.getIntegerValue()); break;
-			default: getOthersInternal().add(option);
+			default: addEntry(option.getNumber(), option.getValue());
 		}
 		return this;
 	}
 	
+	/////////////////////// Entries ///////////////////////
+
+	/**
+	 * Checks, if an option number is one of the repeatable options defined by
+	 * the CoAP protocol.
+	 */
+	private static boolean isRepeatable(final int number) {
+		switch (number) {
+			case OptionNumberRegistry.IF_MATCH:
+			case OptionNumberRegistry.ETAG:
+			case OptionNumberRegistry.LOCATION_PATH:
+			case OptionNumberRegistry.URI_PATH:
+			case OptionNumberRegistry.URI_QUERY:
+			case OptionNumberRegistry.LOCATION_QUERY:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Gets the index of the first entry with an option number not less than
+	 * the given number.
+	 */
+	private int lowerBound(final int number) {
+		int low = 0;
+		int high = entryCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (entries[mid * ENTRY_SIZE] < number) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int count(final int number) {
+		return lowerBound(number + 1) - lowerBound(number);
+	}
+
+	private byte[] getEntryValue(final int index) {
+		int position = index * ENTRY_SIZE;
+		int offset = entries[position + 1];
+		return Arrays.copyOfRange(values, offset, offset + entries[position + 2]);
+	}
+
+	private String getEntryString(final int index) {
+		int position = index * ENTRY_SIZE;
+		return new String(values, entries[position + 1], entries[position + 2], CoAP.UTF8_CHARSET);
+	}
+
+	private boolean entryEquals(final int index, final byte[] value) {
+		int position = index * ENTRY_SIZE;
+		int offset = entries[position + 1];
+		int length = entries[position + 2];
+		if (value == null || value.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (values[offset + i] != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the index of the first entry of an option number with the given
+	 * value.
+	 *
+	 * @return the index, or {@code -1}, if no such entry exists
+	 */
+	private int indexOf(final int number, final byte[] value) {
+		int to = lowerBound(number + 1);
+		for (int index = lowerBound(number); index < to; index++) {
+			if (entryEquals(index, value)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds an entry after all entries with the same option number.
+	 */
+	private void addEntry(final int number, final byte[] value) {
+		insertEntry(lowerBound(number + 1), number, value);
+	}
+
+	private void insertEntry(final int index, final int number, final byte[] value) {
+		int offset = appendValue(value);
+		if (entries == null) {
+			entries = new int[4 * ENTRY_SIZE];
+		} else if (entries.length == entryCount * ENTRY_SIZE) {
+			entries = Arrays.copyOf(entries, entries.length * 2);
+		}
+		int position = index * ENTRY_SIZE;
+		System.arraycopy(entries, position, entries, position + ENTRY_SIZE, (entryCount - index) * ENTRY_SIZE);
+		entries[position] = number;
+		entries[position + 1] = offset;
+		entries[position + 2] = value.length;
+		entryCount++;
+	}
+
+	private void setEntryValue(final int index, final byte[] value) {
+		int offset = appendValue(value);
+		int position = index * ENTRY_SIZE;
+		entries[position + 1] = offset;
+		entries[position + 2] = value.length;
+	}
+
+	private void removeEntry(final int number, final byte[] value) {
+		int index = indexOf(number, value);
+		if (index >= 0) {
+			removeEntries(index, index + 1);
+		}
+	}
+
+	private void removeEntries(final int number) {
+		removeEntries(lowerBound(number), lowerBound(number + 1));
+	}
+
+	private void removeEntries(final int from, final int to) {
+		if (from < to) {
+			System.arraycopy(entries, to * ENTRY_SIZE, entries, from * ENTRY_SIZE, (entryCount - to) * ENTRY_SIZE);
+			entryCount -= to - from;
+			if (entryCount == 0) {
+				valuesLength = 0;
+			}
+		}
+	}
+
+	/**
+	 * Appends a value to the values array. If the array is too small, the
+	 * values of the current entries are copied into a larger array, dropping
+	 * the values of removed entries.
+	 *
+	 * @return the offset of the value
+	 */
+	private int appendValue(final byte[] value) {
+		if (values == null) {
+			values = new byte[Math.max(INITIAL_VALUES_SIZE, value.length)];
+		} else if (values.length - valuesLength < value.length) {
+			int length = 0;
+			for (int index = 0; index < entryCount; index++) {
+				length += entries[index * ENTRY_SIZE + 2];
+			}
+			byte[] compacted = new byte[Math.max(INITIAL_VALUES_SIZE, 2 * (length + value.length))];
+			length = 0;
+			for (int index = 0; index < entryCount; index++) {
+				int position = index * ENTRY_SIZE;
+				System.arraycopy(values, entries[position + 1], compacted, length, entries[position + 2]);
+				entries[position + 1] = length;
+				length += entries[position + 2];
+			}
+			values = compacted;
+			valuesLength = length;
+		}
+		int offset = valuesLength;
+		System.arraycopy(value, 0, values, offset, value.length);
+		valuesLength += value.length;
+		return offset;
+	}
+
+	/**
+	 * A modifiable list view of the values of a repeatable option.
+	 */
+	private abstract class OptionValues<T> extends AbstractList<T> {
+
+		final int number;
+
+		private OptionValues(final int number) {
+			this.number = number;
+		}
+
+		protected abstract T decode(int index);
+
+		protected abstract byte[] encode(T element);
+
+		@Override
+		public int size() {
+			return count(number);
+		}
+
+		@Override
+		public T get(final int index) {
+			return decode(toEntryIndex(index));
+		}
+
+		@Override
+		public T set(final int index, final T element) {
+			int entry = toEntryIndex(index);
+			T previous = decode(entry);
+			setEntryValue(entry, encode(element));
+			return previous;
+		}
+
+		@Override
+		public void add(final int index, final T element) {
+			if (index < 0 || index > size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			}
+			insertEntry(lowerBound(number) + index, number, encode(element));
+			modCount++;
+		}
+
+		@Override
+		public T remove(final int index) {
+			int entry = toEntryIndex(index);
+			T previous = decode(entry);
+			removeEntries(entry, entry + 1);
+			modCount++;
+			return previous;
+		}
+
+		@Override
+		public void clear() {
+			removeEntries(number);
+			modCount++;
+		}
+
+		private int toEntryIndex(final int index) {
+			int size = size();
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return lowerBound(number) + index;
+		}
+	}
+
+	/**
+	 * List view of the values of a repeatable string option.
+	 */
+	private final class StringValues extends OptionValues<String> {
+
+		private StringValues(final int number) {
+			super(number);
+		}
+
+		@Override
+		protected String decode(final int index) {
+			return getEntryString(index);
+		}
+
+		@Override
+		protected byte[] encode(final String element) {
+			return element.getBytes(CoAP.UTF8_CHARSET);
+		}
+	}
+
+	/**
+	 * List view of the values of a repeatable opaque option. The values are
+	 * compared by content.
+	 */
+	private final class OpaqueValues extends OptionValues<byte[]> {
+
+		private OpaqueValues(final int number) {
+			super(number);
+		}
+
+		@Override
+		protected byte[] decode(final int index) {
+			return getEntryValue(index);
+		}
+
+		@Override
+		protected byte[] encode(final byte[] element) {
+			if (element == null) {
+				throw new NullPointerException();
+			}
+			return element;
+		}
+
+		@Override
+		public int indexOf(final Object o) {
+			if (o instanceof byte[]) {
+				int entry = OptionSet.this.indexOf(number, (byte[]) o);
+				if (entry >= 0) {
+					return entry - lowerBound(number);
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			return indexOf(o) >= 0;
+		}
+
+		@Override
+		public boolean remove(final Object o) {
+			int index = indexOf(o);
+			if (index >= 0) {
+				remove(index);
+				return true;
+			}
+			return false;
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
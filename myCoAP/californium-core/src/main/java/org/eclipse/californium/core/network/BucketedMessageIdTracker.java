@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+/**
+ * A helper for keeping track of message IDs using coarse-grained time
+ * buckets.
+ * <p>
+ * According to the
+ * <a href="https://tools.ietf.org/html/rfc7252#section-4.4">CoAP spec</a>
+ *
+ * <pre>
+ * The same Message ID MUST NOT be reused (in communicating with the
+   same endpoint) within the EXCHANGE_LIFETIME (Section 4.8.2).
+ * </pre>
+ *
+ * This implementation hands out MIDs strictly in sequence using an ever
+ * increasing counter. The time is split into buckets of
+ * {@code EXCHANGE_LIFETIME / }{@link #BUCKETS_PER_LIFETIME}, and for each
+ * bucket only the lowest counter value used within the bucket is kept. A MID
+ * may be reused, if its previous usage, i.e. the counter value minus
+ * {@link #TOTAL_NO_OF_MIDS}, lies before all buckets which ended less than
+ * {@code EXCHANGE_LIFETIME} ago. So, as with the
+ * {@link MapBasedMessageIdTracker}, each MID is blocked individually, for at
+ * most one bucket longer than the {@code EXCHANGE_LIFETIME}, but only a few
+ * bucket records are kept instead of a lease per MID.
+ * <p>
+ * Getting the next MID doesn't block, concurrent callers are coordinated
+ * using compare-and-set operations.
+ */
+public class BucketedMessageIdTracker implements MessageIdTracker {
+
+	/**
+	 * Number of time buckets per exchange lifetime.
+	 */
+	public static final int BUCKETS_PER_LIFETIME = 16;
+
+	/**
+	 * Number of bucket records, enough to cover all buckets which ended less
+	 * than the exchange lifetime ago.
+	 */
+	private static final int NUMBER_OF_RECORDS = BUCKETS_PER_LIFETIME + 3;
+
+	/**
+	 * Exchange lifetime. Value in nanoseconds.
+	 *
+	 * @see System#nanoTime()
+	 */
+	private final long exchangeLifetimeNanos;
+	/**
+	 * Duration of a bucket. Value in nanoseconds.
+	 */
+	private final long bucketNanos;
+	/**
+	 * Start of the first bucket.
+	 *
+	 * @see System#nanoTime()
+	 */
+	private final long startNanos;
+	/**
+	 * Initial counter value. Counter values below are never used.
+	 */
+	private final long initialCounter;
+	/**
+	 * Counter of the next MID. The MID is the counter masked to the 16 low
+	 * bits.
+	 */
+	private final AtomicLong counter;
+	/**
+	 * Records of recently used buckets. The bucket number modulo
+	 * {@link #NUMBER_OF_RECORDS} is used as index.
+	 */
+	private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(NUMBER_OF_RECORDS);
+
+	/**
+	 * Creates a new bucket based tracker.
+	 *
+	 * The following configuration value is used:
+	 * <ul>
+	 * <li>{@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#EXCHANGE_LIFETIME}
+	 * - each message ID returned by <em>getNextMessageId</em> is marked as
+	 * <em>in use</em> for this amount of time (ms).</li>
+	 * </ul>
+	 *
+	 * @param initialMid initial MID
+	 * @param config configuration
+	 */
+	public BucketedMessageIdTracker(int initialMid, NetworkConfig config) {
+		exchangeLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME));
+		bucketNanos = Math.max(1, exchangeLifetimeNanos / BUCKETS_PER_LIFETIME);
+		startNanos = System.nanoTime();
+		initialCounter = initialMid & 0x0000FFFF;
+		counter = new AtomicLong(initialCounter);
+	}
+
+	/**
+	 * Gets the next usable message ID.
+	 *
+	 * @return a message ID or {@code Message.NONE} if all message IDs are in
+	 *         use currently.
+	 */
+	public int getNextMessageId() {
+		while (true) {
+			long current = counter.get();
+			long now = System.nanoTime() - startNanos;
+			if (!isReleased(current - TOTAL_NO_OF_MIDS, now)) {
+				return Message.NONE;
+			}
+			// record before using the counter, so that the record is never
+			// missing. If another thread wins, the record is still a valid
+			// lower bound.
+			record(now / bucketNanos, current);
+			if (counter.compareAndSet(current, current + 1)) {
+				// a delayed thread may have read an outdated time
+				record((System.nanoTime() - startNanos) / bucketNanos, current);
+				// mask mid to the 16 low bits
+				return (int) (current & 0x0000FFFF);
+			}
+		}
+	}
+
+	/**
+	 * Checks, if a counter value was used before the exchange lifetime.
+	 *
+	 * @param previous the counter value
+	 * @param now the current time relative to the start
+	 * @return {@code true}, if the counter value was never used or its
+	 *         exchange lifetime has expired
+	 */
+	private boolean isReleased(final long previous, final long now) {
+		if (previous < initialCounter) {
+			return true;
+		}
+		// buckets ending before that time have expired
+		long expired = now - exchangeLifetimeNanos;
+		long oldestActive = expired < 0 ? Long.MIN_VALUE : expired / bucketNanos;
+		for (int index = 0; index < NUMBER_OF_RECORDS; index++) {
+			Bucket bucket = buckets.get(index);
+			if (bucket != null && bucket.number >= oldestActive && bucket.firstCounter.get() <= previous) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records the usage of a counter value in a bucket.
+	 *
+	 * @param number the number of the bucket
+	 * @param value the used counter value
+	 */
+	private void record(final long number, final long value) {
+		int index = (int) (number % NUMBER_OF_RECORDS);
+		Bucket bucket = buckets.get(index);
+		while (bucket == null || bucket.number < number) {
+			// replace the expired bucket
+			if (buckets.compareAndSet(index, bucket, new Bucket(number, value))) {
+				return;
+			}
+			bucket = buckets.get(index);
+		}
+		// a later bucket is fine as well, it only extends the lease
+		long first = bucket.firstCounter.get();
+		while (value < first && !bucket.firstCounter.compareAndSet(first, value)) {
+			first = bucket.firstCounter.get();
+		}
+	}
+
+	/**
+	 * Lowest counter value used within a time bucket.
+	 */
+	private static final class Bucket {
+
+		private final long number;
+		private final AtomicLong firstCounter;
+
+		private Bucket(final long number, final long firstCounter) {
+			this.number = number;
+			this.firstCounter = new AtomicLong(firstCounter);
+		}
+	}
+}
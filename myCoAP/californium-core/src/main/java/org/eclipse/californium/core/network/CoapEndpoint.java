@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,9 +72,14 @@ import org.eclipse.californium.elements.CorrelationContext;
 import org.eclipse.californium.elements.MessageCallback;
 import org.eclipse.californium.elements.RawData;
 import org.eclipse.californium.elements.RawDataChannel;
+import org.eclipse.californium.elements.ShardedUDPConnector;
 import org.eclipse.californium.elements.UDPConnector;
 import org.eclipse.californium.elements.tcp.TcpConnector;
 import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.eclipse.californium.elements.util.HashedWheelTimer;
+
+import eu.javaspecialists.tjsn.concurrency.stripedexecutor.StripedExecutorService;
+import eu.javaspecialists.tjsn.concurrency.stripedexecutor.StripedRunnable;
 
 /**
  * Endpoint encapsulates the stack that executes the CoAP protocol. Endpoint
@@ -130,7 +136,12 @@ import org.eclipse.californium.elements.util.DaemonThreadFactory;
  * </pre>
  * <p>
  * The endpoint and its layers use an {@link ScheduledExecutorService} to
- * execute tasks, e.g., when a request arrives.
+ * execute tasks, e.g., when a request arrives. If
+ * {@link NetworkConfig.Keys#PROTOCOL_STAGE_STRIPED} is enabled, received
+ * messages and outgoing requests are processed by a
+ * {@link StripedExecutorService} keyed by the peer's address instead, so
+ * messages of the same peer are processed in order while different peers are
+ * processed in parallel.
  */
 public class CoapEndpoint implements Endpoint {
 	
@@ -157,6 +168,19 @@ public class CoapEndpoint implements Endpoint {
 
 	/** The executor to run tasks for this endpoint and its layers */
 	private ScheduledExecutorService executor;
+
+	/**
+	 * The executor to process messages per peer in order, if
+	 * {@link NetworkConfig.Keys#PROTOCOL_STAGE_STRIPED} is enabled.
+	 */
+	private volatile StripedExecutorService stripedExecutor;
+
+	/**
+	 * The timer handed to the layers instead of the executor, if
+	 * {@link NetworkConfig.Keys#PROTOCOL_STAGE_TIMER} selects the hashed
+	 * wheel timer.
+	 */
+	private HashedWheelTimer timer;
 	
 	/** Indicates if the endpoint has been started */
 	private boolean started;
@@ -265,7 +289,7 @@ public class CoapEndpoint implements Endpoint {
 		this.connector = connector;
 		this.connector.setRawDataReceiver(new InboxImpl());
 		MessageExchangeStore localExchangeStore = (null != exchangeStore) ? exchangeStore
-				: new InMemoryMessageExchangeStore(config);
+				: createExchangeStore(config);
 
 		// To make TCP support backwards compatible using less clean "instanceof" shortcut in 1.1 branch.
 		// In 2.0 branch, the connector API has been expected to export a new isSchemeSupported(String scheme)
@@ -279,18 +303,59 @@ public class CoapEndpoint implements Endpoint {
 			this.matcher = new UdpMatcher(config, localExchangeStore);
 			this.coapstack = new CoapUdpStack(config, new OutboxImpl());
 			this.serializer = new UdpDataSerializer();
-			this.parser = new UdpDataParser();
+			this.parser = new UdpDataParser(config.getBoolean(NetworkConfig.Keys.UDP_LAZY_PARSING));
+		}
+	}
+
+	/**
+	 * Creates a new message exchange store based on the value of the
+	 * {@link NetworkConfig.Keys#EXCHANGE_STORE} configuration property.
+	 *
+	 * @param config the configuration
+	 * @return the store
+	 */
+	static MessageExchangeStore createExchangeStore(final NetworkConfig config) {
+		String type = config.getString(NetworkConfig.Keys.EXCHANGE_STORE, NetworkConfig.Keys.EXCHANGE_STORE_IN_MEMORY);
+		switch (type) {
+		case NetworkConfig.Keys.EXCHANGE_STORE_PACKED_KEYS:
+			return new PackedKeyMessageExchangeStore(config);
+		case NetworkConfig.Keys.EXCHANGE_STORE_IN_MEMORY:
+			return new InMemoryMessageExchangeStore(config);
+		default:
+			LOGGER.log(Level.WARNING, "configuration contains unsupported exchange store type {0}, using {1}",
+					new Object[] { type, NetworkConfig.Keys.EXCHANGE_STORE_IN_MEMORY });
+			return new InMemoryMessageExchangeStore(config);
 		}
 	}
 
 	/**
 	 * Creates a new UDP connector.
+	 * <p>
+	 * If {@link NetworkConfig.Keys#UDP_CONNECTOR_SHARDS} is larger than one, a
+	 * {@link ShardedUDPConnector} is created instead of a plain
+	 * {@link UDPConnector}. If the JVM does not support {@code SO_REUSEPORT}
+	 * (before Java 9), a plain {@link UDPConnector} is created and a warning
+	 * is logged.
 	 *
 	 * @param address the address
 	 * @param config the configuration
 	 * @return the connector
 	 */
 	private static Connector createUDPConnector(final InetSocketAddress address, final NetworkConfig config) {
+		int shards = config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_SHARDS);
+		if (shards > 1 && !ShardedUDPConnector.isReusePortSupported()) {
+			LOGGER.log(Level.WARNING, "SO_REUSEPORT requires Java 9 or newer, using a single UDP socket instead of {0}",
+					shards);
+		} else if (shards > 1) {
+			ShardedUDPConnector c = new ShardedUDPConnector(address, shards);
+
+			c.setReceiveBufferSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_RECEIVE_BUFFER));
+			c.setSendBufferSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_SEND_BUFFER));
+			c.setReceiverPacketSize(config.getInt(NetworkConfig.Keys.UDP_CONNECTOR_DATAGRAM_SIZE));
+
+			return c;
+		}
+
 		UDPConnector c = new UDPConnector(address);
 
 		c.setReceiverThreadCount(config.getInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT));
@@ -335,6 +400,16 @@ public class CoapEndpoint implements Endpoint {
 					executor.shutdown();
 				}
 			});
+		} else if (timer == null && isHashedWheelTimerConfigured()) {
+			// the timer has been shut down by a previous destroy()
+			setExecutor(executor);
+		}
+
+		if (this.stripedExecutor == null && config.getBoolean(NetworkConfig.Keys.PROTOCOL_STAGE_STRIPED)) {
+			int threads = config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT);
+			LOGGER.log(Level.CONFIG, "Endpoint [{0}] uses striped protocol stage with {1} threads",
+					new Object[] { getAddress(), threads });
+			stripedExecutor = new StripedExecutorService(threads);
 		}
 
 		try {
@@ -395,6 +470,14 @@ public class CoapEndpoint implements Endpoint {
 		}
 		connector.destroy();
 		coapstack.destroy();
+		if (stripedExecutor != null) {
+			stripedExecutor.shutdown();
+			stripedExecutor = null;
+		}
+		if (timer != null) {
+			timer.shutdown();
+			timer = null;
+		}
 		for (EndpointObserver obs : observers) {
 			obs.destroyed(this);
 		}
@@ -414,7 +497,22 @@ public class CoapEndpoint implements Endpoint {
 	public synchronized void setExecutor(final ScheduledExecutorService executor) {
 		// TODO: don't we need to stop and shut down the previous executor?
 		this.executor = executor;
-		this.coapstack.setExecutor(executor);
+		if (timer != null) {
+			timer.shutdown();
+			timer = null;
+		}
+		if (isHashedWheelTimerConfigured()) {
+			timer = new HashedWheelTimer(new DaemonThreadFactory("CoapEndpoint-Timer#"), executor,
+					config.getInt(NetworkConfig.Keys.HASHED_WHEEL_TIMER_TICK), TimeUnit.MILLISECONDS,
+					config.getInt(NetworkConfig.Keys.HASHED_WHEEL_TIMER_TICKS_PER_WHEEL));
+			this.coapstack.setExecutor(timer);
+		} else {
+			this.coapstack.setExecutor(executor);
+		}
+	}
+
+	private boolean isHashedWheelTimerConfigured() {
+		return NetworkConfig.Keys.TIMER_HASHED_WHEEL.equals(config.getString(NetworkConfig.Keys.PROTOCOL_STAGE_TIMER));
 	}
 
 	@Override
@@ -444,25 +542,35 @@ public class CoapEndpoint implements Endpoint {
 
 	@Override
 	public void sendRequest(final Request request) {
+		// stripe by destination, so the request is ordered with the peer's inbound messages
+		InetSocketAddress peer = null;
+		if (stripedExecutor != null && request.getDestination() != null) {
+			peer = new InetSocketAddress(request.getDestination(), request.getDestinationPort());
+		}
 		// always use endpoint executor
 		runInProtocolStage(new Runnable() {
 			@Override
 			public void run() {
 				coapstack.sendRequest(request);
 			}
-		});
+		}, peer);
 	}
 
 	@Override
 	public void sendResponse(final Exchange exchange, final Response response) {
 		if (exchange.hasCustomExecutor()) {
+			// stripe by destination, so the response is ordered with the peer's inbound messages
+			InetSocketAddress peer = null;
+			if (stripedExecutor != null && response.getDestination() != null) {
+				peer = new InetSocketAddress(response.getDestination(), response.getDestinationPort());
+			}
 			// handle sending by protocol stage instead of business logic stage
 			runInProtocolStage(new Runnable() {
 				@Override
 				public void run() {
 					coapstack.sendResponse(exchange, response);
 				}
-			});
+			}, peer);
 		} else {
 			// use same thread to save switching overhead
 			coapstack.sendResponse(exchange, response);
@@ -641,7 +749,7 @@ public class CoapEndpoint implements Endpoint {
 					public void run() {
 						receiveMessage(raw);
 					}
-				});
+				}, raw.getInetSocketAddress());
 			}
 		}
 
@@ -797,15 +905,49 @@ public class CoapEndpoint implements Endpoint {
 	 * @param task the task
 	 */
 	private void runInProtocolStage(final Runnable task) {
-		executor.execute(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					task.run();
-				} catch (final Throwable t) {
-					LOGGER.log(Level.SEVERE, String.format("Exception in protocol stage thread: %s", t.getMessage()), t);
+		runInProtocolStage(task, null);
+	}
+
+	/**
+	 * Execute the specified task on the endpoint's protocol stage.
+	 * <p>
+	 * If the striped protocol stage is enabled and a peer is given, the task
+	 * is executed after all tasks previously submitted for the same peer.
+	 * Otherwise it is executed by the endpoint's executor.
+	 *
+	 * @param task the task
+	 * @param peer the peer the task is processed for, may be {@code null}
+	 */
+	private void runInProtocolStage(final Runnable task, final InetSocketAddress peer) {
+		final StripedExecutorService striped = stripedExecutor;
+		if (striped != null && peer != null) {
+			striped.execute(new StripedRunnable() {
+
+				@Override
+				public Object getStripe() {
+					return peer;
 				}
-			}
-		});
+
+				@Override
+				public void run() {
+					runSafely(task);
+				}
+			});
+		} else {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					runSafely(task);
+				}
+			});
+		}
+	}
+
+	private static void runSafely(final Runnable task) {
+		try {
+			task.run();
+		} catch (final Throwable t) {
+			LOGGER.log(Level.SEVERE, String.format("Exception in protocol stage thread: %s", t.getMessage()), t);
+		}
 	}
 }
@@ -699,6 +699,32 @@ public class Exchange {
 		public static KeyMID fromOutboundMessage(Message message) {
 			return new KeyMID(message.getMID(), message.getDestination().getAddress(), message.getDestinationPort());
 		}
+
+		/**
+		 * Creates a key from a message ID and an endpoint address.
+		 * 
+		 * @param mid the message ID.
+		 * @param address the endpoint's address.
+		 * @param port the endpoint's port.
+		 * @return the key.
+		 * @throws NullPointerException if address is {@code null}
+		 * @throws IllegalArgumentException if mid or port &lt; 0 or &gt; 65535.
+		 */
+		public static KeyMID fromValues(int mid, byte[] address, int port) {
+			return new KeyMID(mid, address, port);
+		}
+
+		int getMID() {
+			return MID;
+		}
+
+		byte[] getAddress() {
+			return address;
+		}
+
+		int getPort() {
+			return port;
+		}
 	}
 
 	/**
@@ -808,6 +834,18 @@ public class Exchange {
 		public byte[] getToken() {
 			return Arrays.copyOf(token, token.length);
 		}
+
+		byte[] getTokenBytes() {
+			return token;
+		}
+
+		byte[] getAddress() {
+			return address;
+		}
+
+		int getPort() {
+			return port;
+		}
 	}
 
 	/**
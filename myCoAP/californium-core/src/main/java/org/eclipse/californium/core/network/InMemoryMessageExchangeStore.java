@@ -27,6 +27,7 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -55,8 +56,8 @@ import org.eclipse.californium.elements.util.DaemonThreadFactory;
 public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 
 	private static final Logger LOGGER = Logger.getLogger(InMemoryMessageExchangeStore.class.getName());
-	private final ConcurrentMap<KeyMID, Exchange> exchangesByMID = new ConcurrentHashMap<>(); // for all
-	private final ConcurrentMap<KeyToken, Exchange> exchangesByToken = new ConcurrentHashMap<>(); // for outgoing
+	private final ConcurrentMap<KeyMID, Exchange> exchangesByMID; // for all
+	private final ConcurrentMap<KeyToken, Exchange> exchangesByToken; // for outgoing
 	private final ConcurrentMap<KeyUri, Exchange> ongoingExchanges = new ConcurrentHashMap<>();
 
 	private final NetworkConfig config;
@@ -87,6 +88,24 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	 * 
 	 */
 	public InMemoryMessageExchangeStore(final NetworkConfig config, TokenProvider tokenProvider) {
+		this(config, tokenProvider, new ConcurrentHashMap<KeyMID, Exchange>(),
+				new ConcurrentHashMap<KeyToken, Exchange>());
+	}
+
+	/**
+	 * Creates a new store for configuration values using the given maps to
+	 * keep the exchanges.
+	 * 
+	 * @param config the configuration to use.
+	 * @param tokenProvider the TokenProvider which provides CoAP tokens that
+	 *            are guaranteed to be not in use.
+	 * @param exchangesByMID the (empty) map to keep exchanges by MID.
+	 * @param exchangesByToken the (empty) map to keep exchanges by token.
+	 * 
+	 */
+	protected InMemoryMessageExchangeStore(final NetworkConfig config, final TokenProvider tokenProvider,
+			final ConcurrentMap<KeyMID, Exchange> exchangesByMID,
+			final ConcurrentMap<KeyToken, Exchange> exchangesByToken) {
 		if (config == null) {
 			throw new NullPointerException("Configuration must not be null");
 		}
@@ -95,6 +114,8 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		}
 		this.tokenProvider = tokenProvider;
 		this.config = config;
+		this.exchangesByMID = exchangesByMID;
+		this.exchangesByToken = exchangesByToken;
 	}
 
 	private void startStatusLogging() {
@@ -277,6 +298,11 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		return removedExchange;
 	}
 
+	@Override
+	public Exchange remove(final int mid, final InetAddress peer, final int port, final Exchange exchange) {
+		return remove(KeyMID.fromValues(mid, peer.getAddress(), port), exchange);
+	}
+
 	@Override
 	public Exchange get(final KeyToken token) {
 		if (token == null) {
@@ -286,6 +312,11 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		}
 	}
 
+	@Override
+	public Exchange get(final byte[] token, final InetAddress peer, final int port) {
+		return exchangesByToken.get(KeyToken.fromValues(token, peer.getAddress(), port));
+	}
+
 	@Override
 	public Exchange get(final KeyMID messageId) {
 		if (messageId == null) {
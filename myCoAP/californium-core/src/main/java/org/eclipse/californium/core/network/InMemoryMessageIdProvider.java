@@ -38,7 +38,7 @@ import org.eclipse.californium.elements.util.LeastRecentlyUsedCache;
 public class InMemoryMessageIdProvider implements MessageIdProvider {
 
 	enum TrackerMode {
-		NULL, GROUPED, MAPBASED
+		NULL, GROUPED, MAPBASED, BUCKETED
 	}
 
 	private final LeastRecentlyUsedCache<InetSocketAddress, MessageIdTracker> trackers;
@@ -54,8 +54,9 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 	 * <li>{@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#MID_TRACKER}
 	 * - determine the tracker mode. Supported values are "NULL" (for
 	 * {@link NullMessageIdTracker}), "GROUPED" (for
-	 * {@link GroupedMessageIdTracker}), and "MAPBASED" (for
-	 * {@link MapBasedMessageIdTracker}).</li>
+	 * {@link GroupedMessageIdTracker}), "MAPBASED" (for
+	 * {@link MapBasedMessageIdTracker}), and "BUCKETED" (for
+	 * {@link BucketedMessageIdTracker}).</li>
 	 * <li>{@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#MID_TRACKER_GROUPS}
 	 * - determine the group size for the message IDs, if the grouped tracker is
 	 * used. Each group is marked as <em>in use</em>, if a MID within the group
@@ -124,6 +125,9 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 			case MAPBASED:
 				tracker = new MapBasedMessageIdTracker(mid, config);
 				break;
+			case BUCKETED:
+				tracker = new BucketedMessageIdTracker(mid, config);
+				break;
 			case GROUPED:
 			default:
 				tracker = new GroupedMessageIdTracker(mid, config);
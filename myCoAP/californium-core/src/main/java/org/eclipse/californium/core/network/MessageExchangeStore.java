@@ -18,6 +18,8 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
+import java.net.InetAddress;
+
 import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.network.Exchange.KeyMID;
 import org.eclipse.californium.core.network.Exchange.KeyToken;
@@ -136,6 +138,21 @@ public interface MessageExchangeStore {
 	 */
 	Exchange remove(KeyMID messageId, Exchange exchange);
 
+	/**
+	 * Removes the exchange registered under a given message ID.
+	 * <p>
+	 * Equivalent to {@link #remove(KeyMID, Exchange)}, but doesn't require
+	 * the caller to create a key for the message ID.
+	 * 
+	 * @param mid the message ID to remove the exchange for.
+	 * @param peer the address of the peer the message ID is scoped to.
+	 * @param port the port of the peer the message ID is scoped to.
+	 * @param exchange Exchange to be removed. If {@code null}, the current
+	 *                 exchange with the MID is removed.
+	 * @return the removed exchange, or {@code null}, if no exchange was removed.
+	 */
+	Exchange remove(int mid, InetAddress peer, int port, Exchange exchange);
+
 	/**
 	 * Removes the exchange used for a blockwise transfer of a resource.
 	 * 
@@ -152,6 +169,19 @@ public interface MessageExchangeStore {
 	 */
 	Exchange get(KeyToken token);
 
+	/**
+	 * Gets the exchange registered under a given token.
+	 * <p>
+	 * Equivalent to {@link #get(KeyToken)}, but doesn't require the caller
+	 * to create a key for the token.
+	 * 
+	 * @param token the token under which the exchange has been registered.
+	 * @param peer the address of the peer the token is scoped to.
+	 * @param port the port of the peer the token is scoped to.
+	 * @return the exchange or {@code null} if no exchange exists for the given token.
+	 */
+	Exchange get(byte[] token, InetAddress peer, int port);
+
 	/**
 	 * Gets the exchange registered under a given message ID.
 	 * 
@@ -0,0 +1,628 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.KeyToken;
+
+/**
+ * A concurrent map of exchanges, which stores keys packed into four
+ * {@code long}s.
+ * <p>
+ * A key consists of the peer's address, packed into two words (IPv4 addresses
+ * as IPv4-mapped IPv6 addresses), the peer's port together with the MID or
+ * the token length, and the token of up to 8 bytes. The packed words of a
+ * message are calculated from its fields, so exchanges can be looked up
+ * without creating a key object, see {@link MessageIdMap} and
+ * {@link TokenMap}.
+ * <p>
+ * The map is split into segments. A segment is an open addressing hash table
+ * using linear probing, backed by primitive arrays. Adding an exchange
+ * therefore doesn't allocate an entry node, and looking up an exchange
+ * compares four {@code long}s instead of the key's byte arrays.
+ * <p>
+ * Lookups don't lock. The words of a key are written only once, before the
+ * exchange is published in the slot by a volatile write, and never change
+ * afterwards. A removed exchange leaves a marker in its slot, which is only
+ * reused by the same key. The markers are dropped, when the segment's table
+ * is rebuilt. Changes of a segment are serialized by its lock.
+ * <p>
+ * The {@link #entrySet()} is a snapshot and doesn't reflect later
+ * modifications of the map.
+ *
+ * @param <K> the key type
+ */
+abstract class PackedExchangeMap<K> extends AbstractMap<K, Exchange> implements ConcurrentMap<K, Exchange> {
+
+	private static final int MIN_CAPACITY = 16;
+	private static final int KEY_WORDS = 4;
+	private static final long IPV4_MAPPED = 0xffffL << 32;
+	/** the marker of a removed exchange */
+	private static final Object REMOVED = new Object();
+
+	private final Class<K> keyType;
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	/**
+	 * Creates a new map.
+	 *
+	 * @param keyType the type of the keys
+	 * @param concurrencyLevel the estimated number of concurrently updating
+	 *            threads. Rounded up to the next power of two.
+	 */
+	protected PackedExchangeMap(final Class<K> keyType, final int concurrencyLevel) {
+		int count = 1;
+		int bits = 0;
+		while (count < concurrencyLevel && bits < 16) {
+			count <<= 1;
+			bits++;
+		}
+		this.keyType = keyType;
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment();
+		}
+		this.segmentShift = 32 - bits;
+	}
+
+	/**
+	 * Packs a key.
+	 *
+	 * @param key the key
+	 * @return the four words of the key
+	 * @throws IllegalArgumentException if the key cannot be packed
+	 */
+	protected abstract long[] pack(K key);
+
+	/**
+	 * Unpacks a key.
+	 *
+	 * @param words the words of the key
+	 * @param offset the offset of the key's first word
+	 * @return the key
+	 */
+	protected abstract K unpack(long[] words, int offset);
+
+	/**
+	 * Creates a map for exchanges keyed by message ID.
+	 *
+	 * @param concurrencyLevel the estimated number of concurrently updating
+	 *            threads
+	 * @return the map
+	 */
+	static MessageIdMap forMessageIds(final int concurrencyLevel) {
+		return new MessageIdMap(concurrencyLevel);
+	}
+
+	/**
+	 * Creates a map for exchanges keyed by token.
+	 *
+	 * @param concurrencyLevel the estimated number of concurrently updating
+	 *            threads
+	 * @return the map
+	 */
+	static TokenMap forTokens(final int concurrencyLevel) {
+		return new TokenMap(concurrencyLevel);
+	}
+
+	/**
+	 * Gets the high word of a packed address.
+	 *
+	 * @param address the IPv4 or IPv6 address
+	 * @return the word
+	 * @throws IllegalArgumentException if the address has neither 4 nor 16
+	 *             bytes
+	 */
+	static long addressHigh(final byte[] address) {
+		if (address.length == 4) {
+			return 0;
+		} else if (address.length == 16) {
+			return toLong(address, 0, 8);
+		}
+		throw new IllegalArgumentException("Address must have 4 or 16 bytes");
+	}
+
+	/**
+	 * Gets the low word of a packed address.
+	 *
+	 * @param address the IPv4 or IPv6 address
+	 * @return the word
+	 * @throws IllegalArgumentException if the address has neither 4 nor 16
+	 *             bytes
+	 */
+	static long addressLow(final byte[] address) {
+		if (address.length == 4) {
+			return IPV4_MAPPED | toLong(address, 0, 4);
+		} else if (address.length == 16) {
+			return toLong(address, 8, 8);
+		}
+		throw new IllegalArgumentException("Address must have 4 or 16 bytes");
+	}
+
+	/**
+	 * Unpacks an address.
+	 *
+	 * @param high the high word
+	 * @param low the low word
+	 * @return the address, with 4 bytes, if it is an IPv4-mapped address
+	 */
+	static byte[] address(final long high, final long low) {
+		if (high == 0 && (low & 0xffffffff00000000L) == IPV4_MAPPED) {
+			return toBytes(low, 4);
+		}
+		byte[] address = new byte[16];
+		System.arraycopy(toBytes(high, 8), 0, address, 0, 8);
+		System.arraycopy(toBytes(low, 8), 0, address, 8, 8);
+		return address;
+	}
+
+	private static long toLong(final byte[] bytes, final int offset, final int length) {
+		long value = 0;
+		for (int i = offset; i < offset + length; i++) {
+			value = (value << 8) | (bytes[i] & 0xff);
+		}
+		return value;
+	}
+
+	private static byte[] toBytes(long value, final int length) {
+		byte[] bytes = new byte[length];
+		for (int i = length - 1; i >= 0; i--) {
+			bytes[i] = (byte) value;
+			value >>>= 8;
+		}
+		return bytes;
+	}
+
+	private static int hash(final long w0, final long w1, final long w2, final long w3) {
+		long h = ((w0 * 31 + w1) * 31 + w2) * 0x9E3779B97F4A7C15L + w3;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	private Segment segmentFor(final int hash) {
+		return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+	}
+
+	private K cast(final Object key) {
+		if (keyType.isInstance(key)) {
+			return keyType.cast(key);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Gets an exchange by the words of its key.
+	 */
+	final Exchange get(final long w0, final long w1, final long w2, final long w3) {
+		int hash = hash(w0, w1, w2, w3);
+		return segmentFor(hash).get(w0, w1, w2, w3, hash);
+	}
+
+	/**
+	 * Removes an exchange by the words of its key.
+	 *
+	 * @param expected the exchange to remove, or {@code null}, if any exchange
+	 *            should be removed
+	 * @return the removed exchange
+	 */
+	final Exchange remove(final long w0, final long w1, final long w2, final long w3, final Exchange expected) {
+		int hash = hash(w0, w1, w2, w3);
+		return segmentFor(hash).remove(w0, w1, w2, w3, hash, expected);
+	}
+
+	@Override
+	public Exchange get(final Object key) {
+		K k = cast(key);
+		if (k == null) {
+			return null;
+		}
+		long[] w = pack(k);
+		return get(w[0], w[1], w[2], w[3]);
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Exchange put(final K key, final Exchange value) {
+		return put(key, value, false);
+	}
+
+	@Override
+	public Exchange putIfAbsent(final K key, final Exchange value) {
+		return put(key, value, true);
+	}
+
+	private Exchange put(final K key, final Exchange value, final boolean onlyIfAbsent) {
+		if (key == null || value == null) {
+			throw new NullPointerException();
+		}
+		long[] w = pack(key);
+		int hash = hash(w[0], w[1], w[2], w[3]);
+		return segmentFor(hash).put(w[0], w[1], w[2], w[3], hash, value, onlyIfAbsent);
+	}
+
+	@Override
+	public Exchange remove(final Object key) {
+		K k = cast(key);
+		if (k == null) {
+			return null;
+		}
+		long[] w = pack(k);
+		return remove(w[0], w[1], w[2], w[3], null);
+	}
+
+	@Override
+	public boolean remove(final Object key, final Object value) {
+		K k = cast(key);
+		if (k == null || !(value instanceof Exchange)) {
+			return false;
+		}
+		long[] w = pack(k);
+		return remove(w[0], w[1], w[2], w[3], (Exchange) value) != null;
+	}
+
+	@Override
+	public boolean replace(final K key, final Exchange oldValue, final Exchange newValue) {
+		if (key == null || oldValue == null || newValue == null) {
+			throw new NullPointerException();
+		}
+		long[] w = pack(key);
+		int hash = hash(w[0], w[1], w[2], w[3]);
+		return segmentFor(hash).replace(w[0], w[1], w[2], w[3], hash, oldValue, newValue) != null;
+	}
+
+	@Override
+	public Exchange replace(final K key, final Exchange value) {
+		if (key == null || value == null) {
+			throw new NullPointerException();
+		}
+		long[] w = pack(key);
+		int hash = hash(w[0], w[1], w[2], w[3]);
+		return segmentFor(hash).replace(w[0], w[1], w[2], w[3], hash, null, value);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Segment segment : segments) {
+			if (segment.size > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<K, Exchange>> entrySet() {
+		final List<Map.Entry<K, Exchange>> entries = new ArrayList<>();
+		for (Segment segment : segments) {
+			Table table = segment.table;
+			for (int i = 0; i < table.values.length(); i++) {
+				Object value = table.values.get(i);
+				if (value != null && value != REMOVED) {
+					entries.add(new AbstractMap.SimpleImmutableEntry<>(unpack(table.keys, i * KEY_WORDS),
+							(Exchange) value));
+				}
+			}
+		}
+		return new AbstractSet<Map.Entry<K, Exchange>>() {
+
+			@Override
+			public Iterator<Map.Entry<K, Exchange>> iterator() {
+				return entries.iterator();
+			}
+
+			@Override
+			public int size() {
+				return entries.size();
+			}
+		};
+	}
+
+	/**
+	 * A map for exchanges keyed by message ID.
+	 */
+	static final class MessageIdMap extends PackedExchangeMap<KeyMID> {
+
+		private MessageIdMap(final int concurrencyLevel) {
+			super(KeyMID.class, concurrencyLevel);
+		}
+
+		/**
+		 * Gets an exchange without creating a key.
+		 *
+		 * @param mid the message ID
+		 * @param address the peer's address
+		 * @param port the peer's port
+		 * @return the exchange, or {@code null}, if not found
+		 */
+		Exchange get(final int mid, final byte[] address, final int port) {
+			return get(addressHigh(address), addressLow(address), word(mid, port), 0);
+		}
+
+		/**
+		 * Removes an exchange without creating a key.
+		 *
+		 * @param mid the message ID
+		 * @param address the peer's address
+		 * @param port the peer's port
+		 * @param expected the exchange to remove, or {@code null}, if any
+		 *            exchange should be removed
+		 * @return the removed exchange, or {@code null}, if not found
+		 */
+		Exchange remove(final int mid, final byte[] address, final int port, final Exchange expected) {
+			return remove(addressHigh(address), addressLow(address), word(mid, port), 0, expected);
+		}
+
+		private static long word(final int mid, final int port) {
+			return ((long) port << 16) | mid;
+		}
+
+		@Override
+		protected long[] pack(final KeyMID key) {
+			return new long[] { addressHigh(key.getAddress()), addressLow(key.getAddress()),
+					word(key.getMID(), key.getPort()), 0 };
+		}
+
+		@Override
+		protected KeyMID unpack(final long[] words, final int offset) {
+			int port = (int) (words[offset + 2] >>> 16);
+			int mid = (int) (words[offset + 2] & 0xffff);
+			return KeyMID.fromValues(mid, address(words[offset], words[offset + 1]), port);
+		}
+	}
+
+	/**
+	 * A map for exchanges keyed by token.
+	 */
+	static final class TokenMap extends PackedExchangeMap<KeyToken> {
+
+		private TokenMap(final int concurrencyLevel) {
+			super(KeyToken.class, concurrencyLevel);
+		}
+
+		/**
+		 * Gets an exchange without creating a key.
+		 *
+		 * @param token the token of up to 8 bytes
+		 * @param address the peer's address
+		 * @param port the peer's port
+		 * @return the exchange, or {@code null}, if not found
+		 */
+		Exchange get(final byte[] token, final byte[] address, final int port) {
+			if (token.length > 8) {
+				// can't have been registered
+				return null;
+			}
+			return get(addressHigh(address), addressLow(address), word(token, port), toLong(token, 0, token.length));
+		}
+
+		private static long word(final byte[] token, final int port) {
+			if (token.length > 8) {
+				throw new IllegalArgumentException("Token must not exceed 8 bytes");
+			}
+			return ((long) port << 8) | token.length;
+		}
+
+		@Override
+		protected long[] pack(final KeyToken key) {
+			byte[] token = key.getTokenBytes();
+			return new long[] { addressHigh(key.getAddress()), addressLow(key.getAddress()), word(token, key.getPort()),
+					toLong(token, 0, token.length) };
+		}
+
+		@Override
+		protected KeyToken unpack(final long[] words, final int offset) {
+			int port = (int) (words[offset + 2] >>> 8);
+			int length = (int) (words[offset + 2] & 0xff);
+			return KeyToken.fromValues(toBytes(words[offset + 3], length), address(words[offset], words[offset + 1]),
+					port);
+		}
+	}
+
+	/**
+	 * The arrays of a segment.
+	 */
+	private static final class Table {
+
+		/** the words of the keys, written once per slot */
+		private final long[] keys;
+		/** the exchanges, {@link PackedExchangeMap#REMOVED} for removed ones */
+		private final AtomicReferenceArray<Object> values;
+		private final int mask;
+		/** the number of slots, which have been used, guarded by the segment */
+		private int used;
+
+		private Table(final int capacity) {
+			keys = new long[capacity * KEY_WORDS];
+			values = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+		}
+
+		private boolean matches(final int index, final long w0, final long w1, final long w2, final long w3) {
+			int offset = index * KEY_WORDS;
+			return keys[offset] == w0 && keys[offset + 1] == w1 && keys[offset + 2] == w2 && keys[offset + 3] == w3;
+		}
+
+		/**
+		 * Gets the index of a key.
+		 *
+		 * @return the index of the key's slot, which may be marked as
+		 *         removed, or the negative index - 1 of the empty slot to add
+		 *         the key to
+		 */
+		private int indexOf(final long w0, final long w1, final long w2, final long w3, final int hash) {
+			int index = hash & mask;
+			while (values.get(index) != null) {
+				if (matches(index, w0, w1, w2, w3)) {
+					return index;
+				}
+				index = (index + 1) & mask;
+			}
+			return -index - 1;
+		}
+	}
+
+	/**
+	 * A segment of the map.
+	 */
+	private static final class Segment {
+
+		private volatile Table table = new Table(MIN_CAPACITY);
+		/** the number of exchanges, changed while holding the lock */
+		private volatile int size;
+
+		private Exchange get(final long w0, final long w1, final long w2, final long w3, final int hash) {
+			Table current = table;
+			int index = current.indexOf(w0, w1, w2, w3, hash);
+			if (index < 0) {
+				return null;
+			}
+			Object value = current.values.get(index);
+			return value == REMOVED ? null : (Exchange) value;
+		}
+
+		private synchronized Exchange put(final long w0, final long w1, final long w2, final long w3, final int hash,
+				final Exchange value, final boolean onlyIfAbsent) {
+			Table current = table;
+			int index = current.indexOf(w0, w1, w2, w3, hash);
+			if (index >= 0) {
+				Object previous = current.values.get(index);
+				if (previous != REMOVED) {
+					if (!onlyIfAbsent) {
+						current.values.set(index, value);
+					}
+					return (Exchange) previous;
+				}
+				// reuse the slot of the same key
+				current.values.set(index, value);
+			} else {
+				index = -index - 1;
+				int offset = index * KEY_WORDS;
+				current.keys[offset] = w0;
+				current.keys[offset + 1] = w1;
+				current.keys[offset + 2] = w2;
+				current.keys[offset + 3] = w3;
+				// publishes the key
+				current.values.set(index, value);
+				current.used++;
+			}
+			size++;
+			if (current.used * 4 >= current.values.length() * 3) {
+				rebuild(current);
+			}
+			return null;
+		}
+
+		private synchronized Exchange replace(final long w0, final long w1, final long w2, final long w3,
+				final int hash, final Exchange expected, final Exchange value) {
+			Table current = table;
+			int index = current.indexOf(w0, w1, w2, w3, hash);
+			if (index < 0) {
+				return null;
+			}
+			Object previous = current.values.get(index);
+			if (previous == REMOVED || (expected != null && previous != expected)) {
+				return null;
+			}
+			current.values.set(index, value);
+			return (Exchange) previous;
+		}
+
+		private synchronized Exchange remove(final long w0, final long w1, final long w2, final long w3,
+				final int hash, final Exchange expected) {
+			Table current = table;
+			int index = current.indexOf(w0, w1, w2, w3, hash);
+			if (index < 0) {
+				return null;
+			}
+			Object previous = current.values.get(index);
+			if (previous == REMOVED || (expected != null && previous != expected)) {
+				return null;
+			}
+			current.values.set(index, REMOVED);
+			size--;
+			return (Exchange) previous;
+		}
+
+		/**
+		 * Copies the exchanges to a new table without the removed ones and
+		 * publishes it.
+		 */
+		private void rebuild(final Table current) {
+			int capacity = MIN_CAPACITY;
+			while (capacity < 4 * size) {
+				capacity <<= 1;
+			}
+			Table rebuilt = new Table(capacity);
+			for (int i = 0; i < current.values.length(); i++) {
+				Object value = current.values.get(i);
+				if (value != null && value != REMOVED) {
+					int offset = i * KEY_WORDS;
+					long w0 = current.keys[offset];
+					long w1 = current.keys[offset + 1];
+					long w2 = current.keys[offset + 2];
+					long w3 = current.keys[offset + 3];
+					int index = -rebuilt.indexOf(w0, w1, w2, w3, hash(w0, w1, w2, w3)) - 1;
+					int target = index * KEY_WORDS;
+					rebuilt.keys[target] = w0;
+					rebuilt.keys[target + 1] = w1;
+					rebuilt.keys[target + 2] = w2;
+					rebuilt.keys[target + 3] = w3;
+					rebuilt.values.set(index, value);
+					rebuilt.used++;
+				}
+			}
+			table = rebuilt;
+		}
+
+		private synchronized void clear() {
+			table = new Table(MIN_CAPACITY);
+			size = 0;
+		}
+	}
+}
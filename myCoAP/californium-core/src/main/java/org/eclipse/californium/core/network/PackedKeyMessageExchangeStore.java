@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.net.InetAddress;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+/**
+ * A {@code MessageExchangeStore} that manages all exchanges in local memory
+ * using maps keyed by primitive values.
+ * <p>
+ * The exchanges are registered by MID and token in {@link PackedExchangeMap}s,
+ * which pack the MID (or token) together with the peer's address and port
+ * into four {@code long}s and keep them in open addressing tables. Compared to
+ * the {@link InMemoryMessageExchangeStore} this store doesn't allocate a map
+ * entry per registered exchange, looks up exchanges without locking and
+ * matches inbound messages without creating a key.
+ * <p>
+ * The store is used by a {@code CoapEndpoint}, if
+ * {@link NetworkConfig.Keys#EXCHANGE_STORE} is set to
+ * {@link NetworkConfig.Keys#EXCHANGE_STORE_PACKED_KEYS}.
+ */
+public class PackedKeyMessageExchangeStore extends InMemoryMessageExchangeStore {
+
+	private static final Logger LOGGER = Logger.getLogger(PackedKeyMessageExchangeStore.class.getName());
+
+	/**
+	 * The number of segments per available processor.
+	 */
+	private static final int SEGMENTS_PER_PROCESSOR = 4;
+
+	private final PackedExchangeMap.MessageIdMap exchangesByMID;
+	private final PackedExchangeMap.TokenMap exchangesByToken;
+
+	/**
+	 * Creates a new store for configuration values.
+	 *
+	 * @param config the configuration to use.
+	 *
+	 */
+	public PackedKeyMessageExchangeStore(final NetworkConfig config) {
+		this(config, new InMemoryRandomTokenProvider(config));
+		LOGGER.log(Level.CONFIG, "using default TokenProvider {0}", InMemoryRandomTokenProvider.class.getName());
+	}
+
+	/**
+	 * Creates a new store for configuration values.
+	 *
+	 * @param config the configuration to use.
+	 * @param tokenProvider the TokenProvider which provides CoAP tokens that
+	 *            are guaranteed to be not in use.
+	 *
+	 */
+	public PackedKeyMessageExchangeStore(final NetworkConfig config, final TokenProvider tokenProvider) {
+		this(config, tokenProvider, SEGMENTS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+	}
+
+	private PackedKeyMessageExchangeStore(final NetworkConfig config, final TokenProvider tokenProvider,
+			final int concurrencyLevel) {
+		this(config, tokenProvider, PackedExchangeMap.forMessageIds(concurrencyLevel),
+				PackedExchangeMap.forTokens(concurrencyLevel));
+	}
+
+	private PackedKeyMessageExchangeStore(final NetworkConfig config, final TokenProvider tokenProvider,
+			final PackedExchangeMap.MessageIdMap exchangesByMID, final PackedExchangeMap.TokenMap exchangesByToken) {
+		super(config, tokenProvider, exchangesByMID, exchangesByToken);
+		this.exchangesByMID = exchangesByMID;
+		this.exchangesByToken = exchangesByToken;
+	}
+
+	@Override
+	public Exchange remove(final int mid, final InetAddress peer, final int port, final Exchange exchange) {
+		Exchange removedExchange = exchangesByMID.remove(mid, peer.getAddress(), port, exchange);
+		if (null != removedExchange) {
+			LOGGER.log(Level.FINE, "removing exchange for MID {0}", new Object[] { mid });
+		}
+		return removedExchange;
+	}
+
+	@Override
+	public Exchange get(final byte[] token, final InetAddress peer, final int port) {
+		return exchangesByToken.get(token, peer.getAddress(), port);
+	}
+}
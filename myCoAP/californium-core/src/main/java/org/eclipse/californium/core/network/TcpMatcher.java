@@ -159,8 +159,7 @@ public final class TcpMatcher extends BaseMatcher {
 	@Override
 	public Exchange receiveResponse(final Response response, final CorrelationContext responseContext) {
 
-		final Exchange.KeyToken idByToken = Exchange.KeyToken.fromInboundMessage(response);
-		Exchange exchange = exchangeStore.get(idByToken);
+		Exchange exchange = exchangeStore.get(response.getToken(), response.getSource(), response.getSourcePort());
 
 		if (exchange == null) {
 			// There is no exchange with the given token - ignore response
@@ -170,7 +169,7 @@ public final class TcpMatcher extends BaseMatcher {
 		} else {
 			LOGGER.log(Level.INFO,
 					"Ignoring potentially forged response for token {0} with non-matching correlation context",
-					idByToken);
+					KeyToken.fromInboundMessage(response));
 			return null;
 		}
 	}
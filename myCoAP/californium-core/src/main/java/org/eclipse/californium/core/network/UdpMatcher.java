@@ -161,6 +161,11 @@ public final class UdpMatcher extends BaseMatcher {
 			}
 		}
 
+		// Record the Observe number of the latest notification of the relation
+		if (response.getOptions().hasObserve() && exchange.getRelation() != null) {
+			exchange.getRelation().notificationSent(response);
+		}
+
 		// Only CONs and Observe keep the exchange active (CoAP server side)
 		if (response.getType() != Type.CON && response.isLast()) {
 			exchange.setComplete();
@@ -276,16 +281,15 @@ public final class UdpMatcher extends BaseMatcher {
 		 * 		=> resend ACK
 		 */
 
-		KeyMID idByMID = KeyMID.fromInboundMessage(response);
-		KeyToken idByToken = KeyToken.fromInboundMessage(response);
 		LOGGER.log(Level.FINER, "received response {0}", response);
-		Exchange exchange = exchangeStore.get(idByToken);
+		// match by the response's fields, the keys are only created if required
+		Exchange exchange = exchangeStore.get(response.getToken(), response.getSource(), response.getSourcePort());
 
 		if (exchange == null) {
 			// There is no exchange with the given token.
 			if (response.getType() != Type.ACK) {
 				// only act upon separate (non piggy-backed) responses
-				Exchange prev = exchangeStore.find(idByMID);
+				Exchange prev = exchangeStore.find(KeyMID.fromInboundMessage(response));
 				if (prev != null) {
 					LOGGER.log(Level.FINER, "Received response for already completed exchange: {0}", response);
 					response.setDuplicate(true);
@@ -320,14 +324,16 @@ public final class UdpMatcher extends BaseMatcher {
 			// message deduplication is relevant for CON and NON messages only
 
 			if ((response.getType() == Type.CON || response.getType() == Type.NON) &&
-					exchangeStore.findPrevious(idByMID, exchange) != null) {
+					exchangeStore.findPrevious(KeyMID.fromInboundMessage(response), exchange) != null) {
 				LOGGER.log(Level.FINER, "Received duplicate response for open exchange: {0}", response);
 				response.setDuplicate(true);
 			} else {
 				// we have received the expected response for the original request
-				idByMID = KeyMID.fromOutboundMessage(exchange.getCurrentRequest());
-				if (exchangeStore.remove(idByMID, exchange) != null) {
-					LOGGER.log(Level.FINE, "Closed open request [{0}]", idByMID);
+				Request request = exchange.getCurrentRequest();
+				if (exchangeStore.remove(request.getMID(), request.getDestination(), request.getDestinationPort(),
+						exchange) != null) {
+					LOGGER.log(Level.FINE, "Closed open request [MID={0}, {1}:{2}]",
+							new Object[] { request.getMID(), request.getDestination(), request.getDestinationPort() });
 				}
 			}
 
@@ -335,7 +341,7 @@ public final class UdpMatcher extends BaseMatcher {
 		} else {
 			LOGGER.log(Level.INFO,
 					"Ignoring potentially forged response for token {0} with non-matching correlation context",
-					idByToken);
+					KeyToken.fromInboundMessage(response));
 			return null;
 		}
 	}
@@ -390,11 +396,11 @@ public final class UdpMatcher extends BaseMatcher {
 		// an empty ACK or RST always is received as a reply to a message
 		// exchange originating locally, i.e. the message will echo an MID
 		// that has been created here
-		KeyMID idByMID = KeyMID.fromInboundMessage(message);
-		Exchange exchange = exchangeStore.remove(idByMID, null);
+		Exchange exchange = exchangeStore.remove(message.getMID(), message.getSource(), message.getSourcePort(), null);
 
 		if (exchange != null) {
-			LOGGER.log(Level.FINE, "Received expected reply for message exchange {0}", idByMID);
+			LOGGER.log(Level.FINE, "Received expected reply for message exchange [MID={0}, {1}:{2}]",
+					new Object[] { message.getMID(), message.getSource(), message.getSourcePort() });
 		} else {
 			LOGGER.log(Level.FINER, "Ignoring non-matchable empty message from {0}:{1}: {2}",
 					new Object[] {message.getSource(), message.getSourcePort(), message});
@@ -409,8 +415,8 @@ public final class UdpMatcher extends BaseMatcher {
 			Response previous = iterator.next();
 			// notifications are local MID namespace
 			if (previous.hasMID()) {
-				KeyMID idByMID = KeyMID.fromOutboundMessage(previous);
-				exchangeStore.remove(idByMID, relation.getExchange());
+				exchangeStore.remove(previous.getMID(), previous.getDestination(), previous.getDestinationPort(),
+						relation.getExchange());
 			}
 			else {
 				previous.cancel();
@@ -450,8 +456,8 @@ public final class UdpMatcher extends BaseMatcher {
 					// need to try to remove its corresponding exchange from the store.
 				} else {
 					// in case an empty ACK was lost
-					KeyMID idByMID = KeyMID.fromOutboundMessage(originRequest);
-					exchangeStore.remove(idByMID, exchange);
+					exchangeStore.remove(originRequest.getMID(), originRequest.getDestination(),
+							originRequest.getDestinationPort(), exchange);
 				}
 
 				if (originRequest.getToken() == null) {
@@ -484,10 +490,11 @@ public final class UdpMatcher extends BaseMatcher {
 
 					// first remove the entry for the (separate) response's MID
 					if (response.hasMID()) {
-						KeyMID midKey = KeyMID.fromOutboundMessage(response);
-						exchangeStore.remove(midKey, exchange);
+						exchangeStore.remove(response.getMID(), response.getDestination(), response.getDestinationPort(),
+								exchange);
 
-						LOGGER.log(Level.FINER, "Exchange [{0}, {1}] completed", new Object[]{midKey, exchange.getOrigin()});
+						LOGGER.log(Level.FINER, "Exchange [MID={0}, {1}] completed",
+								new Object[] { response.getMID(), exchange.getOrigin() });
 					}
 					else {
 						// sometime proactive cancel requests and notifies are overlapping
@@ -156,11 +156,101 @@ public final class NetworkConfig {
 		public static final String NOTIFICATION_CHECK_INTERVAL_TIME = "NOTIFICATION_CHECK_INTERVAL";
 		public static final String NOTIFICATION_CHECK_INTERVAL_COUNT = "NOTIFICATION_CHECK_INTERVAL_COUNT";
 		public static final String NOTIFICATION_REREGISTRATION_BACKOFF = "NOTIFICATION_REREGISTRATION_BACKOFF";
+		/**
+		 * The width of the time buckets, in which the re-registrations of
+		 * {@link org.eclipse.californium.core.CoapObserveRelation}s are
+		 * coalesced, in milliseconds.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_NOTIFICATION_REREGISTRATION_BUCKET}.
+		 */
+		public static final String NOTIFICATION_REREGISTRATION_BUCKET = "NOTIFICATION_REREGISTRATION_BUCKET";
+		/**
+		 * The maximum random delay added to the re-registration of a
+		 * {@link org.eclipse.californium.core.CoapObserveRelation} in
+		 * milliseconds.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_NOTIFICATION_REREGISTRATION_JITTER}.
+		 */
+		public static final String NOTIFICATION_REREGISTRATION_JITTER = "NOTIFICATION_REREGISTRATION_JITTER";
+		/**
+		 * The maximum number of re-registrations of
+		 * {@link org.eclipse.californium.core.CoapObserveRelation}s sent, but
+		 * not yet answered.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_NOTIFICATION_REREGISTRATION_MAX_PENDING}.
+		 */
+		public static final String NOTIFICATION_REREGISTRATION_MAX_PENDING = "NOTIFICATION_REREGISTRATION_MAX_PENDING";
+		/**
+		 * The number of threads of a
+		 * {@link org.eclipse.californium.core.observe.NotificationDispatcher}.
+		 * <p>
+		 * The default value of this property is the number of processors.
+		 */
+		public static final String NOTIFICATION_DISPATCHER_THREAD_COUNT = "NOTIFICATION_DISPATCHER_THREAD_COUNT";
+		/**
+		 * The maximum number of notifications per second sent by a
+		 * {@link org.eclipse.californium.core.observe.NotificationDispatcher}.
+		 * A value of {@code 0} turns off the limit.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_NOTIFICATION_DISPATCHER_RATE}.
+		 */
+		public static final String NOTIFICATION_DISPATCHER_RATE = "NOTIFICATION_DISPATCHER_RATE";
+		/**
+		 * The maximum number of notifications per second sent to the same
+		 * endpoint by a
+		 * {@link org.eclipse.californium.core.observe.NotificationDispatcher}.
+		 * A value of {@code 0} turns off the limit.
+		 * <p>
+		 * The default value of this property is {@code 0}.
+		 */
+		public static final String NOTIFICATION_DISPATCHER_PEER_RATE = "NOTIFICATION_DISPATCHER_PEER_RATE";
 
 		public static final String USE_CONGESTION_CONTROL = "USE_CONGESTION_CONTROL";
 		public static final String CONGESTION_CONTROL_ALGORITHM = "CONGESTION_CONTROL_ALGORITHM";
 
 		public static final String PROTOCOL_STAGE_THREAD_COUNT = "PROTOCOL_STAGE_THREAD_COUNT";
+		/**
+		 * Process inbound messages on a striped executor keyed by the peer's
+		 * address.
+		 * <p>
+		 * If {@code true}, an endpoint processes all messages received from
+		 * the same peer (and all requests sent to it) strictly in order,
+		 * using {@link #PROTOCOL_STAGE_THREAD_COUNT} threads. Messages of
+		 * different peers are processed in parallel. Timers of the layers are
+		 * still executed by the endpoint's scheduled executor.
+		 * <p>
+		 * The default value of this property is {@code false}.
+		 */
+		public static final String PROTOCOL_STAGE_STRIPED = "PROTOCOL_STAGE_STRIPED";
+		/**
+		 * The timer used by the layers of the protocol stage to schedule
+		 * retransmissions and cleanup tasks.
+		 * <p>
+		 * Either {@link #TIMER_EXECUTOR} to schedule the tasks on the
+		 * endpoint's executor, or {@link #TIMER_HASHED_WHEEL} to use a hashed
+		 * wheel timer, which schedules and cancels tasks in constant time and
+		 * executes them on the endpoint's executor when due. The latter is
+		 * preferable with many outstanding exchanges, the timeouts are then
+		 * only as accurate as {@link #HASHED_WHEEL_TIMER_TICK}.
+		 * <p>
+		 * The default value of this property is {@link #TIMER_EXECUTOR}.
+		 */
+		public static final String PROTOCOL_STAGE_TIMER = "PROTOCOL_STAGE_TIMER";
+		public static final String TIMER_EXECUTOR = "EXECUTOR";
+		public static final String TIMER_HASHED_WHEEL = "HASHED_WHEEL";
+		/**
+		 * The duration of one tick of the hashed wheel timer (in
+		 * MILLISECONDS).
+		 */
+		public static final String HASHED_WHEEL_TIMER_TICK = "HASHED_WHEEL_TIMER_TICK";
+		/**
+		 * The number of buckets of the hashed wheel timer.
+		 */
+		public static final String HASHED_WHEEL_TIMER_TICKS_PER_WHEEL = "HASHED_WHEEL_TIMER_TICKS_PER_WHEEL";
 		public static final String NETWORK_STAGE_RECEIVER_THREAD_COUNT = "NETWORK_STAGE_RECEIVER_THREAD_COUNT";
 		public static final String NETWORK_STAGE_SENDER_THREAD_COUNT = "NETWORK_STAGE_SENDER_THREAD_COUNT";
 
@@ -168,6 +258,51 @@ public final class NetworkConfig {
 		public static final String UDP_CONNECTOR_RECEIVE_BUFFER = "UDP_CONNECTOR_RECEIVE_BUFFER";
 		public static final String UDP_CONNECTOR_SEND_BUFFER = "UDP_CONNECTOR_SEND_BUFFER";
 		public static final String UDP_CONNECTOR_OUT_CAPACITY = "UDP_CONNECTOR_OUT_CAPACITY";
+		/**
+		 * The number of UDP sockets bound to the endpoint's address using
+		 * SO_REUSEPORT.
+		 * <p>
+		 * A value larger than {@code 1} makes the endpoint use a
+		 * {@code ShardedUDPConnector}, which receives on each socket with its
+		 * own thread. The kernel assigns each peer to one of the sockets, so
+		 * the order of messages from a peer is preserved. Requires a JVM
+		 * supporting SO_REUSEPORT (Java 9 or newer), on older JVMs the
+		 * endpoint falls back to a single socket.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_UDP_CONNECTOR_SHARDS}.
+		 */
+		public static final String UDP_CONNECTOR_SHARDS = "UDP_CONNECTOR_SHARDS";
+		/**
+		 * Decode the options and payload of inbound UDP messages on first
+		 * access.
+		 * <p>
+		 * If {@code true}, the endpoint's parser only decodes the header and
+		 * token of a received message and checks the encoding and values of
+		 * its options without creating them. So duplicates and messages,
+		 * which are dropped by the matcher, are processed without decoding
+		 * their options and copying their payload.
+		 * <p>
+		 * The default value of this property is {@code false}.
+		 */
+		public static final String UDP_LAZY_PARSING = "UDP_LAZY_PARSING";
+
+		/**
+		 * The store an endpoint uses for keeping track of message exchanges,
+		 * if none is provided explicitly. Either
+		 * {@link #EXCHANGE_STORE_IN_MEMORY} or
+		 * {@link #EXCHANGE_STORE_PACKED_KEYS}.
+		 * <p>
+		 * The default value of this property is
+		 * {@link #EXCHANGE_STORE_IN_MEMORY}.
+		 */
+		public static final String EXCHANGE_STORE = "EXCHANGE_STORE";
+		public static final String EXCHANGE_STORE_IN_MEMORY = "EXCHANGE_STORE_IN_MEMORY";
+		/**
+		 * Keeps the exchanges in maps keyed by primitive values, see
+		 * {@link org.eclipse.californium.core.network.PackedKeyMessageExchangeStore}.
+		 */
+		public static final String EXCHANGE_STORE_PACKED_KEYS = "EXCHANGE_STORE_PACKED_KEYS";
 
 		public static final String DEDUPLICATOR = "DEDUPLICATOR";
 		public static final String DEDUPLICATOR_MARK_AND_SWEEP = "DEDUPLICATOR_MARK_AND_SWEEP";
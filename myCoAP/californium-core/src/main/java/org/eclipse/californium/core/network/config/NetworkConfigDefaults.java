@@ -51,6 +51,26 @@ public class NetworkConfigDefaults {
 	 */
 	public static final int DEFAULT_MAX_RESOURCE_BODY_SIZE = 2048; // bytes
 
+	/**
+	 * The default maximum number of notifications per second sent by a notification dispatcher.
+	 */
+	public static final int DEFAULT_NOTIFICATION_DISPATCHER_RATE = 10000;
+
+	/**
+	 * The default width of the time buckets, in which observe re-registrations are coalesced.
+	 */
+	public static final long DEFAULT_NOTIFICATION_REREGISTRATION_BUCKET = 1000; // ms
+
+	/**
+	 * The default maximum random delay added to an observe re-registration.
+	 */
+	public static final long DEFAULT_NOTIFICATION_REREGISTRATION_JITTER = 2000; // ms
+
+	/**
+	 * The default maximum number of pending observe re-registrations.
+	 */
+	public static final int DEFAULT_NOTIFICATION_REREGISTRATION_MAX_PENDING = 100;
+
 	/**
 	 * The default maximum amount of time (in milliseconds) between transfers of individual
 	 * blocks in a blockwise transfer before the blockwise transfer state is discarded.
@@ -60,7 +80,8 @@ public class NetworkConfigDefaults {
 	/**
 	 * The default MID tracker.
 	 * 
-	 * Supported values are {@code NULL}, {@code GROUPED}, or {@code MAPBASED}.
+	 * Supported values are {@code NULL}, {@code GROUPED}, {@code MAPBASED}, or
+	 * {@code BUCKETED}.
 	 * <p>
 	 * The default value is {@code GROUPED}.
 	 */
@@ -80,6 +101,13 @@ public class NetworkConfigDefaults {
 	 */
 	public static final long DEFAULT_EXCHANGE_LIFETIME = 247 * 1000;
 
+	/**
+	 * The default number of UDP sockets sharing the endpoint's address.
+	 * <p>
+	 * The default value is 1, i.e. a single socket without SO_REUSEPORT.
+	 */
+	public static final int DEFAULT_UDP_CONNECTOR_SHARDS = 1;
+
 	/*
 	 * Accept other message versions than 1
 	 * Refuse unknown options
@@ -122,11 +150,21 @@ public class NetworkConfigDefaults {
 		config.setLong(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_TIME, 24 * 60 * 60 * 1000); // ms
 		config.setInt(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_COUNT, 100);
 		config.setLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_BACKOFF, 2000); // ms
+		config.setLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_BUCKET, DEFAULT_NOTIFICATION_REREGISTRATION_BUCKET);
+		config.setLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_JITTER, DEFAULT_NOTIFICATION_REREGISTRATION_JITTER);
+		config.setInt(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_MAX_PENDING, DEFAULT_NOTIFICATION_REREGISTRATION_MAX_PENDING);
+		config.setInt(NetworkConfig.Keys.NOTIFICATION_DISPATCHER_THREAD_COUNT, CORES);
+		config.setInt(NetworkConfig.Keys.NOTIFICATION_DISPATCHER_RATE, DEFAULT_NOTIFICATION_DISPATCHER_RATE); // per second
+		config.setInt(NetworkConfig.Keys.NOTIFICATION_DISPATCHER_PEER_RATE, 0); // unlimited
 
 		config.setBoolean(NetworkConfig.Keys.USE_CONGESTION_CONTROL, false);
 		config.setString(NetworkConfig.Keys.CONGESTION_CONTROL_ALGORITHM, "Cocoa"); // see org.eclipse.californium.core.network.stack.congestioncontrol
 
 		config.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, CORES);
+		config.setBoolean(NetworkConfig.Keys.PROTOCOL_STAGE_STRIPED, false);
+		config.setString(NetworkConfig.Keys.PROTOCOL_STAGE_TIMER, NetworkConfig.Keys.TIMER_EXECUTOR);
+		config.setInt(NetworkConfig.Keys.HASHED_WHEEL_TIMER_TICK, 10); // ms
+		config.setInt(NetworkConfig.Keys.HASHED_WHEEL_TIMER_TICKS_PER_WHEEL, 512);
 		config.setInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT, WINDOWS ? CORES : 1);
 		config.setInt(NetworkConfig.Keys.NETWORK_STAGE_SENDER_THREAD_COUNT, WINDOWS ? CORES : 1);
 
@@ -134,7 +172,10 @@ public class NetworkConfigDefaults {
 		config.setInt(NetworkConfig.Keys.UDP_CONNECTOR_RECEIVE_BUFFER, UDPConnector.UNDEFINED);
 		config.setInt(NetworkConfig.Keys.UDP_CONNECTOR_SEND_BUFFER, UDPConnector.UNDEFINED);
 		config.setInt(NetworkConfig.Keys.UDP_CONNECTOR_OUT_CAPACITY, Integer.MAX_VALUE); // unbounded
+		config.setInt(NetworkConfig.Keys.UDP_CONNECTOR_SHARDS, DEFAULT_UDP_CONNECTOR_SHARDS);
+		config.setBoolean(NetworkConfig.Keys.UDP_LAZY_PARSING, false);
 
+		config.setString(NetworkConfig.Keys.EXCHANGE_STORE, NetworkConfig.Keys.EXCHANGE_STORE_IN_MEMORY);
 		config.setString(NetworkConfig.Keys.DEDUPLICATOR, NetworkConfig.Keys.DEDUPLICATOR_MARK_AND_SWEEP);
 		config.setLong(NetworkConfig.Keys.MARK_AND_SWEEP_INTERVAL, 10 * 1000); // 10 secs
 		config.setInt(NetworkConfig.Keys.CROP_ROTATION_PERIOD, 2000);
@@ -23,6 +23,8 @@
  ******************************************************************************/
 package org.eclipse.californium.core.network.serialization;
 
+import java.util.Arrays;
+
 import org.eclipse.californium.core.coap.*;
 import org.eclipse.californium.elements.RawData;
 import org.eclipse.californium.elements.util.DatagramReader;
@@ -31,9 +33,47 @@ import static org.eclipse.californium.core.coap.CoAP.MessageFormat.PAYLOAD_MARKE
 
 /**
  * A base class for parsing CoAP messages from a byte array.
+ * <p>
+ * A parser may be created in <em>lazy</em> mode. The encoding of the options
+ * is then only checked when parsing the message, and the options and payload
+ * are decoded on first access, see
+ * {@link Message#setBodyDecoder(Message.BodyDecoder)}. The option values are
+ * checked by the {@link OptionSet} when they are decoded, so in lazy mode an
+ * invalid value is reported by a {@link CoAPMessageFormatException} thrown on
+ * the first access of the options or the payload.
  */
 public abstract class DataParser {
 
+	private final boolean lazy;
+
+	/**
+	 * Creates a parser, which decodes the complete message.
+	 */
+	protected DataParser() {
+		this(false);
+	}
+
+	/**
+	 * Creates a parser.
+	 * 
+	 * @param lazy {@code true}, if the options and the payload should be
+	 *            decoded on first access, {@code false}, if they should be
+	 *            decoded when parsing the message.
+	 */
+	protected DataParser(final boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * Checks, if this parser decodes options and payload on first access.
+	 * 
+	 * @return {@code true}, if options and payload are decoded on first
+	 *         access.
+	 */
+	public final boolean isLazy() {
+		return lazy;
+	}
+
 	/**
 	 * Parses a byte array into a CoAP Message.
 	 * 
@@ -58,13 +98,14 @@ public abstract class DataParser {
 		String message = "illegal message code";
 		DatagramReader reader = new DatagramReader(msg);
 		MessageHeader header = parseHeader(reader);
+		int offset = msg.length - reader.bitsLeft() / Byte.SIZE;
 		try {
 			if (CoAP.isRequest(header.getCode())) {
-				return parseMessage(reader, header, new Request(CoAP.Code.valueOf(header.getCode())));
+				return parseMessage(msg, offset, header, new Request(CoAP.Code.valueOf(header.getCode())));
 			} else if (CoAP.isResponse(header.getCode())) {
-				return parseMessage(reader, header, new Response(CoAP.ResponseCode.valueOf(header.getCode())));
+				return parseMessage(msg, offset, header, new Response(CoAP.ResponseCode.valueOf(header.getCode())));
 			} else if (CoAP.isEmptyMessage(header.getCode())) {
-				return parseMessage(reader, header, new EmptyMessage(header.getType()));
+				return parseMessage(msg, offset, header, new EmptyMessage(header.getType()));
 			}
 		} catch (MessageFormatException e) {
 			/** use message to add CoAP message specific information */
@@ -73,12 +114,22 @@ public abstract class DataParser {
 		throw new CoAPMessageFormatException(message, header.getMID(), header.getCode(), CoAP.Type.CON == header.getType());
 	}
 
-	private static Message parseMessage(final DatagramReader source, final MessageHeader header, final Message target) {
+	private Message parseMessage(final byte[] msg, final int offset, final MessageHeader header, final Message target) {
 		target.setMID(header.getMID());
 		target.setType(header.getType());
 		target.setToken(header.getToken());
 
-		parseOptionsAndPayload(source, target);
+		if (lazy) {
+			// only check the encoding, options and payload are decoded on first access
+			if (offset < msg.length) {
+				LazyBody body = new LazyBody(msg, target);
+				body.payloadOffset = parseOptions(msg, offset, null, body, target);
+				target.setBodyDecoder(body);
+			}
+		} else if (offset < msg.length) {
+			int payloadOffset = parseOptions(msg, offset, target.getOptions(), null, target);
+			target.setPayload(payloadOf(msg, payloadOffset));
+		}
 		return target;
 	}
 
@@ -120,81 +171,174 @@ public abstract class DataParser {
 		}
 	}
 
-	private static void parseOptionsAndPayload(DatagramReader reader, Message message) {
+	/**
+	 * Parses the options of an encoded message.
+	 * 
+	 * @param msg the encoded message.
+	 * @param offset the offset of the first option.
+	 * @param options the set to add the options to, or {@code null}, if the
+	 *            options should only be recorded for lazy decoding.
+	 * @param body the body to record the options in, if options is
+	 *            {@code null}.
+	 * @param message the message, used for the details of a format error.
+	 * @return the offset of the payload, or the length of the encoded message,
+	 *         if the message has no payload.
+	 * @throws CoAPMessageFormatException if the options or the payload marker
+	 *             are not encoded properly, or an option added to the set has
+	 *             a value not accepted by the {@link OptionSet}.
+	 */
+	private static int parseOptions(final byte[] msg, final int offset, final OptionSet options, final LazyBody body,
+			final Message message) {
 		int currentOptionNumber = 0;
-		byte nextByte = 0;
-
-		while (reader.bytesAvailable()) {
-			nextByte = reader.readNextByte();
-			if (nextByte != PAYLOAD_MARKER) {
-				// the first 4 bits of the byte represent the option delta
-				int optionDeltaNibble = (0xF0 & nextByte) >> 4;
-				currentOptionNumber = calculateNextOptionNumber(reader, currentOptionNumber, optionDeltaNibble, message);
-
-				// the second 4 bits represent the option length
-				int optionLengthNibble = 0x0F & nextByte;
-				int optionLength = determineValueFromNibble(reader, optionLengthNibble, message);
-
-				// read option
-				if (reader.bytesAvailable(optionLength)) {
-					Option option = new Option(currentOptionNumber);
-					option.setValue(reader.readBytes(optionLength));
-
-					// add option to message
-					message.getOptions().addOption(option);
-				} else {
-					String msg = String.format(
-							"Message contains option of length %d with only fewer bytes left in the message",
-							optionLength);
-					throw new CoAPMessageFormatException(msg, message.getMID(), message.getRawCode(), message.isConfirmable());
+		int index = offset;
+
+		while (index < msg.length) {
+			byte nextByte = msg[index++];
+			if (nextByte == PAYLOAD_MARKER) {
+				// the presence of a marker followed by a zero-length payload must be processed as a message format error
+				if (index == msg.length) {
+					throw new CoAPMessageFormatException(
+							"Found payload marker (0xFF) but message contains no payload",
+							message.getMID(), message.getRawCode(), message.isConfirmable());
 				}
-			} else
-				break;
-		}
+				return index;
+			}
+			// the first 4 bits of the byte represent the option delta
+			int optionDeltaNibble = (0xF0 & nextByte) >> 4;
+			int delta = determineValueFromNibble(msg, index, optionDeltaNibble, message);
+			index += getExtendedSize(optionDeltaNibble);
+			currentOptionNumber += delta;
+
+			// the second 4 bits represent the option length
+			int optionLengthNibble = 0x0F & nextByte;
+			int optionLength = determineValueFromNibble(msg, index, optionLengthNibble, message);
+			index += getExtendedSize(optionLengthNibble);
 
-		if (nextByte == PAYLOAD_MARKER) {
-			// the presence of a marker followed by a zero-length payload must be processed as a message format error
-			if (!reader.bytesAvailable()) {
-				throw new CoAPMessageFormatException(
-						"Found payload marker (0xFF) but message contains no payload",
-						message.getMID(), message.getRawCode(), message.isConfirmable());
+			// read option
+			if (msg.length - index < optionLength) {
+				String text = String.format(
+						"Message contains option of length %d with only fewer bytes left in the message",
+						optionLength);
+				throw new CoAPMessageFormatException(text, message.getMID(), message.getRawCode(), message.isConfirmable());
+			}
+			if (options == null) {
+				body.addOption(currentOptionNumber, index, optionLength);
 			} else {
-				// get payload
-				message.setPayload(reader.readBytesLeft());
+				addOption(options, currentOptionNumber, msg, index, optionLength, message);
 			}
-		} else {
-			message.setPayload((String) null);
+			index += optionLength;
 		}
+		return index;
 	}
 
 	/**
-	 * Calculates the next option number based on the current option number and the option delta as specified in
-	 * RFC 7252, Section 3.1
-	 *
-	 * @param delta
-	 *            the 4-bit option delta value.
-	 * @return the next option number.
-	 * @throws MessageFormatException if the option number cannot be determined due to a message format error.
+	 * Adds an option to a set.
+	 * 
+	 * @param options the set.
+	 * @param number the option number.
+	 * @param msg the encoded message.
+	 * @param index the offset of the option value.
+	 * @param length the length of the option value.
+	 * @param message the message, used for the details of a format error.
+	 * @throws CoAPMessageFormatException if the value is not accepted by the
+	 *             set.
 	 */
-	private static int calculateNextOptionNumber(
-			final DatagramReader reader,
-			final int currentOptionNumber,
-			final int delta,
-			final Message message) {
-		return currentOptionNumber + determineValueFromNibble(reader, delta, message);
+	private static void addOption(final OptionSet options, final int number, final byte[] msg, final int index,
+			final int length, final Message message) {
+		Option option = new Option(number);
+		option.setValue(Arrays.copyOfRange(msg, index, index + length));
+		try {
+			options.addOption(option);
+		} catch (IllegalArgumentException e) {
+			throw new CoAPMessageFormatException(e.getMessage(), message.getMID(), message.getRawCode(),
+					message.isConfirmable());
+		}
+	}
+
+	private static byte[] payloadOf(final byte[] msg, final int payloadOffset) {
+		if (payloadOffset < msg.length) {
+			return Arrays.copyOfRange(msg, payloadOffset, msg.length);
+		} else {
+			return null;
+		}
 	}
 
-	private static int determineValueFromNibble(final DatagramReader reader, final int delta, final Message message) {
-		if (delta <= 12) {
-			return delta;
-		} else if (delta == 13) {
-			return reader.read(8) + 13;
-		} else if (delta == 14) {
-			return reader.read(16) + 269;
+	private static int getExtendedSize(final int nibble) {
+		if (nibble == 13) {
+			return 1;
+		} else if (nibble == 14) {
+			return 2;
 		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Determines the value of an option delta or length as specified in RFC
+	 * 7252, Section 3.1.
+	 * 
+	 * @param msg the encoded message.
+	 * @param index the offset of the extended value.
+	 * @param nibble the 4-bit value.
+	 * @param message the message, used for the details of a format error.
+	 * @return the option delta or length.
+	 * @throws CoAPMessageFormatException if the value cannot be determined
+	 *             due to a message format error.
+	 */
+	private static int determineValueFromNibble(final byte[] msg, final int index, final int nibble, final Message message) {
+		if (nibble <= 12) {
+			return nibble;
+		} else if (nibble == 15) {
+			throw new CoAPMessageFormatException(
+					"Message contains illegal option delta/length: " + nibble,
+					message.getMID(), message.getRawCode(), message.isConfirmable());
+		} else if (msg.length - index < getExtendedSize(nibble)) {
 			throw new CoAPMessageFormatException(
-					"Message contains illegal option delta/length: " + delta,
+					"Message contains truncated option delta/length: " + nibble,
 					message.getMID(), message.getRawCode(), message.isConfirmable());
+		} else if (nibble == 13) {
+			return (msg[index] & 0xFF) + 13;
+		} else {
+			return ((msg[index] & 0xFF) << 8 | (msg[index + 1] & 0xFF)) + 269;
+		}
+	}
+
+	/**
+	 * Options and payload of a message, which are decoded on first access.
+	 * <p>
+	 * The encoding of the options has been checked already when parsing the
+	 * message. Only the number and the position of each option value are
+	 * recorded, the values are checked when decoding them.
+	 */
+	private static final class LazyBody implements Message.BodyDecoder {
+
+		private final byte[] msg;
+		private final Message message;
+		/** the number, offset, and length of each option */
+		private int[] options = new int[3 * 4];
+		private int size;
+		private int payloadOffset;
+
+		private LazyBody(final byte[] msg, final Message message) {
+			this.msg = msg;
+			this.message = message;
+		}
+
+		private void addOption(final int number, final int index, final int length) {
+			if (size == options.length) {
+				options = Arrays.copyOf(options, 2 * size);
+			}
+			options[size++] = number;
+			options[size++] = index;
+			options[size++] = length;
+		}
+
+		@Override
+		public byte[] decode(final OptionSet optionSet) {
+			for (int i = 0; i < size; i += 3) {
+				DataParser.addOption(optionSet, options[i], msg, options[i + 1], options[i + 2], message);
+			}
+			return payloadOf(msg, payloadOffset);
 		}
 	}
 }
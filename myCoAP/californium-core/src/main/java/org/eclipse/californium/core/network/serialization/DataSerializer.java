@@ -27,7 +27,8 @@ import org.eclipse.californium.elements.RawData;
 import org.eclipse.californium.elements.util.DatagramWriter;
 
 import java.net.InetSocketAddress;
-import java.util.List;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.*;
 
@@ -88,16 +89,7 @@ public abstract class DataSerializer {
 	 * @return The encoded request.
 	 */
 	public final byte[] getByteArray(final Request request) {
-
-		DatagramWriter writer = new DatagramWriter();
-		byte[] body = serializeOptionsAndPayload(request);
-
-		MessageHeader header = new MessageHeader(CoAP.VERSION, request.getType(), request.getToken(),
-				request.getRawCode(), request.getMID(), body.length);
-		serializeHeader(writer, header);
-		writer.writeBytes(body);
-
-		return writer.toByteArray();
+		return toByteArray(request);
 	}
 
 	/**
@@ -108,16 +100,7 @@ public abstract class DataSerializer {
 	 */
 	public final RawData serializeResponse(final Response response) {
 		if (response.getBytes() == null) {
-			DatagramWriter writer = new DatagramWriter();
-			byte[] body = serializeOptionsAndPayload(response);
-
-			MessageHeader header = new MessageHeader(CoAP.VERSION, response.getType(), response.getToken(),
-					response.getCode().value, response.getMID(), body.length);
-			serializeHeader(writer, header);
-			writer.writeBytes(body);
-
-			byte[] bytes = writer.toByteArray();
-			response.setBytes(bytes);
+			response.setBytes(toByteArray(response));
 		}
 		return new RawData(response.getBytes(), response.getDestination(), response.getDestinationPort());
 	}
@@ -130,18 +113,80 @@ public abstract class DataSerializer {
 	 */
 	public final RawData serializeEmptyMessage(final EmptyMessage emptyMessage) {
 		if (emptyMessage.getBytes() == null) {
-			DatagramWriter writer = new DatagramWriter();
-			byte[] body = serializeOptionsAndPayload(emptyMessage);
+			emptyMessage.setBytes(toByteArray(emptyMessage));
+		}
+		return new RawData(emptyMessage.getBytes(), emptyMessage.getDestination(), emptyMessage.getDestinationPort());
+	}
 
-			MessageHeader header = new MessageHeader(CoAP.VERSION, emptyMessage.getType(), emptyMessage.getToken(), 0,
-					emptyMessage.getMID(), body.length);
-			serializeHeader(writer, header);
-			writer.writeBytes(body);
+	/**
+	 * Serializes a message into a buffer.
+	 * <p>
+	 * Header, token, options and payload are written in a single pass
+	 * starting at the buffer's current position, without intermediate
+	 * lists, options or byte arrays. This allows to reuse a buffer for
+	 * many messages. The bytes are neither cached in the message nor is a
+	 * cached value used.
+	 * 
+	 * @param message The message to serialize.
+	 * @param buffer The buffer to write to. On return, its position is
+	 *            advanced by the number of bytes written.
+	 * @return The number of bytes written.
+	 * @throws BufferOverflowException if the buffer's remaining space is
+	 *             too small for the message. The buffer is not modified in
+	 *             this case.
+	 */
+	public final int serialize(final Message message, final ByteBuffer buffer) {
+		MessageHeader header = newHeader(message);
+		int length = getHeaderLength(header) + header.getBodyLength();
+		if (buffer.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		serializeHeader(buffer, header);
+		serializeOptionsAndPayload(message, buffer);
+		return length;
+	}
 
-			byte[] bytes = writer.toByteArray();
-			emptyMessage.setBytes(bytes);
+	/**
+	 * Serializes a message's options and payload to the wire format.
+	 * <p>
+	 * The options and payload are encoded the same way by all serializers,
+	 * so the result may be used with any of them by means of
+	 * {@link Message#setBodyBytes(byte[])}.
+	 * 
+	 * @param message The message to serialize.
+	 * @return The encoded options and payload.
+	 */
+	public static byte[] getBodyByteArray(final Message message) {
+		byte[] bytes = new byte[getBodyLength(message)];
+		serializeOptionsAndPayload(message, ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	private byte[] toByteArray(final Message message) {
+		MessageHeader header = newHeader(message);
+		byte[] bytes = new byte[getHeaderLength(header) + header.getBodyLength()];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		serializeHeader(buffer, header);
+		serializeOptionsAndPayload(message, buffer);
+		return bytes;
+	}
+
+	private static MessageHeader newHeader(final Message message) {
+		byte[] bodyBytes = message.getBodyBytes();
+		int bodyLength = bodyBytes != null ? bodyBytes.length : getBodyLength(message);
+		return new MessageHeader(CoAP.VERSION, message.getType(), message.getToken(), message.getRawCode(),
+				message.getMID(), bodyLength);
+	}
+
+	private static int getBodyLength(final Message message) {
+		OptionEncoder sizer = new OptionEncoder(null);
+		message.getOptions().accept(sizer);
+		int bodyLength = sizer.length;
+		byte[] payload = message.getPayload();
+		if (payload != null && payload.length > 0) {
+			bodyLength += 1 + payload.length;
 		}
-		return new RawData(emptyMessage.getBytes(), emptyMessage.getDestination(), emptyMessage.getDestinationPort());
+		return bodyLength;
 	}
 
 	/**
@@ -152,52 +197,188 @@ public abstract class DataSerializer {
 	 */
 	protected abstract void serializeHeader(DatagramWriter writer, MessageHeader header);
 
-	private static byte[] serializeOptionsAndPayload(final Message message) {
+	/**
+	 * Serializes a message's <em>header</em> values into a buffer.
+	 * <p>
+	 * This default implementation uses
+	 * {@link #serializeHeader(DatagramWriter, MessageHeader)} and copies the
+	 * result. Subclasses should override this method to write the header
+	 * directly.
+	 * 
+	 * @param buffer The buffer to serialize the values to.
+	 * @param header The header values.
+	 */
+	protected void serializeHeader(final ByteBuffer buffer, final MessageHeader header) {
+		DatagramWriter writer = new DatagramWriter();
+		serializeHeader(writer, header);
+		buffer.put(writer.toByteArray());
+	}
+
+	/**
+	 * Gets the number of bytes of a message's serialized <em>header</em>
+	 * values.
+	 * <p>
+	 * This default implementation uses
+	 * {@link #serializeHeader(DatagramWriter, MessageHeader)}. Subclasses
+	 * should override this method to calculate the length directly.
+	 * 
+	 * @param header The header values.
+	 * @return The number of bytes.
+	 */
+	protected int getHeaderLength(final MessageHeader header) {
 		DatagramWriter writer = new DatagramWriter();
-		List<Option> options = message.getOptions().asSortedList(); // already
-		// sorted
-		int lastOptionNumber = 0;
-		for (Option option : options) {
-			// write 4-bit option delta
-			int optionDelta = option.getNumber() - lastOptionNumber;
-			int optionDeltaNibble = getOptionNibble(optionDelta);
-			writer.write(optionDeltaNibble, OPTION_DELTA_BITS);
+		serializeHeader(writer, header);
+		return writer.toByteArray().length;
+	}
+
+	private static void serializeOptionsAndPayload(final Message message, final ByteBuffer buffer) {
+		byte[] bodyBytes = message.getBodyBytes();
+		if (bodyBytes != null) {
+			buffer.put(bodyBytes);
+			return;
+		}
+		message.getOptions().accept(new OptionEncoder(buffer));
+
+		byte[] payload = message.getPayload();
+		if (payload != null && payload.length > 0) {
+			// if payload is present and of non-zero length, it is prefixed by
+			// an one-byte Payload Marker (0xFF) which indicates the end of
+			// options and the start of the payload
+			buffer.put(PAYLOAD_MARKER);
+			buffer.put(payload);
+		}
+	}
+
+	/**
+	 * Encodes options into a buffer, or only counts the bytes, if no buffer
+	 * is given.
+	 */
+	private static final class OptionEncoder implements OptionSet.OptionVisitor {
+
+		private final ByteBuffer buffer;
+		private int lastOptionNumber;
+		private int length;
+
+		private OptionEncoder(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void visitOpaque(final int number, final byte[] value, final int offset, final int length) {
+			writeOptionHeader(number, length);
+			if (buffer != null) {
+				buffer.put(value, offset, length);
+			}
+		}
+
+		@Override
+		public void visitString(final int number, final String value) {
+			int valueLength = getUtf8Length(value);
+			writeOptionHeader(number, valueLength);
+			if (buffer != null) {
+				writeUtf8(buffer, value);
+			}
+		}
 
-			// write 4-bit option length
-			int optionLength = option.getLength();
+		@Override
+		public void visitUint(final int number, final long value) {
+			int valueLength = (Long.SIZE - Long.numberOfLeadingZeros(value) + 7) / Byte.SIZE;
+			writeOptionHeader(number, valueLength);
+			if (buffer != null) {
+				for (int i = valueLength - 1; i >= 0; i--) {
+					buffer.put((byte) (value >> (i * Byte.SIZE)));
+				}
+			}
+		}
+
+		private void writeOptionHeader(final int number, final int optionLength) {
+			int optionDelta = number - lastOptionNumber;
+			int optionDeltaNibble = getOptionNibble(optionDelta);
 			int optionLengthNibble = getOptionNibble(optionLength);
-			writer.write(optionLengthNibble, OPTION_LENGTH_BITS);
+			length += 1 + getExtendedLength(optionDeltaNibble) + getExtendedLength(optionLengthNibble)
+					+ optionLength;
+			lastOptionNumber = number;
+			if (buffer == null) {
+				return;
+			}
+
+			// write 4-bit option delta and 4-bit option length
+			buffer.put((byte) ((optionDeltaNibble << OPTION_LENGTH_BITS) | optionLengthNibble));
 
 			// write extended option delta field (0 - 2 bytes)
 			if (optionDeltaNibble == 13) {
-				writer.write(optionDelta - 13, Byte.SIZE);
+				buffer.put((byte) (optionDelta - 13));
 			} else if (optionDeltaNibble == 14) {
-				writer.write(optionDelta - 269, 2 * Byte.SIZE);
+				buffer.putShort((short) (optionDelta - 269));
 			}
 
 			// write extended option length field (0 - 2 bytes)
 			if (optionLengthNibble == 13) {
-				writer.write(optionLength - 13, Byte.SIZE);
+				buffer.put((byte) (optionLength - 13));
 			} else if (optionLengthNibble == 14) {
-				writer.write(optionLength - 269, 2 * Byte.SIZE);
+				buffer.putShort((short) (optionLength - 269));
 			}
+		}
+	}
 
-			// write option value
-			writer.writeBytes(option.getValue());
+	private static int getExtendedLength(final int nibble) {
+		return nibble == 13 ? 1 : (nibble == 14 ? 2 : 0);
+	}
 
-			// update last option number
-			lastOptionNumber = option.getNumber();
+	/**
+	 * Gets the length of a string encoded in UTF-8.
+	 * <p>
+	 * Unpaired surrogates are counted as one byte, as they are replaced by
+	 * '?' when encoded.
+	 */
+	private static int getUtf8Length(final String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
 		}
+		return length;
+	}
 
-		byte[] payload = message.getPayload();
-		if (payload != null && payload.length > 0) {
-			// if payload is present and of non-zero length, it is prefixed by
-			// an one-byte Payload Marker (0xFF) which indicates the end of
-			// options and the start of the payload
-			writer.writeByte(PAYLOAD_MARKER);
-			writer.writeBytes(payload);
+	/**
+	 * Writes a string encoded in UTF-8 to a buffer. Encodes exactly like
+	 * {@code value.getBytes(CoAP.UTF8_CHARSET)}.
+	 */
+	private static void writeUtf8(final ByteBuffer buffer, final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
 		}
-		return writer.toByteArray();
 	}
 
 	/**
@@ -23,6 +23,8 @@ package org.eclipse.californium.core.network.serialization;
 
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.*;
 
+import java.nio.ByteBuffer;
+
 import org.eclipse.californium.elements.util.DatagramWriter;
 
 /**
@@ -53,4 +55,39 @@ public final class TcpDataSerializer extends DataSerializer {
 		writer.write(header.getCode(), CODE_BITS);
 		writer.writeBytes(header.getToken());
 	}
+
+	@Override protected void serializeHeader(final ByteBuffer buffer, final MessageHeader header) {
+		int tokenLength = header.getToken().length;
+		int bodyLength = header.getBodyLength();
+		if (bodyLength < 13) {
+			buffer.put((byte) ((bodyLength << TOKEN_LENGTH_BITS) | tokenLength));
+		} else if (bodyLength < (1 << 8) + 13) {
+			buffer.put((byte) ((13 << TOKEN_LENGTH_BITS) | tokenLength));
+			buffer.put((byte) (bodyLength - 13));
+		} else if (bodyLength < (1 << 16) + 269) {
+			buffer.put((byte) ((14 << TOKEN_LENGTH_BITS) | tokenLength));
+			buffer.putShort((short) (bodyLength - 269));
+		} else {
+			buffer.put((byte) ((15 << TOKEN_LENGTH_BITS) | tokenLength));
+			buffer.putInt(bodyLength - 65805);
+		}
+		buffer.put((byte) header.getCode());
+		buffer.put(header.getToken());
+	}
+
+	@Override protected int getHeaderLength(final MessageHeader header) {
+		int bodyLength = header.getBodyLength();
+		int extendedLength;
+		if (bodyLength < 13) {
+			extendedLength = 0;
+		} else if (bodyLength < (1 << 8) + 13) {
+			extendedLength = 1;
+		} else if (bodyLength < (1 << 16) + 269) {
+			extendedLength = 2;
+		} else {
+			extendedLength = 4;
+		}
+		// length and token length, extended length, code
+		return 2 + extendedLength + header.getToken().length;
+	}
 }
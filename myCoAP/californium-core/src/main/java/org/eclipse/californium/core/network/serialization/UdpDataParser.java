@@ -32,6 +32,24 @@ import static org.eclipse.californium.core.coap.CoAP.MessageFormat.*;
  */
 public final class UdpDataParser extends DataParser {
 
+	/**
+	 * Creates a parser, which decodes the complete message.
+	 */
+	public UdpDataParser() {
+		super();
+	}
+
+	/**
+	 * Creates a parser.
+	 * 
+	 * @param lazy {@code true}, if the options and the payload should be
+	 *            decoded on first access, {@code false}, if they should be
+	 *            decoded when parsing the message.
+	 */
+	public UdpDataParser(final boolean lazy) {
+		super(lazy);
+	}
+
 	@Override
 	protected MessageHeader parseHeader(final DatagramReader reader) {
 		int version = reader.read(VERSION_BITS);
@@ -23,6 +23,8 @@ package org.eclipse.californium.core.network.serialization;
 
 import static org.eclipse.californium.core.coap.CoAP.MessageFormat.*;
 
+import java.nio.ByteBuffer;
+
 import org.eclipse.californium.elements.util.DatagramWriter;
 
 /**
@@ -38,4 +40,17 @@ public final class UdpDataSerializer extends DataSerializer {
 		writer.write(header.getMID(), MESSAGE_ID_BITS);
 		writer.writeBytes(header.getToken());
 	}
+
+	@Override protected void serializeHeader(final ByteBuffer buffer, final MessageHeader header) {
+		buffer.put((byte) ((VERSION << (TYPE_BITS + TOKEN_LENGTH_BITS)) | (header.getType().value << TOKEN_LENGTH_BITS)
+				| header.getToken().length));
+		buffer.put((byte) header.getCode());
+		buffer.putShort((short) header.getMID());
+		buffer.put(header.getToken());
+	}
+
+	@Override protected int getHeaderLength(final MessageHeader header) {
+		// version, type, token length, code, MID
+		return 4 + header.getToken().length;
+	}
 }
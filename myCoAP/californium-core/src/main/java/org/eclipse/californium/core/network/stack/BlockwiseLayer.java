@@ -356,6 +356,7 @@ public class BlockwiseLayer extends AbstractLayer {
 		} else {
 			if (block1 != null) {
 				response.getOptions().setBlock1(block1);
+				response.setBodyBytes(null);
 			}
 			exchange.setCurrentResponse(response);
 			// Block1 transfer completed
@@ -755,6 +756,8 @@ public class BlockwiseLayer extends AbstractLayer {
 		if (response.getOptions().hasObserve()) {
 			// a blockwise notification transmits the first block only
 			block = response;
+			// the options are changed in place, serialize them again
+			block.setBodyBytes(null);
 		} else {
 			block = new Response(response.getCode());
 			block.setDestination(response.getDestination());
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A memory-compact index of the observe relations of a server by observing
+ * endpoint and token.
+ * <p>
+ * A relation is identified by the address and port of the observing endpoint
+ * and the token of its observe request. The identity is packed into four
+ * {@code long}s: the address in two words (IPv4 addresses as IPv4-mapped IPv6
+ * addresses), the port together with the token length, and the token of up
+ * to 8 bytes. The words and the relations are kept in the primitive and
+ * reference arrays of open addressing hash tables, so indexing a relation
+ * requires about 50 bytes and no objects per relation.
+ * <p>
+ * The relations are sharded by their identity. Each shard is locked
+ * separately.
+ */
+final class CompactObserveRelationStore {
+
+	/**
+	 * The default number of shards.
+	 */
+	static final int DEFAULT_SHARDS = 16;
+
+	private static final int KEY_WORDS = 4;
+	private static final int MAX_TOKEN_LENGTH = 8;
+	private static final long IPV4_MAPPED = 0xffffL << 32;
+
+	private final Shard[] shards;
+
+	/**
+	 * Creates a store with {@link #DEFAULT_SHARDS} shards.
+	 */
+	CompactObserveRelationStore() {
+		this(DEFAULT_SHARDS);
+	}
+
+	/**
+	 * Creates a store.
+	 *
+	 * @param shards the number of shards
+	 * @throws IllegalArgumentException if the number of shards is &lt; 1
+	 */
+	CompactObserveRelationStore(final int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("Number of shards must be at least 1");
+		}
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new Shard();
+		}
+	}
+
+	/**
+	 * Adds a relation.
+	 * <p>
+	 * A relation of the same endpoint with the same token is replaced.
+	 *
+	 * @param peer the address of the observing endpoint
+	 * @param token the token of the observe request
+	 * @param relation the relation
+	 * @return the replaced relation, or {@code null}, if the relation was
+	 *         added
+	 * @throws IllegalArgumentException if the token is longer than 8 bytes
+	 */
+	ObserveRelation put(final InetSocketAddress peer, final byte[] token, final ObserveRelation relation) {
+		if (token.length > MAX_TOKEN_LENGTH) {
+			throw new IllegalArgumentException("Token must not exceed " + MAX_TOKEN_LENGTH + " bytes");
+		}
+		byte[] address = peer.getAddress().getAddress();
+		long w0 = addressHigh(address);
+		long w1 = addressLow(address);
+		long w2 = word(peer.getPort(), token.length);
+		long w3 = toLong(token);
+		int hash = hash(w0, w1, w2, w3);
+		return shardFor(hash).put(w0, w1, w2, w3, hash, relation);
+	}
+
+	/**
+	 * Gets a relation.
+	 *
+	 * @param peer the address of the observing endpoint
+	 * @param token the token of the observe request
+	 * @return the relation, or {@code null}, if not found
+	 */
+	ObserveRelation get(final InetSocketAddress peer, final byte[] token) {
+		if (token.length > MAX_TOKEN_LENGTH) {
+			return null;
+		}
+		byte[] address = peer.getAddress().getAddress();
+		long w0 = addressHigh(address);
+		long w1 = addressLow(address);
+		long w2 = word(peer.getPort(), token.length);
+		long w3 = toLong(token);
+		int hash = hash(w0, w1, w2, w3);
+		return shardFor(hash).get(w0, w1, w2, w3, hash);
+	}
+
+	/**
+	 * Removes a relation.
+	 *
+	 * @param peer the address of the observing endpoint
+	 * @param token the token of the observe request
+	 * @param relation the relation to remove. Another relation with the same
+	 *            token, which replaced it, is not removed.
+	 * @return true, if the relation was removed
+	 */
+	boolean remove(final InetSocketAddress peer, final byte[] token, final ObserveRelation relation) {
+		if (token.length > MAX_TOKEN_LENGTH) {
+			return false;
+		}
+		byte[] address = peer.getAddress().getAddress();
+		long w0 = addressHigh(address);
+		long w1 = addressLow(address);
+		long w2 = word(peer.getPort(), token.length);
+		long w3 = toLong(token);
+		int hash = hash(w0, w1, w2, w3);
+		return shardFor(hash).remove(w0, w1, w2, w3, hash, relation);
+	}
+
+	/**
+	 * Gets the relations of an observing endpoint.
+	 * <p>
+	 * The relations are not indexed by endpoint, so all shards are scanned.
+	 * This is only done to cancel all relations of an endpoint, which is no
+	 * longer reachable.
+	 *
+	 * @param peer the address of the observing endpoint
+	 * @return the relations
+	 */
+	List<ObserveRelation> getRelations(final InetSocketAddress peer) {
+		byte[] address = peer.getAddress().getAddress();
+		long w0 = addressHigh(address);
+		long w1 = addressLow(address);
+		List<ObserveRelation> relations = new ArrayList<ObserveRelation>();
+		for (Shard shard : shards) {
+			shard.collect(w0, w1, peer.getPort(), relations);
+		}
+		return relations;
+	}
+
+	/**
+	 * Gets the number of relations.
+	 *
+	 * @return the number of relations
+	 */
+	int size() {
+		int size = 0;
+		for (Shard shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	private Shard shardFor(final int hash) {
+		return shards[(hash >>> 16) % shards.length];
+	}
+
+	private static long addressHigh(final byte[] address) {
+		if (address.length == 4) {
+			return 0;
+		}
+		return toLong(address, 0);
+	}
+
+	private static long addressLow(final byte[] address) {
+		if (address.length == 4) {
+			return IPV4_MAPPED | (toLong(address) & 0xffffffffL);
+		}
+		return toLong(address, 8);
+	}
+
+	private static long word(final int port, final int tokenLength) {
+		return ((long) port << 8) | tokenLength;
+	}
+
+	private static long toLong(final byte[] bytes) {
+		long value = 0;
+		for (byte b : bytes) {
+			value = (value << 8) | (b & 0xff);
+		}
+		return value;
+	}
+
+	private static long toLong(final byte[] bytes, final int offset) {
+		long value = 0;
+		for (int i = offset; i < offset + 8; i++) {
+			value = (value << 8) | (bytes[i] & 0xff);
+		}
+		return value;
+	}
+
+	private static int hash(final long w0, final long w1, final long w2, final long w3) {
+		long hash = ((w0 * 31 + w1) * 31 + w2) * 31 + w3;
+		// spread the bits, the shards use the upper and the tables the lower
+		// bits
+		hash *= 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	/**
+	 * The relations of a shard.
+	 * <p>
+	 * A linear probing hash table using backward shift deletion. Empty slots
+	 * have no relation.
+	 */
+	private static final class Shard {
+
+		private static final int INITIAL_CAPACITY = 16;
+
+		private int size;
+		private int mask;
+		private long[] keys;
+		private ObserveRelation[] relations;
+
+		private Shard() {
+			allocate(INITIAL_CAPACITY);
+		}
+
+		private void allocate(final int capacity) {
+			mask = capacity - 1;
+			keys = new long[capacity * KEY_WORDS];
+			relations = new ObserveRelation[capacity];
+		}
+
+		private synchronized ObserveRelation put(final long w0, final long w1, final long w2, final long w3,
+				final int hash, final ObserveRelation relation) {
+			int slot = find(w0, w1, w2, w3, hash);
+			if (slot >= 0) {
+				ObserveRelation previous = relations[slot];
+				relations[slot] = relation;
+				return previous;
+			}
+			if ((size + 1) * 4 > relations.length * 3) {
+				resize(relations.length * 2);
+				slot = find(w0, w1, w2, w3, hash);
+			}
+			store(~slot, w0, w1, w2, w3, relation);
+			size++;
+			return null;
+		}
+
+		private synchronized ObserveRelation get(final long w0, final long w1, final long w2, final long w3,
+				final int hash) {
+			int slot = find(w0, w1, w2, w3, hash);
+			return slot < 0 ? null : relations[slot];
+		}
+
+		private synchronized boolean remove(final long w0, final long w1, final long w2, final long w3,
+				final int hash, final ObserveRelation relation) {
+			int slot = find(w0, w1, w2, w3, hash);
+			if (slot < 0 || relations[slot] != relation) {
+				return false;
+			}
+			size--;
+			// shift back the following entries of the cluster
+			int free = slot;
+			relations[free] = null;
+			for (int next = (free + 1) & mask; relations[next] != null; next = (next + 1) & mask) {
+				int home = home(next);
+				boolean between = free <= next ? (free < home && home <= next) : (free < home || home <= next);
+				if (!between) {
+					System.arraycopy(keys, next * KEY_WORDS, keys, free * KEY_WORDS, KEY_WORDS);
+					relations[free] = relations[next];
+					relations[next] = null;
+					free = next;
+				}
+			}
+			return true;
+		}
+
+		private synchronized void collect(final long w0, final long w1, final int port,
+				final List<ObserveRelation> result) {
+			for (int slot = 0; slot < relations.length; slot++) {
+				int offset = slot * KEY_WORDS;
+				if (relations[slot] != null && keys[offset] == w0 && keys[offset + 1] == w1
+						&& (keys[offset + 2] >>> 8) == port) {
+					result.add(relations[slot]);
+				}
+			}
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * Finds the slot of a relation.
+		 *
+		 * @return the slot, or the one's complement of the free slot to add
+		 *         the relation to
+		 */
+		private int find(final long w0, final long w1, final long w2, final long w3, final int hash) {
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				if (relations[slot] == null) {
+					return ~slot;
+				}
+				int offset = slot * KEY_WORDS;
+				if (keys[offset] == w0 && keys[offset + 1] == w1 && keys[offset + 2] == w2
+						&& keys[offset + 3] == w3) {
+					return slot;
+				}
+			}
+		}
+
+		private void store(final int slot, final long w0, final long w1, final long w2, final long w3,
+				final ObserveRelation relation) {
+			int offset = slot * KEY_WORDS;
+			keys[offset] = w0;
+			keys[offset + 1] = w1;
+			keys[offset + 2] = w2;
+			keys[offset + 3] = w3;
+			relations[slot] = relation;
+		}
+
+		private int home(final int slot) {
+			int offset = slot * KEY_WORDS;
+			return hash(keys[offset], keys[offset + 1], keys[offset + 2], keys[offset + 3]) & mask;
+		}
+
+		private void resize(final int capacity) {
+			long[] oldKeys = keys;
+			ObserveRelation[] oldRelations = relations;
+			allocate(capacity);
+			for (int old = 0; old < oldRelations.length; old++) {
+				if (oldRelations[old] != null) {
+					int offset = old * KEY_WORDS;
+					long w0 = oldKeys[offset];
+					long w1 = oldKeys[offset + 1];
+					long w2 = oldKeys[offset + 2];
+					long w3 = oldKeys[offset + 3];
+					store(~find(w0, w1, w2, w3, hash(w0, w1, w2, w3)), w0, w1, w2, w3, oldRelations[old]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.serialization.DataParser;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.eclipse.californium.core.network.serialization.UdpDataParser;
+import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
+import org.eclipse.californium.elements.util.DatagramReader;
+import org.eclipse.californium.elements.util.DatagramWriter;
+import org.eclipse.californium.elements.util.MappedRecordLog;
+
+/**
+ * An observe relation persistence that keeps the relations in a
+ * memory-mapped, append-only file.
+ * <p>
+ * The relations are stored in a {@link MappedRecordLog} with the following
+ * keys and values:
+ * <pre>
+ * struct {
+ *   uint8 address_length; // 4 or 16
+ *   opaque address[address_length];
+ *   uint16 port;
+ *   opaque token[0..8];
+ * } Key;
+ *
+ * struct {
+ *   uint16 local_port;
+ *   opaque request[]; // the observe request, encoded as CoAP message
+ * } Value;
+ * </pre>
+ * The attribute of a record is the Observe number of the latest notification,
+ * or -1, if none has been sent. It is overwritten in place for each
+ * notification, so notifications of different relations are recorded
+ * concurrently.
+ */
+public final class MappedFileObserveRelationPersistence implements ObserveRelationPersistence, Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(MappedFileObserveRelationPersistence.class.getName());
+
+	private static final int MAGIC = 0x434F5232; // "COR2"
+	private static final int NO_OBSERVE = -1;
+	private static final int MAX_TOKEN_LENGTH = 8;
+
+	private final File file;
+	private final MappedRecordLog log;
+	private final DataSerializer serializer = new UdpDataSerializer();
+	private final DataParser parser = new UdpDataParser();
+
+	/**
+	 * Creates a persistence.
+	 *
+	 * @param file the file to store the relations in. If the file exists, the
+	 *            relations stored in it are loaded.
+	 * @throws IOException if the file cannot be opened or is not an observe
+	 *             relation file
+	 */
+	public MappedFileObserveRelationPersistence(final File file) throws IOException {
+		if (file == null) {
+			throw new NullPointerException("File must not be null");
+		}
+		this.file = file;
+		this.log = new MappedRecordLog(file, MAGIC, true);
+		LOGGER.log(Level.CONFIG, "Loaded {0} observe relations from {1}", new Object[]{log.size(), file});
+	}
+
+	@Override
+	public void put(final ObserveRelation relation) {
+		if (relation == null) {
+			return;
+		}
+		Exchange exchange = relation.getExchange();
+		Request request = exchange.getRequest();
+		byte[] token = request.getToken();
+		byte[] encoded = serializer.getByteArray(request);
+		if (token.length > MAX_TOKEN_LENGTH || encoded.length + 2 > MappedRecordLog.MAX_VALUE_LENGTH) {
+			return;
+		}
+		int localPort = exchange.getEndpoint() == null ? 0 : exchange.getEndpoint().getAddress().getPort();
+		DatagramWriter value = new DatagramWriter();
+		value.write(localPort, 16);
+		value.writeBytes(encoded);
+		try {
+			log.put(getKey(relation.getSource(), token), value.toByteArray(), NO_OBSERVE);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot store observe relation in " + file, e);
+		}
+	}
+
+	@Override
+	public void remove(final InetSocketAddress peer, final byte[] token) {
+		if (peer == null || token == null) {
+			return;
+		}
+		try {
+			log.remove(getKey(peer, token));
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot remove observe relation from " + file, e);
+		}
+	}
+
+	@Override
+	public void notificationSent(final ObserveRelation relation, final int observe) {
+		if (relation == null) {
+			return;
+		}
+		log.setAttribute(getKey(relation.getSource(), relation.getExchange().getRequest().getToken()), observe);
+	}
+
+	@Override
+	public void load(final RelationHandler handler) {
+		final List<byte[]> keys = new ArrayList<byte[]>();
+		final List<byte[]> values = new ArrayList<byte[]>();
+		final List<Integer> numbers = new ArrayList<Integer>();
+		log.visit(new MappedRecordLog.RecordVisitor() {
+
+			@Override
+			public void visit(final byte[] key, final byte[] value, final int attribute) {
+				keys.add(key);
+				values.add(value);
+				numbers.add(attribute);
+			}
+		});
+		// the handler may remove relations
+		for (int i = 0; i < keys.size(); i++) {
+			DatagramReader value = new DatagramReader(values.get(i));
+			int localPort = value.read(16);
+			Request request = decode(keys.get(i), value.readBytesLeft());
+			if (request != null) {
+				handler.restore(request, localPort, numbers.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of relations in the file.
+	 *
+	 * @return the number of relations
+	 */
+	public int size() {
+		return log.size();
+	}
+
+	/**
+	 * Writes the mapped region to the file and closes the file.
+	 * <p>
+	 * Afterwards, the persistence is empty and doesn't store relations
+	 * anymore.
+	 */
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+
+	/**
+	 * Gets the position after the last record in the file.
+	 *
+	 * @return the position
+	 */
+	int getEnd() {
+		return log.getEnd();
+	}
+
+	private static byte[] getKey(final InetSocketAddress peer, final byte[] token) {
+		byte[] address = peer.getAddress().getAddress();
+		DatagramWriter key = new DatagramWriter();
+		key.write(address.length, 8);
+		key.writeBytes(address);
+		key.write(peer.getPort(), 16);
+		key.writeBytes(token);
+		return key.toByteArray();
+	}
+
+	private Request decode(final byte[] key, final byte[] encoded) {
+		DatagramReader reader = new DatagramReader(key);
+		byte[] address = reader.readBytes(reader.read(8));
+		int port = reader.read(16);
+		try {
+			Message message = parser.parseMessage(encoded);
+			if (message instanceof Request) {
+				Request request = (Request) message;
+				request.setSource(InetAddress.getByAddress(address));
+				request.setSourcePort(port);
+				return request;
+			}
+			LOGGER.log(Level.WARNING, "Ignoring stored observe relation, which is not a request, in {0}", file);
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Ignoring malformed observe relation in " + file, e);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+
+/**
+ * Notifies the observe relations of resources with many observers in
+ * parallel and at a limited rate.
+ * <p>
+ * The relations of a resource are partitioned by the address of the
+ * observing endpoint. Each partition is notified by one of the dispatcher's
+ * threads, so a slow notification only delays the notifications of its own
+ * partition. The notifications are paced by a global rate, which limits the
+ * number of notifications handed to the endpoints per second, and a rate per
+ * observing endpoint.
+ * <p>
+ * Changes of a resource are coalesced. If a resource changes again while its
+ * observers are still being notified, the observers are notified again
+ * only once afterwards, no matter how often the resource has changed in
+ * between. The intermediate states are skipped.
+ * <p>
+ * The dispatcher only keeps state for resources, whose observers are
+ * currently being notified, and for endpoints, whose next notification is
+ * still paced.
+ */
+public class NotificationDispatcher {
+
+	/** The logger. */
+	private static final Logger LOGGER = Logger.getLogger(NotificationDispatcher.class.getCanonicalName());
+
+	/**
+	 * A resource whose observe relations are notified by a dispatcher.
+	 */
+	public interface ObservedResource {
+
+		/**
+		 * Gets the observe relations of this resource.
+		 *
+		 * @return the observe relations
+		 */
+		Iterable<ObserveRelation> getObserveRelations();
+
+		/**
+		 * Starts notifying the observe relations about the current state of
+		 * this resource.
+		 *
+		 * @return the notification to apply to the relations
+		 */
+		Notification startNotification();
+	}
+
+	/**
+	 * The notification of observe relations about a state of a resource.
+	 * <p>
+	 * Must be thread-safe, as the relations are notified in parallel.
+	 */
+	public interface Notification {
+
+		/**
+		 * Notifies an observe relation.
+		 *
+		 * @param relation the relation
+		 */
+		void notify(ObserveRelation relation);
+	}
+
+	private final int partitions;
+	/** The interval between two notifications in nanoseconds, 0 if not paced */
+	private final long intervalNanos;
+	/** The interval between two notifications of an endpoint in nanoseconds, 0 if not paced */
+	private final long peerIntervalNanos;
+	private final ExecutorService executor;
+
+	/** The time of the next notification, see {@link System#nanoTime()} */
+	private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+	/** The time of the next notification per endpoint, see {@link System#nanoTime()} */
+	private final ConcurrentMap<InetSocketAddress, Long> peerSlots = new ConcurrentHashMap<InetSocketAddress, Long>();
+	/** The state of the resources, whose relations are currently being notified */
+	private final ConcurrentMap<ObservedResource, State> states = new ConcurrentHashMap<ObservedResource, State>();
+
+	/**
+	 * Creates a dispatcher using the
+	 * {@link NetworkConfig.Keys#NOTIFICATION_DISPATCHER_THREAD_COUNT},
+	 * {@link NetworkConfig.Keys#NOTIFICATION_DISPATCHER_RATE}, and
+	 * {@link NetworkConfig.Keys#NOTIFICATION_DISPATCHER_PEER_RATE} of a
+	 * configuration.
+	 *
+	 * @param config the configuration
+	 */
+	public NotificationDispatcher(NetworkConfig config) {
+		this(config.getInt(NetworkConfig.Keys.NOTIFICATION_DISPATCHER_THREAD_COUNT),
+				config.getInt(NetworkConfig.Keys.NOTIFICATION_DISPATCHER_RATE),
+				config.getInt(NetworkConfig.Keys.NOTIFICATION_DISPATCHER_PEER_RATE));
+	}
+
+	/**
+	 * Creates a dispatcher.
+	 *
+	 * @param threadCount the number of threads notifying the relations
+	 * @param rate the maximum number of notifications per second, 0 for no
+	 *            limit
+	 * @param peerRate the maximum number of notifications per second sent
+	 *            to the same endpoint, 0 for no limit
+	 * @throws IllegalArgumentException if the thread count is &lt; 1 or a
+	 *             rate is negative
+	 */
+	public NotificationDispatcher(int threadCount, int rate, int peerRate) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("Thread count must be at least 1");
+		} else if (rate < 0 || peerRate < 0) {
+			throw new IllegalArgumentException("Rates must not be negative");
+		}
+		this.partitions = threadCount;
+		this.intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / rate;
+		this.peerIntervalNanos = peerRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / peerRate;
+		this.executor = Executors.newFixedThreadPool(threadCount, new DaemonThreadFactory("NotificationDispatcher#"));
+	}
+
+	/**
+	 * Notifies the observe relations of a resource about a change.
+	 * <p>
+	 * Returns immediately. If the relations of the resource are currently
+	 * being notified, they are notified again once they are all done.
+	 *
+	 * @param resource the changed resource
+	 * @param filter filter to select set of relations.
+	 *            <code>null</code>, if all relations should be notified.
+	 */
+	public void changed(final ObservedResource resource, final ObserveRelationFilter filter) {
+		while (true) {
+			State state = states.get(resource);
+			if (state == null) {
+				State newState = new State();
+				state = states.putIfAbsent(resource, newState);
+				if (state == null) {
+					state = newState;
+				}
+			}
+			switch (state.schedule(filter)) {
+			case STARTED:
+				submitRound(resource, state);
+				return;
+			case COALESCED:
+				return;
+			default:
+				// the state has been removed concurrently, use a new one
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Stops the dispatcher. Ongoing notifications are aborted.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		states.clear();
+		peerSlots.clear();
+	}
+
+	/**
+	 * Gets the number of resources, whose relations are currently being
+	 * notified.
+	 *
+	 * @return the number of resources
+	 */
+	int getResourceCount() {
+		return states.size();
+	}
+
+	/**
+	 * Gets the number of endpoints, whose next notification is paced.
+	 *
+	 * @return the number of endpoints
+	 */
+	int getPacedEndpointCount() {
+		return peerSlots.size();
+	}
+
+	private void submitRound(final ObservedResource resource, final State state) {
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					startRound(resource, state);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOGGER.log(Level.FINE, "Dispatcher has been shut down, dropping notifications of {0}", resource);
+			state.remove();
+			states.remove(resource, state);
+		}
+	}
+
+	private void startRound(final ObservedResource resource, final State state) {
+		ObserveRelationFilter filter = state.takeFilter();
+		Notification notification = resource.startNotification();
+		List<List<ObserveRelation>> parts = new ArrayList<List<ObserveRelation>>(partitions);
+		for (int i = 0; i < partitions; i++) {
+			parts.add(new ArrayList<ObserveRelation>());
+		}
+		for (ObserveRelation relation : resource.getObserveRelations()) {
+			if (null == filter || filter.accept(relation)) {
+				int index = (relation.getSource().hashCode() & Integer.MAX_VALUE) % partitions;
+				parts.get(index).add(relation);
+			}
+		}
+		purgePeerSlots();
+
+		final AtomicInteger remaining = new AtomicInteger(1);
+		for (final List<ObserveRelation> part : parts) {
+			if (!part.isEmpty()) {
+				remaining.incrementAndGet();
+				try {
+					executor.execute(new PartitionTask(part, notification, resource, state, remaining));
+				} catch (RejectedExecutionException e) {
+					remaining.decrementAndGet();
+				}
+			}
+		}
+		finishPartition(resource, state, remaining);
+	}
+
+	private void finishPartition(final ObservedResource resource, final State state, final AtomicInteger remaining) {
+		if (remaining.decrementAndGet() == 0) {
+			if (state.finish()) {
+				submitRound(resource, state);
+			} else {
+				states.remove(resource, state);
+			}
+		}
+	}
+
+	private void notifyPartition(final List<ObserveRelation> part, final Notification notification)
+			throws InterruptedException {
+		PriorityQueue<Deferred> deferred = null;
+		for (ObserveRelation relation : part) {
+			long now = System.nanoTime();
+			long slot = reservePeerSlot(relation.getSource(), now);
+			if (slot - now <= 0) {
+				send(relation, notification);
+			} else {
+				// notify the other endpoints of the partition meanwhile
+				if (deferred == null) {
+					deferred = new PriorityQueue<Deferred>();
+				}
+				deferred.add(new Deferred(slot, relation));
+			}
+		}
+		if (deferred != null) {
+			for (Deferred next = deferred.poll(); next != null; next = deferred.poll()) {
+				sleepUntil(next.slot);
+				send(next.relation, notification);
+			}
+		}
+	}
+
+	private void send(final ObserveRelation relation, final Notification notification) throws InterruptedException {
+		sleepUntil(reserveSlot());
+		if (relation.isEstablished()) {
+			try {
+				notification.notify(relation);
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Cannot notify observe relation " + relation.getKey(), e);
+			}
+		}
+	}
+
+	private long reserveSlot() {
+		while (true) {
+			long now = System.nanoTime();
+			if (intervalNanos == 0) {
+				return now;
+			}
+			long next = nextSlot.get();
+			long slot = next - now > 0 ? next : now;
+			if (nextSlot.compareAndSet(next, slot + intervalNanos)) {
+				return slot;
+			}
+		}
+	}
+
+	private long reservePeerSlot(final InetSocketAddress peer, final long now) {
+		if (peerIntervalNanos == 0) {
+			return now;
+		}
+		while (true) {
+			Long next = peerSlots.get(peer);
+			long slot = next != null && next - now > 0 ? next : now;
+			Long newNext = slot + peerIntervalNanos;
+			if (next == null ? peerSlots.putIfAbsent(peer, newNext) == null : peerSlots.replace(peer, next, newNext)) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Removes the endpoints, whose next slot has passed. Their next
+	 * notification is not paced anymore.
+	 */
+	private void purgePeerSlots() {
+		long now = System.nanoTime();
+		for (Map.Entry<InetSocketAddress, Long> entry : peerSlots.entrySet()) {
+			if (entry.getValue() - now <= 0) {
+				peerSlots.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static void sleepUntil(final long time) throws InterruptedException {
+		long wait = time - System.nanoTime();
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * Notifies the relations of a partition.
+	 */
+	private final class PartitionTask implements Runnable {
+
+		private final List<ObserveRelation> part;
+		private final Notification notification;
+		private final ObservedResource resource;
+		private final State state;
+		private final AtomicInteger remaining;
+
+		private PartitionTask(List<ObserveRelation> part, Notification notification, ObservedResource resource,
+				State state, AtomicInteger remaining) {
+			this.part = part;
+			this.notification = notification;
+			this.resource = resource;
+			this.state = state;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public void run() {
+			try {
+				notifyPartition(part, notification);
+			} catch (InterruptedException e) {
+				LOGGER.log(Level.FINE, "Notifications of {0} aborted", resource);
+				Thread.currentThread().interrupt();
+			} finally {
+				finishPartition(resource, state, remaining);
+			}
+		}
+	}
+
+	/**
+	 * A relation waiting for the endpoint's next slot.
+	 */
+	private static final class Deferred implements Comparable<Deferred> {
+
+		private final long slot;
+		private final ObserveRelation relation;
+
+		private Deferred(long slot, ObserveRelation relation) {
+			this.slot = slot;
+			this.relation = relation;
+		}
+
+		@Override
+		public int compareTo(Deferred other) {
+			long diff = slot - other.slot;
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+
+	/**
+	 * The result of registering a change.
+	 */
+	private enum Schedule {
+
+		/** The notification must be started */
+		STARTED,
+		/** The change is coalesced with an ongoing notification */
+		COALESCED,
+		/** The state has been removed, the change must be registered again */
+		REMOVED
+	}
+
+	/**
+	 * The notification state of a resource.
+	 * <p>
+	 * Removed, once the relations have been notified about all changes.
+	 */
+	private static final class State {
+
+		/** Indicates if the state has been removed from the dispatcher */
+		private boolean removed;
+		/** Indicates if the relations are currently being notified */
+		private boolean running;
+		/** Indicates if the resource has changed since the notification started */
+		private boolean pending;
+		/** Indicates if all relations are to be notified about the pending change */
+		private boolean all;
+		private List<ObserveRelationFilter> filters = new ArrayList<ObserveRelationFilter>();
+
+		/**
+		 * Registers a change.
+		 *
+		 * @param filter the filter of the change
+		 * @return the result
+		 */
+		private synchronized Schedule schedule(final ObserveRelationFilter filter) {
+			if (removed) {
+				return Schedule.REMOVED;
+			}
+			pending = true;
+			if (filter == null) {
+				all = true;
+				filters.clear();
+			} else if (!all) {
+				filters.add(filter);
+			}
+			if (running) {
+				return Schedule.COALESCED;
+			}
+			running = true;
+			return Schedule.STARTED;
+		}
+
+		/**
+		 * Takes the filter for all changes registered since the last call.
+		 *
+		 * @return the filter, <code>null</code>, if all relations are to be
+		 *         notified
+		 */
+		private synchronized ObserveRelationFilter takeFilter() {
+			ObserveRelationFilter filter;
+			if (all) {
+				filter = null;
+			} else if (filters.size() == 1) {
+				filter = filters.get(0);
+			} else {
+				final List<ObserveRelationFilter> any = filters;
+				filter = new ObserveRelationFilter() {
+
+					@Override
+					public boolean accept(ObserveRelation relation) {
+						for (ObserveRelationFilter filter : any) {
+							if (filter.accept(relation)) {
+								return true;
+							}
+						}
+						return false;
+					}
+				};
+			}
+			pending = false;
+			all = false;
+			filters = new ArrayList<ObserveRelationFilter>();
+			return filter;
+		}
+
+		/**
+		 * Finishes a notification.
+		 *
+		 * @return true, if the resource has changed meanwhile and the
+		 *         relations must be notified again, false, if the state has
+		 *         been removed
+		 */
+		private synchronized boolean finish() {
+			if (pending) {
+				return true;
+			}
+			remove();
+			return false;
+		}
+
+		private synchronized void remove() {
+			removed = true;
+			running = false;
+			pending = false;
+			all = false;
+			filters.clear();
+		}
+	}
+}
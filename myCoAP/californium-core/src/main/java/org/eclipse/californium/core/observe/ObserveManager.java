@@ -32,18 +32,50 @@ import java.util.concurrent.ConcurrentHashMap;
  * Notice that each server has its own ObserveManager. If a server binds to
  * multiple endpoints, the ObserveManager keeps the observe relations for all of
  * them.
+ * <p>
+ * The relations of all ObservingEndpoints are indexed by endpoint address and
+ * token in one {@link CompactObserveRelationStore}, instead of a map per
+ * ObservingEndpoint.
  */
 //TODO: find a better name... how about ObserveObserver -.-
 public class ObserveManager {
 
 	/** The mapping from endpoint addresses to ObservingEndpoints */
 	private final ConcurrentHashMap<InetSocketAddress, ObservingEndpoint> endpoints;
+
+	/** The relations of all endpoints by address and token */
+	private final CompactObserveRelationStore relations;
+
+	/** The persistence of the established relations, may be null */
+	private final ObserveRelationPersistence relationPersistence;
 	
 	/**
 	 * Constructs a new ObserveManager for this server.
 	 */
 	public ObserveManager() {
-		endpoints = new ConcurrentHashMap<InetSocketAddress, ObservingEndpoint>();
+		this(null);
+	}
+
+	/**
+	 * Constructs a new ObserveManager for this server, which records the
+	 * established relations in a persistence, so they can be restored after
+	 * a restart.
+	 * 
+	 * @param relationPersistence the persistence, may be null
+	 */
+	public ObserveManager(ObserveRelationPersistence relationPersistence) {
+		this.endpoints = new ConcurrentHashMap<InetSocketAddress, ObservingEndpoint>();
+		this.relations = new CompactObserveRelationStore();
+		this.relationPersistence = relationPersistence;
+	}
+
+	/**
+	 * Gets the persistence of the established relations.
+	 * 
+	 * @return the persistence, or null, if the relations are not persisted
+	 */
+	public ObserveRelationPersistence getRelationPersistence() {
+		return relationPersistence;
 	}
 	
 	/**
@@ -78,7 +110,7 @@ public class ObserveManager {
 	 * @return the ObservingEndpoint
 	 */
 	private ObservingEndpoint createObservingEndpoint(InetSocketAddress address) {
-		ObservingEndpoint ep = new ObservingEndpoint(address);
+		ObservingEndpoint ep = new ObservingEndpoint(address, relationPersistence, relations);
 		
 		// Make sure, there is exactly one ep with the specified address (atomic creation)
 		ObservingEndpoint previous = endpoints.putIfAbsent(address, ep);
@@ -90,12 +122,16 @@ public class ObserveManager {
 	}
 
 	public ObserveRelation getRelation(InetSocketAddress source, byte[] token) {
-		ObservingEndpoint remote = getObservingEndpoint(source);
-		if (remote!=null) {
-			return remote.getObserveRelation(token);
-		} else {
-			return null;
-		}
+		return relations.get(source, token);
+	}
+
+	/**
+	 * Gets the number of observe relations of all endpoints.
+	 * 
+	 * @return the number of relations
+	 */
+	public int getRelationCount() {
+		return relations.size();
 	}
 	
 }
@@ -67,6 +67,23 @@ public class ObserveNotificationOrderer {
 		return number.get();
 	}
 	
+	/**
+	 * Advances the current notification number to the specified one, if it
+	 * is newer than the current one.
+	 * 
+	 * @param current the notification number
+	 */
+	public void advance(int current) {
+		int previous = number.get();
+		while (isNewer(previous, current) && !number.compareAndSet(previous, current)) {
+			previous = number.get();
+		}
+	}
+
+	private static boolean isNewer(int V1, int V2) {
+		return V1 < V2 && V2 - V1 < 1<<23 || V1 > V2 && V1 - V2 > 1<<23;
+	}
+	
 	/**
 	 * Returns the current timeout.
 	 * @return the current timeout
@@ -22,6 +22,7 @@
 package org.eclipse.californium.core.observe;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
@@ -68,8 +69,12 @@ public class ObserveRelation {
 	private long interestCheckTimer = System.currentTimeMillis();
 	private int interestCheckCounter = 1;
 
-	/** The notifications that have been sent, so they can be removed from the Matcher */
-	private ConcurrentLinkedQueue<Response> notifications = new ConcurrentLinkedQueue<Response>();
+	/**
+	 * The notifications that have been sent, so they can be removed from the
+	 * Matcher. Created with the first notification, most relations are never
+	 * notified more than once before they are canceled.
+	 */
+	private volatile ConcurrentLinkedQueue<Response> notifications;
 	
 	/**
 	 * Constructs a new observe relation.
@@ -107,7 +112,22 @@ public class ObserveRelation {
 	 * @param established true if the relation has been established
 	 */
 	public void setEstablished(boolean established) {
+		boolean changed = this.established != established;
 		this.established = established;
+		if (changed) {
+			endpoint.setEstablished(this, established);
+		}
+	}
+	
+	/**
+	 * Marks a relation restored from an {@link ObserveRelationPersistence} as
+	 * established.
+	 * <p>
+	 * Unlike {@link #setEstablished(boolean)}, the relation is not stored in
+	 * the persistence again, since it has been loaded from it.
+	 */
+	public void setRestored() {
+		this.established = true;
 	}
 	
 	/**
@@ -195,11 +215,36 @@ public class ObserveRelation {
 	}
 	
 	public void addNotification(Response notification) {
-		notifications.add(notification);
+		ConcurrentLinkedQueue<Response> queue = notifications;
+		if (queue == null) {
+			synchronized (this) {
+				queue = notifications;
+				if (queue == null) {
+					queue = new ConcurrentLinkedQueue<Response>();
+					notifications = queue;
+				}
+			}
+		}
+		queue.add(notification);
 	}
 	
 	public Iterator<Response> getNotificationIterator() {
-		return notifications.iterator();
+		ConcurrentLinkedQueue<Response> queue = notifications;
+		if (queue == null) {
+			return Collections.<Response>emptyList().iterator();
+		}
+		return queue.iterator();
+	}
+
+	/**
+	 * Records that a notification has been sent for this relation.
+	 *
+	 * @param notification the notification
+	 */
+	public void notificationSent(Response notification) {
+		if (established) {
+			endpoint.notificationSent(this, notification);
+		}
 	}
 	
 	public String getKey() {
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.core.coap.Request;
+
+/**
+ * A persistent store of established observe relations.
+ * <p>
+ * An {@link ObserveManager} created with a persistence records each relation,
+ * when it is established, and removes it, when it is canceled. When a
+ * {@code CoapServer} using the manager is started, the stored relations are
+ * restored, so the observing endpoints continue to receive notifications
+ * after a restart of the server without registering again.
+ * <p>
+ * A relation is identified by the address of the observing endpoint and the
+ * token of its observe request.
+ */
+public interface ObserveRelationPersistence {
+
+	/**
+	 * Handles the relations loaded from the persistence.
+	 */
+	interface RelationHandler {
+
+		/**
+		 * Restores a relation.
+		 *
+		 * @param request the observe request of the relation, including its
+		 *            token, options, and source
+		 * @param localPort the port of the server endpoint the request has
+		 *            been received by
+		 * @param observe the Observe number of the latest notification sent
+		 *            for the relation, or -1, if none has been recorded
+		 */
+		void restore(Request request, int localPort, int observe);
+	}
+
+	/**
+	 * Stores an established relation.
+	 * <p>
+	 * A stored relation of the same endpoint with the same token is replaced.
+	 * The Observe number recorded for the replaced relation is kept.
+	 *
+	 * @param relation the relation
+	 */
+	void put(ObserveRelation relation);
+
+	/**
+	 * Removes a relation.
+	 *
+	 * @param peer the address of the observing endpoint
+	 * @param token the token of the observe request
+	 */
+	void remove(InetSocketAddress peer, byte[] token);
+
+	/**
+	 * Records the Observe number of the latest notification sent for a
+	 * relation.
+	 * <p>
+	 * A restored resource continues with a greater number, so the observing
+	 * endpoints consider its notifications newer than the ones received
+	 * before the restart. Invoked for each notification, possibly by several
+	 * threads concurrently, so implementations should not block.
+	 *
+	 * @param relation the relation, which has been stored before
+	 * @param observe the Observe number
+	 */
+	void notificationSent(ObserveRelation relation, int observe);
+
+	/**
+	 * Loads all stored relations.
+	 *
+	 * @param handler the handler to pass the relations to
+	 */
+	void load(RelationHandler handler);
+}
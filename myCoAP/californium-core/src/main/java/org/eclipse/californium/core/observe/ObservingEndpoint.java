@@ -20,9 +20,8 @@
 package org.eclipse.californium.core.observe;
 
 import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.californium.core.coap.Response;
 
 /**
  * This class represents an observing endpoint. It holds all observe relations
@@ -35,24 +34,52 @@ public class ObservingEndpoint {
 	/** The endpoint's address */
 	private final InetSocketAddress address;
 
-	/** The list of relations the endpoint has established with this server */
-	private final List<ObserveRelation> relations;
+	/** The relations of all endpoints by address and token */
+	private final CompactObserveRelationStore relations;
+
+	/** The persistence of the established relations, may be null */
+	private final ObserveRelationPersistence persistence;
 	
 	/**
 	 * Constructs a new ObservingEndpoint.
 	 * @param address the endpoint's address
 	 */
 	public ObservingEndpoint(InetSocketAddress address) {
+		this(address, null);
+	}
+
+	/**
+	 * Constructs a new ObservingEndpoint, which records its established
+	 * relations in a persistence.
+	 * @param address the endpoint's address
+	 * @param persistence the persistence, may be null
+	 */
+	public ObservingEndpoint(InetSocketAddress address, ObserveRelationPersistence persistence) {
+		this(address, persistence, new CompactObserveRelationStore(1));
+	}
+
+	/**
+	 * Constructs a new ObservingEndpoint, which keeps its relations in the
+	 * store shared by the endpoints of an {@link ObserveManager}.
+	 * @param address the endpoint's address
+	 * @param persistence the persistence, may be null
+	 * @param relations the store of the relations
+	 */
+	ObservingEndpoint(InetSocketAddress address, ObserveRelationPersistence persistence,
+			CompactObserveRelationStore relations) {
 		this.address = address;
-		this.relations = new CopyOnWriteArrayList<ObserveRelation>();
+		this.relations = relations;
+		this.persistence = persistence;
 	}
 	
 	/**
 	 * Adds the specified observe relation.
+	 * <p>
+	 * A relation with the same token is replaced.
 	 * @param relation the relation
 	 */
 	public void addObserveRelation(ObserveRelation relation) {
-		relations.add(relation);
+		relations.put(address, relation.getExchange().getRequest().getToken(), relation);
 	}
 	
 	/**
@@ -60,7 +87,7 @@ public class ObservingEndpoint {
 	 * @param relation the relation
 	 */
 	public void removeObserveRelation(ObserveRelation relation) {
-		relations.remove(relation);
+		relations.remove(address, relation.getExchange().getRequest().getToken(), relation);
 	}
 	
 	/**
@@ -68,7 +95,7 @@ public class ObservingEndpoint {
 	 * resources from this server.
 	 */
 	public void cancelAll() {
-		for (ObserveRelation relation:relations)
+		for (ObserveRelation relation:relations.getRelations(address))
 			relation.cancel();
 	}
 
@@ -81,11 +108,41 @@ public class ObservingEndpoint {
 	}
 
 	public ObserveRelation getObserveRelation(byte[] token) {
-		for (ObserveRelation relation:relations) {
-			if (Arrays.equals(relation.getExchange().getRequest().getToken(), token)) {
-				return relation;
+		return relations.get(address, token);
+	}
+
+	/**
+	 * Updates the persistence, if a relation of this endpoint has been
+	 * established or is no longer established.
+	 * @param relation the relation
+	 * @param established true if the relation has been established
+	 */
+	void setEstablished(ObserveRelation relation, boolean established) {
+		if (persistence == null) {
+			return;
+		}
+		byte[] token = relation.getExchange().getRequest().getToken();
+		if (established) {
+			persistence.put(relation);
+		} else {
+			// a relation replaced by a new one of the same token is canceled
+			// after the new one has been persisted
+			ObserveRelation current = getObserveRelation(token);
+			if (current == null || current == relation) {
+				persistence.remove(address, token);
 			}
 		}
-		return null;
+	}
+
+	/**
+	 * Updates the persistence, if a notification has been sent for a
+	 * relation of this endpoint.
+	 * @param relation the relation
+	 * @param notification the notification
+	 */
+	void notificationSent(ObserveRelation relation, Response notification) {
+		if (persistence != null) {
+			persistence.notificationSent(relation, notification.getOptions().getObserve());
+		}
 	}
 }
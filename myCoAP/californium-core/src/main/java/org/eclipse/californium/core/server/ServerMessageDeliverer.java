@@ -22,26 +22,32 @@
 package org.eclipse.californium.core.server;
 
 import java.net.InetSocketAddress;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP.Code;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.observe.ObserveManager;
 import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.observe.ObserveRelationPersistence;
 import org.eclipse.californium.core.observe.ObservingEndpoint;
 import org.eclipse.californium.core.server.resources.Resource;
 
 /**
  * The ServerMessageDeliverer delivers requests to corresponding resources and
  * responses to corresponding requests.
+ * <p>
+ * The resource of a request is found by resolving the Uri-Path segment by
+ * segment through the children of the resources, see
+ * {@link #findResource(List)}.
  */
 public class ServerMessageDeliverer implements MessageDeliverer {
 
@@ -51,7 +57,10 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	private final Resource root;
 
 	/* The manager of the observe mechanism for this server */
-	private final ObserveManager observeManager = new ObserveManager();
+	private final ObserveManager observeManager;
+
+	/* Indicates, whether the persisted observe relations have been restored */
+	private boolean observeRelationsRestored;
 
 	/**
 	 * Constructs a default message deliverer that delivers requests to the
@@ -60,7 +69,25 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	 * @param root the root resource
 	 */
 	public ServerMessageDeliverer(final Resource root) {
+		this(root, new ObserveManager());
+	}
+
+	/**
+	 * Constructs a message deliverer that delivers requests to the resources
+	 * rooted at the specified root and manages observe relations with the
+	 * specified manager.
+	 * 
+	 * @param root the root resource
+	 * @param observeManager the manager of the observe relations, e.g. one
+	 *            recording them in an
+	 *            {@link org.eclipse.californium.core.observe.ObserveRelationPersistence}
+	 */
+	public ServerMessageDeliverer(final Resource root, final ObserveManager observeManager) {
+		if (observeManager == null) {
+			throw new NullPointerException("ObserveManager must not be null");
+		}
 		this.root = root;
+		this.observeManager = observeManager;
 	}
 
 	/**
@@ -171,6 +198,68 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 		}
 	}
 
+	/**
+	 * Restores the observe relations recorded by the persistence of the
+	 * observe manager.
+	 * <p>
+	 * The relations are restored only once, typically when the server is
+	 * started for the first time. Each relation is bound to the endpoint the
+	 * observe request has been received by, or to the first endpoint, if no
+	 * endpoint with that port exists anymore. Relations to resources, which
+	 * no longer exist or are no longer observable, are removed from the
+	 * persistence.
+	 * 
+	 * @param endpoints the endpoints of the server
+	 * @return the number of restored relations
+	 */
+	public synchronized int restoreObserveRelations(final List<Endpoint> endpoints) {
+		final ObserveRelationPersistence persistence = observeManager.getRelationPersistence();
+		if (persistence == null || observeRelationsRestored || endpoints.isEmpty()) {
+			return 0;
+		}
+		observeRelationsRestored = true;
+		final int[] restored = { 0 };
+		persistence.load(new ObserveRelationPersistence.RelationHandler() {
+
+			@Override
+			public void restore(final Request request, final int localPort, final int observe) {
+				InetSocketAddress source = new InetSocketAddress(request.getSource(), request.getSourcePort());
+				Resource resource = findResource(request.getOptions().getUriPath());
+				if (resource == null || !resource.isObservable()) {
+					LOGGER.log(Level.FINE, "Discarding observe relation of {0} with no longer observable resource {1}",
+							new Object[]{source, request.getOptions().getUriPathString()});
+					persistence.remove(source, request.getToken());
+					return;
+				}
+				Endpoint endpoint = endpoints.get(0);
+				for (Endpoint candidate : endpoints) {
+					if (candidate.getAddress().getPort() == localPort) {
+						endpoint = candidate;
+						break;
+					}
+				}
+				// the request has been acknowledged before the restart
+				request.setAcknowledged(true);
+				Exchange exchange = new Exchange(request, Exchange.Origin.REMOTE);
+				exchange.setRequest(request);
+				exchange.setEndpoint(endpoint);
+				ObservingEndpoint remote = observeManager.findObservingEndpoint(source);
+				ObserveRelation relation = new ObserveRelation(remote, resource, exchange);
+				remote.addObserveRelation(relation);
+				exchange.setRelation(relation);
+				// the relation is still stored, don't append it again
+				relation.setRestored();
+				resource.addObserveRelation(relation);
+				if (observe >= 0 && resource instanceof CoapResource) {
+					((CoapResource) resource).advanceObserveNumber(observe);
+				}
+				restored[0]++;
+			}
+		});
+		LOGGER.log(Level.INFO, "Restored {0} observe relations", restored[0]);
+		return restored[0];
+	}
+
 	/**
 	 * Searches in the resource tree for the specified path. A parent resource
 	 * may accept requests to subresources, e.g., to allow addresses with
@@ -180,11 +269,12 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	 * @return the resource or null if not found
 	 */
 	protected final Resource findResource(final List<String> list) {
-		Deque<String> path = new LinkedList<String>(list);
+		// each resource indexes its children by name, so the path is
+		// resolved in one pass without copying it
 		Resource current = root;
-		while (!path.isEmpty() && current != null) {
-			String name = path.removeFirst();
-			current = current.getChild(name);
+		Iterator<String> path = list.iterator();
+		while (path.hasNext() && current != null) {
+			current = current.getChild(path.next());
 		}
 		return current;
 	}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@link ReregistrationScheduler}.
+ */
+@Category(Small.class)
+public class ReregistrationSchedulerTest {
+
+	ReregistrationScheduler scheduler;
+
+	@After
+	public void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testRelationsAreReregisteredNotBeforeDue() throws Exception {
+		// GIVEN a scheduler with 50 ms buckets and no jitter
+		scheduler = new ReregistrationScheduler(50, 0, 100);
+		List<TestRelation> relations = newRelations(10);
+
+		// WHEN scheduling the relations to be re-registered in 200 ms
+		long start = System.nanoTime();
+		for (TestRelation relation : relations) {
+			scheduler.schedule(relation, 200);
+		}
+
+		// THEN all relations are re-registered once, but not before 200 ms
+		for (TestRelation relation : relations) {
+			assertTrue(relation.awaitReregistrations(1));
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(relation.reregistered - start);
+			assertTrue("re-registered too early after " + elapsed + "ms", elapsed >= 200 - 1);
+		}
+		assertThat(scheduler.getScheduledCount(), is(0));
+	}
+
+	@Test
+	public void testRescheduleReplacesAndCancelRemovesReregistration() throws Exception {
+		// GIVEN a scheduler with two scheduled relations
+		scheduler = new ReregistrationScheduler(20, 0, 100);
+		List<TestRelation> relations = newRelations(2);
+		scheduler.schedule(relations.get(0), 50);
+		scheduler.schedule(relations.get(1), 50);
+
+		// WHEN rescheduling the first and canceling the second one
+		scheduler.schedule(relations.get(0), 100);
+		scheduler.cancel(relations.get(1));
+
+		// THEN only the first relation is re-registered, once
+		assertTrue(relations.get(0).awaitReregistrations(1));
+		Thread.sleep(100);
+		assertThat(relations.get(0).reregistrations.get(), is(1));
+		assertThat(relations.get(1).reregistrations.get(), is(0));
+	}
+
+	@Test
+	public void testPendingReregistrationsAreLimited() throws Exception {
+		// GIVEN a scheduler allowing two pending re-registrations
+		scheduler = new ReregistrationScheduler(20, 0, 2);
+		List<TestRelation> relations = newRelations(5);
+
+		// WHEN five relations are due
+		for (TestRelation relation : relations) {
+			scheduler.schedule(relation, 0);
+		}
+
+		// THEN only two of them are re-registered
+		assertTrue(relations.get(1).awaitReregistrations(1));
+		Thread.sleep(100);
+		assertThat(countReregistered(relations), is(2));
+		assertThat(scheduler.getPendingCount(), is(2));
+
+		// WHEN the first re-registration completes
+		scheduler.completed(relations.get(0));
+
+		// THEN the next relation is re-registered
+		assertTrue(relations.get(2).awaitReregistrations(1));
+		assertThat(countReregistered(relations), is(3));
+	}
+
+	@Test
+	public void testJitterSpreadsReregistrations() throws Exception {
+		// GIVEN a scheduler with 10 ms buckets and a jitter of 300 ms
+		scheduler = new ReregistrationScheduler(10, 300, 100);
+		List<TestRelation> relations = newRelations(50);
+
+		// WHEN scheduling the relations at once
+		for (TestRelation relation : relations) {
+			scheduler.schedule(relation, 0);
+		}
+
+		// THEN they are re-registered over a time span of more than one bucket
+		long first = Long.MAX_VALUE;
+		long last = 0;
+		for (TestRelation relation : relations) {
+			assertTrue(relation.awaitReregistrations(1));
+			first = Math.min(first, relation.reregistered);
+			last = Math.max(last, relation.reregistered);
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(last - first) > 100);
+	}
+
+	@Test
+	public void testTimerIsOnlyRunningWhileReregistrationsAreScheduled() throws Exception {
+		// GIVEN an idle scheduler
+		scheduler = new ReregistrationScheduler(10, 0, 100);
+		assertFalse(scheduler.isTimerRunning());
+		TestRelation relation = new TestRelation();
+
+		// WHEN a relation is scheduled
+		scheduler.schedule(relation, 50);
+
+		// THEN the timer is started
+		assertTrue(scheduler.isTimerRunning());
+		// and stopped, after the relation has been re-registered
+		assertTrue(relation.awaitReregistrations(1));
+		assertTimerRunning(false);
+
+		// WHEN the relation is scheduled again
+		scheduler.schedule(relation, 0);
+
+		// THEN it is re-registered by a new timer
+		assertTrue(relation.awaitReregistrations(2));
+		assertTimerRunning(false);
+	}
+
+	@Test
+	public void testReregistrationBackoffIsTakenFromConfiguration() throws Exception {
+		// GIVEN a relation of an endpoint configured without back-off
+		scheduler = new ReregistrationScheduler(10, 0, 100);
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_BACKOFF, 0);
+		TestRelation relation = new TestRelation(new CoapEndpoint(config), scheduler);
+		long start = System.nanoTime();
+
+		// WHEN a notification without Max-Age is received
+		Response response = new Response(ResponseCode.CONTENT);
+		response.getOptions().setObserve(1).setMaxAge(0);
+		assertTrue(relation.onResponse(new CoapResponse(response)));
+
+		// THEN the relation is re-registered without the default back-off of 2 seconds
+		assertTrue(relation.awaitReregistrations(1));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(relation.reregistered - start) < 1000);
+	}
+
+	private void assertTimerRunning(boolean expected) throws InterruptedException {
+		// the timer is stopped after the due relations have been re-registered
+		long end = System.currentTimeMillis() + 2000;
+		while (scheduler.isTimerRunning() != expected && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertThat(scheduler.isTimerRunning(), is(expected));
+	}
+
+	private static int countReregistered(List<TestRelation> relations) {
+		int count = 0;
+		for (TestRelation relation : relations) {
+			count += relation.reregistrations.get();
+		}
+		return count;
+	}
+
+	private static List<TestRelation> newRelations(int count) {
+		List<TestRelation> relations = new ArrayList<TestRelation>();
+		for (int i = 0; i < count; i++) {
+			relations.add(new TestRelation());
+		}
+		return relations;
+	}
+
+	private static class TestRelation extends CoapObserveRelation {
+
+		private final AtomicInteger reregistrations = new AtomicInteger();
+		private volatile long reregistered;
+
+		private TestRelation() {
+			super(Request.newGet(), null);
+		}
+
+		private TestRelation(Endpoint endpoint, ReregistrationScheduler scheduler) {
+			super(Request.newGet(), endpoint, scheduler);
+		}
+
+		@Override
+		public boolean reregister() {
+			reregistered = System.nanoTime();
+			synchronized (reregistrations) {
+				reregistrations.incrementAndGet();
+				reregistrations.notifyAll();
+			}
+			return true;
+		}
+
+		private boolean awaitReregistrations(int expected) throws InterruptedException {
+			long end = System.currentTimeMillis() + 2000;
+			synchronized (reregistrations) {
+				while (reregistrations.get() < expected) {
+					long wait = end - System.currentTimeMillis();
+					if (wait <= 0) {
+						return false;
+					}
+					reregistrations.wait(wait);
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import static org.eclipse.californium.core.network.MessageIdTracker.TOTAL_NO_OF_MIDS;
+
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.CheckCondition;
+import org.eclipse.californium.TestTools;
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Test;
+
+/**
+ * Verifies that BucketedMessageIdTracker correctly marks MIDs as
+ * <em>in use</em>.
+ *
+ */
+public class BucketedMessageIdTrackerTest {
+
+	private static final int NUMBER_OF_THREADS = 4;
+
+	@Test
+	public void testGetNextMessageIdFailsIfAllMidsAreInUse() throws Exception {
+		// GIVEN a tracker whose MIDs are all in use
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+		BucketedMessageIdTracker tracker = new BucketedMessageIdTracker(0, config);
+		for (int i = 0; i < TOTAL_NO_OF_MIDS; i++) {
+			assertThat(tracker.getNextMessageId(), is(i));
+		}
+
+		// WHEN retrieving the next message IDs from the tracker
+		int mid = tracker.getNextMessageId();
+
+		// THEN the returned MID is -1
+		assertThat(mid, is(Message.NONE));
+	}
+
+	@Test
+	public void testGetNextMessageIdReusesIdAfterExchangeLifetime() throws Exception {
+		// GIVEN a tracker with an EXCHANGE_LIFETIME of 100ms
+		int exchangeLifetime = 100; // ms
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile().setInt(NetworkConfig.Keys.EXCHANGE_LIFETIME,
+				exchangeLifetime);
+		final BucketedMessageIdTracker tracker = new BucketedMessageIdTracker(1000, config);
+
+		// WHEN retrieving all message IDs from the tracker
+		int firstMid = tracker.getNextMessageId();
+		for (int i = 1; i < TOTAL_NO_OF_MIDS; i++) {
+			tracker.getNextMessageId();
+		}
+
+		// THEN the first message ID is re-used after
+		// EXCHANGE_LIFETIME has expired
+		exchangeLifetime += (exchangeLifetime >> 1); // a little longer
+		final AtomicInteger mid = new AtomicInteger(-1);
+		TestTools.waitForCondition(exchangeLifetime, 10, TimeUnit.MILLISECONDS, new CheckCondition() {
+
+			@Override
+			public boolean isFulFilled() throws IllegalStateException {
+				mid.set(tracker.getNextMessageId());
+				return 0 <= mid.get();
+			}
+		});
+		assertThat(mid.get(), is(firstMid));
+	}
+
+	@Test
+	public void testConcurrentCallersGetDistinctMids() throws Exception {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+		final BucketedMessageIdTracker tracker = new BucketedMessageIdTracker(0, config);
+		final BitSet used = new BitSet(TOTAL_NO_OF_MIDS);
+		final AtomicInteger duplicates = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(NUMBER_OF_THREADS);
+		for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+			new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					int mid;
+					while ((mid = tracker.getNextMessageId()) != Message.NONE) {
+						synchronized (used) {
+							if (used.get(mid)) {
+								duplicates.incrementAndGet();
+							}
+							used.set(mid);
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertThat(duplicates.get(), is(0));
+		assertThat(used.cardinality(), is(TOTAL_NO_OF_MIDS));
+	}
+}
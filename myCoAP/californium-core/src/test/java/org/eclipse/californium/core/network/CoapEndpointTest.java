@@ -25,8 +25,11 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.californium.category.Small;
@@ -89,6 +92,15 @@ public class CoapEndpointTest {
 		endpoint.stop();
 	}
 
+	@Test
+	public void testExchangeStoreIsSelectedByConfiguration() throws Exception {
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+		assertTrue(CoapEndpoint.createExchangeStore(config).getClass().equals(InMemoryMessageExchangeStore.class));
+
+		config.setString(NetworkConfig.Keys.EXCHANGE_STORE, NetworkConfig.Keys.EXCHANGE_STORE_PACKED_KEYS);
+		assertTrue(CoapEndpoint.createExchangeStore(config) instanceof PackedKeyMessageExchangeStore);
+	}
+
 	@Test
 	public void testSendRequestAddsMessageCallbackToOutboundMessage() throws Exception {
 
@@ -163,6 +175,113 @@ public class CoapEndpointTest {
 		assertTrue(receivedRequests.isEmpty());
 	}
 
+	@Test
+	public void testStripedProtocolStageProcessesMessagesOfPeerInOrder() throws Exception {
+		int count = 50;
+		latch = new CountDownLatch(count);
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setBoolean(NetworkConfig.Keys.PROTOCOL_STAGE_STRIPED, true)
+				.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, 4);
+		SimpleConnector stripedConnector = new SimpleConnector();
+		CoapEndpoint stripedEndpoint = new CoapEndpoint(stripedConnector, config);
+		final List<Integer> mids = new ArrayList<Integer>();
+		stripedEndpoint.setMessageDeliverer(new MessageDeliverer() {
+
+			@Override
+			public void deliverResponse(Exchange exchange, Response response) {
+			}
+
+			@Override
+			public void deliverRequest(Exchange exchange) {
+				synchronized (mids) {
+					mids.add(exchange.getRequest().getMID());
+				}
+				latch.countDown();
+			}
+		});
+		ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+		stripedEndpoint.setExecutor(executor);
+		stripedEndpoint.start();
+		try {
+			for (int mid = 0; mid < count; mid++) {
+				byte[] request = getSerializedRequest();
+				request[3] = (byte) mid;
+				stripedConnector.receiveMessage(RawData.inbound(request, SOURCE_ADDRESS, null, null, false));
+			}
+			assertTrue(latch.await(2, TimeUnit.SECONDS));
+			synchronized (mids) {
+				for (int mid = 0; mid < count; mid++) {
+					assertThat(mids.get(mid), is(mid));
+				}
+			}
+		} finally {
+			stripedEndpoint.destroy();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testStripedProtocolStageSendsResponseOfCustomExecutorAfterPeerTasks() throws Exception {
+		latch = new CountDownLatch(1);
+		NetworkConfig config = NetworkConfig.createStandardWithoutFile()
+				.setBoolean(NetworkConfig.Keys.PROTOCOL_STAGE_STRIPED, true)
+				.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, 4);
+		final List<String> events = new ArrayList<String>();
+		SimpleConnector stripedConnector = new SimpleConnector() {
+
+			@Override
+			public void send(RawData msg) {
+				synchronized (events) {
+					events.add("sent");
+				}
+				latch.countDown();
+			}
+		};
+		CoapEndpoint stripedEndpoint = new CoapEndpoint(stripedConnector, config);
+		stripedEndpoint.setMessageDeliverer(new MessageDeliverer() {
+
+			@Override
+			public void deliverResponse(Exchange exchange, Response response) {
+			}
+
+			@Override
+			public void deliverRequest(final Exchange exchange) {
+				// respond from the business logic stage while the peer's task is still running
+				exchange.setCustomExecutor();
+				Thread responder = new Thread() {
+
+					@Override
+					public void run() {
+						exchange.sendResponse(new Response(CoAP.ResponseCode.CONTENT));
+					}
+				};
+				responder.start();
+				try {
+					responder.join();
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				synchronized (events) {
+					events.add("delivered");
+				}
+			}
+		});
+		ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+		stripedEndpoint.setExecutor(executor);
+		stripedEndpoint.start();
+		try {
+			stripedConnector.receiveMessage(RawData.inbound(getSerializedRequest(), SOURCE_ADDRESS, null, null, false));
+			assertTrue(latch.await(2, TimeUnit.SECONDS));
+			synchronized (events) {
+				assertThat(events, is(Arrays.asList("delivered", "sent")));
+			}
+		} finally {
+			stripedEndpoint.destroy();
+			executor.shutdown();
+		}
+	}
+
 	private byte[] getSerializedRequest() {
 		return new byte[] { 0b01000011, // ver 1, CON, token length: 3
 				0b00000001, // code: 0.01 (GET request)
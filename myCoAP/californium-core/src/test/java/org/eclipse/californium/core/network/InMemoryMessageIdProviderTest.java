@@ -70,6 +70,13 @@ public class InMemoryMessageIdProviderTest {
 		testLimitedTrackerGetNextMessageIdReturnsMid(provider);
 	}
 
+	@Test
+	public void testBucketedTrackerGetNextMessageIdReturnsMid() {
+		config.set(NetworkConfig.Keys.MID_TRACKER, "BUCKETED");
+		InMemoryMessageIdProvider provider = new InMemoryMessageIdProvider(config);
+		testLimitedTrackerGetNextMessageIdReturnsMid(provider);
+	}
+
 	@Test
 	public void testGroupedTrackerGetNextMessageIdReturnsMid() {
 		config.set(NetworkConfig.Keys.MID_TRACKER, "GROUPED");
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.Exchange.KeyToken;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of the {@link PackedExchangeMap} class.
+ *
+ */
+@Category(Small.class)
+public class PackedExchangeMapTest {
+
+	private static final int NUMBER_OF_EXCHANGES = 5000;
+
+	@Test
+	public void testPutGetAndRemoveManyMessageIds() throws Exception {
+		PackedExchangeMap<KeyMID> map = PackedExchangeMap.forMessageIds(4);
+		Exchange[] exchanges = new Exchange[NUMBER_OF_EXCHANGES];
+		for (int mid = 0; mid < NUMBER_OF_EXCHANGES; mid++) {
+			exchanges[mid] = newOutboundRequest(mid, "192.168.0.1", 5683);
+			assertThat(map.putIfAbsent(keyMid(exchanges[mid]), exchanges[mid]), is(nullValue()));
+		}
+		assertThat(map.size(), is(NUMBER_OF_EXCHANGES));
+
+		// remove every other exchange, shifting back entries of probe sequences
+		for (int mid = 0; mid < NUMBER_OF_EXCHANGES; mid += 2) {
+			assertThat(map.remove(keyMid(exchanges[mid])), is(exchanges[mid]));
+		}
+		for (int mid = 0; mid < NUMBER_OF_EXCHANGES; mid++) {
+			Exchange expected = mid % 2 == 0 ? null : exchanges[mid];
+			assertThat(map.get(keyMid(exchanges[mid])), is(expected));
+		}
+		assertThat(map.size(), is(NUMBER_OF_EXCHANGES / 2));
+		assertThat(map.entrySet().size(), is(NUMBER_OF_EXCHANGES / 2));
+	}
+
+	@Test
+	public void testKeysDifferingInPortAreDistinct() throws Exception {
+		PackedExchangeMap<KeyMID> map = PackedExchangeMap.forMessageIds(1);
+		Exchange first = newOutboundRequest(1, "10.0.0.1", 5683);
+		Exchange second = newOutboundRequest(1, "10.0.0.1", 65000);
+		map.put(keyMid(first), first);
+		map.put(keyMid(second), second);
+		assertThat(map.get(keyMid(first)), is(first));
+		assertThat(map.get(keyMid(second)), is(second));
+	}
+
+	@Test
+	public void testRemoveOnlyRemovesGivenExchange() throws Exception {
+		PackedExchangeMap<KeyMID> map = PackedExchangeMap.forMessageIds(1);
+		Exchange exchange = newOutboundRequest(1, "10.0.0.1", 5683);
+		Exchange other = newOutboundRequest(1, "10.0.0.1", 5683);
+		map.put(keyMid(exchange), exchange);
+		assertThat(map.remove(keyMid(other), other), is(false));
+		assertThat(map.remove(keyMid(exchange), exchange), is(true));
+		assertThat(map.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testTokensOfDifferentLengthAreDistinct() throws Exception {
+		PackedExchangeMap<KeyToken> map = PackedExchangeMap.forTokens(1);
+		byte[] address = InetAddress.getByName("10.0.0.1").getAddress();
+		KeyToken shortToken = KeyToken.fromValues(new byte[] { 0x00 }, address, 5683);
+		KeyToken longToken = KeyToken.fromValues(new byte[] { 0x00, 0x00 }, address, 5683);
+		Exchange first = newOutboundRequest(1, "10.0.0.1", 5683);
+		Exchange second = newOutboundRequest(2, "10.0.0.1", 5683);
+		map.put(shortToken, first);
+		map.put(longToken, second);
+		assertThat(map.get(KeyToken.fromValues(new byte[] { 0x00 }, address, 5683)), is(first));
+		assertThat(map.get(longToken), is(second));
+	}
+
+	@Test
+	public void testIpv6KeysArePacked() throws Exception {
+		PackedExchangeMap<KeyMID> map = PackedExchangeMap.forMessageIds(1);
+		Exchange exchange = newOutboundRequest(1, "[::1]", 5683);
+		Exchange other = newOutboundRequest(1, "[::ffff:127.0.0.1]", 5683);
+		map.put(keyMid(exchange), exchange);
+		map.put(keyMid(other), other);
+		assertThat(map.get(keyMid(exchange)), is(exchange));
+		assertThat(map.get(keyMid(other)), is(other));
+		assertThat(map.size(), is(2));
+		map.clear();
+		assertThat(map.get(keyMid(exchange)), is(nullValue()));
+	}
+
+	@Test
+	public void testEntrySetContainsOriginalKeys() throws Exception {
+		// GIVEN a map containing exchanges of IPv4 and IPv6 peers
+		PackedExchangeMap<KeyToken> map = PackedExchangeMap.forTokens(1);
+		KeyToken ipv4 = KeyToken.fromValues(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 },
+				InetAddress.getByName("10.0.0.1").getAddress(), 5683);
+		KeyToken ipv6 = KeyToken.fromValues(new byte[0], InetAddress.getByName("[2001:db8::1]").getAddress(), 65535);
+		Exchange first = newOutboundRequest(1, "10.0.0.1", 5683);
+		Exchange second = newOutboundRequest(2, "[2001:db8::1]", 65535);
+		map.put(ipv4, first);
+		map.put(ipv6, second);
+
+		// WHEN iterating the entries
+		Map<KeyToken, Exchange> copy = new HashMap<KeyToken, Exchange>(map);
+
+		// THEN the keys are restored from their packed words
+		assertThat(copy.size(), is(2));
+		assertThat(copy.get(ipv4), is(first));
+		assertThat(copy.get(ipv6), is(second));
+	}
+
+	@Test
+	public void testLookupWithoutKey() throws Exception {
+		// GIVEN exchanges registered by key
+		PackedExchangeMap.MessageIdMap mids = PackedExchangeMap.forMessageIds(1);
+		PackedExchangeMap.TokenMap tokens = PackedExchangeMap.forTokens(1);
+		Exchange exchange = newOutboundRequest(4711, "[::1]", 5683);
+		byte[] token = new byte[] { 1, 2, 3 };
+		byte[] address = InetAddress.getByName("[::1]").getAddress();
+		mids.put(keyMid(exchange), exchange);
+		tokens.put(KeyToken.fromValues(token, address, 5683), exchange);
+
+		// THEN the exchanges are found by the message's fields
+		assertThat(tokens.get(new byte[] { 1, 2, 3 }, address, 5683), is(exchange));
+		assertThat(tokens.get(new byte[] { 1, 2 }, address, 5683), is(nullValue()));
+		assertThat(tokens.get(new byte[9], address, 5683), is(nullValue()));
+		assertThat(mids.get(4711, address, 5683), is(exchange));
+		assertThat(mids.get(4711, address, 5684), is(nullValue()));
+		assertThat(mids.remove(4711, address, 5683, newOutboundRequest(4711, "[::1]", 5683)), is(nullValue()));
+		assertThat(mids.remove(4711, address, 5683, exchange), is(exchange));
+		assertThat(mids.get(keyMid(exchange)), is(nullValue()));
+	}
+
+	@Test
+	public void testRemovedSlotsAreReclaimed() throws Exception {
+		// GIVEN a map, to which many distinct exchanges are added and removed again
+		PackedExchangeMap<KeyMID> map = PackedExchangeMap.forMessageIds(1);
+		Exchange stable = newOutboundRequest(65535, "10.0.0.2", 5683);
+		map.put(keyMid(stable), stable);
+		for (int mid = 0; mid < 65535; mid++) {
+			Exchange exchange = newOutboundRequest(mid, "10.0.0.1", 5683);
+			map.put(keyMid(exchange), exchange);
+			assertThat(map.remove(keyMid(exchange)), is(exchange));
+			// re-adding uses the slot of the removed exchange
+			map.put(keyMid(exchange), exchange);
+			assertThat(map.remove(keyMid(exchange)), is(exchange));
+		}
+
+		// THEN only the remaining exchange is contained
+		assertThat(map.size(), is(1));
+		assertThat(map.get(keyMid(stable)), is(stable));
+		assertThat(map.entrySet().size(), is(1));
+	}
+
+	@Test
+	public void testReadersAlwaysFindStableExchanges() throws Exception {
+		// GIVEN a map containing exchanges, which are never removed
+		final PackedExchangeMap.MessageIdMap map = PackedExchangeMap.forMessageIds(1);
+		final byte[] address = InetAddress.getByName("10.0.0.1").getAddress();
+		final Exchange[] stable = new Exchange[64];
+		for (int mid = 0; mid < stable.length; mid++) {
+			stable[mid] = newOutboundRequest(mid, "10.0.0.1", 5683);
+			map.put(keyMid(stable[mid]), stable[mid]);
+		}
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger misses = new AtomicInteger();
+		Thread[] readers = new Thread[2];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while (running.get()) {
+						for (int mid = 0; mid < stable.length; mid++) {
+							if (map.get(mid, address, 5683) != stable[mid]) {
+								misses.incrementAndGet();
+							}
+						}
+					}
+				}
+			});
+			readers[i].start();
+		}
+
+		// WHEN other exchanges are added and removed, growing and rebuilding the table
+		try {
+			for (int round = 0; round < 20; round++) {
+				for (int mid = stable.length; mid < NUMBER_OF_EXCHANGES; mid++) {
+					Exchange exchange = newOutboundRequest(mid, "10.0.0.1", 5683);
+					map.put(keyMid(exchange), exchange);
+				}
+				for (int mid = stable.length; mid < NUMBER_OF_EXCHANGES; mid++) {
+					map.remove(mid, address, 5683, null);
+				}
+			}
+		} finally {
+			running.set(false);
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		}
+
+		// THEN the readers have always found the stable exchanges
+		assertThat(misses.get(), is(0));
+		assertThat(map.size(), is(stable.length));
+	}
+
+	private static KeyMID keyMid(final Exchange exchange) {
+		return KeyMID.fromOutboundMessage(exchange.getCurrentRequest());
+	}
+
+	private static Exchange newOutboundRequest(final int mid, final String host, final int port) {
+		Request request = Request.newGet();
+		request.setURI("coap://" + host + ":" + port + "/test");
+		request.setMID(mid);
+		return new Exchange(request, Origin.LOCAL);
+	}
+}
@@ -24,10 +24,13 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 
 import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.EmptyMessage;
 import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
 import org.eclipse.californium.core.network.Exchange.KeyToken;
 import org.eclipse.californium.core.network.Exchange.Origin;
 import org.eclipse.californium.core.network.config.NetworkConfig;
@@ -229,6 +232,44 @@ public class UdpMatcherTest {
 		assertThat(tokenProvider.isTokenInUse(keyToken), is(true));
 	}
 
+	@Test
+	public void testReceiveResponseClosesRequestUsingPackedKeyStore() {
+		// GIVEN a request sent using a store with packed keys
+		messageExchangeStore = new PackedKeyMessageExchangeStore(config, tokenProvider);
+		UdpMatcher matcher = newMatcher(false);
+		Exchange exchange = sendRequest(matcher, null);
+		KeyMID idByMID = KeyMID.fromOutboundMessage(exchange.getCurrentRequest());
+		assertThat(messageExchangeStore.get(idByMID), is(exchange));
+
+		// WHEN a piggy-backed response arrives
+		Response response = responseFor(exchange.getCurrentRequest());
+		response.setType(Type.ACK);
+		Exchange matchedExchange = matcher.receiveResponse(response, null);
+
+		// THEN the response is matched and the request's MID is released
+		assertThat(matchedExchange, is(exchange));
+		assertThat(messageExchangeStore.get(idByMID), is(nullValue()));
+	}
+
+	@Test
+	public void testReceiveEmptyMessageMatchesRequestUsingPackedKeyStore() {
+		// GIVEN a request sent using a store with packed keys
+		messageExchangeStore = new PackedKeyMessageExchangeStore(config, tokenProvider);
+		UdpMatcher matcher = newMatcher(false);
+		Exchange exchange = sendRequest(matcher, null);
+		Request request = exchange.getCurrentRequest();
+
+		// WHEN an empty ACK arrives
+		EmptyMessage ack = new EmptyMessage(Type.ACK);
+		ack.setMID(request.getMID());
+		ack.setSource(request.getDestination());
+		ack.setSourcePort(request.getDestinationPort());
+
+		// THEN the exchange is matched once
+		assertThat(matcher.receiveEmptyMessage(ack), is(exchange));
+		assertThat(matcher.receiveEmptyMessage(ack), is(nullValue()));
+	}
+
 	/**
 	 * Verifies that canceling a message that has no MID set does not throw an exception.
 	 * 
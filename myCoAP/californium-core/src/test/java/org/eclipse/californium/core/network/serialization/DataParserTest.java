@@ -24,7 +24,9 @@ package org.eclipse.californium.core.network.serialization;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
@@ -65,6 +67,7 @@ import org.junit.runners.Parameterized;
 	@Parameterized.Parameters public static List<Object[]> parameters() {
 		List<Object[]> parameters = new ArrayList<>();
 		parameters.add(new Object[] { new UdpDataSerializer(), new UdpDataParser(), 7 });
+		parameters.add(new Object[] { new UdpDataSerializer(), new UdpDataParser(true), 7 });
 		parameters.add(new Object[] { new TcpDataSerializer(), new TcpDataParser(), Message.NONE });
 		return parameters;
 	}
@@ -150,6 +153,51 @@ import org.junit.runners.Parameterized;
 		}
 	}
 
+	@Test public void testParseMessageDetectsTruncatedOptionDelta() {
+		// GIVEN a request with an option delta lacking its extended value
+		byte[] malformedGetRequest = new byte[] { 0b01000000, // ver 1, CON, token length: 0
+				0b00000001, // code: 0.01 (GET request)
+				0x00, 0x10, // message ID
+				(byte) 0xD0 // option delta: 13 + 1 byte extended value, which is missing
+		};
+		RawData rawData = new RawData(malformedGetRequest, new InetSocketAddress(0));
+
+		// WHEN parsing the request
+		try {
+			parser.parseMessage(rawData);
+			fail("Parser should have detected truncated option delta");
+		} catch (CoAPMessageFormatException e) {
+			// THEN an exception is thrown by the parser
+			assertEquals(0b00000001, e.getCode());
+			assertEquals(true, e.isConfirmable());
+		}
+	}
+
+	@Test public void testParseMessageDetectsInvalidOptionValue() {
+		assumeTrue(parser instanceof UdpDataParser);
+		// GIVEN a request with an Uri-Port option value exceeding 2 bytes
+		byte[] malformedGetRequest = new byte[] { 0b01000000, // ver 1, CON, token length: 0
+				0b00000001, // code: 0.01 (GET request)
+				0x00, 0x10, // message ID
+				0x73, // option number 7 (Uri-Port), length: 3
+				0x01, 0x00, 0x00 // port 65536
+		};
+		RawData rawData = new RawData(malformedGetRequest, new InetSocketAddress(0));
+
+		// WHEN parsing the request and accessing its options
+		try {
+			Message message = parser.parseMessage(rawData);
+			// a lazy parser only checks the value when decoding the options
+			assertTrue(parser.isLazy());
+			message.getOptions();
+			fail("Parser should have detected invalid option value");
+		} catch (CoAPMessageFormatException e) {
+			// THEN an exception is thrown
+			assertEquals(0b00000001, e.getCode());
+			assertEquals(true, e.isConfirmable());
+		}
+	}
+
 	@Test public void testParseMessageDetectsMissingPayload() {
 		// GIVEN a request with a payload delimiter but empty payload
 		byte[] malformedGetRequest = new byte[] { 0b01000000, // ver 1, CON, token length: 0
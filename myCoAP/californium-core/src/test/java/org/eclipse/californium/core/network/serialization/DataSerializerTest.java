@@ -19,9 +19,16 @@ import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
 import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.elements.RawData;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -92,4 +99,93 @@ public class DataSerializerTest {
 		assertNotNull(req.getBytes());
 		assertThat(raw.getBytes(), is(req.getBytes()));
 	}
+
+	/**
+	 * Verifies that serializing into a buffer yields the same bytes as serializing into a byte array.
+	 */
+	@Test
+	public void testSerializeIntoBufferMatchesByteArray() {
+
+		// GIVEN a CoAP request with various options and a payload
+		Request req = Request.newPost();
+		req.setToken(new byte[]{0x01, 0x02, 0x03});
+		req.setMID(4711);
+		req.setURI("coap://localhost:5684/some/\u00fcber/path?q=1");
+		req.getOptions().addOption(new Option(2049, new byte[]{0x0F}));
+		req.getOptions().setBlock1(2, true, 1024);
+		req.setPayload("payload");
+
+		// WHEN serializing the request into a buffer with some leading data
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		buffer.put((byte) 0x55);
+		int length = serializer.serialize(req, buffer);
+
+		// THEN the buffer contains the same bytes as the byte array
+		byte[] expected = serializer.getByteArray(req);
+		assertThat(length, is(expected.length));
+		assertThat(buffer.position(), is(1 + expected.length));
+		byte[] actual = new byte[length];
+		buffer.flip();
+		buffer.get();
+		buffer.get(actual);
+		assertArrayEquals(expected, actual);
+		assertNull(req.getBytes());
+	}
+
+	/**
+	 * Verifies that a message with shared body bytes is serialized like a message without.
+	 */
+	@Test
+	public void testSerializeWithBodyBytesMatchesByteArray() {
+
+		// GIVEN a notification and its serialized options and payload
+		Response notification = new Response(ResponseCode.CONTENT);
+		notification.getOptions().setObserve(7).setContentFormat(0).setMaxAge(30);
+		notification.setPayload("22.5 C");
+		byte[] body = DataSerializer.getBodyByteArray(notification);
+
+		// WHEN serializing a copy for another observer using the shared body bytes
+		Response copy = new Response(ResponseCode.CONTENT);
+		copy.setOptions(notification.getOptions());
+		copy.setPayload(notification.getPayload());
+		copy.setBodyBytes(body);
+		copy.setType(Type.NON);
+		copy.setToken(new byte[]{0x0A, 0x0B});
+		copy.setMID(12);
+		copy.setDestination(InetAddress.getLoopbackAddress());
+		byte[] actual = serializer.serializeResponse(copy).getBytes();
+
+		// THEN the result is the same as serializing the options and payload again
+		notification.setType(Type.NON);
+		notification.setToken(new byte[]{0x0A, 0x0B});
+		notification.setMID(12);
+		notification.setDestination(InetAddress.getLoopbackAddress());
+		byte[] expected = serializer.serializeResponse(notification).getBytes();
+		assertArrayEquals(expected, actual);
+		ByteBuffer buffer = ByteBuffer.allocate(512);
+		assertThat(serializer.serialize(copy, buffer), is(expected.length));
+		assertArrayEquals(expected, Arrays.copyOf(buffer.array(), expected.length));
+	}
+
+	/**
+	 * Verifies that serializing into a too small buffer fails without writing to it.
+	 */
+	@Test
+	public void testSerializeIntoTooSmallBufferFails() {
+
+		// GIVEN a CoAP request and a too small buffer
+		Request req = Request.newGet();
+		req.setToken(new byte[]{0x00});
+		req.setURI("coap://localhost/test");
+		ByteBuffer buffer = ByteBuffer.allocate(serializer.getByteArray(req).length - 1);
+
+		// WHEN serializing the request into the buffer
+		try {
+			serializer.serialize(req, buffer);
+			fail("should have thrown BufferOverflowException");
+		} catch (BufferOverflowException e) {
+			// THEN the buffer is not modified
+			assertThat(buffer.position(), is(0));
+		}
+	}
 }
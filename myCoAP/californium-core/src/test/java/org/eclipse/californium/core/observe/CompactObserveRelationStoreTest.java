@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@link CompactObserveRelationStore} and its use by the
+ * {@link ObserveManager}.
+ */
+@Category(Small.class)
+public class CompactObserveRelationStoreTest {
+
+	private static final CoapResource RESOURCE = new CoapResource("test");
+	private static final InetSocketAddress PEER = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5683);
+
+	CompactObserveRelationStore store;
+
+	@Before
+	public void setUp() {
+		store = new CompactObserveRelationStore(2);
+	}
+
+	@Test
+	public void testPutReplacesRelationWithSameToken() throws Exception {
+		// GIVEN a stored relation
+		ObserveRelation relation = newRelation(PEER, new byte[] { 1, 2 });
+		assertThat(store.put(PEER, new byte[] { 1, 2 }, relation), is(nullValue()));
+
+		// WHEN adding a relation of the same endpoint with the same token
+		ObserveRelation replacement = newRelation(PEER, new byte[] { 1, 2 });
+		ObserveRelation replaced = store.put(PEER, new byte[] { 1, 2 }, replacement);
+
+		// THEN the relation is replaced and can't remove its replacement
+		assertThat(replaced, is(relation));
+		assertThat(store.size(), is(1));
+		assertThat(store.remove(PEER, new byte[] { 1, 2 }, relation), is(false));
+		assertThat(store.get(PEER, new byte[] { 1, 2 }), is(replacement));
+	}
+
+	@Test
+	public void testRelationsAreIdentifiedByAddressPortAndToken() throws Exception {
+		// GIVEN relations of IPv4 and IPv6 endpoints with tokens differing in length only
+		InetSocketAddress ipv4 = new InetSocketAddress(InetAddress.getByName("192.168.0.1"), 5683);
+		InetSocketAddress ipv6 = new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 5683);
+		InetSocketAddress otherPort = new InetSocketAddress(InetAddress.getByName("192.168.0.1"), 5684);
+		byte[][] tokens = { new byte[0], new byte[] { 0 }, new byte[] { 0, 0 }, new byte[8] };
+		List<ObserveRelation> relations = new ArrayList<ObserveRelation>();
+		for (InetSocketAddress peer : new InetSocketAddress[] { ipv4, ipv6, otherPort }) {
+			for (byte[] token : tokens) {
+				ObserveRelation relation = newRelation(peer, token);
+				store.put(peer, token, relation);
+				relations.add(relation);
+			}
+		}
+
+		// THEN each relation is found by its own identity
+		assertThat(store.size(), is(relations.size()));
+		for (ObserveRelation relation : relations) {
+			assertThat(store.get(relation.getSource(), relation.getExchange().getRequest().getToken()),
+					is(relation));
+		}
+		assertThat(store.get(ipv4, new byte[9]), is(nullValue()));
+		assertThat(store.getRelations(ipv6).size(), is(tokens.length));
+	}
+
+	@Test
+	public void testRemoveKeepsOtherRelations() throws Exception {
+		// GIVEN a store with more relations than its initial capacity
+		List<ObserveRelation> relations = new ArrayList<ObserveRelation>();
+		for (int i = 0; i < 500; i++) {
+			InetSocketAddress peer = new InetSocketAddress(InetAddress.getLoopbackAddress(), 10000 + i % 50);
+			ObserveRelation relation = newRelation(peer, new byte[] { (byte) i, (byte) (i >> 8) });
+			store.put(peer, relation.getExchange().getRequest().getToken(), relation);
+			relations.add(relation);
+		}
+		assertThat(store.size(), is(500));
+
+		// WHEN removing every third relation
+		for (int i = 0; i < relations.size(); i += 3) {
+			ObserveRelation relation = relations.get(i);
+			assertThat(store.remove(relation.getSource(), relation.getExchange().getRequest().getToken(), relation),
+					is(true));
+		}
+
+		// THEN all other relations are still found
+		for (int i = 0; i < relations.size(); i++) {
+			ObserveRelation relation = relations.get(i);
+			ObserveRelation expected = i % 3 == 0 ? null : relation;
+			assertThat(store.get(relation.getSource(), relation.getExchange().getRequest().getToken()),
+					is(expected));
+		}
+		assertThat(store.size(), is(500 - 167));
+	}
+
+	@Test
+	public void testObserveManagerIndexesRelationsOfAllEndpoints() throws Exception {
+		// GIVEN relations of two endpoints of a manager
+		ObserveManager manager = new ObserveManager();
+		InetSocketAddress other = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5684);
+		ObservingEndpoint endpoint = manager.findObservingEndpoint(PEER);
+		ObservingEndpoint otherEndpoint = manager.findObservingEndpoint(other);
+		ObserveRelation relation = newRelation(endpoint, new byte[] { 1 });
+		ObserveRelation otherRelation = newRelation(otherEndpoint, new byte[] { 1 });
+		endpoint.addObserveRelation(relation);
+		endpoint.addObserveRelation(newRelation(endpoint, new byte[] { 2 }));
+		otherEndpoint.addObserveRelation(otherRelation);
+
+		// THEN they are found by endpoint address and token
+		assertThat(manager.getRelationCount(), is(3));
+		assertThat(manager.getRelation(PEER, new byte[] { 1 }), is(relation));
+		assertThat(manager.getRelation(other, new byte[] { 1 }), is(otherRelation));
+		assertThat(endpoint.getObserveRelation(new byte[] { 1 }), is(relation));
+
+		// WHEN all relations of the first endpoint are canceled
+		endpoint.cancelAll();
+
+		// THEN only the relation of the other endpoint is left
+		assertThat(manager.getRelationCount(), is(1));
+		assertThat(manager.getRelation(PEER, new byte[] { 1 }), is(nullValue()));
+		assertThat(otherEndpoint.getObserveRelation(new byte[] { 1 }), is(otherRelation));
+	}
+
+	private static ObserveRelation newRelation(InetSocketAddress peer, byte[] token) {
+		return newRelation(new ObservingEndpoint(peer), token);
+	}
+
+	private static ObserveRelation newRelation(ObservingEndpoint endpoint, byte[] token) {
+		Request request = Request.newGet();
+		request.setToken(token);
+		request.setSource(endpoint.getAddress().getAddress());
+		request.setSourcePort(endpoint.getAddress().getPort());
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		return new ObserveRelation(endpoint, RESOURCE, exchange);
+	}
+}
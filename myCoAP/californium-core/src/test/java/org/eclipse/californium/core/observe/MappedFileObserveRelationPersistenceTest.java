@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.server.ServerMessageDeliverer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@link MappedFileObserveRelationPersistence}.
+ * <p>
+ * The file format is verified by the tests of {@code MappedRecordLog}.
+ */
+@Category(Small.class)
+public class MappedFileObserveRelationPersistenceTest {
+
+	private static final InetSocketAddress PEER = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5683);
+
+	File file;
+	MappedFileObserveRelationPersistence persistence;
+	CoapResource resource;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("relations", ".bin");
+		file.delete();
+		persistence = new MappedFileObserveRelationPersistence(file);
+		resource = new CoapResource("obs");
+		resource.setObservable(true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		persistence.close();
+		file.delete();
+	}
+
+	@Test
+	public void testRelationsSurviveRestart() throws Exception {
+		// GIVEN a persistence containing two relations, one of them removed afterwards
+		persistence.put(newRelation(PEER, new byte[] { 1, 2, 3 }));
+		persistence.put(newRelation(new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 5684), new byte[] { 4 }));
+		persistence.remove(PEER, new byte[] { 1, 2, 3 });
+
+		// WHEN the persistence is loaded from the file again
+		persistence.close();
+		persistence = new MappedFileObserveRelationPersistence(file);
+
+		// THEN only the remaining relation is loaded, including its request
+		List<Request> requests = load();
+		assertThat(requests.size(), is(1));
+		Request request = requests.get(0);
+		assertThat(request.getSource(), is(InetAddress.getByName("2001:db8::1")));
+		assertThat(request.getSourcePort(), is(5684));
+		assertThat(request.getToken(), is(new byte[] { 4 }));
+		assertThat(request.getOptions().getUriPathString(), is("obs"));
+		assertThat(request.getOptions().getAccept(), is(MediaTypeRegistry.APPLICATION_JSON));
+		assertThat(request.getOptions().getObserve(), is(0));
+	}
+
+	@Test
+	public void testLoadReturnsObserveNumberOfLatestNotification() throws Exception {
+		// GIVEN a relation, which has been notified twice
+		ObserveRelation relation = newRelation(PEER, new byte[] { 1 });
+		persistence.put(relation);
+		persistence.notificationSent(relation, 6);
+		persistence.notificationSent(relation, 7);
+
+		// WHEN the persistence is loaded from the file again
+		persistence.close();
+		persistence = new MappedFileObserveRelationPersistence(file);
+
+		// THEN the Observe number of the latest notification is returned
+		assertThat(loadObserveNumbers(), is(Collections.singletonList(7)));
+	}
+
+	@Test
+	public void testObserveNumberSurvivesConsecutiveRestarts() throws Exception {
+		// GIVEN a server, which has notified a relation
+		ObserveManager manager = new ObserveManager(persistence);
+		ObservingEndpoint remote = manager.findObservingEndpoint(PEER);
+		ObserveRelation relation = newRelation(remote, new byte[] { 1 });
+		remote.addObserveRelation(relation);
+		relation.setEstablished(true);
+		persistence.notificationSent(relation, 7);
+
+		// WHEN the server restarts twice without sending further notifications
+		for (int restart = 0; restart < 2; restart++) {
+			persistence.close();
+			persistence = new MappedFileObserveRelationPersistence(file);
+			assertThat(restore(new ObserveManager(persistence)), is(1));
+		}
+
+		// THEN the Observe number of the latest notification is still returned
+		persistence.close();
+		persistence = new MappedFileObserveRelationPersistence(file);
+		assertThat(loadObserveNumbers(), is(Collections.singletonList(7)));
+	}
+
+	@Test
+	public void testRestartDoesNotAppendRecords() throws Exception {
+		// GIVEN a server, which has established a relation
+		ObserveManager manager = new ObserveManager(persistence);
+		ObservingEndpoint remote = manager.findObservingEndpoint(PEER);
+		ObserveRelation relation = newRelation(remote, new byte[] { 1 });
+		remote.addObserveRelation(relation);
+		relation.setEstablished(true);
+		int end = persistence.getEnd();
+
+		// WHEN the server restarts several times
+		for (int restart = 0; restart < 3; restart++) {
+			persistence.close();
+			persistence = new MappedFileObserveRelationPersistence(file);
+			assertThat(restore(new ObserveManager(persistence)), is(1));
+		}
+
+		// THEN the restored relation has not been stored again
+		assertThat(persistence.getEnd(), is(end));
+	}
+
+	@Test
+	public void testDelivererRestoresRelationsAfterRestart() throws Exception {
+		// GIVEN a server, which has established a relation
+		ObserveManager manager = new ObserveManager(persistence);
+		ObservingEndpoint remote = manager.findObservingEndpoint(PEER);
+		ObserveRelation relation = newRelation(remote, new byte[] { 1 });
+		remote.addObserveRelation(relation);
+		relation.setEstablished(true);
+
+		// WHEN the server restarts
+		persistence.close();
+		persistence = new MappedFileObserveRelationPersistence(file);
+		CoapResource restartedResource = new CoapResource("obs");
+		manager = new ObserveManager(persistence);
+		ServerMessageDeliverer deliverer = newDeliverer(restartedResource, manager);
+		Endpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		int restored = deliverer.restoreObserveRelations(Collections.singletonList(endpoint));
+
+		// THEN the relation is established with the resource again
+		assertThat(restored, is(1));
+		assertThat(restartedResource.getObserverCount(), is(1));
+		ObserveRelation restoredRelation = manager.getRelation(PEER, new byte[] { 1 });
+		assertThat(restoredRelation.isEstablished(), is(true));
+		assertThat(restoredRelation.getExchange().getEndpoint(), is(endpoint));
+		// and is restored only once
+		assertThat(deliverer.restoreObserveRelations(Collections.singletonList(endpoint)), is(0));
+
+		// WHEN the relation is canceled
+		restoredRelation.cancel();
+
+		// THEN it is removed from the persistence
+		assertThat(persistence.size(), is(0));
+	}
+
+	private int restore(ObserveManager manager) {
+		ServerMessageDeliverer deliverer = newDeliverer(new CoapResource("obs"), manager);
+		Endpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		return deliverer.restoreObserveRelations(Collections.singletonList(endpoint));
+	}
+
+	private static ServerMessageDeliverer newDeliverer(CoapResource resource, ObserveManager manager) {
+		CoapResource root = new CoapResource("");
+		resource.setObservable(true);
+		root.add(resource);
+		return new ServerMessageDeliverer(root, manager);
+	}
+
+	private List<Integer> loadObserveNumbers() {
+		final List<Integer> numbers = new ArrayList<Integer>();
+		persistence.load(new ObserveRelationPersistence.RelationHandler() {
+
+			@Override
+			public void restore(Request request, int localPort, int observe) {
+				numbers.add(observe);
+			}
+		});
+		return numbers;
+	}
+
+	private List<Request> load() {
+		final List<Request> requests = new ArrayList<Request>();
+		persistence.load(new ObserveRelationPersistence.RelationHandler() {
+
+			@Override
+			public void restore(Request request, int localPort, int observe) {
+				requests.add(request);
+			}
+		});
+		return requests;
+	}
+
+	private ObserveRelation newRelation(InetSocketAddress peer, byte[] token) {
+		return newRelation(new ObservingEndpoint(peer), token);
+	}
+
+	private ObserveRelation newRelation(ObservingEndpoint endpoint, byte[] token) {
+		Request request = Request.newGet();
+		request.setMID(4711);
+		request.setToken(token);
+		request.getOptions().setUriPath("obs").setAccept(MediaTypeRegistry.APPLICATION_JSON).setObserve(0);
+		request.setSource(endpoint.getAddress().getAddress());
+		request.setSourcePort(endpoint.getAddress().getPort());
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		exchange.setRequest(request);
+		return new ObserveRelation(endpoint, resource, exchange);
+	}
+}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.observe.NotificationDispatcher.Notification;
+import org.eclipse.californium.core.observe.NotificationDispatcher.ObservedResource;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@link NotificationDispatcher}.
+ */
+@Category(Small.class)
+public class NotificationDispatcherTest {
+
+	private static final CoapResource RESOURCE = new CoapResource("test");
+
+	NotificationDispatcher dispatcher;
+
+	@After
+	public void shutdown() {
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	public void testChangedNotifiesAllRelationsOnce() throws Exception {
+		// GIVEN a resource observed by 200 endpoints
+		dispatcher = new NotificationDispatcher(4, 0, 0);
+		TestResource resource = new TestResource(newRelations(200, 1));
+
+		// WHEN the resource changes
+		dispatcher.changed(resource, null);
+
+		// THEN all relations are notified exactly once
+		assertTrue(resource.awaitNotifications(200));
+		assertThat(resource.notifiedRelations.size(), is(200));
+		for (AtomicInteger count : resource.notifiedRelations.values()) {
+			assertThat(count.get(), is(1));
+		}
+		assertThat(resource.rounds.get(), is(1));
+	}
+
+	@Test
+	public void testChangedNotifiesFilteredRelationsOnly() throws Exception {
+		// GIVEN a resource observed by 10 endpoints
+		dispatcher = new NotificationDispatcher(2, 0, 0);
+		final List<ObserveRelation> relations = newRelations(10, 1);
+		TestResource resource = new TestResource(relations);
+
+		// WHEN the resource changes for the first relation only
+		dispatcher.changed(resource, new ObserveRelationFilter() {
+
+			@Override
+			public boolean accept(ObserveRelation relation) {
+				return relation == relations.get(0);
+			}
+		});
+
+		// THEN only the first relation is notified
+		assertTrue(resource.awaitNotifications(1));
+		Thread.sleep(100);
+		assertThat(resource.notifiedRelations.size(), is(1));
+	}
+
+	@Test
+	public void testChangesDuringNotificationAreCoalesced() throws Exception {
+		// GIVEN a resource, whose notification blocks
+		dispatcher = new NotificationDispatcher(2, 0, 0);
+		TestResource resource = new TestResource(newRelations(1, 1));
+		resource.block = new CountDownLatch(1);
+		dispatcher.changed(resource, null);
+		assertTrue(resource.awaitNotificationStarted());
+
+		// WHEN the resource changes several times while the notification is blocked
+		for (int i = 0; i < 5; i++) {
+			dispatcher.changed(resource, null);
+		}
+		resource.block.countDown();
+
+		// THEN the relation is notified only once more about the latest state
+		assertTrue(resource.awaitNotifications(2));
+		Thread.sleep(100);
+		assertThat(resource.rounds.get(), is(2));
+		assertThat(resource.notifications.get(), is(2));
+	}
+
+	@Test
+	public void testNotificationsOfSameEndpointArePaced() throws Exception {
+		// GIVEN a dispatcher sending 20 notifications per second to an endpoint
+		dispatcher = new NotificationDispatcher(1, 0, 20);
+		// and an endpoint observing a resource with 5 relations
+		TestResource resource = new TestResource(newRelations(1, 5));
+
+		// WHEN the resource changes
+		long start = System.nanoTime();
+		dispatcher.changed(resource, null);
+
+		// THEN the relations are notified within at least 4 intervals
+		assertTrue(resource.awaitNotifications(5));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("notifications not paced, took " + elapsed + "ms", elapsed >= 4 * 50 - 10);
+	}
+
+	@Test
+	public void testIdleResourcesAndEndpointsAreEvicted() throws Exception {
+		// GIVEN a dispatcher, which has paced the notifications of 3 endpoints
+		dispatcher = new NotificationDispatcher(1, 0, 20);
+		TestResource resource = new TestResource(newRelations(3, 1));
+		dispatcher.changed(resource, null);
+		assertTrue(resource.awaitNotifications(3));
+		assertThat(dispatcher.getPacedEndpointCount(), is(3));
+
+		// WHEN the notifications are done
+		// THEN the resource's state is evicted
+		assertTrue(awaitResourceCount(0));
+
+		// WHEN the endpoints' next slots have passed and the resource changes again
+		Thread.sleep(100);
+		dispatcher.changed(resource, new ObserveRelationFilter() {
+
+			@Override
+			public boolean accept(ObserveRelation relation) {
+				return false;
+			}
+		});
+
+		// THEN the endpoints are evicted
+		assertTrue(awaitResourceCount(0));
+		assertThat(dispatcher.getPacedEndpointCount(), is(0));
+	}
+
+	private boolean awaitResourceCount(int expected) throws InterruptedException {
+		long end = System.currentTimeMillis() + 2000;
+		while (dispatcher.getResourceCount() != expected) {
+			if (System.currentTimeMillis() > end) {
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	private static List<ObserveRelation> newRelations(int endpoints, int relationsPerEndpoint) {
+		List<ObserveRelation> relations = new ArrayList<ObserveRelation>();
+		for (int i = 0; i < endpoints; i++) {
+			ObservingEndpoint endpoint = new ObservingEndpoint(
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), 10000 + i));
+			for (int j = 0; j < relationsPerEndpoint; j++) {
+				Request request = Request.newGet();
+				request.setToken(new byte[] { (byte) i, (byte) (i >> 8), (byte) j });
+				request.setSource(endpoint.getAddress().getAddress());
+				request.setSourcePort(endpoint.getAddress().getPort());
+				Exchange exchange = new Exchange(request, Origin.REMOTE);
+				exchange.setRequest(request);
+				ObserveRelation relation = new ObserveRelation(endpoint, RESOURCE, exchange);
+				relation.setEstablished(true);
+				relations.add(relation);
+			}
+		}
+		return relations;
+	}
+
+	private static class TestResource implements ObservedResource {
+
+		private final List<ObserveRelation> relations;
+		private final ConcurrentMap<ObserveRelation, AtomicInteger> notifiedRelations = new ConcurrentHashMap<ObserveRelation, AtomicInteger>();
+		private final AtomicInteger rounds = new AtomicInteger();
+		private final AtomicInteger notifications = new AtomicInteger();
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile CountDownLatch block;
+
+		private TestResource(List<ObserveRelation> relations) {
+			this.relations = relations;
+		}
+
+		@Override
+		public Iterable<ObserveRelation> getObserveRelations() {
+			return relations;
+		}
+
+		@Override
+		public Notification startNotification() {
+			rounds.incrementAndGet();
+			return new Notification() {
+
+				@Override
+				public void notify(ObserveRelation relation) {
+					started.countDown();
+					CountDownLatch latch = block;
+					if (latch != null) {
+						try {
+							latch.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					AtomicInteger count = new AtomicInteger();
+					AtomicInteger previous = notifiedRelations.putIfAbsent(relation, count);
+					(previous == null ? count : previous).incrementAndGet();
+					synchronized (notifications) {
+						notifications.incrementAndGet();
+						notifications.notifyAll();
+					}
+				}
+			};
+		}
+
+		private boolean awaitNotificationStarted() throws InterruptedException {
+			return started.await(1, TimeUnit.SECONDS);
+		}
+
+		private boolean awaitNotifications(int expected) throws InterruptedException {
+			long end = System.currentTimeMillis() + 2000;
+			synchronized (notifications) {
+				while (notifications.get() < expected) {
+					long wait = end - System.currentTimeMillis();
+					if (wait <= 0) {
+						return false;
+					}
+					notifications.wait(wait);
+				}
+			}
+			return true;
+		}
+	}
+}
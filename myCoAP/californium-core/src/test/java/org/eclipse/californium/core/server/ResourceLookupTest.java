@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.core.server;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that the {@link ServerMessageDeliverer} finds the right resources
+ * after the resource tree has changed.
+ *
+ */
+@Category(Small.class)
+public class ResourceLookupTest {
+
+	private CoapResource root;
+	private CoapResource devices;
+	private CoapResource sensor;
+	private ServerMessageDeliverer deliverer;
+
+	@Before
+	public void setUp() {
+		root = new CoapResource("");
+		devices = new CoapResource("devices");
+		sensor = new CoapResource("sensor");
+		root.add(devices.add(sensor));
+		deliverer = new ServerMessageDeliverer(root);
+	}
+
+	@Test
+	public void testFindResourceDetectsDeletedResource() {
+		assertThat(deliverer.findResource(Arrays.asList("devices", "sensor")), is(sameInstance((Resource) sensor)));
+		assertThat(deliverer.findResource(Arrays.asList("devices", "sensor")), is(sameInstance((Resource) sensor)));
+
+		sensor.delete();
+
+		assertThat(deliverer.findResource(Arrays.asList("devices", "sensor")), is(nullValue()));
+	}
+
+	@Test
+	public void testFindResourceDetectsRenamedResource() {
+		assertThat(deliverer.findResource(Arrays.asList("devices", "sensor")), is(sameInstance((Resource) sensor)));
+
+		devices.setName("things");
+
+		assertThat(deliverer.findResource(Arrays.asList("devices", "sensor")), is(nullValue()));
+		assertThat(deliverer.findResource(Arrays.asList("things", "sensor")), is(sameInstance((Resource) sensor)));
+	}
+
+	@Test
+	public void testFindResourceDistinguishesNamesContainingSlash() {
+		CoapResource slashed = new CoapResource("devices/sensor");
+		root.add(slashed);
+
+		assertThat(deliverer.findResource(Arrays.asList("devices", "sensor")), is(sameInstance((Resource) sensor)));
+		assertThat(deliverer.findResource(Arrays.asList("devices/sensor")), is(sameInstance((Resource) slashed)));
+	}
+
+	@Test
+	public void testFindResourceUsesCustomChildLookup() {
+		final CoapResource wildcard = new CoapResource("any") {
+
+			private Resource child = new CoapResource("first");
+
+			@Override
+			public Resource getChild(String name) {
+				return child;
+			}
+
+			@Override
+			public synchronized void delete() {
+				child = new CoapResource("second");
+			}
+		};
+		root.add(wildcard);
+		Resource first = deliverer.findResource(Arrays.asList("any", "x"));
+
+		// changes the child without adding or deleting one
+		wildcard.delete();
+
+		Resource second = deliverer.findResource(Arrays.asList("any", "x"));
+		assertThat(first.getName(), is("first"));
+		assertThat(second.getName(), is("second"));
+	}
+}
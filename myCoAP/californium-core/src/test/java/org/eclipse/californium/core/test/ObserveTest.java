@@ -318,6 +318,79 @@ public class ObserveTest {
 		assertFalse("Response not received", rel.isCanceled());
 	}
 
+	@Test
+	public void testObserveFanOutRendersNotificationOnce() throws Exception {
+		resourceX.setObserveType(Type.NON);
+		resourceX.setNotificationFanOut(true);
+
+		CoapClient client1 = new CoapClient(uriX);
+		CountingHandler handler1 = new CountingHandler();
+		CoapObserveRelation rel1 = client1.observeAndWait(handler1);
+		CoapClient client2 = new CoapClient(uriX);
+		CountingHandler handler2 = new CountingHandler();
+		CoapObserveRelation rel2 = client2.observeAndWait(handler2);
+		assertTrue(handler1.waitForLoadCalls(1, 1000, TimeUnit.MILLISECONDS));
+		assertTrue(handler2.waitForLoadCalls(1, 1000, TimeUnit.MILLISECONDS));
+		assertEquals(2, resourceX.getObserverCount());
+		int gets = resourceX.getCounter.get();
+
+		resourceX.changed("fan-out");
+
+		// assert both notified, but the representation rendered only once
+		assertTrue(handler1.waitForLoadCalls(2, 1000, TimeUnit.MILLISECONDS));
+		assertTrue(handler2.waitForLoadCalls(2, 1000, TimeUnit.MILLISECONDS));
+		assertEquals(gets + 1, resourceX.getCounter.get());
+		assertEquals(resourceX.currentResponse, rel1.getCurrent().getResponseText());
+		assertEquals(resourceX.currentResponse, rel2.getCurrent().getResponseText());
+		assertEquals(rel1.getCurrent().getOptions().getObserve(), rel2.getCurrent().getOptions().getObserve());
+		assertEquals(2, resourceX.getObserverCount());
+	}
+
+	@Test
+	public void testObserveFanOutSendsLargeNotificationBlockwise() throws Exception {
+		final AtomicInteger invalidBlocks = new AtomicInteger();
+		MessageInterceptorAdapter blockChecker = new MessageInterceptorAdapter() {
+
+			@Override
+			public void receiveResponse(Response response) {
+				// each block of a notification must indicate the size of the
+				// representation and not exceed the PREFERRED_BLOCK_SIZE of 512 bytes
+				if (response.getOptions().hasObserve() && (response.getPayloadSize() > 512
+						|| response.getOptions().hasBlock2() && !response.getOptions().hasSize2())) {
+					invalidBlocks.incrementAndGet();
+				}
+			}
+		};
+		EndpointManager.getEndpointManager().getDefaultEndpoint().addInterceptor(blockChecker);
+		resourceX.setObserveType(Type.NON);
+		resourceX.setNotificationFanOut(true);
+
+		CoapClient client1 = new CoapClient(uriX);
+		CountingHandler handler1 = new CountingHandler();
+		CoapObserveRelation rel1 = client1.observeAndWait(handler1);
+		CoapClient client2 = new CoapClient(uriX);
+		CountingHandler handler2 = new CountingHandler();
+		CoapObserveRelation rel2 = client2.observeAndWait(handler2);
+		assertTrue(handler1.waitForLoadCalls(1, 1000, TimeUnit.MILLISECONDS));
+		assertTrue(handler2.waitForLoadCalls(1, 1000, TimeUnit.MILLISECONDS));
+
+		// a representation exceeding the MAX_MESSAGE_SIZE of 1024 bytes
+		StringBuilder label = new StringBuilder();
+		for (int i = 0; i < 150; i++) {
+			label.append("large-body");
+		}
+		resourceX.changed(label.toString());
+
+		// assert both receive the complete representation transferred blockwise
+		assertTrue(handler1.waitForLoadCalls(2, 2000, TimeUnit.MILLISECONDS));
+		assertTrue(handler2.waitForLoadCalls(2, 2000, TimeUnit.MILLISECONDS));
+		EndpointManager.getEndpointManager().getDefaultEndpoint().removeInterceptor(blockChecker);
+		assertEquals(0, invalidBlocks.get());
+		assertEquals(resourceX.currentResponse, rel1.getCurrent().getResponseText());
+		assertEquals(resourceX.currentResponse, rel2.getCurrent().getResponseText());
+		assertEquals(2, resourceX.getObserverCount());
+	}
+
 	/**
 	 * Test case for CoapClient.observeAndWait(Request request, CoapHandler
 	 * handler) exception handling.
@@ -466,6 +539,7 @@ public class ObserveTest {
 		private AtomicBoolean reject = new AtomicBoolean();
 		private AtomicInteger counter = new AtomicInteger();
 		private AtomicInteger delay = new AtomicInteger();
+		private AtomicInteger getCounter = new AtomicInteger();
 
 		public MyResource(String name) {
 			super(name);
@@ -475,6 +549,7 @@ public class ObserveTest {
 
 		@Override
 		public void handleGET(CoapExchange exchange) {
+			getCounter.incrementAndGet();
 			int delay = this.delay.getAndSet(0);
 			if (0 < delay) {
 				try {
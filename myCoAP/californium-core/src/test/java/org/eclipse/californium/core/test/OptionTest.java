@@ -24,6 +24,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Assert;
 import org.eclipse.californium.category.Small;
 import org.eclipse.californium.core.coap.Option;
@@ -424,6 +428,87 @@ public class OptionTest {
 		Assert.assertFalse(options.hasOption(OptionNumberRegistry.ETAG));
 	}
 	
+	@Test
+	public void testListsAreViewsOfOptionSet() {
+		OptionSet options = new OptionSet();
+		options.setUriPath("/a/b");
+		options.addUriQuery("x=1");
+
+		List<String> path = options.getUriPath();
+		path.add("c");
+		path.set(0, "z");
+		path.remove("b");
+		Assert.assertEquals("z/c", options.getUriPathString());
+		Assert.assertEquals(2, options.getURIPathCount());
+		Assert.assertEquals("x=1", options.getUriQueryString());
+
+		options.addETag(new byte[] {1, 2});
+		options.addETag(new byte[] {3});
+		Assert.assertTrue(options.getETags().contains(new byte[] {3}));
+		options.removeETag(new byte[] {1, 2});
+		Assert.assertEquals(1, options.getETagCount());
+		assertArrayEquals(new byte[] {3}, options.getETags().get(0));
+	}
+
+	@Test
+	public void testCopyIsIndependentOfOrigin() {
+		OptionSet options = new OptionSet();
+		options.setUriPath("/a/b");
+		options.addOption(new Option(2049, new byte[] { 0x01 }));
+
+		OptionSet copy = new OptionSet(options);
+		options.clearUriPath();
+		options.addUriPath("0123456789abcdef0123456789abcdef");
+		copy.addUriPath("c");
+
+		Assert.assertEquals("0123456789abcdef0123456789abcdef", options.getUriPathString());
+		Assert.assertEquals("a/b/c", copy.getUriPathString());
+		Assert.assertEquals(1, copy.getOthers().size());
+		Assert.assertEquals(2, options.asSortedList().size());
+	}
+
+	@Test
+	public void testAcceptVisitsOptionsLikeAsSortedList() {
+		OptionSet options = new OptionSet();
+		options.addOption(new Option(2049, new byte[] { 0x01 }));
+		options.addOption(new Option(9, "unknown"));
+		options.addETag(new byte[] {1, 2, 3});
+		options.setUriPath("/a/\u00e4/\u20ac/\ud83d\ude00");
+		options.setUriPort(61616);
+		options.setIfNoneMatch(true);
+		options.setObserve(0);
+		options.setMaxAge(0xFFFFFFFFL);
+		options.setBlock2(3, true, 4096);
+		options.setSize1(1);
+		options.addUriQuery("x=1");
+
+		final List<Option> visited = new ArrayList<Option>();
+		options.accept(new OptionSet.OptionVisitor() {
+
+			@Override
+			public void visitOpaque(int number, byte[] value, int offset, int length) {
+				visited.add(new Option(number, Arrays.copyOfRange(value, offset, offset + length)));
+			}
+
+			@Override
+			public void visitString(int number, String value) {
+				visited.add(new Option(number, value));
+			}
+
+			@Override
+			public void visitUint(int number, long value) {
+				visited.add(new Option(number, value));
+			}
+		});
+
+		List<Option> expected = options.asSortedList();
+		assertEquals(expected.size(), visited.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getNumber(), visited.get(i).getNumber());
+			assertArrayEquals(expected.get(i).getValue(), visited.get(i).getValue());
+		}
+	}
+
 	@Test
 	public void testToString() {
 		OptionSet options = new OptionSet();
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Connector} employing UDP as the transport protocol based on a
+ * non-blocking {@link DatagramChannel}.
+ * <p>
+ * In contrast to the {@link UDPConnector}, which blocks one thread per
+ * receiver in {@code DatagramSocket.receive()} and hands every outbound
+ * message over to a sender thread through a {@code BlockingQueue}, this
+ * connector uses a single selector thread that drains up to
+ * {@link #setReceiveBatchSize(int)} datagrams per wakeup into a reused direct
+ * {@link ByteBuffer}. The only per-datagram allocation left is the exactly
+ * sized byte array handed over within the {@link RawData}.
+ * <p>
+ * Outbound messages are written to the channel directly by the thread calling
+ * {@link #send(RawData)}. The channel is non-blocking, so this never blocks the
+ * caller. Only if the socket's send buffer is full, messages are queued and
+ * flushed by the selector thread as soon as the channel becomes writable
+ * again.
+ * <p>
+ * The connector implements the same {@link RawDataChannel} contract as the
+ * {@link UDPConnector} and may therefore be used as a drop-in replacement
+ * when creating an endpoint.
+ */
+public class NioUDPConnector implements Connector {
+
+	public final static Logger LOGGER = Logger.getLogger(NioUDPConnector.class.getName());
+
+	public static final int UNDEFINED = 0;
+
+	/**
+	 * The default maximum number of datagrams read per selector wakeup.
+	 */
+	public static final int DEFAULT_RECEIVE_BATCH_SIZE = 64;
+
+	private final InetSocketAddress localAddr;
+
+	/** The messages that could not be sent immediately. */
+	private final Queue<RawData> pending = new ConcurrentLinkedQueue<RawData>();
+
+	/** Indicates whether the selector thread has been asked for OP_WRITE. */
+	private final AtomicBoolean writeInterest = new AtomicBoolean();
+
+	private volatile boolean running;
+
+	private volatile DatagramChannel channel;
+	private volatile Selector selector;
+	private volatile SelectionKey key;
+	private Thread selectorThread;
+
+	/** The receiver of incoming messages. */
+	private RawDataChannel receiver;
+
+	private int receiveBufferSize = UNDEFINED;
+	private int sendBufferSize = UNDEFINED;
+	private int receiverPacketSize = 2048;
+	private int receiveBatchSize = DEFAULT_RECEIVE_BATCH_SIZE;
+
+	/**
+	 * Creates a connector on the wildcard address listening on an
+	 * ephemeral port, i.e. a port chosen by the system.
+	 */
+	public NioUDPConnector() {
+		this(null);
+	}
+
+	/**
+	 * Creates a connector bound to a given IP address and port.
+	 *
+	 * @param address the IP address and port, if <code>null</code>
+	 * the connector is bound to an ephemeral port on the wildcard address
+	 */
+	public NioUDPConnector(InetSocketAddress address) {
+		if (address == null) {
+			this.localAddr = new InetSocketAddress(0);
+		} else {
+			this.localAddr = address;
+		}
+		this.running = false;
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+
+		channel = openChannel();
+		try {
+			channel.configureBlocking(false);
+			if (receiveBufferSize != UNDEFINED) {
+				channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+			}
+			receiveBufferSize = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+			if (sendBufferSize != UNDEFINED) {
+				channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+			}
+			sendBufferSize = channel.getOption(StandardSocketOptions.SO_SNDBUF);
+			channel.bind(localAddr);
+
+			selector = Selector.open();
+			key = channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			closeQuietly();
+			throw e;
+		}
+		// running only, if the channel could be opened
+		running = true;
+
+		selectorThread = new SelectorThread("UDP-NIO-Selector-" + localAddr);
+		selectorThread.start();
+
+		if (LOGGER.isLoggable(Level.CONFIG)) {
+			String startupMsg = new StringBuilder("NioUDPConnector listening on ")
+				.append(channel.getLocalAddress()).append(", recv buf = ")
+				.append(receiveBufferSize).append(", send buf = ").append(sendBufferSize)
+				.append(", recv packet size = ").append(receiverPacketSize)
+				.append(", recv batch size = ").append(receiveBatchSize).toString();
+			LOGGER.log(Level.CONFIG, startupMsg);
+		}
+	}
+
+	/**
+	 * Opens the (not yet bound) datagram channel.
+	 * <p>
+	 * Sub-classes may override this method in order to set additional
+	 * socket options before the channel is bound.
+	 *
+	 * @return the channel
+	 * @throws IOException if the channel cannot be opened
+	 */
+	protected DatagramChannel openChannel() throws IOException {
+		return DatagramChannel.open();
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		if (selectorThread != null) {
+			selectorThread.interrupt();
+			selectorThread = null;
+		}
+		String address = localAddr.toString();
+		try {
+			if (channel != null) {
+				address = String.valueOf(channel.getLocalAddress());
+			}
+		} catch (IOException e) {
+			// use configured address for logging
+		}
+		closeQuietly();
+		pending.clear();
+		writeInterest.set(false);
+		LOGGER.log(Level.CONFIG, "NioUDPConnector on [{0}] has stopped.", address);
+	}
+
+	private void closeQuietly() {
+		if (selector != null) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				LOGGER.log(Level.FINER, "Error closing selector", e);
+			}
+			selector = null;
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.log(Level.FINER, "Error closing channel", e);
+			}
+			channel = null;
+		}
+		key = null;
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		DatagramChannel current = channel;
+		if (!running || current == null) {
+			// same as the UDPConnector, which silently drops messages
+			// while not running
+			LOGGER.log(Level.FINE, "NioUDPConnector not running, dropping message to {0}",
+					msg.getInetSocketAddress());
+			return;
+		}
+		// keep order, if messages are already waiting for the channel
+		if (pending.isEmpty()) {
+			try {
+				if (current.send(ByteBuffer.wrap(msg.bytes), msg.getInetSocketAddress()) > 0) {
+					logSent(msg);
+					return;
+				}
+			} catch (ClosedChannelException e) {
+				LOGGER.log(Level.FINE, "NioUDPConnector closed, dropping message to {0}",
+						msg.getInetSocketAddress());
+				return;
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "NioUDPConnector failed to send message to " + msg.getInetSocketAddress(), e);
+				return;
+			}
+		}
+		pending.add(msg);
+		requestWrite();
+	}
+
+	private void requestWrite() {
+		Selector currentSelector = selector;
+		if (currentSelector != null && writeInterest.compareAndSet(false, true)) {
+			// interest ops are only changed by the selector thread itself
+			currentSelector.wakeup();
+		}
+	}
+
+	private void logSent(RawData msg) {
+		if (LOGGER.isLoggable(Level.FINER)) {
+			LOGGER.log(Level.FINER, "NioUDPConnector ({0}) sent {1} bytes to {2}",
+					new Object[]{localAddr, msg.getSize(), msg.getInetSocketAddress()});
+		}
+	}
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel receiver) {
+		this.receiver = receiver;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		DatagramChannel current = channel;
+		if (current != null) {
+			try {
+				SocketAddress bound = current.getLocalAddress();
+				if (bound instanceof InetSocketAddress) {
+					return (InetSocketAddress) bound;
+				}
+			} catch (IOException e) {
+				// fall back to configured address
+			}
+		}
+		return localAddr;
+	}
+
+	private class SelectorThread extends Thread {
+
+		private final ByteBuffer buffer;
+
+		private SelectorThread(String name) {
+			super(UDPConnector.ELEMENTS_THREAD_GROUP, name);
+			setDaemon(true);
+			this.buffer = ByteBuffer.allocateDirect(receiverPacketSize);
+		}
+
+		@Override
+		public void run() {
+			LOGGER.log(Level.FINE, "Starting network stage thread [{0}]", getName());
+			final Selector currentSelector = selector;
+			final DatagramChannel currentChannel = channel;
+			while (running) {
+				try {
+					currentSelector.select();
+					if (!running) {
+						break;
+					}
+					currentSelector.selectedKeys().clear();
+					receiveBatch(currentChannel);
+					if (writeInterest.get()) {
+						flushPending(currentChannel);
+					}
+				} catch (Throwable t) {
+					if (running) {
+						LOGGER.log(Level.SEVERE, "Exception in network stage thread [" + getName() + "]:", t);
+					} else {
+						LOGGER.log(Level.FINER, "   stopped at:", t);
+					}
+				}
+			}
+			LOGGER.log(Level.FINE, "Network stage thread [{0}] was stopped successfully", getName());
+		}
+
+		private void receiveBatch(DatagramChannel currentChannel) throws IOException {
+			for (int count = 0; count < receiveBatchSize; ++count) {
+				buffer.clear();
+				SocketAddress peer = currentChannel.receive(buffer);
+				if (peer == null) {
+					// no more datagrams available
+					return;
+				}
+				buffer.flip();
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				if (LOGGER.isLoggable(Level.FINER)) {
+					LOGGER.log(Level.FINER, "NioUDPConnector ({0}) received {1} bytes from {2}",
+							new Object[]{localAddr, bytes.length, peer});
+				}
+				receiver.receiveData(new RawData(bytes, (InetSocketAddress) peer));
+			}
+		}
+
+		private void flushPending(DatagramChannel currentChannel) throws IOException {
+			RawData msg;
+			while ((msg = pending.peek()) != null) {
+				if (currentChannel.send(ByteBuffer.wrap(msg.bytes), msg.getInetSocketAddress()) == 0) {
+					// send buffer still full, wait until the channel becomes writable
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				pending.poll();
+				logSent(msg);
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			writeInterest.set(false);
+			// a concurrent send may have queued a message after the last peek
+			if (!pending.isEmpty()) {
+				requestWrite();
+			}
+		}
+	}
+
+	public void setReceiveBufferSize(int size) {
+		this.receiveBufferSize = size;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public void setSendBufferSize(int size) {
+		this.sendBufferSize = size;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public void setReceiverPacketSize(int size) {
+		this.receiverPacketSize = size;
+	}
+
+	public int getReceiverPacketSize() {
+		return receiverPacketSize;
+	}
+
+	/**
+	 * Sets the maximum number of datagrams read from the channel per selector
+	 * wakeup before pending outbound messages are flushed.
+	 *
+	 * @param size the number of datagrams
+	 * @throws IllegalArgumentException if size is less than 1
+	 */
+	public void setReceiveBatchSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		this.receiveBatchSize = size;
+	}
+
+	public int getReceiveBatchSize() {
+		return receiveBatchSize;
+	}
+}
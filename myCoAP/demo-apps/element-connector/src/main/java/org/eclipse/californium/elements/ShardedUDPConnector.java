@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Connector} that spreads the UDP traffic of one local address over
+ * several sockets bound with {@code SO_REUSEPORT}.
+ * <p>
+ * Each shard is a {@link NioUDPConnector} with its own selector thread. The
+ * kernel distributes inbound datagrams over the sockets by hashing the
+ * peer's address, so all datagrams of one peer are received by the same
+ * shard and keep their order, which the CoAP matcher and deduplicator rely
+ * on. Outbound datagrams are spread over the shards by the hash of the
+ * destination address. As all sockets share the same local port, the
+ * peer cannot tell them apart.
+ * <p>
+ * To the endpoint the shards are presented as one connector, all received
+ * messages are forwarded to the single {@link RawDataChannel} registered via
+ * {@link #setRawDataReceiver(RawDataChannel)}.
+ * <p>
+ * <b>Note:</b> this connector requires Java 9 or newer at runtime.
+ * {@code SO_REUSEPORT} is part of {@link StandardSocketOptions} since Java 9
+ * and is looked up reflectively, as the project is built for Java 7. Use
+ * {@link #isReusePortSupported()} to check for it before creating a
+ * connector with more than one shard. If the option is not available, or
+ * not supported by the platform's sockets, {@link #start()} fails with an
+ * {@link IOException}, unless only one shard is configured.
+ */
+public class ShardedUDPConnector implements Connector {
+
+	public final static Logger LOGGER = Logger.getLogger(ShardedUDPConnector.class.getName());
+
+	/** The SO_REUSEPORT option, or {@code null}, if not supported by the JVM. */
+	private static final SocketOption<Boolean> SO_REUSEPORT = lookupReusePort();
+
+	private final InetSocketAddress localAddr;
+	private final int shardCount;
+	private final List<NioUDPConnector> shards = new ArrayList<NioUDPConnector>();
+
+	/** The started shards used for sending, {@code null}, if not running. */
+	private volatile NioUDPConnector[] active;
+
+	private boolean running;
+
+	/** The receiver of incoming messages. */
+	private RawDataChannel receiver;
+
+	private int receiveBufferSize = NioUDPConnector.UNDEFINED;
+	private int sendBufferSize = NioUDPConnector.UNDEFINED;
+	private int receiverPacketSize = 2048;
+	private int receiveBatchSize = NioUDPConnector.DEFAULT_RECEIVE_BATCH_SIZE;
+
+	/**
+	 * Creates a connector bound to a given IP address and port.
+	 *
+	 * @param address the IP address and port, if <code>null</code> the
+	 *            connector is bound to an ephemeral port on the wildcard
+	 *            address
+	 * @param shardCount the number of sockets to bind to the address
+	 * @throws IllegalArgumentException if the shard count is less than 1
+	 */
+	public ShardedUDPConnector(InetSocketAddress address, int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Shard count must be at least 1");
+		}
+		if (address == null) {
+			this.localAddr = new InetSocketAddress(0);
+		} else {
+			this.localAddr = address;
+		}
+		this.shardCount = shardCount;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> lookupReusePort() {
+		try {
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks, whether the JVM supports the {@code SO_REUSEPORT} socket option.
+	 *
+	 * @return {@code true}, if the option is supported
+	 */
+	public static boolean isReusePortSupported() {
+		return SO_REUSEPORT != null;
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		if (shardCount > 1 && SO_REUSEPORT == null) {
+			throw new IOException("SO_REUSEPORT requires Java 9 or newer, use a single shard instead");
+		}
+		try {
+			// the first shard determines the port, if an ephemeral one is requested
+			NioUDPConnector first = newShard(localAddr);
+			first.start();
+			InetSocketAddress bound = new InetSocketAddress(localAddr.getAddress(), first.getAddress().getPort());
+			for (int i = 1; i < shardCount; i++) {
+				newShard(bound).start();
+			}
+		} catch (IOException e) {
+			stopShards();
+			throw e;
+		}
+		running = true;
+		active = shards.toArray(new NioUDPConnector[shards.size()]);
+		LOGGER.log(Level.CONFIG, "ShardedUDPConnector listening on {0} with {1} sockets",
+				new Object[] { getAddress(), shardCount });
+	}
+
+	private NioUDPConnector newShard(InetSocketAddress address) {
+		NioUDPConnector shard = new NioUDPConnector(address) {
+
+			@Override
+			protected DatagramChannel openChannel() throws IOException {
+				DatagramChannel channel = super.openChannel();
+				if (SO_REUSEPORT != null && channel.supportedOptions().contains(SO_REUSEPORT)) {
+					channel.setOption(SO_REUSEPORT, true);
+				} else if (shardCount > 1) {
+					channel.close();
+					throw new IOException("SO_REUSEPORT is not supported by the sockets of this platform");
+				}
+				return channel;
+			}
+		};
+		shard.setReceiveBufferSize(receiveBufferSize);
+		shard.setSendBufferSize(sendBufferSize);
+		shard.setReceiverPacketSize(receiverPacketSize);
+		shard.setReceiveBatchSize(receiveBatchSize);
+		shard.setRawDataReceiver(receiver);
+		shards.add(shard);
+		return shard;
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		active = null;
+		stopShards();
+		LOGGER.log(Level.CONFIG, "ShardedUDPConnector on [{0}] has stopped.", localAddr);
+	}
+
+	private void stopShards() {
+		for (NioUDPConnector shard : shards) {
+			shard.stop();
+		}
+		shards.clear();
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The message is sent via the shard selected by the hash of the
+	 * destination address, so all messages to one peer use the same socket.
+	 */
+	@Override
+	public void send(RawData msg) {
+		if (msg == null) {
+			throw new NullPointerException("Message must not be null");
+		}
+		NioUDPConnector[] current = active;
+		if (current == null) {
+			LOGGER.log(Level.FINE, "ShardedUDPConnector not running, dropping message to {0}",
+					msg.getInetSocketAddress());
+			return;
+		}
+		int index = (msg.getInetSocketAddress().hashCode() & 0x7fffffff) % current.length;
+		current[index].send(msg);
+	}
+
+	@Override
+	public synchronized void setRawDataReceiver(RawDataChannel receiver) {
+		this.receiver = receiver;
+		for (NioUDPConnector shard : shards) {
+			shard.setRawDataReceiver(receiver);
+		}
+	}
+
+	@Override
+	public synchronized InetSocketAddress getAddress() {
+		if (shards.isEmpty()) {
+			return localAddr;
+		} else {
+			return shards.get(0).getAddress();
+		}
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public void setReceiveBufferSize(int size) {
+		this.receiveBufferSize = size;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public void setSendBufferSize(int size) {
+		this.sendBufferSize = size;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public void setReceiverPacketSize(int size) {
+		this.receiverPacketSize = size;
+	}
+
+	public int getReceiverPacketSize() {
+		return receiverPacketSize;
+	}
+
+	public void setReceiveBatchSize(int size) {
+		this.receiveBatchSize = size;
+	}
+
+	public int getReceiveBatchSize() {
+		return receiveBatchSize;
+	}
+}
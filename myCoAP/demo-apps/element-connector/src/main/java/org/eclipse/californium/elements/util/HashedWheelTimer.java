@@ -0,0 +1,517 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link ScheduledExecutorService} based on a hashed timing wheel.
+ * <p>
+ * The {@link java.util.concurrent.ScheduledThreadPoolExecutor} keeps its tasks
+ * in a heap, so scheduling and cancelling a task costs O(log n). With many
+ * thousands of outstanding retransmission timers this becomes a hot spot.
+ * This timer instead puts tasks into one of {@code ticksPerWheel} buckets,
+ * chosen by their deadline, and advances a single worker thread bucket by
+ * bucket every {@code tickDuration}. Scheduling and cancelling a task
+ * therefore costs O(1), at the price of executing tasks with an accuracy of
+ * one tick.
+ * <p>
+ * Expired tasks are handed over to the task executor passed in to the
+ * constructor. If no task executor is given, the tasks are executed by the
+ * timer's worker thread itself, which is only suitable for tasks that return
+ * quickly, e.g. tasks that merely submit a job to another executor.
+ * <p>
+ * {@link #shutdown()} and {@link #shutdownNow()} only stop the timer. The
+ * lifecycle of the task executor is managed by its owner. However, this timer
+ * reports to be shut down, if the task executor is an
+ * {@link ExecutorService}, which has been shut down.
+ */
+public class HashedWheelTimer extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getName());
+
+	private static final int STATE_INIT = 0;
+	private static final int STATE_STARTED = 1;
+	private static final int STATE_SHUTDOWN = 2;
+
+	/**
+	 * The maximum number of new timeouts transferred into the wheel per tick.
+	 * Prevents a burst of new timeouts from stalling the expiration of due
+	 * ones.
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private final Executor taskExecutor;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Thread worker;
+	private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+	private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+	private final CountDownLatch terminated = new CountDownLatch(1);
+	private final Queue<Timeout<?>> pendingTimeouts = new ConcurrentLinkedQueue<Timeout<?>>();
+	private final Queue<Timeout<?>> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout<?>>();
+	private final List<Runnable> unprocessed = new ArrayList<Runnable>();
+
+	/** Start of the wheel's time in nanoseconds, all deadlines are relative to it. */
+	private volatile long startTime;
+
+	/**
+	 * Creates a new timer.
+	 *
+	 * @param threadFactory the factory to create the worker thread with
+	 * @param taskExecutor the executor to run expired tasks on, or
+	 *            {@code null}, if tasks are to be run by the worker thread
+	 * @param tickDuration the duration between two ticks
+	 * @param unit the unit of the tick duration
+	 * @param ticksPerWheel the number of buckets of the wheel. Rounded up to
+	 *            the next power of two.
+	 * @throws NullPointerException if the thread factory or unit is
+	 *             {@code null}
+	 * @throws IllegalArgumentException if tick duration or ticks per wheel is
+	 *             less than 1
+	 */
+	public HashedWheelTimer(ThreadFactory threadFactory, Executor taskExecutor, long tickDuration, TimeUnit unit,
+			int ticksPerWheel) {
+		if (threadFactory == null) {
+			throw new NullPointerException("Thread factory must not be null");
+		} else if (unit == null) {
+			throw new NullPointerException("Unit must not be null");
+		} else if (tickDuration < 1) {
+			throw new IllegalArgumentException("Tick duration must be at least 1");
+		} else if (ticksPerWheel < 1 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("Ticks per wheel must be in range [1, 2^30]");
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.taskExecutor = taskExecutor;
+		this.worker = threadFactory.newThread(new Worker());
+	}
+
+	private void start() {
+		if (state.get() == STATE_INIT && state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+			worker.start();
+		}
+		if (state.get() == STATE_SHUTDOWN) {
+			throw new RejectedExecutionException("Timer is shut down");
+		}
+		while (startTime == 0) {
+			try {
+				startTimeInitialized.await();
+			} catch (InterruptedException e) {
+				// the worker will initialize the start time soon
+			}
+		}
+	}
+
+	private <V> Timeout<V> enqueue(Timeout<V> timeout) {
+		if (isShutdown()) {
+			throw new RejectedExecutionException("Timer is shut down");
+		}
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	private long deadline(long delay, TimeUnit unit) {
+		start();
+		return System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		if (command == null || unit == null) {
+			throw new NullPointerException();
+		}
+		return enqueue(new Timeout<Void>(command, null, deadline(delay, unit), 0));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		if (callable == null || unit == null) {
+			throw new NullPointerException();
+		}
+		return enqueue(new Timeout<V>(callable, deadline(delay, unit)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if (command == null || unit == null) {
+			throw new NullPointerException();
+		} else if (period <= 0) {
+			throw new IllegalArgumentException("Period must be positive");
+		}
+		return enqueue(new Timeout<Void>(command, null, deadline(initialDelay, unit), unit.toNanos(period)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if (command == null || unit == null) {
+			throw new NullPointerException();
+		} else if (delay <= 0) {
+			throw new IllegalArgumentException("Delay must be positive");
+		}
+		return enqueue(new Timeout<Void>(command, null, deadline(initialDelay, unit), -unit.toNanos(delay)));
+	}
+
+	/**
+	 * Executes the command using the task executor, or on the next tick, if
+	 * no task executor has been provided.
+	 */
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		} else if (taskExecutor != null) {
+			if (isShutdown()) {
+				throw new RejectedExecutionException("Timer is shut down");
+			}
+			taskExecutor.execute(command);
+		} else {
+			schedule(command, 0, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		int previous = state.getAndSet(STATE_SHUTDOWN);
+		if (previous == STATE_STARTED) {
+			worker.interrupt();
+		} else if (previous == STATE_INIT) {
+			terminated.countDown();
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		try {
+			terminated.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (unprocessed) {
+			return new ArrayList<Runnable>(unprocessed);
+		}
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return state.get() == STATE_SHUTDOWN
+				|| (taskExecutor instanceof ExecutorService && ((ExecutorService) taskExecutor).isShutdown());
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return state.get() == STATE_SHUTDOWN && terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	/**
+	 * Gets the number of scheduled tasks, which are not yet expired or
+	 * cancelled.
+	 * <p>
+	 * Intended for monitoring, the value is only an estimate.
+	 *
+	 * @return the number of scheduled tasks
+	 */
+	public int getPendingCount() {
+		int count = pendingTimeouts.size();
+		for (Bucket bucket : wheel) {
+			count += bucket.size;
+		}
+		return count;
+	}
+
+	private void dispatch(Timeout<?> timeout) {
+		if (taskExecutor == null) {
+			timeout.run();
+		} else {
+			try {
+				taskExecutor.execute(timeout);
+			} catch (RejectedExecutionException e) {
+				LOGGER.log(Level.FINE, "task executor rejected expired task", e);
+				timeout.cancel(false);
+			}
+		}
+	}
+
+	private final class Worker implements Runnable {
+
+		private long tick;
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			// 0 is used as "not initialized"
+			startTime = now == 0 ? 1 : now;
+			startTimeInitialized.countDown();
+
+			while (state.get() == STATE_STARTED) {
+				long deadline = waitForNextTick();
+				if (deadline > 0) {
+					processCancelled();
+					transferPending();
+					wheel[(int) (tick & mask)].expire(deadline);
+					tick++;
+				}
+			}
+			LOGGER.log(Level.FINE, "Timer [{0}] stopped", Thread.currentThread().getName());
+			synchronized (unprocessed) {
+				for (Bucket bucket : wheel) {
+					bucket.clear(unprocessed);
+				}
+				Timeout<?> timeout;
+				while ((timeout = pendingTimeouts.poll()) != null) {
+					if (!timeout.isCancelled()) {
+						unprocessed.add(timeout);
+					}
+				}
+				cancelledTimeouts.clear();
+			}
+			terminated.countDown();
+		}
+
+		/**
+		 * Sleeps until the start of the next tick.
+		 *
+		 * @return the deadline of the tick relative to the start time, or
+		 *         {@code -1}, if the timer has been shut down while waiting
+		 */
+		private long waitForNextTick() {
+			long deadline = tickNanos * (tick + 1);
+			while (true) {
+				long current = System.nanoTime() - startTime;
+				long sleepMillis = (deadline - current + 999999) / 1000000;
+				if (sleepMillis <= 0) {
+					return current;
+				}
+				try {
+					Thread.sleep(sleepMillis);
+				} catch (InterruptedException e) {
+					if (state.get() == STATE_SHUTDOWN) {
+						return -1;
+					}
+				}
+			}
+		}
+
+		private void processCancelled() {
+			Timeout<?> timeout;
+			while ((timeout = cancelledTimeouts.poll()) != null) {
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+
+		private void transferPending() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				Timeout<?> timeout = pendingTimeouts.poll();
+				if (timeout == null) {
+					break;
+				} else if (timeout.isCancelled()) {
+					continue;
+				}
+				long calculated = timeout.deadline / tickNanos;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				// never schedule into the past
+				long ticks = Math.max(calculated, tick);
+				wheel[(int) (ticks & mask)].add(timeout);
+			}
+		}
+	}
+
+	/**
+	 * An intrusive doubly linked list of timeouts. Only accessed by the worker
+	 * thread.
+	 */
+	private final class Bucket {
+
+		private Timeout<?> head;
+		private Timeout<?> tail;
+		private volatile int size;
+
+		private void add(Timeout<?> timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+			size++;
+		}
+
+		private Timeout<?> remove(Timeout<?> timeout) {
+			Timeout<?> next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				if (timeout == tail) {
+					tail = null;
+					head = null;
+				} else {
+					head = next;
+				}
+			} else if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			size--;
+			return next;
+		}
+
+		private void expire(long deadline) {
+			Timeout<?> timeout = head;
+			while (timeout != null) {
+				if (timeout.isCancelled()) {
+					timeout = remove(timeout);
+				} else if (timeout.remainingRounds <= 0) {
+					Timeout<?> next = remove(timeout);
+					if (timeout.deadline <= deadline) {
+						dispatch(timeout);
+					} else {
+						// placed into a wrong bucket, can't happen
+						LOGGER.log(Level.WARNING, "timeout.deadline ({0}) > deadline ({1})",
+								new Object[] { timeout.deadline, deadline });
+						pendingTimeouts.add(timeout);
+					}
+					timeout = next;
+				} else {
+					timeout.remainingRounds--;
+					timeout = timeout.next;
+				}
+			}
+		}
+
+		private void clear(List<Runnable> unprocessed) {
+			Timeout<?> timeout;
+			while ((timeout = head) != null) {
+				remove(timeout);
+				if (!timeout.isCancelled()) {
+					unprocessed.add(timeout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A scheduled task.
+	 *
+	 * @param <V> the result type
+	 */
+	private final class Timeout<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+		/**
+		 * The period in nanoseconds. Positive for fixed rate, negative for
+		 * fixed delay, 0 for a one-shot task.
+		 */
+		private final long period;
+		/** The deadline relative to the wheel's start time. */
+		private volatile long deadline;
+
+		// only accessed by the worker thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout<?> next;
+		private Timeout<?> prev;
+
+		private Timeout(Runnable runnable, V result, long deadline, long period) {
+			super(runnable, result);
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		private Timeout(Callable<V> callable, long deadline) {
+			super(callable);
+			this.deadline = deadline;
+			this.period = 0;
+		}
+
+		@Override
+		public void run() {
+			if (period == 0) {
+				super.run();
+			} else if (runAndReset()) {
+				if (period > 0) {
+					deadline += period;
+				} else {
+					deadline = System.nanoTime() - startTime - period;
+				}
+				if (!isShutdown()) {
+					pendingTimeouts.add(this);
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				cancelledTimeouts.add(this);
+			}
+			return cancelled;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline + startTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if (other == this) {
+				return 0;
+			}
+			long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+}
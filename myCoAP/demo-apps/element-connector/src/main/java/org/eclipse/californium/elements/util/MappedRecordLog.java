@@ -0,0 +1,582 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A key-value store kept in a memory-mapped, append-only file.
+ * <p>
+ * Each change is appended to the file as a record. An in-memory index maps
+ * the keys to the position of their latest record, in the order the keys
+ * have been stored. When the mapped region is exhausted, the live records are
+ * copied to a new file (replacing the current one atomically), if at least
+ * half of the file is occupied by superseded records. Otherwise the mapped
+ * region is enlarged.
+ * <p>
+ * The records are written to the file system's page cache, so they survive
+ * a crash of the process, but not necessarily a crash of the operating
+ * system. An incompletely written record at the end of the file is detected
+ * by its checksum and discarded when the file is loaded.
+ * <p>
+ * The file is created readable and writable by its owner only, if the file
+ * system supports POSIX permissions.
+ * <p>
+ * Each record has the following structure:
+ * <pre>
+ * struct {
+ *   uint8 type; // 1 = put, 2 = remove
+ *   uint8 key_length;
+ *   uint16 value_length; // 0 for remove
+ *   opaque key[key_length];
+ *   opaque value[value_length];
+ *   uint32 crc32;
+ *   int32 attribute; // only, if the log has been created with attributes
+ * } Record;
+ * </pre>
+ * The optional attribute is overwritten in place and therefore not covered
+ * by the checksum. A record replacing the record of the same key takes over
+ * its attribute.
+ * <p>
+ * The log is thread safe. Setting attributes of different keys is done
+ * concurrently, all other changes are serialized.
+ */
+public final class MappedRecordLog implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(MappedRecordLog.class.getName());
+
+	/**
+	 * The maximum length of a key.
+	 */
+	public static final int MAX_KEY_LENGTH = 0xff;
+	/**
+	 * The maximum length of a value.
+	 */
+	public static final int MAX_VALUE_LENGTH = 0xffff;
+
+	private static final int HEADER_LENGTH = 4;
+	private static final byte TYPE_PUT = 1;
+	private static final byte TYPE_REMOVE = 2;
+	private static final int FIXED_LENGTH = 4;
+	private static final int CRC_LENGTH = 4;
+	private static final int ATTRIBUTE_LENGTH = 4;
+	private static final int MIN_REGION_SIZE = 64 * 1024;
+
+	/**
+	 * Visits the records of a log.
+	 */
+	public interface RecordVisitor {
+
+		/**
+		 * Visits the latest record of a key.
+		 *
+		 * @param key the key
+		 * @param value the value
+		 * @param attribute the attribute, or 0, if the log has no attributes
+		 */
+		void visit(byte[] key, byte[] value, int attribute);
+	}
+
+	private final Path path;
+	private final int magic;
+	private final int trailerLength;
+	/** the latest record of each key, guarded by the write lock */
+	private final Map<Key, Entry> index = new LinkedHashMap<Key, Entry>();
+	/**
+	 * the lock guarding the file. Setting an attribute only changes the file
+	 * in place and therefore only requires the read lock.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final CRC32 crc = new CRC32();
+
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	/** the position after the last record */
+	private int end;
+	/** the total length of the records in the index */
+	private int liveBytes;
+
+	/**
+	 * Creates a log.
+	 *
+	 * @param file the file to store the records in. If the file exists, the
+	 *            records stored in it are loaded.
+	 * @param magic the number identifying the files of the log's user
+	 * @param attributes <code>true</code>, if the records have an attribute
+	 * @throws IOException if the file cannot be opened or doesn't start with
+	 *             the magic number
+	 */
+	public MappedRecordLog(final File file, final int magic, final boolean attributes) throws IOException {
+		if (file == null) {
+			throw new NullPointerException("File must not be null");
+		} else if (magic == 0) {
+			throw new IllegalArgumentException("Magic number must not be 0");
+		}
+		this.path = file.toPath();
+		this.magic = magic;
+		this.trailerLength = CRC_LENGTH + (attributes ? ATTRIBUTE_LENGTH : 0);
+		open(0);
+		readIndex();
+	}
+
+	/**
+	 * Stores a value.
+	 * <p>
+	 * A stored value of the same key is replaced and its attribute is kept.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @param attribute the attribute, if no value of the key is stored
+	 * @return <code>true</code>, if the value has been stored,
+	 *         <code>false</code>, if the log is closed
+	 * @throws IllegalArgumentException if the key or the value is too long
+	 * @throws IOException if the file cannot be enlarged or compacted
+	 */
+	public boolean put(final byte[] key, final byte[] value, final int attribute) throws IOException {
+		checkLength(key, value);
+		Key indexKey = new Key(key.clone());
+		lock.writeLock().lock();
+		try {
+			if (buffer == null) {
+				return false;
+			}
+			Entry previous = index.get(indexKey);
+			int initial = previous == null ? attribute : getAttribute(previous);
+			Entry entry = append(TYPE_PUT, key, value, initial);
+			removeFromIndex(indexKey);
+			index.put(indexKey, entry);
+			liveBytes += entry.length;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a value.
+	 *
+	 * @param key the key
+	 * @return <code>true</code>, if a value has been removed
+	 * @throws IOException if the file cannot be enlarged or compacted
+	 */
+	public boolean remove(final byte[] key) throws IOException {
+		Key indexKey = new Key(key);
+		lock.writeLock().lock();
+		try {
+			if (buffer == null || !index.containsKey(indexKey)) {
+				return false;
+			}
+			append(TYPE_REMOVE, key, new byte[0], 0);
+			removeFromIndex(indexKey);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets a value.
+	 *
+	 * @param key the key
+	 * @return the value, or <code>null</code>, if no value is stored
+	 */
+	public byte[] get(final byte[] key) {
+		Key indexKey = new Key(key);
+		lock.readLock().lock();
+		try {
+			Entry entry = buffer == null ? null : index.get(indexKey);
+			if (entry == null) {
+				return null;
+			}
+			return copy(entry.position + FIXED_LENGTH + (buffer.get(entry.position + 1) & 0xff),
+					buffer.getShort(entry.position + 2) & 0xffff);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Sets the attribute of a value.
+	 * <p>
+	 * Setting attributes of different keys doesn't block.
+	 *
+	 * @param key the key
+	 * @param attribute the attribute
+	 * @return <code>true</code>, if the attribute has been set,
+	 *         <code>false</code>, if no value is stored
+	 * @throws IllegalStateException if the log has been created without
+	 *             attributes
+	 */
+	public boolean setAttribute(final byte[] key, final int attribute) {
+		if (trailerLength == CRC_LENGTH) {
+			throw new IllegalStateException("Log has no attributes");
+		}
+		Key indexKey = new Key(key);
+		lock.readLock().lock();
+		try {
+			Entry entry = buffer == null ? null : index.get(indexKey);
+			if (entry == null) {
+				return false;
+			}
+			// absolute puts of different keys don't interfere
+			buffer.putInt(entry.position + entry.length - ATTRIBUTE_LENGTH, attribute);
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the key stored least recently.
+	 *
+	 * @return the key, or <code>null</code>, if the log is empty
+	 */
+	public byte[] getEldestKey() {
+		lock.readLock().lock();
+		try {
+			return index.isEmpty() ? null : index.keySet().iterator().next().bytes.clone();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Passes the latest record of each key to a visitor, in the order the
+	 * keys have been stored.
+	 * <p>
+	 * The visitor must not change the log.
+	 *
+	 * @param visitor the visitor
+	 */
+	public void visit(final RecordVisitor visitor) {
+		lock.readLock().lock();
+		try {
+			if (buffer == null) {
+				return;
+			}
+			for (Map.Entry<Key, Entry> record : index.entrySet()) {
+				Entry entry = record.getValue();
+				int keyLength = buffer.get(entry.position + 1) & 0xff;
+				byte[] value = copy(entry.position + FIXED_LENGTH + keyLength, buffer.getShort(entry.position + 2) & 0xffff);
+				visitor.visit(record.getKey().bytes.clone(), value, getAttribute(entry));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of stored values.
+	 *
+	 * @return the number of values
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the position after the last record in the file, e.g. to monitor
+	 * the growth of the file.
+	 *
+	 * @return the position
+	 */
+	public int getEnd() {
+		lock.readLock().lock();
+		try {
+			return end;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the mapped region to the file and closes the file.
+	 * <p>
+	 * Afterwards, the log is empty and doesn't store values anymore.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (buffer != null) {
+				buffer.force();
+				buffer = null;
+				index.clear();
+				liveBytes = 0;
+				channel.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static void checkLength(final byte[] key, final byte[] value) {
+		if (key.length > MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException("Key must not exceed " + MAX_KEY_LENGTH + " bytes");
+		} else if (value.length > MAX_VALUE_LENGTH) {
+			throw new IllegalArgumentException("Value must not exceed " + MAX_VALUE_LENGTH + " bytes");
+		}
+	}
+
+	private int getAttribute(final Entry entry) {
+		if (trailerLength == CRC_LENGTH) {
+			return 0;
+		}
+		return buffer.getInt(entry.position + entry.length - ATTRIBUTE_LENGTH);
+	}
+
+	private void removeFromIndex(final Key key) {
+		Entry previous = index.remove(key);
+		if (previous != null) {
+			liveBytes -= previous.length;
+		}
+	}
+
+	private int recordLength(final int keyLength, final int valueLength) {
+		return FIXED_LENGTH + keyLength + valueLength + trailerLength;
+	}
+
+	/**
+	 * Maps the file.
+	 *
+	 * @param minSize the minimum size of the mapped region
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private void open(final long minSize) throws IOException {
+		channel = openChannel(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = Math.max(Math.max(channel.size(), minSize), MIN_REGION_SIZE);
+		if (size > Integer.MAX_VALUE) {
+			channel.close();
+			throw new IOException("Record log file too large: " + path);
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Opens a file, which is created accessible by its owner only, if the
+	 * file system supports POSIX permissions.
+	 *
+	 * @param file the file
+	 * @param options the options
+	 * @return the channel
+	 * @throws IOException if the file cannot be opened
+	 */
+	private static FileChannel openChannel(final Path file, final OpenOption... options) throws IOException {
+		Set<OpenOption> optionSet = new HashSet<>(Arrays.asList(options));
+		if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			FileAttribute<?> ownerOnly = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+			return FileChannel.open(file, optionSet, ownerOnly);
+		} else {
+			return FileChannel.open(file, optionSet);
+		}
+	}
+
+	/**
+	 * Reads the index from the mapped file and positions the buffer at the
+	 * end of the last valid record.
+	 *
+	 * @throws IOException if the file doesn't start with the magic number
+	 */
+	private void readIndex() throws IOException {
+		int fileMagic = buffer.getInt(0);
+		if (fileMagic == 0) {
+			buffer.putInt(0, magic);
+		} else if (fileMagic != magic) {
+			channel.close();
+			throw new IOException("Unexpected magic number in " + path);
+		}
+		int position = HEADER_LENGTH;
+		int limit = buffer.capacity();
+		while (position + recordLength(0, 0) <= limit) {
+			byte type = buffer.get(position);
+			int keyLength = buffer.get(position + 1) & 0xff;
+			int length = recordLength(keyLength, buffer.getShort(position + 2) & 0xffff);
+			int crcPosition = position + length - trailerLength;
+			if ((type != TYPE_PUT && type != TYPE_REMOVE) || position + length > limit
+					|| checksum(position, crcPosition - position) != buffer.getInt(crcPosition)) {
+				break;
+			}
+			Key key = new Key(copy(position + FIXED_LENGTH, keyLength));
+			removeFromIndex(key);
+			if (type == TYPE_PUT) {
+				index.put(key, new Entry(position, length));
+				liveBytes += length;
+			}
+			position += length;
+		}
+		if (position < limit && buffer.get(position) != 0) {
+			// discard an incompletely written record
+			for (int zero = position; zero < limit; zero++) {
+				buffer.put(zero, (byte) 0);
+			}
+		}
+		end = position;
+		LOGGER.log(Level.FINE, "Loaded {0} records from {1}", new Object[]{index.size(), path});
+	}
+
+	private byte[] copy(final int offset, final int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer source = buffer.duplicate();
+		source.position(offset);
+		source.get(bytes);
+		return bytes;
+	}
+
+	private int checksum(final int offset, final int length) {
+		crc.reset();
+		for (int i = offset; i < offset + length; i++) {
+			crc.update(buffer.get(i));
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Appends a record.
+	 *
+	 * @return the entry of the record
+	 * @throws IOException if the file cannot be enlarged or compacted
+	 */
+	private Entry append(final byte type, final byte[] key, final byte[] value, final int attribute)
+			throws IOException {
+		int length = recordLength(key.length, value.length);
+		if (buffer.capacity() - end < length) {
+			if (end - HEADER_LENGTH - liveBytes >= liveBytes) {
+				compact();
+			}
+			if (buffer.capacity() - end < length) {
+				long size = Math.max(2L * buffer.capacity(), (long) end + length);
+				buffer.force();
+				channel.close();
+				open(size);
+			}
+		}
+		int position = end;
+		ByteBuffer target = buffer.duplicate();
+		target.position(position);
+		target.put(type);
+		target.put((byte) key.length);
+		target.putShort((short) value.length);
+		target.put(key);
+		target.put(value);
+		target.putInt(checksum(position, length - trailerLength));
+		if (trailerLength > CRC_LENGTH) {
+			target.putInt(attribute);
+		}
+		end = position + length;
+		return new Entry(position, length);
+	}
+
+	/**
+	 * Replaces the file with a file containing the live records only.
+	 *
+	 * @throws IOException if the file cannot be replaced
+	 */
+	private void compact() throws IOException {
+		Path compacted = path.resolveSibling(path.getFileName() + ".tmp");
+		int[] positions = new int[index.size()];
+		int next = 0;
+		try (FileChannel target = openChannel(compacted, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer copy = target.map(FileChannel.MapMode.READ_WRITE, 0,
+					Math.max(buffer.capacity(), HEADER_LENGTH + liveBytes));
+			copy.putInt(magic);
+			for (Entry entry : index.values()) {
+				positions[next++] = copy.position();
+				for (int i = entry.position; i < entry.position + entry.length; i++) {
+					copy.put(buffer.get(i));
+				}
+			}
+			copy.force();
+		}
+		buffer.force();
+		channel.close();
+		try {
+			Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// continue with the previous file, if it cannot be replaced
+			open(0);
+		}
+		next = 0;
+		for (Entry entry : index.values()) {
+			entry.position = positions[next++];
+		}
+		end = HEADER_LENGTH + liveBytes;
+		LOGGER.log(Level.FINE, "Compacted {0} to {1} records", new Object[]{path, index.size()});
+	}
+
+	/**
+	 * A key of the index.
+	 */
+	private static final class Key {
+
+		private final byte[] bytes;
+		private final int hash;
+
+		private Key(final byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof Key && Arrays.equals(bytes, ((Key) obj).bytes);
+		}
+	}
+
+	/**
+	 * The latest record of a key.
+	 */
+	private static final class Entry {
+
+		/** the position of the record, changed by compaction */
+		private int position;
+		private final int length;
+
+		private Entry(final int position, final int length) {
+			this.position = position;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verifies behavior of {@code NioUDPConnector}.
+ */
+public class NioUDPConnectorTest {
+
+	private static final int NUMBER_OF_MESSAGES = 500;
+
+	private NioUDPConnector server;
+	private NioUDPConnector client;
+	private Collector serverCollector;
+	private Collector clientCollector;
+
+	@Before
+	public void setUp() throws Exception {
+		serverCollector = new Collector(NUMBER_OF_MESSAGES);
+		clientCollector = new Collector(1);
+		server = new NioUDPConnector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.setRawDataReceiver(serverCollector);
+		server.setReceiveBatchSize(8);
+		server.setReceiveBufferSize(256 * 1024);
+		client = new NioUDPConnector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		client.setRawDataReceiver(clientCollector);
+		server.start();
+		client.start();
+	}
+
+	@After
+	public void tearDown() {
+		client.destroy();
+		server.destroy();
+	}
+
+	@Test
+	public void testStartBindsEphemeralPort() {
+		assertNotEquals(0, server.getAddress().getPort());
+		assertNotEquals(0, client.getAddress().getPort());
+	}
+
+	@Test
+	public void testPingPong() throws Exception {
+		byte[] ping = new byte[] { 0x40, 0x01, 0x12, 0x34 };
+		client.send(new RawData(ping, server.getAddress()));
+		assertTrue(serverCollector.await(1));
+		RawData received = serverCollector.get(0);
+		assertArrayEquals(ping, received.getBytes());
+		assertEquals(client.getAddress(), received.getInetSocketAddress());
+
+		byte[] pong = new byte[] { 0x60, 0x00, 0x12, 0x34 };
+		server.send(new RawData(pong, received.getInetSocketAddress()));
+		assertTrue(clientCollector.await(1));
+		assertArrayEquals(pong, clientCollector.get(0).getBytes());
+	}
+
+	@Test
+	public void testReceivesBatchesLargerThanBatchSize() throws Exception {
+		for (int i = 0; i < NUMBER_OF_MESSAGES; i++) {
+			client.send(new RawData(new byte[] { (byte) (i >> 8), (byte) i }, server.getAddress()));
+		}
+		assertTrue(serverCollector.await(NUMBER_OF_MESSAGES));
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		server.stop();
+		server.start();
+		client.send(new RawData(new byte[] { 0x01 }, server.getAddress()));
+		assertTrue(serverCollector.await(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetReceiveBatchSizeRejectsZero() {
+		server.setReceiveBatchSize(0);
+	}
+
+	private static class Collector implements RawDataChannel {
+
+		private final List<RawData> messages = new ArrayList<RawData>();
+		private final CountDownLatch latch;
+
+		private Collector(int expected) {
+			this.latch = new CountDownLatch(expected);
+		}
+
+		@Override
+		public synchronized void receiveData(RawData raw) {
+			messages.add(raw);
+			latch.countDown();
+		}
+
+		private boolean await(int size) throws InterruptedException {
+			latch.await(2, TimeUnit.SECONDS);
+			synchronized (this) {
+				return messages.size() >= size;
+			}
+		}
+
+		private synchronized RawData get(int index) {
+			return messages.get(index);
+		}
+	}
+}
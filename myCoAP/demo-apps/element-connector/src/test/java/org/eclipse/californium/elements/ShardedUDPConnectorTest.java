@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Verifies behavior of {@code ShardedUDPConnector}.
+ */
+public class ShardedUDPConnectorTest {
+
+	private static final int NUMBER_OF_CLIENTS = 8;
+
+	private final List<Connector> cleanup = new ArrayList<Connector>();
+
+	@After
+	public void tearDown() {
+		for (Connector connector : cleanup) {
+			connector.destroy();
+		}
+	}
+
+	@Test
+	public void testSingleShardDoesNotRequireReusePort() throws Exception {
+		ShardedUDPConnector server = new ShardedUDPConnector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+		cleanup.add(server);
+		server.start();
+		assertNotEquals(0, server.getAddress().getPort());
+	}
+
+	@Test
+	public void testShardsReceiveFromManyClients() throws Exception {
+		assumeTrue(ShardedUDPConnector.isReusePortSupported());
+
+		final CountDownLatch latch = new CountDownLatch(NUMBER_OF_CLIENTS);
+		ShardedUDPConnector server = new ShardedUDPConnector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+		server.setRawDataReceiver(new RawDataChannel() {
+
+			@Override
+			public void receiveData(RawData raw) {
+				latch.countDown();
+			}
+		});
+		cleanup.add(server);
+		server.start();
+
+		for (int i = 0; i < NUMBER_OF_CLIENTS; i++) {
+			NioUDPConnector client = new NioUDPConnector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			client.setRawDataReceiver(new RawDataChannel() {
+
+				@Override
+				public void receiveData(RawData raw) {
+				}
+			});
+			cleanup.add(client);
+			client.start();
+			client.send(new RawData(new byte[] { (byte) i }, server.getAddress()));
+		}
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRestartKeepsConfiguredShardCount() throws Exception {
+		assumeTrue(ShardedUDPConnector.isReusePortSupported());
+
+		ShardedUDPConnector server = new ShardedUDPConnector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+		cleanup.add(server);
+		server.start();
+		server.stop();
+		server.start();
+		assertEquals(2, server.getShardCount());
+		assertNotEquals(0, server.getAddress().getPort());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructorRejectsZeroShards() {
+		new ShardedUDPConnector(null, 0);
+	}
+}
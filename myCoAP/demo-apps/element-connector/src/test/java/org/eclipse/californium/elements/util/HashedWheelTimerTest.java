@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verifies behavior of {@code HashedWheelTimer}.
+ */
+public class HashedWheelTimerTest {
+
+	private ExecutorService executor;
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("TestExecutor-"));
+		// small wheel to make tasks wrap around
+		timer = new HashedWheelTimer(new DaemonThreadFactory("TestTimer-"), executor, 5, TimeUnit.MILLISECONDS, 8);
+	}
+
+	@After
+	public void tearDown() {
+		timer.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testScheduledTaskIsExecutedAfterDelay() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	public void testTasksExpireInOrderOfDeadline() throws Exception {
+		final List<Integer> order = new ArrayList<Integer>();
+		final CountDownLatch latch = new CountDownLatch(3);
+		int[] delays = { 150, 20, 80 };
+		for (final int delay : delays) {
+			timer.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					synchronized (order) {
+						order.add(delay);
+					}
+					latch.countDown();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(20), order.get(0));
+		assertEquals(Integer.valueOf(80), order.get(1));
+		assertEquals(Integer.valueOf(150), order.get(2));
+	}
+
+	@Test
+	public void testCancelledTaskIsNotExecuted() throws Exception {
+		final AtomicInteger counter = new AtomicInteger();
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				counter.incrementAndGet();
+			}
+		};
+		ScheduledFuture<?> cancelled = timer.schedule(task, 50, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> executed = timer.schedule(task, 100, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel(false));
+		executed.get(2, TimeUnit.SECONDS);
+		assertEquals(1, counter.get());
+		assertTrue(cancelled.isCancelled());
+	}
+
+	@Test
+	public void testFixedRateTaskIsRepeated() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(5);
+		ScheduledFuture<?> future = timer.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 0, 20, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue(future.cancel(false));
+	}
+
+	@Test
+	public void testShutdownNowReturnsPendingTasks() throws Exception {
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		};
+		timer.schedule(task, 10, TimeUnit.SECONDS);
+		timer.schedule(task, 20, TimeUnit.SECONDS).cancel(false);
+		List<Runnable> pending = timer.shutdownNow();
+		assertEquals(1, pending.size());
+		assertTrue(timer.isShutdown());
+		assertTrue(timer.awaitTermination(1, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testScheduleAfterShutdownIsRejected() {
+		timer.shutdown();
+		timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testIsShutdownReflectsTaskExecutor() {
+		assertFalse(timer.isShutdown());
+		executor.shutdown();
+		assertTrue(timer.isShutdown());
+	}
+}
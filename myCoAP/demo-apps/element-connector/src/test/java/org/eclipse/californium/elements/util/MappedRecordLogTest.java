@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.elements.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verifies behavior of {@link MappedRecordLog}.
+ */
+public class MappedRecordLogTest {
+
+	private static final int MAGIC = 0x54455354; // "TEST"
+	private static final byte[] KEY = { 1, 2, 3 };
+	private static final byte[] OTHER_KEY = { 4 };
+
+	File file;
+	MappedRecordLog log;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("records", ".bin");
+		file.delete();
+		log = new MappedRecordLog(file, MAGIC, true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		log.close();
+		file.delete();
+	}
+
+	@Test
+	public void testRecordsSurviveRestart() throws Exception {
+		// GIVEN a log containing two values, one of them removed afterwards
+		log.put(KEY, new byte[] { 10 }, -1);
+		log.put(OTHER_KEY, new byte[] { 20 }, -1);
+		log.put(KEY, new byte[] { 11 }, -1);
+		log.remove(OTHER_KEY);
+
+		// WHEN the log is loaded from the file again
+		restart();
+
+		// THEN only the latest value of the remaining key is contained
+		assertThat(log.size(), is(1));
+		assertThat(log.get(KEY), is(new byte[] { 11 }));
+		assertThat(log.get(OTHER_KEY), is(nullValue()));
+	}
+
+	@Test
+	public void testReplacedValueKeepsAttribute() throws Exception {
+		// GIVEN a value, whose attribute has been set
+		log.put(KEY, new byte[] { 10 }, -1);
+		log.setAttribute(KEY, 7);
+
+		// WHEN the value is replaced
+		log.put(KEY, new byte[] { 11 }, -1);
+
+		// THEN the attribute is kept, also after a restart
+		restart();
+		assertThat(visit(), is(Arrays.asList("1,2,3=11@7")));
+	}
+
+	@Test
+	public void testSetAttributeDoesNotAppendRecord() throws Exception {
+		// GIVEN a stored value
+		log.put(KEY, new byte[] { 10 }, -1);
+		int end = log.getEnd();
+
+		// WHEN its attribute is set
+		log.setAttribute(KEY, 7);
+
+		// THEN the file has not grown
+		assertThat(log.getEnd(), is(end));
+		assertFalse(log.setAttribute(OTHER_KEY, 7));
+	}
+
+	@Test
+	public void testEldestKeyIsStoredLeastRecently() throws Exception {
+		// GIVEN two keys, the first one stored again afterwards
+		log.put(KEY, new byte[] { 10 }, -1);
+		log.put(OTHER_KEY, new byte[] { 20 }, -1);
+		log.put(KEY, new byte[] { 11 }, -1);
+
+		// THEN the other key is the eldest one, also after a restart
+		assertThat(log.getEldestKey(), is(OTHER_KEY));
+		restart();
+		assertThat(log.getEldestKey(), is(OTHER_KEY));
+	}
+
+	@Test
+	public void testCompactionRemovesSupersededRecords() throws Exception {
+		// GIVEN a log containing a second value
+		log.put(OTHER_KEY, new byte[] { 20 }, -1);
+		log.setAttribute(OTHER_KEY, 5);
+		long initialLength = file.length();
+
+		// WHEN a value is put many times
+		for (int i = 0; i < 10000; i++) {
+			log.put(KEY, new byte[] { (byte) i }, -1);
+		}
+
+		// THEN the file has not grown and still contains both values
+		assertThat(file.length(), is(initialLength));
+		restart();
+		assertThat(visit(), is(Arrays.asList("4=20@5", "1,2,3=" + (byte) 9999 + "@-1")));
+	}
+
+	@Test
+	public void testLoadDiscardsIncompleteRecord() throws Exception {
+		// GIVEN a file containing a value followed by an incompletely written record
+		log.put(KEY, new byte[] { 10 }, -1);
+		int end = log.getEnd();
+		log.close();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(end);
+			raf.write(new byte[] { 1, 32, 0, 80, 7, 7, 7 });
+		}
+
+		// WHEN loading the file and adding another value
+		log = new MappedRecordLog(file, MAGIC, true);
+		log.put(OTHER_KEY, new byte[] { 20 }, -1);
+		restart();
+
+		// THEN both values are contained
+		assertThat(visit(), is(Arrays.asList("1,2,3=10@-1", "4=20@-1")));
+	}
+
+	@Test(expected = IOException.class)
+	public void testConstructorRejectsOtherFile() throws Exception {
+		// GIVEN a file not created with the magic number
+		log.close();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.writeInt(0x12345678);
+		}
+
+		// WHEN loading the file
+		new MappedRecordLog(file, MAGIC, true);
+	}
+
+	@Test
+	public void testFileIsAccessibleByOwnerOnly() throws Exception {
+		assumeTrue(file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+		// WHEN the file has been created and compacted
+		for (int i = 0; i < 10000; i++) {
+			log.put(KEY, new byte[100], -1);
+		}
+
+		// THEN only the owner can read and write the file
+		assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())), is("rw-------"));
+	}
+
+	@Test
+	public void testLogWithoutAttributes() throws Exception {
+		// GIVEN a log without attributes
+		log.close();
+		file.delete();
+		log = new MappedRecordLog(file, MAGIC, false);
+
+		// WHEN storing a value
+		log.put(KEY, new byte[] { 10 }, -1);
+
+		// THEN the record has no attribute
+		assertThat(log.getEnd(), is(4 + 4 + KEY.length + 1 + 4));
+		restart(false);
+		assertThat(visit(), is(Arrays.asList("1,2,3=10@0")));
+	}
+
+	private void restart() throws IOException {
+		restart(true);
+	}
+
+	private void restart(final boolean attributes) throws IOException {
+		log.close();
+		log = new MappedRecordLog(file, MAGIC, attributes);
+	}
+
+	/**
+	 * Gets the records as "key=value@attribute" strings.
+	 */
+	private List<String> visit() {
+		final List<String> records = new ArrayList<String>();
+		log.visit(new MappedRecordLog.RecordVisitor() {
+
+			@Override
+			public void visit(byte[] key, byte[] value, int attribute) {
+				String text = Arrays.toString(key).replaceAll("[\\[\\] ]", "");
+				records.add(text + "=" + Arrays.toString(value).replaceAll("[\\[\\] ]", "") + "@" + attribute);
+			}
+		});
+		return records;
+	}
+}
@@ -63,10 +63,12 @@ import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.nio.channels.ClosedByInterruptException;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -76,9 +78,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.crypto.Mac;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.californium.elements.Connector;
@@ -87,6 +86,7 @@ import org.eclipse.californium.elements.DtlsCorrelationContext;
 import org.eclipse.californium.elements.RawData;
 import org.eclipse.californium.elements.RawDataChannel;
 import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.eclipse.californium.elements.util.HashedWheelTimer;
 import org.eclipse.californium.elements.util.NamedThreadFactory;
 import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
 import org.eclipse.californium.scandium.dtls.AlertMessage;
@@ -95,9 +95,9 @@ import org.eclipse.californium.scandium.dtls.AlertMessage.AlertLevel;
 import org.eclipse.californium.scandium.dtls.ApplicationMessage;
 import org.eclipse.californium.scandium.dtls.ClientHandshaker;
 import org.eclipse.californium.scandium.dtls.ClientHello;
-import org.eclipse.californium.scandium.dtls.CompressionMethod;
 import org.eclipse.californium.scandium.dtls.Connection;
 import org.eclipse.californium.scandium.dtls.ContentType;
+import org.eclipse.californium.scandium.dtls.CookieGenerator;
 import org.eclipse.californium.scandium.dtls.DTLSFlight;
 import org.eclipse.californium.scandium.dtls.DTLSSession;
 import org.eclipse.californium.scandium.dtls.DtlsHandshakeException;
@@ -120,8 +120,9 @@ import org.eclipse.californium.scandium.dtls.SessionAdapter;
 import org.eclipse.californium.scandium.dtls.SessionCache;
 import org.eclipse.californium.scandium.dtls.SessionListener;
 import org.eclipse.californium.scandium.dtls.SessionTicket;
+import org.eclipse.californium.scandium.dtls.StripedConnectionStore;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
-import org.eclipse.californium.scandium.util.ByteArrayUtils;
+import org.eclipse.californium.scandium.dtls.cipher.EphemeralKeyPool;
 
 import eu.javaspecialists.tjsn.concurrency.stripedexecutor.StripedExecutorService;
 import eu.javaspecialists.tjsn.concurrency.stripedexecutor.StripedRunnable;
@@ -140,6 +141,12 @@ public class DTLSConnector implements Connector {
 	 */
 	public static final String KEY_TLS_SERVER_HOST_NAME = "TLS_SERVER_HOST_NAME";
 
+	/**
+	 * The minimum number of connections for which the standard connection store
+	 * is a {@link StripedConnectionStore}.
+	 */
+	public static final int STRIPED_CONNECTION_STORE_THRESHOLD = 10000;
+
 	private static final Logger LOGGER = Logger.getLogger(DTLSConnector.class.getCanonicalName());
 	private static final int MAX_PLAINTEXT_FRAGMENT_LENGTH = 16384; // max. DTLSPlaintext.length (2^14 bytes)
 	private static final int MAX_CIPHERTEXT_EXPANSION =
@@ -154,6 +161,10 @@ public class DTLSConnector implements Connector {
 	 * The value of this property is 6 * <em>#(CPU cores)</em>.
 	 */
 	private static final int DEFAULT_EXECUTOR_THREAD_POOL_SIZE = 6 * Runtime.getRuntime().availableProcessors();
+	/**
+	 * The number of buckets of the hashed wheel timer, if used for scheduling retransmissions.
+	 */
+	private static final int RETRANSMISSION_TIMER_TICKS_PER_WHEEL = 512;
 
 	/** all the configuration options for the DTLS connector */ 
 	private final DtlsConnectorConfig config;
@@ -161,16 +172,24 @@ public class DTLSConnector implements Connector {
 	private final ResumptionSupportingConnectionStore connectionStore;
 
 	private final AtomicInteger pendingOutboundMessages = new AtomicInteger();
+	/** the outbound messages not processed yet, by peer */
+	private final ConcurrentMap<InetSocketAddress, OutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+	/** the buffer the sending thread packs records into */
+	private final ThreadLocal<byte[]> sendBuffer = new ThreadLocal<byte[]>() {
+
+		@Override
+		protected byte[] initialValue() {
+			return new byte[MAX_DATAGRAM_BUFFER_SIZE];
+		}
+	};
 	
 	private InetSocketAddress lastBindAddress;
 	private int maximumTransmissionUnit = 1280; // min. IPv6 MTU
 	private int inboundDatagramBufferSize = MAX_DATAGRAM_BUFFER_SIZE;
 
-	// guard access to cookieMacKey
-	private Object cookieMacKeyLock = new Object();
-	// last time when the master key was generated
-	private long lastGenerationDate = System.currentTimeMillis();
-	private SecretKey cookieMacKey = new SecretKeySpec(randomBytes(), "MAC");
+	// guard access to errorHandler
+	private Object errorHandlerLock = new Object();
+	private final CookieGenerator cookieGenerator = new CookieGenerator();
 
 	private DatagramSocket socket;
 
@@ -178,8 +197,16 @@ public class DTLSConnector implements Connector {
 	//private Timer timer;
 	private ScheduledExecutorService timer;
 
-	/** The thread that receives messages */
-	private Worker receiver;
+	/** The threads that receive messages */
+	private List<Worker> receivers = new ArrayList<>();
+	/** guards receiving a datagram together with drawing its ticket */
+	private final Object receiveLock = new Object();
+	/** the ticket of the next received datagram, guarded by receiveLock */
+	private long nextReceiveTicket;
+	/** guards the turns of the receivers handing over datagrams */
+	private final Object handOverTurns = new Object();
+	/** the ticket of the next datagram to hand over, guarded by handOverTurns */
+	private long nextHandOverTicket;
 
 	/** Indicates whether the connector has started and not stopped yet */
 	private AtomicBoolean running = new AtomicBoolean(false);
@@ -189,6 +216,12 @@ public class DTLSConnector implements Connector {
 	private SessionListener sessionCacheSynchronization;
 	private StripedExecutorService executor;
 	private boolean hasInternalExecutor;
+	/** the executor processing handshakes, <code>null</code> to use the executor */
+	private StripedExecutorService handshakeExecutor;
+	/** the dispatcher of the peers' tasks, <code>null</code> if there is no handshake executor */
+	private volatile PeerTaskDispatcher peerTaskDispatcher;
+	/** the pre-generated ephemeral ECDH keys, <code>null</code> if not pooled */
+	private final EphemeralKeyPool ephemeralKeyPool;
 
 	/**
 	 * Creates a DTLS connector from a given configuration object
@@ -214,11 +247,37 @@ public class DTLSConnector implements Connector {
 	 * @throws NullPointerException if the configuration is <code>null</code>.
 	 */
 	public DTLSConnector(final DtlsConnectorConfig configuration, final SessionCache sessionCache) {
-		this(configuration,
-				new InMemoryConnectionStore(
-						configuration.getMaxConnections(),
-						configuration.getStaleConnectionThreshold(),
-						sessionCache));
+		this(configuration, createConnectionStore(configuration, sessionCache));
+	}
+
+	/**
+	 * Creates the standard in-memory connection store for a configuration.
+	 * <p>
+	 * Connectors supporting at least {@link #STRIPED_CONNECTION_STORE_THRESHOLD}
+	 * connections use a {@link StripedConnectionStore}, which doesn't serialize
+	 * the lookups of the receiver threads. Smaller connectors use the
+	 * {@link InMemoryConnectionStore} with its exact LRU eviction.
+	 * 
+	 * @param configuration The configuration options.
+	 * @param sessionCache An (optional) second level cache for sessions.
+	 * @return The connection store.
+	 * @throws NullPointerException if the configuration is <code>null</code>.
+	 */
+	private static ResumptionSupportingConnectionStore createConnectionStore(
+			final DtlsConnectorConfig configuration, final SessionCache sessionCache) {
+		if (configuration == null) {
+			throw new NullPointerException("Configuration must not be null");
+		} else if (configuration.getMaxConnections() >= STRIPED_CONNECTION_STORE_THRESHOLD) {
+			return new StripedConnectionStore(
+					configuration.getMaxConnections(),
+					configuration.getStaleConnectionThreshold(),
+					sessionCache);
+		} else {
+			return new InMemoryConnectionStore(
+					configuration.getMaxConnections(),
+					configuration.getStaleConnectionThreshold(),
+					sessionCache);
+		}
 	}
 
 	/**
@@ -239,6 +298,12 @@ public class DTLSConnector implements Connector {
 			this.pendingOutboundMessages.set(config.getOutboundMessageBufferSize());
 			this.connectionStore = connectionStore;
 			this.sessionCacheSynchronization = (SessionListener) this.connectionStore;
+			if (config.getEphemeralKeyPoolSize() > 0) {
+				this.ephemeralKeyPool = new EphemeralKeyPool(config.getEphemeralKeyPoolSize(),
+						config.getEphemeralKeyPoolRefillRate());
+			} else {
+				this.ephemeralKeyPool = null;
+			}
 		}
 	}
 
@@ -315,16 +380,36 @@ public class DTLSConnector implements Connector {
 			return;
 		}
 
-		pendingOutboundMessages.set(config.getOutboundMessageBufferSize());
-
-		timer = Executors.newSingleThreadScheduledExecutor(
-				new DaemonThreadFactory("DTLS RetransmitTask-", NamedThreadFactory.SCANDIUM_THREAD_GROUP));
+		if (config.getRetransmissionTimerTick() > 0) {
+			// the retransmit task only hands over to the executor,
+			// so it's executed directly by the timer's thread
+			timer = new HashedWheelTimer(
+					new DaemonThreadFactory("DTLS RetransmitTask-", NamedThreadFactory.SCANDIUM_THREAD_GROUP),
+					null, config.getRetransmissionTimerTick(), TimeUnit.MILLISECONDS, RETRANSMISSION_TIMER_TICKS_PER_WHEEL);
+		} else {
+			timer = Executors.newSingleThreadScheduledExecutor(
+					new DaemonThreadFactory("DTLS RetransmitTask-", NamedThreadFactory.SCANDIUM_THREAD_GROUP));
+		}
 
 		if (executor == null) {
 			// use a decently sized thread pool
 			executor = new StripedExecutorService(DEFAULT_EXECUTOR_THREAD_POOL_SIZE);
 			this.hasInternalExecutor = true;
 		}
+		if (ephemeralKeyPool != null) {
+			ephemeralKeyPool.start();
+		}
+		if (config.getHandshakeThreadCount() > 0) {
+			handshakeExecutor = new StripedExecutorService(config.getHandshakeThreadCount());
+			peerTaskDispatcher = new PeerTaskDispatcher(executor, handshakeExecutor, config.getHandshakeQueueCapacity(),
+					new PeerTaskDispatcher.DatagramProcessor() {
+
+						@Override
+						public void process(final byte[] data, final InetSocketAddress peerAddress) {
+							processDatagram(data, peerAddress);
+						}
+					});
+		}
 		socket = new DatagramSocket(null);
 		if (bindAddress.getPort() != 0 && config.isAddressReuseEnabled()) {
 			// make it easier to stop/start a server consecutively without delays
@@ -363,14 +448,29 @@ public class DTLSConnector implements Connector {
 		lastBindAddress = new InetSocketAddress(socket.getLocalAddress(), socket.getLocalPort());
 		running.set(true);
 
-		receiver = new Worker("DTLS-Receiver-" + lastBindAddress) {
-				@Override
-				public void doWork() throws Exception {
-					receiveNextDatagramFromNetwork();
-				}
-			};
-		receiver.setDaemon(true);
-		receiver.start();
+		receivers.clear();
+		synchronized (receiveLock) {
+			nextReceiveTicket = 0;
+		}
+		synchronized (handOverTurns) {
+			nextHandOverTicket = 0;
+		}
+		int receiverThreadCount = config.getReceiverThreadCount();
+		for (int index = 0; index < receiverThreadCount; index++) {
+			String name = receiverThreadCount == 1 ? "DTLS-Receiver-" + lastBindAddress
+					: "DTLS-Receiver-" + index + "-" + lastBindAddress;
+			// each receiver uses its own buffer, so no locking is required
+			final DatagramPacket packet = new DatagramPacket(new byte[inboundDatagramBufferSize], inboundDatagramBufferSize);
+			Worker receiver = new Worker(name) {
+					@Override
+					public void doWork() throws Exception {
+						receiveNextDatagramFromNetwork(packet);
+					}
+				};
+			receiver.setDaemon(true);
+			receiver.start();
+			receivers.add(receiver);
+		}
 		LOGGER.log(
 				Level.INFO,
 				"DTLS connector listening on [{0}] with MTU [{1}] using (inbound) datagram buffer size [{2} bytes]",
@@ -437,6 +537,19 @@ public class DTLSConnector implements Connector {
 				executor = null;
 				hasInternalExecutor = false;
 			}
+			if (handshakeExecutor != null) {
+				peerTaskDispatcher = null;
+				handshakeExecutor.shutdownNow();
+				handshakeExecutor = null;
+			}
+			if (ephemeralKeyPool != null) {
+				ephemeralKeyPool.stop();
+			}
+			// queued messages are discarded, the queues may not be executed anymore
+			for (OutboundQueue queue : outboundQueues.values()) {
+				queue.discard();
+			}
+			outboundQueues.clear();
 			releaseSocket();
 		}
 	}
@@ -457,66 +570,180 @@ public class DTLSConnector implements Connector {
 		connectionStore.clear();
 	}
 
-	private void receiveNextDatagramFromNetwork() throws IOException {
+	private void receiveNextDatagramFromNetwork(final DatagramPacket packet) throws IOException {
 
-		byte[] buffer = new byte[inboundDatagramBufferSize];
-		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
 		DatagramSocket socket = getSocket();
 		if (socket == null) {
 			// very unlikely race condition.
 			return;
 		}
-		
-		synchronized(socket) {
+
+		// the buffer is re-used, so reset the length to the buffer's capacity
+		packet.setLength(packet.getData().length);
+		long ticket;
+		synchronized (receiveLock) {
 			socket.receive(packet);
+			ticket = nextReceiveTicket++;
 		}
 
-		if (packet.getLength() == 0) {
-			// nothing to do
-			return;
+		// prepare the datagram in parallel with the other receivers, ...
+		InetSocketAddress peerAddress = null;
+		byte[] data = null;
+		Connection connection = null;
+		try {
+			if (packet.getLength() > 0) {
+				peerAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
+				data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+				if (peerTaskDispatcher != null) {
+					connection = connectionStore.get(peerAddress);
+				}
+			}
+		} finally {
+			// ... but hand it over in the order of reception, so the datagrams of a peer
+			// are queued for its stripe in order
+			awaitHandOverTurn(ticket);
+			try {
+				if (data != null) {
+					handOverDatagram(data, peerAddress, connection);
+				}
+			} finally {
+				endHandOverTurn(ticket);
+			}
 		}
-		InetSocketAddress peerAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
+	}
 
-		byte[] data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getLength());
-		List<Record> records = Record.fromByteArray(data, peerAddress);
-		LOGGER.log(Level.FINER, "Received {0} DTLS records using a {1} byte datagram buffer",
-				new Object[]{records.size(), inboundDatagramBufferSize});
+	private void handOverDatagram(final byte[] data, final InetSocketAddress peerAddress, final Connection connection) {
+		PeerTaskDispatcher dispatcher = peerTaskDispatcher;
+		if (dispatcher != null) {
+			boolean handshake = requiresHandshake(connection) || containsHandshakeRecord(data);
+			dispatcher.dispatch(data, peerAddress, handshake, connection == null);
+			return;
+		}
 
-		for (final Record record : records) {
-			try {
+		// parse the records in parallel on the executor, the stripe
+		// keeps the records of a peer in order
+		executor.execute(new StripedRunnable() {
 
-				switch(record.getType()) {
-				case HANDSHAKE:
-				case APPLICATION_DATA:
-				case ALERT:
-				case CHANGE_CIPHER_SPEC:
-					executor.execute(new StripedRunnable() {
+			@Override
+			public Object getStripe() {
+				return peerAddress;
+			}
 
-						@Override
-						public Object getStripe() {
-							return record.getPeerAddress();
-						}
+			@Override
+			public void run() {
+				processDatagram(data, peerAddress);
+			}
+		});
+	}
 
-						@Override
-						public void run() {
-							processRecord(record);
-						}
-					});
-					break;
-				default:
-					LOGGER.log(
-						Level.FINE,
-						"Discarding unsupported record [type: {0}, peer: {1}]",
-						new Object[]{record.getType(), record.getPeerAddress()});
+	/**
+	 * Waits until all datagrams received before the one with the given
+	 * ticket have been handed over to the executor.
+	 * <p>
+	 * The receivers only wait for each other while handing over, which
+	 * doesn't block. So the wait is not interruptible.
+	 * 
+	 * @param ticket the datagram's ticket
+	 */
+	private void awaitHandOverTurn(final long ticket) {
+		boolean interrupted = false;
+		synchronized (handOverTurns) {
+			while (nextHandOverTicket != ticket) {
+				try {
+					handOverTurns.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
-			} catch (RuntimeException e) {
-				LOGGER.log(
-					Level.INFO,
-					String.format("Unexpected error occurred while processing record [type: %s, peer: %s]",
-							record.getType(), peerAddress),
-					e);
-				terminateConnection(peerAddress, e, AlertLevel.FATAL, AlertDescription.INTERNAL_ERROR);
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void endHandOverTurn(final long ticket) {
+		synchronized (handOverTurns) {
+			nextHandOverTicket = ticket + 1;
+			handOverTurns.notifyAll();
+		}
+	}
+
+	/**
+	 * Executes a task touching the connection state of a peer.
+	 * <p>
+	 * If a handshake executor is used, the task is queued with the peer's
+	 * other tasks, so it is never executed concurrently with a received
+	 * datagram of the peer processed by the other executor.
+	 * 
+	 * @param task the task, striped by the peer's address
+	 * @param peerAddress the peer
+	 * @param handshake <code>true</code>, if the task belongs to a handshake
+	 */
+	private void executeForPeer(final StripedRunnable task, final InetSocketAddress peerAddress,
+			final boolean handshake) {
+		PeerTaskDispatcher dispatcher = peerTaskDispatcher;
+		if (dispatcher != null) {
+			dispatcher.execute(task, peerAddress, handshake);
+		} else {
+			executor.execute(task);
+		}
+	}
+
+	/**
+	 * Checks, if processing a peer's records requires a handshake.
+	 * 
+	 * @param connection the peer's connection, may be <code>null</code>
+	 * @return <code>true</code>, if the peer has no established session or
+	 *         a handshake is ongoing
+	 */
+	private static boolean requiresHandshake(final Connection connection) {
+		return connection == null || connection.hasOngoingHandshake() || !connection.hasEstablishedSession();
+	}
+
+	/**
+	 * Checks, if a datagram contains a handshake record.
+	 * <p>
+	 * Only the record headers are read, so the records of a peer with an
+	 * established session starting a new handshake, e.g. by a
+	 * <em>CLIENT_HELLO</em> or a renegotiation, can be processed by the
+	 * handshake executor without decrypting them first.
+	 * 
+	 * @param data the datagram
+	 * @return <code>true</code>, if the datagram contains a handshake record
+	 */
+	private static boolean containsHandshakeRecord(final byte[] data) {
+		int headerLength = Record.RECORD_HEADER_BITS / Byte.SIZE;
+		int offset = 0;
+		while (offset + headerLength <= data.length) {
+			if (data[offset] == ContentType.HANDSHAKE.getCode()) {
+				return true;
+			}
+			// the length is the last field of the header
+			int length = (data[offset + headerLength - 2] & 0xff) << 8 | (data[offset + headerLength - 1] & 0xff);
+			offset += headerLength + length;
+		}
+		return false;
+	}
+
+	private void processDatagram(final byte[] data, final InetSocketAddress peerAddress) {
+
+		List<Record> records = Record.fromByteArray(data, peerAddress);
+		LOGGER.log(Level.FINER, "Received {0} DTLS records using a {1} byte datagram buffer",
+				new Object[]{records.size(), inboundDatagramBufferSize});
+
+		for (Record record : records) {
+			switch(record.getType()) {
+			case HANDSHAKE:
+			case APPLICATION_DATA:
+			case ALERT:
+			case CHANGE_CIPHER_SPEC:
+				processRecord(record);
 				break;
+			default:
+				LOGGER.log(
+					Level.FINE,
+					"Discarding unsupported record [type: {0}, peer: {1}]",
+					new Object[]{record.getType(), record.getPeerAddress()});
 			}
 		}
 	}
@@ -772,7 +999,7 @@ public class DTLSConnector implements Connector {
 				// non-fatal alerts do not require any special handling
 			}
 
-			synchronized (cookieMacKeyLock) {
+			synchronized (errorHandlerLock) {
 				if (errorHandler != null) {
 					errorHandler.onError(alert.getPeer(), alert.getLevel(), alert.getDescription());
 				}
@@ -1038,12 +1265,21 @@ public class DTLSConnector implements Connector {
 		// verify client's ability to respond on given IP address
 		// by exchanging a cookie as described in section 4.2.1 of the DTLS 1.2 spec
 		// see http://tools.ietf.org/html/rfc6347#section-4.2.1
-		byte[] expectedCookie = generateCookie(clientHello);
-		if (Arrays.equals(expectedCookie, clientHello.getCookie())) {
-			return true;
-		} else {
-			sendHelloVerify(clientHello, record, expectedCookie);
-			return false;
+		try {
+			byte[] expectedCookie = cookieGenerator.verifyCookie(clientHello);
+			if (expectedCookie == null) {
+				return true;
+			} else {
+				sendHelloVerify(clientHello, record, expectedCookie);
+				return false;
+			}
+		} catch (GeneralSecurityException e) {
+			throw new DtlsHandshakeException(
+					"Cannot compute cookie for peer",
+					AlertDescription.INTERNAL_ERROR,
+					AlertLevel.FATAL,
+					clientHello.getPeer(),
+					e);
 		}
 	}
 
@@ -1064,7 +1300,8 @@ public class DTLSConnector implements Connector {
 		// initialize handshaker based on CLIENT_HELLO (this accounts
 		// for the case that multiple cookie exchanges have taken place)
 		Handshaker handshaker = new ServerHandshaker(clientHello.getMessageSeq(), newSession,
-				getRecordLayerForPeer(peerConnection), peerConnection, config, maximumTransmissionUnit);
+				getRecordLayerForPeer(peerConnection), peerConnection, config, maximumTransmissionUnit,
+				ephemeralKeyPool);
 		addSessionCacheSynchronization(handshaker);
 		handshaker.processMessage(record);
 	}
@@ -1158,60 +1395,6 @@ public class DTLSConnector implements Connector {
 		sendRecord(helloVerify);
 	}
 
-	private SecretKey getMacKeyForCookies() {
-		synchronized (cookieMacKeyLock) {
-			// if the last generation was more than 5 minute ago, let's generate
-			// a new key
-			if (System.currentTimeMillis() - lastGenerationDate > TimeUnit.MINUTES.toMillis(5)) {
-				cookieMacKey = new SecretKeySpec(randomBytes(), "MAC");
-				lastGenerationDate = System.currentTimeMillis();
-			}
-			return cookieMacKey;
-		}
-
-	}
-
-	/**
-	 * Generates a cookie in such a way that they can be verified without
-	 * retaining any per-client state on the server.
-	 * 
-	 * <pre>
-	 * Cookie = HMAC(Secret, Client - IP, Client - Parameters)
-	 * </pre>
-	 * 
-	 * as suggested <a
-	 * href="http://tools.ietf.org/html/rfc6347#section-4.2.1">here</a>.
-	 * 
-	 * @return the cookie generated from the client's parameters
-	 * @throws DtlsHandshakeException if the cookie cannot be computed
-	 */
-	private byte[] generateCookie(ClientHello clientHello) {
-
-		try {
-			// Cookie = HMAC(Secret, Client-IP, Client-Parameters)
-			Mac hmac = Mac.getInstance("HmacSHA256");
-			hmac.init(getMacKeyForCookies());
-			// Client-IP
-			hmac.update(clientHello.getPeer().toString().getBytes());
-
-			// Client-Parameters
-			hmac.update((byte) clientHello.getClientVersion().getMajor());
-			hmac.update((byte) clientHello.getClientVersion().getMinor());
-			hmac.update(clientHello.getRandom().getRandomBytes());
-			hmac.update(clientHello.getSessionId().getId());
-			hmac.update(CipherSuite.listToByteArray(clientHello.getCipherSuites()));
-			hmac.update(CompressionMethod.listToByteArray(clientHello.getCompressionMethods()));
-			return hmac.doFinal();
-		} catch (GeneralSecurityException e) {
-			throw new DtlsHandshakeException(
-					"Cannot compute cookie for peer",
-					AlertDescription.INTERNAL_ERROR,
-					AlertLevel.FATAL,
-					clientHello.getPeer(),
-					e);
-		}
-	}
-
 	void send(AlertMessage alert, DTLSSession session) {
 		if (alert == null) {
 			throw new IllegalArgumentException("Alert must not be NULL");
@@ -1243,29 +1426,16 @@ public class DTLSConnector implements Connector {
 					+ MAX_PLAINTEXT_FRAGMENT_LENGTH + " bytes");
 		} else {
 			if (pendingOutboundMessages.decrementAndGet() >= 0) {
-				executor.execute(new StripedRunnable() {
-	
-					@Override
-					public Object getStripe() {
-						return msg.getInetSocketAddress();
-					}
-	
-					@Override
-					public void run() {
-						try {
-							pendingOutboundMessages.incrementAndGet();
-							if (running.get()) {
-								sendMessage(msg);
-							}
-						} catch (Exception e) {
-							if (running.get()) {
-								LOGGER.log(Level.FINE, "Exception thrown by worker thread [" + Thread.currentThread().getName() + "]", e);
-							}
-						} finally {
-							pendingOutboundMessages.incrementAndGet();
-						}
+				InetSocketAddress peerAddress = msg.getInetSocketAddress();
+				OutboundQueue queue = outboundQueues.get(peerAddress);
+				if (queue == null) {
+					OutboundQueue newQueue = new OutboundQueue(peerAddress);
+					queue = outboundQueues.putIfAbsent(peerAddress, newQueue);
+					if (queue == null) {
+						queue = newQueue;
 					}
-				});
+				}
+				queue.add(msg);
 			}
 			else {
 				pendingOutboundMessages.incrementAndGet();
@@ -1331,6 +1501,57 @@ public class DTLSConnector implements Connector {
 	}
 
 	private void sendMessage(final RawData message, final DTLSSession session) {
+		Record record = newApplicationRecord(message, session);
+		if (record != null) {
+			sendRecord(record);
+		}
+	}
+
+	/**
+	 * Sends messages queued for a peer.
+	 * <p>
+	 * The records of messages for which a session with the peer has already
+	 * been established are packed into as few datagrams as the session's
+	 * maximum datagram size allows. All other messages are sent using
+	 * {@link #sendMessage(RawData)}.
+	 * 
+	 * @param peerAddress the peer
+	 * @param messages the messages to send, in order
+	 */
+	private void sendMessages(final InetSocketAddress peerAddress, final List<RawData> messages) {
+		RecordPacker packer = new RecordPacker(peerAddress);
+		for (RawData message : messages) {
+			try {
+				Connection connection = connectionStore.get(peerAddress);
+				DTLSSession session = null;
+				if (connection != null && !connection.isResumptionRequired()) {
+					session = connection.getEstablishedSession();
+				}
+				if (session == null) {
+					// keep the order of the messages
+					packer.flush();
+					sendMessage(message);
+				} else {
+					LOGGER.log(Level.FINER, "Sending application layer message to peer [{0}]", peerAddress);
+					Record record = newApplicationRecord(message, session);
+					if (record != null) {
+						packer.add(record, session.getMaxDatagramSize());
+					}
+				}
+			} catch (Exception e) {
+				if (running.get()) {
+					LOGGER.log(Level.FINE, "Exception thrown by worker thread [" + Thread.currentThread().getName() + "]", e);
+				}
+			}
+		}
+		try {
+			packer.flush();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Could not send datagram", e);
+		}
+	}
+
+	private Record newApplicationRecord(final RawData message, final DTLSSession session) {
 		try {
 			Record record = new Record(
 					ContentType.APPLICATION_DATA,
@@ -1345,9 +1566,10 @@ public class DTLSConnector implements Connector {
 						session.getWriteStateCipher());
 				message.getMessageCallback().onContextEstablished(ctx);
 			}
-			sendRecord(record);
+			return record;
 		} catch (GeneralSecurityException e) {
 			LOGGER.log(Level.FINE, String.format("Cannot send APPLICATION record to peer [%s]", message.getInetSocketAddress()), e);
+			return null;
 		}
 	}
 
@@ -1400,7 +1622,6 @@ public class DTLSConnector implements Connector {
 	}
 
 	private void sendFlight(DTLSFlight flight) {
-		byte[] payload = new byte[] {};
 		int maxDatagramSize = maximumTransmissionUnit;
 		if (flight.getSession() != null) {
 			// the max. fragment length reported by the session will be
@@ -1410,47 +1631,31 @@ public class DTLSConnector implements Connector {
 		}
 
 		// put as many records into one datagram as allowed by the max. payload size
-		List<DatagramPacket> datagrams = new ArrayList<DatagramPacket>();
+		RecordPacker packer = new RecordPacker(flight.getPeerAddress());
 
 		try{
 			for (Record record : flight.getMessages()) {
-	
-				byte[] recordBytes = record.toByteArray();
-				if (recordBytes.length > maxDatagramSize) {
+
+				int recordSize = record.size();
+				if (recordSize > maxDatagramSize) {
 					LOGGER.log(
 							Level.INFO,
 							"{0} record of {1} bytes for peer [{2}] exceeds max. datagram size [{3}], discarding...",
-							new Object[]{record.getType(), recordBytes.length, record.getPeerAddress(), maxDatagramSize});
+							new Object[]{record.getType(), recordSize, record.getPeerAddress(), maxDatagramSize});
 					// TODO: inform application layer, e.g. using error handler
 					continue;
 				}
 				LOGGER.log(
 						Level.FINEST,
 						"Sending record of {2} bytes to peer [{0}]:\n{1}",
-						new Object[]{flight.getPeerAddress(), record, recordBytes.length});
-
-				if (payload.length + recordBytes.length > maxDatagramSize) {
-					// current record does not fit into datagram anymore
-					// thus, send out current datagram and put record into new one
-					DatagramPacket datagram = new DatagramPacket(payload, payload.length,
-							flight.getPeerAddress().getAddress(), flight.getPeerAddress().getPort());
-					datagrams.add(datagram);
-					payload = new byte[] {};
-				}
-	
-				payload = ByteArrayUtils.concatenate(payload, recordBytes);
-			}
-	
-			DatagramPacket datagram = new DatagramPacket(payload, payload.length,
-					flight.getPeerAddress().getAddress(), flight.getPeerAddress().getPort());
-			datagrams.add(datagram);
-	
-			// send it over the UDP socket
-			LOGGER.log(Level.FINER, "Sending flight of {0} message(s) to peer [{1}] using {2} datagram(s) of max. {3} bytes",
-					new Object[]{flight.getMessages().size(), flight.getPeerAddress(), datagrams.size(), maxDatagramSize});
-			for (DatagramPacket datagramPacket : datagrams) {
-				sendNextDatagramOverNetwork(datagramPacket);
+						new Object[]{flight.getPeerAddress(), record, recordSize});
+
+				packer.add(record, maxDatagramSize);
 			}
+			packer.flush();
+
+			LOGGER.log(Level.FINER, "Sent flight of {0} message(s) to peer [{1}] using {2} datagram(s) of max. {3} bytes",
+					new Object[]{flight.getMessages().size(), flight.getPeerAddress(), packer.getDatagrams(), maxDatagramSize});
 		} catch (IOException e) {
 			LOGGER.log(Level.WARNING, "Could not send datagram", e);
 		}
@@ -1625,7 +1830,7 @@ public class DTLSConnector implements Connector {
 
 		@Override
 		public void run() {
-			executor.execute(new StripedRunnable() {
+			executeForPeer(new StripedRunnable() {
 
 				@Override
 				public Object getStripe() {
@@ -1638,7 +1843,135 @@ public class DTLSConnector implements Connector {
 						handleTimeout(flight);
 					}
 				}
-			});
+			}, flight.getPeerAddress(), true);
+		}
+	}
+
+	/**
+	 * Packs the records for a peer into datagrams.
+	 * <p>
+	 * The records are serialized into the sending thread's buffer, which is
+	 * sent as one datagram once the next record doesn't fit into the maximum
+	 * datagram size anymore. A packer must be flushed before anything else is
+	 * sent by the same thread.
+	 */
+	private final class RecordPacker {
+
+		private final InetSocketAddress peerAddress;
+		private final byte[] buffer = sendBuffer.get();
+		private int length;
+		private int datagrams;
+
+		private RecordPacker(final InetSocketAddress peerAddress) {
+			this.peerAddress = peerAddress;
+		}
+
+		/**
+		 * Adds a record to the current datagram.
+		 * <p>
+		 * If the record doesn't fit into the current datagram, the current
+		 * datagram is sent first. A record exceeding the maximum datagram size
+		 * is sent on its own.
+		 * 
+		 * @param record the record
+		 * @param maxDatagramSize the maximum datagram size
+		 * @throws IOException if a datagram cannot be sent
+		 */
+		private void add(final Record record, final int maxDatagramSize) throws IOException {
+			if (length > 0 && length + record.size() > maxDatagramSize) {
+				flush();
+			}
+			length += record.writeTo(buffer, length);
+		}
+
+		/**
+		 * Sends the current datagram, if it contains any records.
+		 * 
+		 * @throws IOException if the datagram cannot be sent
+		 */
+		private void flush() throws IOException {
+			if (length > 0) {
+				DatagramPacket datagram = new DatagramPacket(buffer, 0, length, peerAddress);
+				length = 0;
+				++datagrams;
+				sendNextDatagramOverNetwork(datagram);
+			}
+		}
+
+		private int getDatagrams() {
+			return datagrams;
+		}
+	}
+
+	/**
+	 * The outbound messages for a peer.
+	 * <p>
+	 * The queue is processed by the executor, if messages are added to an empty
+	 * queue. All messages queued at that time are sent together, so records for
+	 * the same peer share datagrams when messages are sent faster than the
+	 * executor can process them.
+	 */
+	private final class OutboundQueue implements StripedRunnable {
+
+		private final InetSocketAddress peerAddress;
+		private final ConcurrentLinkedQueue<RawData> messages = new ConcurrentLinkedQueue<>();
+		/** the number of added messages not processed yet */
+		private final AtomicInteger size = new AtomicInteger();
+
+		private OutboundQueue(final InetSocketAddress peerAddress) {
+			this.peerAddress = peerAddress;
+		}
+
+		private void add(final RawData message) {
+			messages.add(message);
+			if (size.getAndIncrement() == 0) {
+				Connection connection = connectionStore.get(peerAddress);
+				// messages without session start a handshake
+				boolean handshake = requiresHandshake(connection) || connection.isResumptionRequired();
+				executeForPeer(this, peerAddress, handshake);
+			}
+		}
+
+		@Override
+		public Object getStripe() {
+			return peerAddress;
+		}
+
+		@Override
+		public void run() {
+			int processed;
+			do {
+				List<RawData> batch = new ArrayList<>();
+				RawData message;
+				while ((message = messages.poll()) != null) {
+					batch.add(message);
+				}
+				processed = batch.size();
+				pendingOutboundMessages.addAndGet(processed);
+				if (running.get()) {
+					sendMessages(peerAddress, batch);
+				}
+			} while (size.addAndGet(-processed) > 0);
+			// messages added after this point are processed by a new queue,
+			// or by this queue's next execution
+			outboundQueues.remove(peerAddress, this);
+		}
+
+		/**
+		 * Discards the messages not processed yet.
+		 * <p>
+		 * The messages are released from the outbound message buffer, like
+		 * processed ones.
+		 */
+		private void discard() {
+			int discarded = 0;
+			while (messages.poll() != null) {
+				++discarded;
+			}
+			if (discarded > 0) {
+				pendingOutboundMessages.addAndGet(discarded);
+				size.addAndGet(-discarded);
+			}
 		}
 	}
 
@@ -1700,7 +2033,7 @@ public class DTLSConnector implements Connector {
 	 * @param errorHandler the handler to invoke
 	 */
 	public final void setErrorHandler(final ErrorHandler errorHandler) {
-		synchronized (cookieMacKeyLock) {
+		synchronized (errorHandlerLock) {
 			this.errorHandler = errorHandler;
 		}
 	}
@@ -1711,14 +2044,6 @@ public class DTLSConnector implements Connector {
 		}
 	}
 
-	/** generate a random byte[] of length 32 **/
-	private static byte[] randomBytes() {
-		SecureRandom rng = new SecureRandom();
-		byte[] result = new byte[32];
-		rng.nextBytes(result);
-		return result;
-	}
-
 	private void handleExceptionDuringHandshake(Throwable cause, AlertLevel level, AlertDescription description, Record record) {
 		if (AlertLevel.FATAL.equals(level)) {
 			terminateOngoingHandshake(record.getPeerAddress(), cause, description);
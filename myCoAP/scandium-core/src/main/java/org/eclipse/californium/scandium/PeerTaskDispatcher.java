@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import eu.javaspecialists.tjsn.concurrency.stripedexecutor.StripedExecutorService;
+import eu.javaspecialists.tjsn.concurrency.stripedexecutor.StripedRunnable;
+
+/**
+ * Dispatches the tasks of peers either to the connector's executor or to the
+ * executor processing handshakes.
+ * <p>
+ * All tasks touching the connection state of a peer, i.e. received datagrams,
+ * retransmissions of flights and outbound messages, are queued per peer and
+ * processed one after the other in the order of their submission. A peer
+ * stays assigned to the executor chosen for the first task of its queue
+ * until the queue is drained. So the connection and handshake of a peer are
+ * never processed concurrently by both executors, even if the peer starts or
+ * completes a handshake meanwhile.
+ * <p>
+ * The number of received datagrams queued for the handshake executor is
+ * limited. Datagrams of peers without a connection, which would start a new
+ * handshake, are only admitted while less than half of the capacity is used.
+ * So ongoing handshakes can be completed during a flood of new handshakes.
+ * Tasks of the connector itself are never discarded.
+ */
+final class PeerTaskDispatcher {
+
+	private static final Logger LOGGER = Logger.getLogger(PeerTaskDispatcher.class.getName());
+
+	/**
+	 * Processes the datagrams dispatched to an executor.
+	 */
+	interface DatagramProcessor {
+
+		/**
+		 * Processes a datagram.
+		 *
+		 * @param data the datagram
+		 * @param peerAddress the peer the datagram has been received from
+		 */
+		void process(byte[] data, InetSocketAddress peerAddress);
+	}
+
+	private final StripedExecutorService executor;
+	private final StripedExecutorService handshakeExecutor;
+	private final int handshakeQueueCapacity;
+	private final DatagramProcessor processor;
+	/** the peers with queued tasks */
+	private final ConcurrentMap<InetSocketAddress, PeerQueue> queues = new ConcurrentHashMap<>();
+	/** the number of datagrams queued for the handshake executor */
+	private final AtomicInteger pendingHandshakeDatagrams = new AtomicInteger();
+
+	/**
+	 * Creates a dispatcher.
+	 *
+	 * @param executor the executor processing records of established sessions
+	 * @param handshakeExecutor the executor processing handshakes
+	 * @param handshakeQueueCapacity the maximum number of datagrams queued
+	 *            for the handshake executor
+	 * @param processor the processor of the datagrams
+	 */
+	PeerTaskDispatcher(final StripedExecutorService executor, final StripedExecutorService handshakeExecutor,
+			final int handshakeQueueCapacity, final DatagramProcessor processor) {
+		this.executor = executor;
+		this.handshakeExecutor = handshakeExecutor;
+		this.handshakeQueueCapacity = handshakeQueueCapacity;
+		this.processor = processor;
+	}
+
+	/**
+	 * Dispatches a received datagram.
+	 * <p>
+	 * If tasks of the peer are still queued, the datagram is appended to the
+	 * peer's queue, regardless of the executor the queue is assigned to.
+	 *
+	 * @param data the datagram
+	 * @param peerAddress the peer the datagram has been received from
+	 * @param handshake <code>true</code>, if the datagram should be processed
+	 *            by the handshake executor
+	 * @param newHandshake <code>true</code>, if no connection exists for the
+	 *            peer
+	 * @return <code>true</code>, if the datagram has been queued,
+	 *         <code>false</code>, if it has been discarded, because the
+	 *         handshake executor's queue is full
+	 */
+	boolean dispatch(final byte[] data, final InetSocketAddress peerAddress, final boolean handshake,
+			final boolean newHandshake) {
+		while (true) {
+			PeerQueue queue = getQueue(peerAddress, handshake);
+			boolean counted = queue.handshake;
+			if (counted && !admitHandshakeDatagram(newHandshake)) {
+				queue.closeIfEmpty();
+				LOGGER.log(Level.FINE, "Handshake queue is full! Discarding datagram from peer [{0}]", peerAddress);
+				return false;
+			}
+			if (queue.add(new Task(data, null, counted))) {
+				return true;
+			}
+			// the queue has been drained concurrently, use a new one
+			if (counted) {
+				pendingHandshakeDatagrams.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Executes a task of a peer, e.g. the retransmission of a flight.
+	 * <p>
+	 * If tasks of the peer are still queued, the task is appended to the
+	 * peer's queue, regardless of the executor the queue is assigned to. The
+	 * task is not subject to the limit of the handshake executor's queue.
+	 *
+	 * @param task the task
+	 * @param peerAddress the peer
+	 * @param handshake <code>true</code>, if the task should be executed by
+	 *            the handshake executor
+	 */
+	void execute(final Runnable task, final InetSocketAddress peerAddress, final boolean handshake) {
+		Task entry = new Task(null, task, false);
+		while (!getQueue(peerAddress, handshake).add(entry)) {
+			// the queue has been drained concurrently, use a new one
+		}
+	}
+
+	/**
+	 * Gets the number of datagrams queued for the handshake executor.
+	 *
+	 * @return the number of datagrams
+	 */
+	int getPendingHandshakeDatagrams() {
+		return pendingHandshakeDatagrams.get();
+	}
+
+	private PeerQueue getQueue(final InetSocketAddress peerAddress, final boolean handshake) {
+		PeerQueue queue = queues.get(peerAddress);
+		if (queue == null) {
+			PeerQueue newQueue = new PeerQueue(peerAddress, handshake);
+			queue = queues.putIfAbsent(peerAddress, newQueue);
+			if (queue == null) {
+				queue = newQueue;
+			}
+		}
+		return queue;
+	}
+
+	private boolean admitHandshakeDatagram(final boolean newHandshake) {
+		int limit = newHandshake ? handshakeQueueCapacity / 2 : handshakeQueueCapacity;
+		if (pendingHandshakeDatagrams.incrementAndGet() > limit) {
+			pendingHandshakeDatagrams.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A queued datagram or task.
+	 */
+	private final class Task {
+
+		private final byte[] data;
+		private final Runnable runnable;
+		/** <code>true</code>, if the datagram is counted as pending handshake datagram */
+		private final boolean counted;
+
+		private Task(final byte[] data, final Runnable runnable, final boolean counted) {
+			this.data = data;
+			this.runnable = runnable;
+			this.counted = counted;
+		}
+
+		private void run(final InetSocketAddress peerAddress) {
+			try {
+				if (runnable != null) {
+					runnable.run();
+				} else {
+					processor.process(data, peerAddress);
+				}
+			} finally {
+				if (counted) {
+					pendingHandshakeDatagrams.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The queued tasks of a peer.
+	 * <p>
+	 * The queue is executed for each of its tasks. It is removed, once it is
+	 * drained, and doesn't accept tasks afterwards.
+	 */
+	private final class PeerQueue implements StripedRunnable {
+
+		private final InetSocketAddress peerAddress;
+		/** <code>true</code>, if the queue is processed by the handshake executor */
+		private final boolean handshake;
+		/** the tasks, guarded by this */
+		private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+		/** guarded by this */
+		private boolean closed;
+
+		private PeerQueue(final InetSocketAddress peerAddress, final boolean handshake) {
+			this.peerAddress = peerAddress;
+			this.handshake = handshake;
+		}
+
+		private boolean add(final Task task) {
+			synchronized (this) {
+				if (closed) {
+					return false;
+				}
+				tasks.add(task);
+				if (tasks.size() > 1) {
+					// already scheduled
+					return true;
+				}
+			}
+			execute();
+			return true;
+		}
+
+		private synchronized void closeIfEmpty() {
+			if (!closed && tasks.isEmpty()) {
+				close();
+			}
+		}
+
+		private void close() {
+			closed = true;
+			queues.remove(peerAddress, this);
+		}
+
+		private void execute() {
+			if (handshake) {
+				handshakeExecutor.execute(this);
+			} else {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public Object getStripe() {
+			return peerAddress;
+		}
+
+		@Override
+		public void run() {
+			Task task;
+			synchronized (this) {
+				task = tasks.peek();
+			}
+			try {
+				task.run(peerAddress);
+			} finally {
+				boolean more;
+				synchronized (this) {
+					tasks.poll();
+					more = !tasks.isEmpty();
+					if (!more) {
+						close();
+					}
+				}
+				if (more) {
+					// execute again for the next task, so other peers
+					// of the same thread are not starved
+					execute();
+				}
+			}
+		}
+	}
+}
@@ -87,6 +87,24 @@ public final class DtlsConnectorConfig {
 	 */
 	private int maxRetransmissions = 4;
 
+	/** the tick of the hashed wheel retransmission timer in milliseconds, 0 to use a scheduled executor */
+	private int retransmissionTimerTick = 0;
+
+	/** the number of threads receiving datagrams from the socket */
+	private int receiverThreadCount = 1;
+
+	/** the number of threads processing handshakes, 0 to use the connector's executor */
+	private int handshakeThreadCount = 0;
+
+	/** the maximum number of datagrams waiting to be processed by the handshake threads */
+	private int handshakeQueueCapacity = 10000;
+
+	/** the number of pre-generated ephemeral ECDH key pairs per group, 0 to disable the pool */
+	private int ephemeralKeyPoolSize = 32;
+
+	/** the maximum number of ephemeral ECDH key pairs generated per second for the pool */
+	private int ephemeralKeyPoolRefillRate = 20;
+
 	/** does the server require the client to authenticate */
 	private boolean clientAuthenticationRequired = true;
 
@@ -163,6 +181,92 @@ public final class DtlsConnectorConfig {
 		return maxRetransmissions;
 	}
 
+	/**
+	 * Gets the tick duration of the timer used to schedule re-transmissions of
+	 * handshake flights.
+	 * <p>
+	 * A value of 0 indicates that a scheduled executor is used.
+	 * Otherwise a hashed wheel timer is used, which schedules and cancels
+	 * re-transmissions in constant time with an accuracy of one tick.
+	 * 
+	 * @return the tick duration in milliseconds
+	 */
+	public int getRetransmissionTimerTick() {
+		return retransmissionTimerTick;
+	}
+
+	/**
+	 * Gets the number of threads receiving datagrams from the network.
+	 * <p>
+	 * The receiver threads only copy the datagrams into right-sized buffers.
+	 * The records are parsed and processed by the connector's striped executor,
+	 * using the peer's address as stripe.
+	 * 
+	 * @return the number of receiver threads
+	 */
+	public int getReceiverThreadCount() {
+		return receiverThreadCount;
+	}
+
+	/**
+	 * Gets the number of threads processing handshakes.
+	 * <p>
+	 * Datagrams from peers without an established session, with an ongoing
+	 * handshake, or containing handshake records are processed by these
+	 * threads. The expensive public key operations of handshakes therefore
+	 * don't delay the records of established sessions, which are processed by
+	 * the connector's executor. The datagrams of a peer are processed by one
+	 * of the executors at a time, in the order of their reception.
+	 * 
+	 * @return the number of handshake threads, 0 if handshakes are processed
+	 *         by the connector's executor (the default)
+	 * @see #getHandshakeQueueCapacity()
+	 */
+	public int getHandshakeThreadCount() {
+		return handshakeThreadCount;
+	}
+
+	/**
+	 * Gets the maximum number of datagrams waiting to be processed by the
+	 * handshake threads.
+	 * <p>
+	 * Datagrams exceeding this limit are discarded, the peers will retransmit
+	 * them. Datagrams from peers without any connection, i.e. which would start
+	 * a new handshake, are already discarded once half of the capacity is used.
+	 * So ongoing handshakes can be completed during a flood of new handshakes.
+	 * 
+	 * @return the capacity of the handshake queue
+	 * @see #getHandshakeThreadCount()
+	 */
+	public int getHandshakeQueueCapacity() {
+		return handshakeQueueCapacity;
+	}
+
+	/**
+	 * Gets the number of ephemeral ECDH key pairs generated in advance for
+	 * each group used by ECDHE handshakes.
+	 * <p>
+	 * Each key pair is used for a single handshake only.
+	 * 
+	 * @return the number of key pairs, 0 if the key pairs are generated
+	 *         during the handshake
+	 * @see #getEphemeralKeyPoolRefillRate()
+	 */
+	public int getEphemeralKeyPoolSize() {
+		return ephemeralKeyPoolSize;
+	}
+
+	/**
+	 * Gets the maximum number of ephemeral ECDH key pairs generated per
+	 * second in order to refill the pool.
+	 * 
+	 * @return the number of key pairs per second
+	 * @see #getEphemeralKeyPoolSize()
+	 */
+	public int getEphemeralKeyPoolRefillRate() {
+		return ephemeralKeyPoolRefillRate;
+	}
+
 	/**
 	 * Gets the number of outbound messages that can be buffered in memory before
 	 * messages are dropped.
@@ -360,6 +464,11 @@ public final class DtlsConnectorConfig {
 		 * <li><em>retransmissionTimeout</em>: 1000ms</li>
 		 * <li><em>clientAuthenticationRequired</em>: <code>true</code></li>
 		 * <li><em>outboundMessageBufferSize</em>: 100.000</li>
+		 * <li><em>receiverThreadCount</em>: 1</li>
+		 * <li><em>handshakeThreadCount</em>: 0</li>
+		 * <li><em>handshakeQueueCapacity</em>: 10.000</li>
+		 * <li><em>ephemeralKeyPoolSize</em>: 32</li>
+		 * <li><em>ephemeralKeyPoolRefillRate</em>: 20 per second</li>
 		 * <li><em>trustStore</em>: empty array</li>
 		 * </ul>
 		 * 
@@ -505,7 +614,8 @@ public final class DtlsConnectorConfig {
 		 * @param cipherSuites the supported cipher suites in the order of preference
 		 * @return this builder for command chaining
 		 * @throws IllegalArgumentException if the given array is <code>null</code>, is
-		 *           empty or contains {@link CipherSuite#TLS_NULL_WITH_NULL_NULL}
+		 *           empty, contains {@link CipherSuite#TLS_NULL_WITH_NULL_NULL} or
+		 *           contains a cipher suite not supported by the JVM
 		 */
 		public Builder setSupportedCipherSuites(CipherSuite[] cipherSuites) {
 			if (cipherSuites == null || cipherSuites.length == 0) {
@@ -514,6 +624,9 @@ public final class DtlsConnectorConfig {
 				for (CipherSuite suite : cipherSuites) {
 					if (CipherSuite.TLS_NULL_WITH_NULL_NULL.equals(suite)) {
 						throw new IllegalArgumentException("NULL Cipher Suite is not supported by connector");
+					} else if (!suite.isSupported()) {
+						throw new IllegalArgumentException(
+								String.format("Cipher suite [%s] is not supported by the JVM", suite.name()));
 					}
 				}
 				config.supportedCipherSuites = Arrays.copyOf(cipherSuites, cipherSuites.length);
@@ -541,7 +654,10 @@ public final class DtlsConnectorConfig {
 					throw new IllegalArgumentException("NULL Cipher Suite is not supported by connector");
 				} else {
 					CipherSuite knownSuite = CipherSuite.getTypeByName(cipherSuites[i]);
-					if (knownSuite != null) {
+					if (knownSuite != null && !knownSuite.isSupported()) {
+						throw new IllegalArgumentException(
+								String.format("Cipher suite [%s] is not supported by the JVM", cipherSuites[i]));
+					} else if (knownSuite != null) {
 						suites[i] = knownSuite;
 					} else {
 						throw new IllegalArgumentException(
@@ -569,6 +685,142 @@ public final class DtlsConnectorConfig {
 			}
 		}
 
+		/**
+		 * Sets the tick duration of the timer used to schedule re-transmissions
+		 * of handshake flights.
+		 * <p>
+		 * With many concurrent handshakes a hashed wheel timer scales better than
+		 * a scheduled executor, because re-transmissions are scheduled and
+		 * cancelled in constant time. The re-transmissions are then only as
+		 * accurate as the tick duration.
+		 * <p>
+		 * The default value is 0, i.e. a scheduled executor is used.
+		 * 
+		 * @param tick the tick duration in milliseconds, 0 to use a scheduled
+		 *            executor
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if the tick is negative
+		 */
+		public Builder setRetransmissionTimerTick(int tick) {
+			if (tick < 0) {
+				throw new IllegalArgumentException("Timer tick must not be negative");
+			} else {
+				config.retransmissionTimerTick = tick;
+				return this;
+			}
+		}
+
+		/**
+		 * Sets the number of threads receiving datagrams from the network.
+		 * <p>
+		 * The socket is read by one receiver at a time. Using multiple
+		 * threads, each thread receives into its own buffer and copies and
+		 * classifies its datagram while the next thread is already
+		 * receiving. The datagrams are still handed over to the executor in
+		 * the order of their reception, so the datagrams of a peer are
+		 * processed in order.
+		 * <p>
+		 * The default value is 1.
+		 * 
+		 * @param count the number of receiver threads
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if count &lt; 1
+		 */
+		public Builder setReceiverThreadCount(int count) {
+			if (count < 1) {
+				throw new IllegalArgumentException("Receiver thread count must be at least 1");
+			} else {
+				config.receiverThreadCount = count;
+				return this;
+			}
+		}
+
+		/**
+		 * Sets the number of threads processing handshakes.
+		 * <p>
+		 * Separate threads for handshakes keep the latency of established
+		 * sessions low while many peers perform (full) handshakes. Using 0,
+		 * all records are processed by the connector's executor.
+		 * <p>
+		 * The default value is 0.
+		 * 
+		 * @param count the number of handshake threads
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if count &lt; 0
+		 */
+		public Builder setHandshakeThreadCount(int count) {
+			if (count < 0) {
+				throw new IllegalArgumentException("Handshake thread count must not be negative");
+			} else {
+				config.handshakeThreadCount = count;
+				return this;
+			}
+		}
+
+		/**
+		 * Sets the maximum number of datagrams waiting to be processed by the
+		 * handshake threads.
+		 * <p>
+		 * Datagrams that would start a new handshake are only accepted while
+		 * less than half of the capacity is used.
+		 * <p>
+		 * The default value is 10.000.
+		 * 
+		 * @param capacity the capacity of the handshake queue
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if capacity &lt; 2
+		 */
+		public Builder setHandshakeQueueCapacity(int capacity) {
+			if (capacity < 2) {
+				throw new IllegalArgumentException("Handshake queue capacity must be at least 2");
+			} else {
+				config.handshakeQueueCapacity = capacity;
+				return this;
+			}
+		}
+
+		/**
+		 * Sets the number of ephemeral ECDH key pairs generated in advance for
+		 * each group used by ECDHE handshakes.
+		 * <p>
+		 * The key pairs are generated in the background, so a burst of full
+		 * handshakes doesn't need to wait for the key generation. Using 0,
+		 * the key pairs are generated during the handshakes.
+		 * <p>
+		 * The default value is 32.
+		 * 
+		 * @param size the number of key pairs per group
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if size &lt; 0
+		 */
+		public Builder setEphemeralKeyPoolSize(int size) {
+			if (size < 0) {
+				throw new IllegalArgumentException("Ephemeral key pool size must not be negative");
+			} else {
+				config.ephemeralKeyPoolSize = size;
+				return this;
+			}
+		}
+
+		/**
+		 * Sets the maximum number of ephemeral ECDH key pairs generated per
+		 * second in order to refill the pool.
+		 * <p>
+		 * The default value is 20.
+		 * 
+		 * @param rate the number of key pairs per second
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if rate &lt; 1
+		 */
+		public Builder setEphemeralKeyPoolRefillRate(int rate) {
+			if (rate < 1) {
+				throw new IllegalArgumentException("Ephemeral key pool refill rate must be at least 1");
+			} else {
+				config.ephemeralKeyPoolRefillRate = rate;
+				return this;
+			}
+		}
+
 		/**
 		 * Sets the key store to use for authenticating clients based
 		 * on a pre-shared key.
@@ -780,10 +1032,12 @@ public final class DtlsConnectorConfig {
 			for (CipherSuite suite : config.getSupportedCipherSuites()) {
 				switch (suite) {
 				case TLS_PSK_WITH_AES_128_CCM_8:
+				case TLS_PSK_WITH_AES_128_GCM_SHA256:
 				case TLS_PSK_WITH_AES_128_CBC_SHA256:
 					verifyPskBasedCipherConfig();
 					break;
 				case TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8:
+				case TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256:
 				case TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256:
 					verifyEcBasedCipherConfig();
 					break;
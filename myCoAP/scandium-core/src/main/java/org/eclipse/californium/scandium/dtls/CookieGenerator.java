@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+
+/**
+ * Generates and verifies the cookies of <em>HELLO_VERIFY_REQUEST</em>s without
+ * retaining any per-client state on the server.
+ *
+ * <pre>
+ * Cookie = HMAC(Secret, Client-IP, Client-Parameters)
+ * </pre>
+ *
+ * as suggested <a
+ * href="http://tools.ietf.org/html/rfc6347#section-4.2.1">here</a>.
+ * <p>
+ * The secret is replaced periodically. Cookies generated with the previous
+ * secret are still accepted until the next replacement, so a client
+ * receiving a cookie shortly before the replacement is not forced into
+ * another cookie exchange. The secrets are replaced without locking.
+ * <p>
+ * Each thread uses its own HMAC instances, which are only initialized again
+ * when the secret has been replaced.
+ */
+public final class CookieGenerator {
+
+	/**
+	 * The default period after which the secret is replaced.
+	 */
+	public static final long DEFAULT_KEY_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int KEY_LENGTH = 32;
+
+	private final SecureRandom rng = new SecureRandom();
+	private final AtomicReference<Keys> keys = new AtomicReference<>();
+	private final long keyLifetimeMillis;
+
+	private final ThreadLocal<ThreadMacs> macs = new ThreadLocal<ThreadMacs>() {
+
+		@Override
+		protected ThreadMacs initialValue() {
+			return new ThreadMacs();
+		}
+	};
+
+	/**
+	 * Creates a generator replacing its secret every 5 minutes.
+	 */
+	public CookieGenerator() {
+		this(DEFAULT_KEY_LIFETIME_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param keyLifetime the period after which the secret is replaced
+	 * @param unit the unit of the period
+	 * @throws IllegalArgumentException if the period is not positive
+	 */
+	public CookieGenerator(final long keyLifetime, final TimeUnit unit) {
+		if (keyLifetime <= 0) {
+			throw new IllegalArgumentException("Key lifetime must be positive");
+		}
+		this.keyLifetimeMillis = unit.toMillis(keyLifetime);
+		this.keys.set(new Keys(newKey(0), null, System.currentTimeMillis() + keyLifetimeMillis));
+	}
+
+	/**
+	 * Generates the cookie for a client hello using the current secret.
+	 *
+	 * @param clientHello the client hello
+	 * @return the cookie generated from the client's parameters
+	 * @throws GeneralSecurityException if the cookie cannot be computed
+	 */
+	public byte[] generateCookie(final ClientHello clientHello) throws GeneralSecurityException {
+		return generateCookie(getKeys().current, clientHello);
+	}
+
+	/**
+	 * Checks, if the cookie of a client hello has been generated by this
+	 * generator with the current or the previous secret.
+	 *
+	 * @param clientHello the client hello
+	 * @return <code>true</code> if the client hello message contains a cookie
+	 *         and the cookie is identical to the cookie expected from the peer
+	 * @throws GeneralSecurityException if the cookie cannot be computed
+	 */
+	public boolean isValidCookie(final ClientHello clientHello) throws GeneralSecurityException {
+		byte[] cookie = clientHello.getCookie();
+		if (cookie == null || cookie.length == 0) {
+			return false;
+		}
+		return verifyCookie(clientHello) == null;
+	}
+
+	/**
+	 * Checks, if the cookie of a client hello has been generated by this
+	 * generator with the current or the previous secret, and provides the
+	 * cookie to send to the client otherwise.
+	 * <p>
+	 * Unlike calling {@link #isValidCookie(ClientHello)} and
+	 * {@link #generateCookie(ClientHello)}, the cookie of the current secret is
+	 * computed only once.
+	 *
+	 * @param clientHello the client hello
+	 * @return <code>null</code>, if the cookie of the client hello is valid,
+	 *         or the cookie generated from the client's parameters using the
+	 *         current secret, if the client hello contains no or an invalid
+	 *         cookie
+	 * @throws GeneralSecurityException if the cookie cannot be computed
+	 */
+	public byte[] verifyCookie(final ClientHello clientHello) throws GeneralSecurityException {
+		Keys current = getKeys();
+		byte[] expected = generateCookie(current.current, clientHello);
+		byte[] cookie = clientHello.getCookie();
+		if (cookie == null || cookie.length == 0) {
+			return expected;
+		}
+		if (MessageDigest.isEqual(cookie, expected)) {
+			return null;
+		}
+		if (current.previous != null && MessageDigest.isEqual(cookie, generateCookie(current.previous, clientHello))) {
+			return null;
+		}
+		return expected;
+	}
+
+	/**
+	 * Replaces the secret immediately.
+	 * <p>
+	 * Cookies generated with the replaced secret are still accepted until the
+	 * next replacement.
+	 */
+	void rotateKeys() {
+		Keys current = keys.get();
+		keys.compareAndSet(current, nextKeys(current, System.currentTimeMillis()));
+	}
+
+	private Keys getKeys() {
+		Keys current = keys.get();
+		long now = System.currentTimeMillis();
+		if (now - current.expires >= 0) {
+			// if another thread has replaced the keys concurrently, use these
+			keys.compareAndSet(current, nextKeys(current, now));
+			current = keys.get();
+		}
+		return current;
+	}
+
+	private Keys nextKeys(final Keys current, final long now) {
+		return new Keys(newKey(current.current.generation + 1), current.current, now + keyLifetimeMillis);
+	}
+
+	private Key newKey(final long generation) {
+		byte[] secret = new byte[KEY_LENGTH];
+		rng.nextBytes(secret);
+		return new Key(new SecretKeySpec(secret, "MAC"), generation);
+	}
+
+	private byte[] generateCookie(final Key key, final ClientHello clientHello) throws GeneralSecurityException {
+		Mac hmac = macs.get().getMac(key);
+		// Client-IP
+		InetSocketAddress peer = clientHello.getPeer();
+		hmac.update(peer.getAddress().getAddress());
+		int port = peer.getPort();
+		hmac.update((byte) (port >>> 8));
+		hmac.update((byte) port);
+
+		// Client-Parameters
+		hmac.update((byte) clientHello.getClientVersion().getMajor());
+		hmac.update((byte) clientHello.getClientVersion().getMinor());
+		hmac.update(clientHello.getRandom().getRandomBytes());
+		hmac.update(clientHello.getSessionId().getId());
+		hmac.update(CipherSuite.listToByteArray(clientHello.getCipherSuites()));
+		hmac.update(CompressionMethod.listToByteArray(clientHello.getCompressionMethods()));
+		return hmac.doFinal();
+	}
+
+	/**
+	 * A secret with its generation.
+	 */
+	private static final class Key {
+
+		private final SecretKey secret;
+		private final long generation;
+
+		private Key(final SecretKey secret, final long generation) {
+			this.secret = secret;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * The current and previous secret.
+	 */
+	private static final class Keys {
+
+		private final Key current;
+		private final Key previous;
+		/** the time when the current secret is replaced */
+		private final long expires;
+
+		private Keys(final Key current, final Key previous, final long expires) {
+			this.current = current;
+			this.previous = previous;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * The HMACs of a thread.
+	 * <p>
+	 * Consecutive generations use different instances, so the current and the
+	 * previous secret don't require to initialize an instance again.
+	 */
+	private static final class ThreadMacs {
+
+		private final Mac[] macs = new Mac[2];
+		private final Key[] keys = new Key[2];
+
+		private Mac getMac(final Key key) throws GeneralSecurityException {
+			int index = (int) (key.generation & 1);
+			if (keys[index] != key) {
+				if (macs[index] == null) {
+					macs[index] = Mac.getInstance(MAC_ALGORITHM);
+				}
+				macs[index].init(key.secret);
+				keys[index] = key;
+			}
+			return macs[index];
+		}
+	}
+}
@@ -21,9 +21,12 @@
  ******************************************************************************/
 package org.eclipse.californium.scandium.dtls;
 
+import java.security.GeneralSecurityException;
+
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 
+import org.eclipse.californium.scandium.dtls.cipher.AeadCipher;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
 
 /**
@@ -48,6 +51,8 @@ class DTLSConnectionState {
 	private SecretKey encryptionKey;
 	private IvParameterSpec iv;
 	private SecretKey macKey;
+	/** the AEAD cipher initialized with the encryption key, created on first use */
+	private AeadCipher aeadCipher;
 
 	// Constructors ///////////////////////////////////////////////////
 
@@ -140,6 +145,22 @@ class DTLSConnectionState {
 		return macKey;
 	}
 
+	/**
+	 * Gets the cipher for AEAD based cipher suites.
+	 * <p>
+	 * The cipher is initialized with the encryption key on first use and then
+	 * kept, so that the AES key schedule is not computed for every record.
+	 * 
+	 * @return the cipher
+	 * @throws GeneralSecurityException if the cipher cannot be initialized
+	 */
+	synchronized AeadCipher getAeadCipher() throws GeneralSecurityException {
+		if (aeadCipher == null) {
+			aeadCipher = cipherSuite.createAeadCipher(encryptionKey);
+		}
+		return aeadCipher;
+	}
+
 	/**
 	 * Gets the output length of the MAC algorithm.
 	 *  
@@ -17,12 +17,13 @@
 package org.eclipse.californium.scandium.dtls;
 
 import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.elements.util.LeastRecentlyUsedCache;
-import org.eclipse.californium.elements.util.LeastRecentlyUsedCache.Predicate;
 
 /**
  * An in-memory <code>ConnectionStore</code> with a configurable maximum capacity
@@ -55,6 +56,11 @@ import org.eclipse.californium.elements.util.LeastRecentlyUsedCache.Predicate;
  * <em>O(log n)</em>.
  * </p>
  * <p>
+ * Connections with an established session are additionally indexed by
+ * their session identifier, so that looking up a connection for resuming
+ * a session doesn't need to scan all connections.
+ * </p>
+ * <p>
  * Storing and reading to/from the store is thread safe.
  * </p>
  */
@@ -64,6 +70,10 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 	private static final int DEFAULT_CACHE_SIZE = 150000;
 	private static final long DEFAULT_EXPIRATION_THRESHOLD = 36 * 60 * 60; // 36h
 	private final LeastRecentlyUsedCache<InetSocketAddress, Connection> connections;
+	/** index of the connections by the identifier of their established session */
+	private final Map<SessionId, Connection> connectionsBySessionId = new HashMap<>();
+	/** the indexed session identifier of each peer, used to maintain the index */
+	private final Map<InetSocketAddress, SessionId> indexedSessionIds = new HashMap<>();
 	private final SessionCache sessionCache;
 
 	/**
@@ -111,16 +121,15 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 		connections = new LeastRecentlyUsedCache<>(capacity, threshold);
 		this.sessionCache = sessionCache;
 
-		if (sessionCache != null) {
-			// make sure that session state for stale (evicted) connections is removed from second level cache
-			connections.addEvictionListener(new LeastRecentlyUsedCache.EvictionListener<Connection>() {
+		connections.addEvictionListener(new LeastRecentlyUsedCache.EvictionListener<Connection>() {
 
-				@Override
-				public void onEviction(Connection staleConnection) {
-					removeSessionFromCache(staleConnection);
-				}
-			});
-		}
+			@Override
+			public void onEviction(Connection staleConnection) {
+				removeFromIndex(staleConnection.getPeerAddress());
+				// make sure that session state for stale (evicted) connections is removed from second level cache
+				removeSessionFromCache(staleConnection);
+			}
+		});
 		LOG.log(Level.CONFIG, "Created new InMemoryConnectionStore [capacity: {0}, connection expiration threshold: {1}s]",
 				new Object[]{capacity, threshold});
 	}
@@ -149,10 +158,16 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 	public synchronized boolean put(final Connection connection) {
 
 		if (connection != null) {
-			return connections.put(connection.getPeerAddress(), connection);
-		} else {
-			return false;
+			if (connections.put(connection.getPeerAddress(), connection)) {
+				// the connection may replace a connection with the same peer
+				removeFromIndex(connection.getPeerAddress());
+				if (connection.hasEstablishedSession()) {
+					addToIndex(connection, connection.getEstablishedSession().getSessionIdentifier());
+				}
+				return true;
+			}
 		}
+		return false;
 	}
 
 	@Override
@@ -199,13 +214,55 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 
 	private synchronized Connection findLocally(final SessionId id) {
 
-		return connections.find(new Predicate<Connection>() {
-			@Override
-			public boolean accept(final Connection connection) {
-				DTLSSession session = connection.getEstablishedSession();
-				return session != null && id.equals(session.getSessionIdentifier());
+		Connection connection = connectionsBySessionId.get(id);
+		if (connection != null) {
+			DTLSSession session = connection.getEstablishedSession();
+			if (session != null && id.equals(session.getSessionIdentifier())) {
+				return connection;
 			}
-		});
+		}
+		return null;
+	}
+
+	/**
+	 * Indexes a connection by the identifier of its established session.
+	 * <p>
+	 * A previously indexed session of the same peer is removed from the index.
+	 * 
+	 * @param connection the connection
+	 * @param id the session identifier
+	 */
+	private void addToIndex(final Connection connection, final SessionId id) {
+		InetSocketAddress peerAddress = connection.getPeerAddress();
+		if (peerAddress != null && id != null) {
+			SessionId previousId = indexedSessionIds.put(peerAddress, id);
+			if (previousId != null && !previousId.equals(id)) {
+				removeFromIndex(previousId, peerAddress);
+			}
+			connectionsBySessionId.put(id, connection);
+		}
+	}
+
+	/**
+	 * Removes the session of a peer from the index.
+	 * 
+	 * @param peerAddress the peer's address
+	 */
+	private void removeFromIndex(final InetSocketAddress peerAddress) {
+		if (peerAddress != null) {
+			SessionId id = indexedSessionIds.remove(peerAddress);
+			if (id != null) {
+				removeFromIndex(id, peerAddress);
+			}
+		}
+	}
+
+	private void removeFromIndex(final SessionId id, final InetSocketAddress peerAddress) {
+		Connection connection = connectionsBySessionId.get(id);
+		// the session may have been resumed by the same peer using another address
+		if (connection != null && peerAddress.equals(connection.getPeerAddress())) {
+			connectionsBySessionId.remove(id);
+		}
 	}
 
 	@Override
@@ -225,18 +282,24 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 
 	@Override
 	public synchronized Connection get(final InetSocketAddress peerAddress) {
-		return connections.get(peerAddress);
+		Connection connection = connections.get(peerAddress);
+		if (connection == null) {
+			// the connection may have expired
+			removeFromIndex(peerAddress);
+		}
+		return connection;
 	}
 
 	@Override
 	public synchronized Connection remove(final InetSocketAddress peerAddress) {
 		Connection removedConnection = connections.remove(peerAddress);
+		removeFromIndex(peerAddress);
 		removeSessionFromCache(removedConnection);
 		return removedConnection;
 	}
 
 	private synchronized void removeSessionFromCache(final Connection connection) {
-		if (sessionCache != null && connection.hasEstablishedSession()) {
+		if (sessionCache != null && connection != null && connection.hasEstablishedSession()) {
 			sessionCache.remove(connection.getEstablishedSession().getSessionIdentifier());
 		}
 	}
@@ -244,6 +307,8 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 	@Override
 	public final synchronized void clear() {
 		connections.clear();
+		connectionsBySessionId.clear();
+		indexedSessionIds.clear();
 		// TODO: does it make sense to clear the SessionCache as well?
 	}
 
@@ -254,6 +319,12 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 
 	@Override
 	public void sessionEstablished(final Handshaker handshaker, final DTLSSession establishedSession) throws HandshakeException {
+		synchronized (this) {
+			Connection connection = connections.get(establishedSession.getPeer());
+			if (connection != null) {
+				addToIndex(connection, establishedSession.getSessionIdentifier());
+			}
+		}
 		if (sessionCache != null) {
 			// put current connection state to second level cache
 			sessionCache.put(establishedSession);
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.elements.util.DatagramReader;
+import org.eclipse.californium.elements.util.DatagramWriter;
+import org.eclipse.californium.elements.util.MappedRecordLog;
+
+/**
+ * A session cache that keeps the {@code SessionTickets} in a memory-mapped,
+ * append-only file.
+ * <p>
+ * Passing this cache to a {@code DTLSConnector} allows clients to resume
+ * their sessions by means of an abbreviated handshake after the connector's
+ * process has been restarted.
+ * <p>
+ * The sessions are stored in a {@link MappedRecordLog}, using the session
+ * identifiers as keys and the encoded {@code SessionTickets} (see
+ * {@code SessionTicket.encode}) as values.
+ * <p>
+ * The file contains the master secrets of the sessions in plain text and
+ * therefore must be protected from access by other users. On file systems
+ * supporting POSIX permissions, the file is created readable and writable
+ * by its owner only.
+ */
+public final class MappedFileSessionCache implements SessionCache, Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(MappedFileSessionCache.class.getName());
+
+	/**
+	 * The default maximum number of sessions.
+	 */
+	public static final int DEFAULT_MAX_SESSIONS = 150000;
+
+	private static final int MAGIC = 0x43534331; // "CSC1"
+
+	private final File file;
+	private final int maxSessions;
+	private final MappedRecordLog log;
+
+	/**
+	 * Creates a cache for up to 150000 sessions.
+	 *
+	 * @param file the file to store the sessions in. If the file exists, the
+	 *            sessions stored in it are loaded.
+	 * @throws IOException if the file cannot be opened or is not a session
+	 *             cache file
+	 */
+	public MappedFileSessionCache(final File file) throws IOException {
+		this(file, DEFAULT_MAX_SESSIONS);
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param file the file to store the sessions in. If the file exists, the
+	 *            sessions stored in it are loaded.
+	 * @param maxSessions the maximum number of sessions. If a session is added
+	 *            to a full cache, the session added least recently is removed.
+	 * @throws IOException if the file cannot be opened or is not a session
+	 *             cache file
+	 * @throws IllegalArgumentException if maxSessions is &lt; 1
+	 */
+	public MappedFileSessionCache(final File file, final int maxSessions) throws IOException {
+		if (file == null) {
+			throw new NullPointerException("File must not be null");
+		} else if (maxSessions < 1) {
+			throw new IllegalArgumentException("Maximum number of sessions must be at least 1");
+		}
+		this.file = file;
+		this.maxSessions = maxSessions;
+		this.log = new MappedRecordLog(file, MAGIC, false);
+		LOGGER.log(Level.CONFIG, "Loaded {0} sessions from {1}", new Object[]{log.size(), file});
+	}
+
+	@Override
+	public synchronized void put(final DTLSSession session) {
+		if (session == null) {
+			return;
+		}
+		SessionId id = session.getSessionIdentifier();
+		DatagramWriter writer = new DatagramWriter();
+		session.getSessionTicket().encode(writer);
+		byte[] ticket = writer.toByteArray();
+		if (id == null || id.length() > MappedRecordLog.MAX_KEY_LENGTH
+				|| ticket.length > MappedRecordLog.MAX_VALUE_LENGTH) {
+			return;
+		}
+		try {
+			if (log.put(id.getId(), ticket, 0) && log.size() > maxSessions) {
+				log.remove(log.getEldestKey());
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot store session in " + file, e);
+		}
+	}
+
+	@Override
+	public SessionTicket get(final SessionId id) {
+		byte[] ticket = id == null ? null : log.get(id.getId());
+		if (ticket == null) {
+			return null;
+		}
+		return SessionTicket.decode(new DatagramReader(ticket));
+	}
+
+	@Override
+	public void remove(final SessionId id) {
+		if (id == null) {
+			return;
+		}
+		try {
+			log.remove(id.getId());
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot remove session from " + file, e);
+		}
+	}
+
+	/**
+	 * Gets the number of sessions in the cache.
+	 *
+	 * @return the number of sessions
+	 */
+	public int size() {
+		return log.size();
+	}
+
+	/**
+	 * Writes the mapped region to the file and closes the file.
+	 * <p>
+	 * Afterwards, the cache is empty and doesn't store sessions anymore.
+	 */
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+}
@@ -35,7 +35,7 @@ import javax.crypto.spec.IvParameterSpec;
 
 import org.eclipse.californium.elements.util.DatagramReader;
 import org.eclipse.californium.elements.util.DatagramWriter;
-import org.eclipse.californium.scandium.dtls.cipher.CCMBlockCipher;
+import org.eclipse.californium.scandium.dtls.cipher.AeadCipher;
 import org.eclipse.californium.scandium.dtls.cipher.CipherManager;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite.KeyExchangeAlgorithm;
@@ -230,6 +230,47 @@ public class Record {
 		return writer.toByteArray();
 	}
 
+	/**
+	 * Gets the length of this record's <em>DTLSCiphertext</em> structure.
+	 *
+	 * @return the number of bytes written by {@link #writeTo(byte[], int)}
+	 */
+	public synchronized int size() {
+		return RECORD_HEADER_BITS / Byte.SIZE + fragmentBytes.length;
+	}
+
+	/**
+	 * Encodes this record into its corresponding <em>DTLSCiphertext</em> structure
+	 * within a given buffer.
+	 * <p>
+	 * In contrast to {@link #toByteArray()} no intermediary arrays are created.
+	 *
+	 * @param buffer the buffer to write to
+	 * @param offset the offset within the buffer to start writing at
+	 * @return the number of bytes written
+	 * @throws IndexOutOfBoundsException if the buffer is too small
+	 */
+	public synchronized int writeTo(final byte[] buffer, final int offset) {
+		length = fragmentBytes.length;
+		int headerLength = RECORD_HEADER_BITS / Byte.SIZE;
+		if (offset < 0 || offset + headerLength + length > buffer.length) {
+			throw new IndexOutOfBoundsException("Buffer too small for record of " + length + " bytes");
+		}
+		int index = offset;
+		buffer[index++] = (byte) type.getCode();
+		buffer[index++] = (byte) version.getMajor();
+		buffer[index++] = (byte) version.getMinor();
+		buffer[index++] = (byte) (epoch >>> 8);
+		buffer[index++] = (byte) epoch;
+		for (int shift = SEQUENCE_NUMBER_BITS - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+			buffer[index++] = (byte) (sequenceNumber >>> shift);
+		}
+		buffer[index++] = (byte) (length >>> 8);
+		buffer[index++] = (byte) length;
+		System.arraycopy(fragmentBytes, 0, buffer, index, length);
+		return headerLength + length;
+	}
+
 	/**
 	 * Parses a sequence of <em>DTLSCiphertext</em> structures into <code>Record</code> instances.
 	 * 
@@ -550,20 +591,22 @@ public class Record {
 		 * explanation of additional data or
 		 * http://tools.ietf.org/html/rfc5116#section-2.1
 		 */
-		byte[] iv = session.getWriteState().getIv().getIV();
+		DTLSConnectionState writeState = session.getWriteState();
+		byte[] iv = writeState.getIv().getIV();
 		byte[] nonce = generateNonce(iv);
-		byte[] key = session.getWriteState().getEncryptionKey().getEncoded();
 		byte[] additionalData = generateAdditionalData(byteArray.length);
-
-		byte[] encryptedFragment = CCMBlockCipher.encrypt(key, nonce, additionalData, byteArray, 8);
+		AeadCipher cipher = writeState.getAeadCipher();
 
 		/*
 		 * Prepend the explicit nonce as specified in
 		 * http://tools.ietf.org/html/rfc5246#section-6.2.3.3 and
 		 * http://tools.ietf.org/html/draft-mcgrew-tls-aes-ccm-04#section-3
+		 * by encrypting directly behind it.
 		 */
 		byte[] explicitNonce = generateExplicitNonce();
-		encryptedFragment = ByteArrayUtils.concatenate(explicitNonce, encryptedFragment);
+		byte[] encryptedFragment = new byte[explicitNonce.length + byteArray.length + cipher.getNumAuthenticationBytes()];
+		System.arraycopy(explicitNonce, 0, encryptedFragment, 0, explicitNonce.length);
+		cipher.encrypt(nonce, additionalData, byteArray, 0, byteArray.length, encryptedFragment, explicitNonce.length);
 
 		return encryptedFragment;
 	}
@@ -585,26 +628,25 @@ public class Record {
 		} else if (byteArray == null) {
 			throw new NullPointerException("Ciphertext must not be null");
 		}
+		AeadCipher cipher = currentReadState.getAeadCipher();
+		// the explicit nonce (8 bytes) precedes the ciphertext and the authentication tag
+		int plaintextLength = byteArray.length - 8 - cipher.getNumAuthenticationBytes();
+		if (plaintextLength < 0) {
+			throw new GeneralSecurityException("Ciphertext too short for explicit nonce and authentication field");
+		}
 		// the "implicit" part of the nonce is the salt as exchanged during the session establishment
 		byte[] iv = currentReadState.getIv().getIV();
-		// the symmetric key exchanged during the DTLS handshake
-		byte[] key = currentReadState.getEncryptionKey().getEncoded();
 		/*
 		 * See http://tools.ietf.org/html/rfc5246#section-6.2.3.3 and
 		 * http://tools.ietf.org/html/rfc5116#section-2.1 for an
 		 * explanation of "additional data" and its structure
-		 * 
-		 * The decrypted message is always 16 bytes shorter than the cipher (8
-		 * for the authentication tag and 8 for the explicit nonce).
 		 */
-		byte[] additionalData = generateAdditionalData(byteArray.length - 16);
+		byte[] additionalData = generateAdditionalData(plaintextLength);
 
-		DatagramReader reader = new DatagramReader(byteArray);
-	
 		// create explicit nonce from values provided in DTLS record 
 		byte[] explicitNonce = generateExplicitNonce();
 		// retrieve actual explicit nonce as contained in GenericAEADCipher struct (8 bytes long)
-		byte[] explicitNonceUsed = reader.readBytes(8);
+		byte[] explicitNonceUsed = Arrays.copyOf(byteArray, 8);
 		if (!Arrays.equals(explicitNonce, explicitNonceUsed) && LOGGER.isLoggable(Level.FINE)) {
 			StringBuilder b = new StringBuilder("The explicit nonce used by the sender does not match the values provided in the DTLS record");
 			b.append(System.lineSeparator()).append("Used    : ").append(ByteArrayUtils.toHexString(explicitNonceUsed));
@@ -613,7 +655,8 @@ public class Record {
 		}
 
 		byte[] nonce = getNonce(iv, explicitNonceUsed);
-		return CCMBlockCipher.decrypt(key, nonce, additionalData, reader.readBytesLeft(), 8);
+		// the symmetric key exchanged during the DTLS handshake is kept by the cipher
+		return cipher.decrypt(nonce, additionalData, byteArray, 8, byteArray.length - 8);
 	}
 
 	// Cryptography Helper Methods ////////////////////////////////////
@@ -60,6 +60,7 @@ import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite.KeyExchangeAlgorithm;
 import org.eclipse.californium.scandium.dtls.cipher.ECDHECryptography;
 import org.eclipse.californium.scandium.dtls.cipher.ECDHECryptography.SupportedGroup;
+import org.eclipse.californium.scandium.dtls.cipher.EphemeralKeyPool;
 import org.eclipse.californium.scandium.dtls.pskstore.PskStore;
 import org.eclipse.californium.scandium.util.ByteArrayUtils;
 import org.eclipse.californium.scandium.util.ServerNames;
@@ -129,6 +130,9 @@ public class ServerHandshaker extends Handshaker {
 	/** Used to retrieve pre-shared-key from a given client identity */
 	protected final PskStore pskStore;
 
+	/** The pool to take the ephemeral ECDH keys from, may be <code>null</code> */
+	private final EphemeralKeyPool ephemeralKeyPool;
+
 	// Constructors ///////////////////////////////////////////////////
 
 	/**
@@ -185,6 +189,36 @@ public class ServerHandshaker extends Handshaker {
 	 */
 	public ServerHandshaker(int initialMessageSequenceNo, DTLSSession session, RecordLayer recordLayer, SessionListener sessionListener,
 			DtlsConnectorConfig config, int maxTransmissionUnit) { 
+		this(initialMessageSequenceNo, session, recordLayer, sessionListener, config, maxTransmissionUnit, null);
+	}
+
+	/**
+	 * Creates a handshaker for negotiating a DTLS session with a client
+	 * following the full DTLS handshake protocol, taking the ephemeral ECDH
+	 * keys from a pool.
+	 * 
+	 * @param initialMessageSequenceNo
+	 *            the initial message sequence number to expect from the peer.
+	 * @param session
+	 *            the session to negotiate with the client.
+	 * @param recordLayer
+	 *            the object to use for sending flights to the peer.
+	 * @param sessionListener
+	 *            the listener to notify about the session's life-cycle events.
+	 * @param config
+	 *            the DTLS configuration.
+	 * @param maxTransmissionUnit
+	 *            the MTU value reported by the network interface the record layer is bound to.
+	 * @param ephemeralKeyPool
+	 *            the pool to take the ephemeral ECDH keys from, or <code>null</code>
+	 *            to generate the keys during the handshake.
+	 * @throws IllegalArgumentException
+	 *            if the <code>initialMessageSequenceNo</code> is negative.
+	 * @throws NullPointerException
+	 *            if session, recordLayer or config is <code>null</code>.
+	 */
+	public ServerHandshaker(int initialMessageSequenceNo, DTLSSession session, RecordLayer recordLayer, SessionListener sessionListener,
+			DtlsConnectorConfig config, int maxTransmissionUnit, EphemeralKeyPool ephemeralKeyPool) {
 		super(false, initialMessageSequenceNo, session, recordLayer, sessionListener, config.getTrustStore(), maxTransmissionUnit,
 		        config.getRpkTrustStore());
 
@@ -197,6 +231,7 @@ public class ServerHandshaker extends Handshaker {
 		this.publicKey = config.getPublicKey();
 
 		this.clientAuthenticationRequired = config.isClientAuthenticationRequired();
+		this.ephemeralKeyPool = ephemeralKeyPool;
 
 		this.supportedClientCertificateTypes = new ArrayList<>();
 		this.supportedClientCertificateTypes.add(CertificateType.RAW_PUBLIC_KEY);
@@ -583,7 +618,11 @@ public class ServerHandshaker extends Handshaker {
 			// TODO SHA256withECDSA is default but should be configurable
 			signatureAndHashAlgorithm = new SignatureAndHashAlgorithm(SignatureAndHashAlgorithm.HashAlgorithm.SHA256, SignatureAndHashAlgorithm.SignatureAlgorithm.ECDSA);
 			try {
-				ecdhe = new ECDHECryptography(negotiatedSupportedGroup.getEcParams());
+				if (ephemeralKeyPool != null) {
+					ecdhe = ephemeralKeyPool.take(negotiatedSupportedGroup);
+				} else {
+					ecdhe = new ECDHECryptography(negotiatedSupportedGroup.getEcParams());
+				}
 				serverKeyExchange = new ECDHServerKeyExchange(signatureAndHashAlgorithm, ecdhe, privateKey, clientRandom, serverRandom,
 						negotiatedSupportedGroup.getId(), session.getPeer());
 				break;
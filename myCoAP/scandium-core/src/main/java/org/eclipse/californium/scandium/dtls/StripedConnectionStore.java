@@ -0,0 +1,512 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A concurrent in-memory <code>ConnectionStore</code> with a configurable
+ * maximum capacity and support for evicting stale connections based on an
+ * approximated <em>least recently used</em> policy.
+ * <p>
+ * Contrary to the {@link InMemoryConnectionStore}, the store doesn't use a
+ * single monitor. Looking up connections by peer address or session ID
+ * doesn't lock at all, it only records the access time of the connection.
+ * Adding and removing connections locks one of several stripes, selected by
+ * the peer address.
+ * </p>
+ * <p>
+ * A connection can be successfully added to the store if any of the
+ * following conditions is met:
+ * </p>
+ * <ul>
+ * <li>The store's remaining capacity is greater than zero.</li>
+ * <li>The store contains at least one <em>stale</em> connection, i.e. a
+ * connection that has not been accessed for at least the store's <em>
+ * connection expiration threshold</em> period. In such a case the least
+ * recently accessed stale connection of a stripe gets evicted from the store
+ * to make place for the new connection to be added.</li>
+ * </ul>
+ * <p>
+ * Each stripe keeps its connections in a queue ordered by the time they were
+ * added. Connections accessed since then are moved to the end of the queue
+ * when the head of the queue is examined for eviction. So the recency order
+ * is only approximated, but reads don't need to modify a shared list.
+ * </p>
+ */
+public final class StripedConnectionStore implements ResumptionSupportingConnectionStore, SessionListener {
+
+	private static final Logger LOG = Logger.getLogger(StripedConnectionStore.class.getName());
+	private static final int DEFAULT_CACHE_SIZE = 150000;
+	private static final long DEFAULT_EXPIRATION_THRESHOLD = 36 * 60 * 60; // 36h
+	private static final int DEFAULT_STRIPES = 4 * Runtime.getRuntime().availableProcessors();
+
+	private final ConcurrentHashMap<InetSocketAddress, Entry> connections;
+	/** index of the connections by the identifier of their established session */
+	private final ConcurrentHashMap<SessionId, Connection> connectionsBySessionId;
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	private final AtomicInteger size = new AtomicInteger();
+	/** the stripe to start searching for a stale connection */
+	private final AtomicInteger nextEvictionStripe = new AtomicInteger();
+	private final int capacity;
+	private final long expirationThresholdMillis;
+	private final SessionCache sessionCache;
+
+	/**
+	 * Creates a store with a capacity of 150000 connections and
+	 * a connection expiration threshold of 36 hours.
+	 */
+	public StripedConnectionStore() {
+		this(DEFAULT_CACHE_SIZE, DEFAULT_EXPIRATION_THRESHOLD, null);
+	}
+
+	/**
+	 * Creates a store based on given configuration parameters.
+	 *
+	 * @param capacity the maximum number of connections the store can manage
+	 * @param threshold the period of time of inactivity (in seconds) after which a
+	 *            connection is considered stale and can be evicted from the store if
+	 *            a new connection is to be added to the store
+	 * @param sessionCache a second level cache to use for <em>current</em>
+	 *                     connection state of established DTLS sessions.
+	 */
+	public StripedConnectionStore(final int capacity, final long threshold, final SessionCache sessionCache) {
+		this(capacity, threshold, sessionCache, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Creates a store based on given configuration parameters.
+	 *
+	 * @param capacity the maximum number of connections the store can manage
+	 * @param threshold the period of time of inactivity (in seconds) after which a
+	 *            connection is considered stale and can be evicted from the store if
+	 *            a new connection is to be added to the store
+	 * @param sessionCache a second level cache to use for <em>current</em>
+	 *                     connection state of established DTLS sessions.
+	 * @param stripes the number of stripes, rounded up to a power of two
+	 * @throws IllegalArgumentException if capacity or number of stripes is &lt; 1
+	 */
+	public StripedConnectionStore(final int capacity, final long threshold, final SessionCache sessionCache,
+			final int stripes) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		} else if (stripes < 1) {
+			throw new IllegalArgumentException("Number of stripes must be at least 1");
+		}
+		int numberOfStripes = Integer.highestOneBit(stripes);
+		if (numberOfStripes < stripes) {
+			numberOfStripes <<= 1;
+		}
+		this.stripes = new Stripe[numberOfStripes];
+		for (int index = 0; index < numberOfStripes; index++) {
+			this.stripes[index] = new Stripe();
+		}
+		this.stripeMask = numberOfStripes - 1;
+		this.capacity = capacity;
+		this.expirationThresholdMillis = threshold * 1000;
+		this.sessionCache = sessionCache;
+		int initialCapacity = Math.min(capacity, 1024);
+		this.connections = new ConcurrentHashMap<>(initialCapacity, 0.75f, numberOfStripes);
+		this.connectionsBySessionId = new ConcurrentHashMap<>(initialCapacity, 0.75f, numberOfStripes);
+		LOG.log(Level.CONFIG, "Created new StripedConnectionStore [capacity: {0}, connection expiration threshold: {1}s, stripes: {2}]",
+				new Object[]{capacity, threshold, numberOfStripes});
+	}
+
+	/**
+	 * Puts a connection to the store.
+	 * <p>
+	 * The connection's peer address is used as the key.
+	 * <p>
+	 * If the store's capacity is exhausted, the least recently accessed
+	 * connection of the first stripe containing a stale connection is evicted.
+	 *
+	 * @return <code>true</code> if the connection could be added to the
+	 *         store, <code>false</code> otherwise, e.g. because the store's
+	 *         remaining capacity is zero and no stale connection can be evicted
+	 */
+	@Override
+	public boolean put(final Connection connection) {
+
+		if (connection == null || connection.getPeerAddress() == null) {
+			return false;
+		}
+		if (add(connection)) {
+			return true;
+		}
+		// the store is full, the eviction must not hold the lock of this
+		// connection's stripe to avoid dead locks
+		Connection staleConnection = evictStaleConnection();
+		if (staleConnection == null) {
+			return false;
+		}
+		LOG.log(Level.FINER, "Evicted stale connection with [{0}]", staleConnection.getPeerAddress());
+		removeSessionFromCache(staleConnection);
+		return add(connection);
+	}
+
+	/**
+	 * Adds or replaces a connection, if the capacity is not exhausted.
+	 *
+	 * @param connection the connection
+	 * @return <code>true</code>, if the connection has been added,
+	 *         <code>false</code>, if the capacity is exhausted
+	 */
+	private boolean add(final Connection connection) {
+		InetSocketAddress peerAddress = connection.getPeerAddress();
+		Stripe stripe = getStripe(peerAddress);
+		synchronized (stripe) {
+			Entry previous = connections.get(peerAddress);
+			if (previous != null) {
+				stripe.remove(previous);
+				removeFromIndex(previous);
+			} else if (size.incrementAndGet() > capacity) {
+				size.decrementAndGet();
+				return false;
+			}
+			Entry entry = new Entry(connection, System.currentTimeMillis());
+			connections.put(peerAddress, entry);
+			stripe.add(entry);
+			if (connection.hasEstablishedSession()) {
+				addToIndex(entry, connection.getEstablishedSession().getSessionIdentifier());
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Evicts a stale connection.
+	 *
+	 * The stripes are searched round robin.
+	 *
+	 * @return the evicted connection, or <code>null</code>, if no stale
+	 *         connection has been found
+	 */
+	private Connection evictStaleConnection() {
+		long thresholdDate = System.currentTimeMillis() - expirationThresholdMillis;
+		int start = nextEvictionStripe.getAndIncrement();
+		for (int index = 0; index < stripes.length; index++) {
+			Stripe stripe = stripes[(start + index) & stripeMask];
+			synchronized (stripe) {
+				Entry eldest = stripe.getEldest();
+				if (eldest != null && eldest.lastAccess <= thresholdDate) {
+					stripe.remove(eldest);
+					connections.remove(eldest.connection.getPeerAddress(), eldest);
+					size.decrementAndGet();
+					removeFromIndex(eldest);
+					return eldest.connection;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Connection find(final SessionId id) {
+
+		if (id == null) {
+			return null;
+		} else {
+			Connection conFromLocalCache = findLocally(id);
+
+			if (sessionCache == null) {
+
+				return conFromLocalCache;
+
+			} else {
+
+				// make sure a stale session cannot be resumed
+				SessionTicket ticket = sessionCache.get(id);
+				if (ticket == null) {
+					// either a session with the given ID has never been established (on other nodes)
+					// or another node has removed the session from the cache, e.g. because it became
+					// stale
+
+					if (conFromLocalCache != null) {
+						// remove corresponding connection from this store
+						remove(conFromLocalCache.getPeerAddress());
+					}
+
+					return null;
+
+				} else if (conFromLocalCache == null) {
+					// this probably means that we are taking over the session from a failed node
+					return new Connection(ticket);
+					// connection will be put to first level cache as part of
+					// the abbreviated handshake
+				} else {
+					// resume connection found in local cache (i.e. this store)
+					return conFromLocalCache;
+				}
+			}
+		}
+	}
+
+	private Connection findLocally(final SessionId id) {
+		Connection connection = connectionsBySessionId.get(id);
+		if (connection != null) {
+			DTLSSession session = connection.getEstablishedSession();
+			if (session != null && id.equals(session.getSessionIdentifier())) {
+				Entry entry = connections.get(connection.getPeerAddress());
+				if (entry != null && entry.connection == connection) {
+					return connection;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Indexes a connection by the identifier of its established session.
+	 * <p>
+	 * Must be called holding the lock of the connection's stripe.
+	 *
+	 * @param entry the entry of the connection
+	 * @param id the session identifier
+	 */
+	private void addToIndex(final Entry entry, final SessionId id) {
+		if (id != null) {
+			if (entry.indexedSessionId != null && !entry.indexedSessionId.equals(id)) {
+				connectionsBySessionId.remove(entry.indexedSessionId, entry.connection);
+			}
+			connectionsBySessionId.put(id, entry.connection);
+			entry.indexedSessionId = id;
+		}
+	}
+
+	/**
+	 * Removes a connection from the session ID index.
+	 * <p>
+	 * Only removes the index entry, if it still refers to the connection. The
+	 * session may have been resumed by the same peer using another address.
+	 * Must be called holding the lock of the connection's stripe.
+	 *
+	 * @param entry the entry of the connection
+	 */
+	private void removeFromIndex(final Entry entry) {
+		if (entry.indexedSessionId != null) {
+			connectionsBySessionId.remove(entry.indexedSessionId, entry.connection);
+			entry.indexedSessionId = null;
+		}
+	}
+
+	@Override
+	public void markAllAsResumptionRequired() {
+		for (Entry entry : connections.values()) {
+			entry.connection.setResumptionRequired(true);
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Math.max(0, capacity - size.get());
+	}
+
+	@Override
+	public Connection get(final InetSocketAddress peerAddress) {
+		if (peerAddress == null) {
+			return null;
+		}
+		Entry entry = connections.get(peerAddress);
+		if (entry == null) {
+			return null;
+		}
+		entry.lastAccess = System.currentTimeMillis();
+		return entry.connection;
+	}
+
+	@Override
+	public Connection remove(final InetSocketAddress peerAddress) {
+		if (peerAddress == null) {
+			return null;
+		}
+		Entry entry;
+		Stripe stripe = getStripe(peerAddress);
+		synchronized (stripe) {
+			entry = connections.remove(peerAddress);
+			if (entry == null) {
+				return null;
+			}
+			stripe.remove(entry);
+			size.decrementAndGet();
+			removeFromIndex(entry);
+		}
+		removeSessionFromCache(entry.connection);
+		return entry.connection;
+	}
+
+	private void removeSessionFromCache(final Connection connection) {
+		if (sessionCache != null && connection.hasEstablishedSession()) {
+			sessionCache.remove(connection.getEstablishedSession().getSessionIdentifier());
+		}
+	}
+
+	/**
+	 * Removes all connections from this store.
+	 * <p>
+	 * In contrast to {@link #remove(InetSocketAddress)}, which is used for
+	 * connections that have been terminated, this only drops the local state.
+	 * The established sessions are left in the session cache, so that peers
+	 * can still resume them with an abbreviated handshake, either with this
+	 * node after a restart or with another node sharing the cache.
+	 */
+	@Override
+	public void clear() {
+		// the stripes are always locked in the same order
+		clear(0);
+	}
+
+	private void clear(final int index) {
+		if (index < stripes.length) {
+			synchronized (stripes[index]) {
+				clear(index + 1);
+			}
+		} else {
+			connections.clear();
+			connectionsBySessionId.clear();
+			for (Stripe stripe : stripes) {
+				stripe.clear();
+			}
+			size.set(0);
+		}
+	}
+
+	@Override
+	public void handshakeStarted(final Handshaker handshaker) throws HandshakeException {
+		// nothing to do
+	}
+
+	@Override
+	public void sessionEstablished(final Handshaker handshaker, final DTLSSession establishedSession) throws HandshakeException {
+		InetSocketAddress peerAddress = establishedSession.getPeer();
+		if (peerAddress != null) {
+			Stripe stripe = getStripe(peerAddress);
+			synchronized (stripe) {
+				Entry entry = connections.get(peerAddress);
+				if (entry != null) {
+					addToIndex(entry, establishedSession.getSessionIdentifier());
+				}
+			}
+		}
+		if (sessionCache != null) {
+			// put current connection state to second level cache
+			sessionCache.put(establishedSession);
+		}
+	}
+
+	@Override
+	public void handshakeCompleted(final InetSocketAddress peer) {
+		// nothing to do
+	}
+
+	private Stripe getStripe(final InetSocketAddress peerAddress) {
+		int hash = peerAddress.hashCode();
+		// spread the bits, the port is in the low bits
+		hash ^= (hash >>> 16);
+		return stripes[hash & stripeMask];
+	}
+
+	/**
+	 * A connection with its access time.
+	 */
+	private static final class Entry {
+
+		private final Connection connection;
+		/** the last time the connection was accessed, written without lock */
+		private volatile long lastAccess;
+		/** the access time, when the entry was queued the last time */
+		private long queuedAccess;
+		/** guarded by the stripe */
+		private boolean removed;
+		/** guarded by the stripe */
+		private SessionId indexedSessionId;
+
+		private Entry(final Connection connection, final long now) {
+			this.connection = connection;
+			this.lastAccess = now;
+			this.queuedAccess = now;
+		}
+	}
+
+	/**
+	 * The queue of connections of a stripe.
+	 * <p>
+	 * All methods must be called holding the stripe's lock.
+	 */
+	private static final class Stripe {
+
+		private ArrayDeque<Entry> queue = new ArrayDeque<>();
+		/** number of removed entries still in the queue */
+		private int removed;
+
+		private void add(final Entry entry) {
+			queue.addLast(entry);
+		}
+
+		private void remove(final Entry entry) {
+			// removing from the middle of the queue is expensive, so the entry
+			// is only marked and dropped, when it reaches the head
+			entry.removed = true;
+			if (++removed > queue.size() / 2 && removed > 16) {
+				compact();
+			}
+		}
+
+		/**
+		 * Gets the (approximately) least recently accessed entry.
+		 *
+		 * Entries accessed since they were queued get a second chance and are
+		 * moved to the end of the queue.
+		 *
+		 * @return the entry, or <code>null</code>, if the stripe is empty
+		 */
+		private Entry getEldest() {
+			int moves = queue.size();
+			Entry eldest = queue.peekFirst();
+			while (eldest != null) {
+				if (eldest.removed) {
+					queue.pollFirst();
+					--removed;
+				} else if (eldest.queuedAccess != eldest.lastAccess && moves-- > 0) {
+					queue.pollFirst();
+					eldest.queuedAccess = eldest.lastAccess;
+					queue.addLast(eldest);
+				} else {
+					return eldest;
+				}
+				eldest = queue.peekFirst();
+			}
+			return null;
+		}
+
+		private void compact() {
+			for (Iterator<Entry> iterator = queue.iterator(); iterator.hasNext();) {
+				if (iterator.next().removed) {
+					iterator.remove();
+				}
+			}
+			removed = 0;
+		}
+
+		private void clear() {
+			queue.clear();
+			removed = 0;
+		}
+	}
+}
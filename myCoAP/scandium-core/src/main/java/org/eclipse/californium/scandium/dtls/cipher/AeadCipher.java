@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.cipher;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * An authenticated encryption with associated data (AEAD) cipher bound to a
+ * single key. See <a href="http://tools.ietf.org/html/rfc5116">RFC 5116</a>
+ * for details.
+ * <p>
+ * Implementations keep the initialized key for the lifetime of the key and
+ * are thread safe.
+ */
+public interface AeadCipher {
+
+	/**
+	 * Gets the number of octets in the authentication field.
+	 *
+	 * @return the number of octets
+	 */
+	int getNumAuthenticationBytes();
+
+	/**
+	 * Encrypts and authenticates a message.
+	 *
+	 * @param nonce the nonce N.
+	 * @param a the additional authenticated data a.
+	 * @param m the buffer containing the message to authenticate and encrypt.
+	 * @param mOffset the offset of the message in the buffer.
+	 * @param mLength the length of the message.
+	 * @param out the buffer to write the encrypted and authenticated message
+	 *            to. It must provide room for {@code mLength} plus the number
+	 *            of authentication bytes.
+	 * @param outOffset the offset in the output buffer.
+	 * @return the number of bytes written to the output buffer.
+	 * @throws GeneralSecurityException if the data could not be encrypted
+	 */
+	int encrypt(byte[] nonce, byte[] a, byte[] m, int mOffset, int mLength, byte[] out, int outOffset)
+			throws GeneralSecurityException;
+
+	/**
+	 * Decrypts and authenticates a message.
+	 *
+	 * @param nonce the nonce N.
+	 * @param a the additional authenticated data a.
+	 * @param c the buffer containing the encrypted and authenticated message.
+	 * @param cOffset the offset of the encrypted message in the buffer.
+	 * @param cLength the length of the encrypted message including the
+	 *            authentication field.
+	 * @return the decrypted message
+	 * @throws GeneralSecurityException if the message could not be de-crypted
+	 *             or authenticated
+	 */
+	byte[] decrypt(byte[] nonce, byte[] a, byte[] c, int cOffset, int cLength) throws GeneralSecurityException;
+}
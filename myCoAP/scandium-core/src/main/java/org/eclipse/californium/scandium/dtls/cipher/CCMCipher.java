@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.cipher;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An authenticated encryption block cipher mode which uses the 128-bit block
+ * cipher AES bound to a single key. See
+ * <a href="http://tools.ietf.org/html/rfc3610">RFC 3610</a> for details.
+ * <p>
+ * Contrary to the static methods of {@link CCMBlockCipher}, an instance
+ * initializes the AES key schedule only once and is intended to be kept for
+ * the lifetime of the key, e.g. by a connection state. The counter blocks are
+ * encrypted with a single call to an ECB cipher, and the CBC-MAC is calculated
+ * with a single call to a CBC cipher using a zero IV.
+ * <p>
+ * The output is written into a buffer provided by the caller, which may
+ * reserve room in front of the ciphertext, e.g. for an explicit nonce.
+ * Encryption also works in place.
+ * <p>
+ * Instances are thread safe, concurrent calls are serialized.
+ */
+public final class CCMCipher implements AeadCipher {
+
+	private static final String ECB_CIPHER_NAME = "AES/ECB/NoPadding";
+	private static final String CBC_CIPHER_NAME = "AES/CBC/NoPadding";
+	private static final String KEY_TYPE = "AES";
+	private static final int BLOCK_SIZE = 16;
+	/**
+	 * Limit for encoding l(a) with 2 octets, 2^16 - 2^8.
+	 */
+	private static final int SHORT_LENGTH_LIMIT = 65280;
+
+	private final Cipher ecbCipher;
+	private final Cipher cbcCipher;
+	private final int numAuthenticationBytes;
+
+	/**
+	 * Formatted blocks for the CBC-MAC, re-used by subsequent calls.
+	 */
+	private byte[] macBlocks = new byte[0];
+	/**
+	 * Counter blocks and key stream, re-used by subsequent calls.
+	 */
+	private byte[] keyStream = new byte[0];
+
+	/**
+	 * Creates a cipher for a key.
+	 *
+	 * @param key the encryption key K.
+	 * @param numAuthenticationBytes Number of octets in authentication field.
+	 * @throws GeneralSecurityException if the JVM does not support the AES
+	 *             cipher algorithm or the key is not valid
+	 * @throws IllegalArgumentException if the number of octets in the
+	 *             authentication field is not valid
+	 */
+	public CCMCipher(final SecretKey key, final int numAuthenticationBytes) throws GeneralSecurityException {
+		if (numAuthenticationBytes < 4 || numAuthenticationBytes > BLOCK_SIZE || (numAuthenticationBytes & 1) != 0) {
+			throw new IllegalArgumentException("Number of authentication bytes " + numAuthenticationBytes + " invalid");
+		}
+		SecretKeySpec keySpec = new SecretKeySpec(key.getEncoded(), KEY_TYPE);
+		this.ecbCipher = Cipher.getInstance(ECB_CIPHER_NAME);
+		this.ecbCipher.init(Cipher.ENCRYPT_MODE, keySpec);
+		this.cbcCipher = Cipher.getInstance(CBC_CIPHER_NAME);
+		this.cbcCipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(new byte[BLOCK_SIZE]));
+		this.numAuthenticationBytes = numAuthenticationBytes;
+	}
+
+	@Override
+	public int getNumAuthenticationBytes() {
+		return numAuthenticationBytes;
+	}
+
+	/**
+	 * See <a href="http://tools.ietf.org/html/rfc3610#section-2.2">RFC 3610</a>
+	 * for details.
+	 *
+	 * @param nonce the nonce N.
+	 * @param a the additional authenticated data a.
+	 * @param m the buffer containing the message to authenticate and encrypt.
+	 * @param mOffset the offset of the message in the buffer.
+	 * @param mLength the length of the message.
+	 * @param out the buffer to write the encrypted and authenticated message
+	 *            to. It must provide room for {@code mLength} plus the number
+	 *            of authentication bytes. It may be the same buffer as
+	 *            {@code m} using the same offset.
+	 * @param outOffset the offset in the output buffer.
+	 * @return the number of bytes written to the output buffer.
+	 * @throws GeneralSecurityException if the data could not be encrypted
+	 * @throws IllegalArgumentException if the nonce length is not valid or
+	 *             the message is too large for the nonce
+	 */
+	@Override
+	public synchronized int encrypt(final byte[] nonce, final byte[] a, final byte[] m, final int mOffset,
+			final int mLength, final byte[] out, final int outOffset) throws GeneralSecurityException {
+		// authenticate the plaintext first, the encryption may overwrite it
+		byte[] mac = calculateMac(nonce, a, m, mOffset, mLength);
+		calculateKeyStream(nonce, mLength);
+		for (int i = 0; i < mLength; ++i) {
+			out[outOffset + i] = (byte) (m[mOffset + i] ^ keyStream[BLOCK_SIZE + i]);
+		}
+		int tagOffset = outOffset + mLength;
+		for (int i = 0; i < numAuthenticationBytes; ++i) {
+			out[tagOffset + i] = (byte) (mac[i] ^ keyStream[i]);
+		}
+		return mLength + numAuthenticationBytes;
+	}
+
+	/**
+	 * See <a href="http://tools.ietf.org/html/rfc3610#section-2.5">RFC 3610</a>
+	 * for details.
+	 *
+	 * @param nonce the nonce N.
+	 * @param a the additional authenticated data a.
+	 * @param c the buffer containing the encrypted and authenticated message.
+	 * @param cOffset the offset of the encrypted message in the buffer.
+	 * @param cLength the length of the encrypted message including the
+	 *            authentication field.
+	 * @return the decrypted message
+	 * @throws GeneralSecurityException if the message could not be
+	 *             de-crypted, e.g. because it is shorter than the
+	 *             authentication field
+	 * @throws InvalidMacException if the message could not be authenticated
+	 */
+	@Override
+	public synchronized byte[] decrypt(final byte[] nonce, final byte[] a, final byte[] c, final int cOffset,
+			final int cLength) throws GeneralSecurityException {
+		int lengthM = cLength - numAuthenticationBytes;
+		if (lengthM < 0) {
+			throw new GeneralSecurityException("Ciphertext too short for authentication field");
+		}
+		calculateKeyStream(nonce, lengthM);
+		byte[] decrypted = new byte[lengthM];
+		for (int i = 0; i < lengthM; ++i) {
+			decrypted[i] = (byte) (c[cOffset + i] ^ keyStream[BLOCK_SIZE + i]);
+		}
+		byte[] T = new byte[numAuthenticationBytes];
+		int tagOffset = cOffset + lengthM;
+		for (int i = 0; i < numAuthenticationBytes; ++i) {
+			T[i] = (byte) (c[tagOffset + i] ^ keyStream[i]);
+		}
+
+		byte[] mac = calculateMac(nonce, a, decrypted, 0, lengthM);
+		/*
+		 * If the T value is not correct, the receiver MUST NOT reveal any
+		 * information except for the fact that T is incorrect.
+		 */
+		if (MessageDigest.isEqual(T, mac)) {
+			return decrypted;
+		} else {
+			throw new InvalidMacException(mac, T);
+		}
+	}
+
+	/**
+	 * Computes the CBC-MAC. See
+	 * <a href="http://tools.ietf.org/html/rfc3610#section-2.2">RFC 3610 -
+	 * Authentication</a> for details.
+	 *
+	 * The blocks B_0, B_1, ... are formatted into one buffer, which is then
+	 * encrypted with AES in CBC mode with a zero IV. The last cipher block is
+	 * the CBC-MAC.
+	 *
+	 * @param nonce the nonce N.
+	 * @param a the additional authenticated data a.
+	 * @param m the buffer containing the message.
+	 * @param mOffset the offset of the message.
+	 * @param mLength the length of the message.
+	 * @return the authentication field T
+	 * @throws GeneralSecurityException if the cipher fails
+	 */
+	private byte[] calculateMac(final byte[] nonce, final byte[] a, final byte[] m, final int mOffset,
+			final int mLength) throws GeneralSecurityException {
+		int L = getL(nonce);
+		int lengthA = a.length;
+		int encodedLengthA = 0;
+		if (lengthA > 0) {
+			encodedLengthA = lengthA < SHORT_LENGTH_LIMIT ? 2 : 6;
+		}
+		int total = BLOCK_SIZE + padded(encodedLengthA + lengthA) + padded(mLength);
+		if (macBlocks.length < total) {
+			macBlocks = new byte[total];
+		} else {
+			// clear the padding of previous calls
+			Arrays.fill(macBlocks, 0, total, (byte) 0);
+		}
+
+		// B_0: Flags = 64*Adata + 8*M' + L'
+		int adata = lengthA > 0 ? 1 : 0;
+		macBlocks[0] = (byte) (64 * adata + 8 * ((numAuthenticationBytes - 2) / 2) + (L - 1));
+		System.arraycopy(nonce, 0, macBlocks, 1, nonce.length);
+		if (setIntAtEnd(macBlocks, nonce.length + 1, BLOCK_SIZE, mLength) != 0) {
+			throw new IllegalArgumentException("Length " + mLength + " too large for nonce " + nonce.length
+					+ " and blocksize " + BLOCK_SIZE + " bytes.");
+		}
+
+		int offset = BLOCK_SIZE;
+		if (lengthA > 0) {
+			if (encodedLengthA == 2) {
+				// 2 bytes (0x0001 ... 0xFEFF)
+				setIntAtEnd(macBlocks, offset, offset + 2, lengthA);
+			} else {
+				// 2 bytes (0xFFFE) + 4 octets of l(a)
+				setIntAtEnd(macBlocks, offset, offset + 2, 0xfffe);
+				setIntAtEnd(macBlocks, offset + 2, offset + 6, lengthA);
+			}
+			System.arraycopy(a, 0, macBlocks, offset + encodedLengthA, lengthA);
+			offset += padded(encodedLengthA + lengthA);
+		}
+		System.arraycopy(m, mOffset, macBlocks, offset, mLength);
+
+		cbcCipher.doFinal(macBlocks, 0, total, macBlocks, 0);
+		return Arrays.copyOfRange(macBlocks, total - BLOCK_SIZE, total - BLOCK_SIZE + numAuthenticationBytes);
+	}
+
+	/**
+	 * Calculates the key stream blocks S_0, S_1, ... by encrypting the
+	 * counter blocks A_0, A_1, ... with a single call to the ECB cipher. See
+	 * <a href="http://tools.ietf.org/html/rfc3610#section-2.3">RFC 3610 -
+	 * Encryption</a> for details.
+	 *
+	 * @param nonce the nonce N.
+	 * @param mLength the length of the message.
+	 * @throws GeneralSecurityException if the cipher fails
+	 */
+	private void calculateKeyStream(final byte[] nonce, final int mLength) throws GeneralSecurityException {
+		int L = getL(nonce);
+		int total = BLOCK_SIZE + padded(mLength);
+		if (keyStream.length < total) {
+			keyStream = new byte[total];
+		}
+		int index = 0;
+		for (int offset = 0; offset < total; offset += BLOCK_SIZE, ++index) {
+			// Octet Number Contents
+			// ------------ ---------
+			// 0 Flags
+			// 1 ... 15-L Nonce N
+			// 16-L ... 15 Counter i
+			keyStream[offset] = (byte) (L - 1);
+			System.arraycopy(nonce, 0, keyStream, offset + 1, nonce.length);
+			if (setIntAtEnd(keyStream, offset + nonce.length + 1, offset + BLOCK_SIZE, index) != 0) {
+				throw new IllegalArgumentException("Index " + index + " too large for nonce " + nonce.length
+						+ " and blocksize " + BLOCK_SIZE + " bytes.");
+			}
+		}
+		ecbCipher.doFinal(keyStream, 0, total, keyStream, 0);
+	}
+
+	private static int getL(final byte[] nonce) {
+		int L = BLOCK_SIZE - 1 - nonce.length;
+		if (L < 2 || L > 8) {
+			throw new IllegalArgumentException("Nonce length " + nonce.length + " invalid for blocksize " + BLOCK_SIZE
+					+ " (valid length [" + (BLOCK_SIZE - 9) + "-" + (BLOCK_SIZE - 3) + "])");
+		}
+		return L;
+	}
+
+	private static int padded(final int length) {
+		return (length + BLOCK_SIZE - 1) & ~(BLOCK_SIZE - 1);
+	}
+
+	/**
+	 * Writes a number right aligned into a range of a buffer.
+	 *
+	 * @param buffer the buffer
+	 * @param offset the start of the range
+	 * @param end the end of the range (exclusive)
+	 * @param number the number to write
+	 * @return left bytes of the number, if the number is too large, 0, if the
+	 *         complete number could be written.
+	 */
+	private static int setIntAtEnd(final byte[] buffer, final int offset, int end, int number) {
+		while (end > offset) {
+			buffer[--end] = (byte) number;
+			number >>>= 8;
+		}
+		return number;
+	}
+}
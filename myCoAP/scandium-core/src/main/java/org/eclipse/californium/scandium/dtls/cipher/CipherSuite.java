@@ -23,11 +23,14 @@
  ******************************************************************************/
 package org.eclipse.californium.scandium.dtls.cipher;
 
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.crypto.SecretKey;
+
 import org.eclipse.californium.elements.util.DatagramReader;
 import org.eclipse.californium.elements.util.DatagramWriter;
 
@@ -50,7 +53,9 @@ public enum CipherSuite {
 	TLS_PSK_WITH_AES_128_CBC_SHA256(0x00AE, KeyExchangeAlgorithm.PSK, Cipher.AES_128_CBC, MACAlgorithm.HMAC_SHA256),
 	TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256(0xC023, KeyExchangeAlgorithm.EC_DIFFIE_HELLMAN, Cipher.AES_128_CBC, MACAlgorithm.HMAC_SHA256),
 	TLS_PSK_WITH_AES_128_CCM_8(0xC0A8, KeyExchangeAlgorithm.PSK, Cipher.AES_128_CCM_8, MACAlgorithm.NULL),
-	TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8(0xC0AE, KeyExchangeAlgorithm.EC_DIFFIE_HELLMAN, Cipher.AES_128_CCM_8, MACAlgorithm.NULL);
+	TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8(0xC0AE, KeyExchangeAlgorithm.EC_DIFFIE_HELLMAN, Cipher.AES_128_CCM_8, MACAlgorithm.NULL),
+	TLS_PSK_WITH_AES_128_GCM_SHA256(0x00A8, KeyExchangeAlgorithm.PSK, Cipher.AES_128_GCM, MACAlgorithm.NULL),
+	TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256(0xC02B, KeyExchangeAlgorithm.EC_DIFFIE_HELLMAN, Cipher.AES_128_GCM, MACAlgorithm.NULL);
 
 	// DTLS-specific constants ////////////////////////////////////////
 
@@ -253,6 +258,39 @@ public enum CipherSuite {
 		return cipher.getKeyLength();
 	}
 
+	/**
+	 * Checks whether the JVM supports the cipher suite's bulk cipher
+	 * algorithm.
+	 * <p>
+	 * The GCM based cipher suites require a JVM providing the
+	 * <em>AES/GCM/NoPadding</em> transformation, e.g. Java 8.
+	 * 
+	 * @return <code>true</code> if the cipher algorithm is supported
+	 */
+	public boolean isSupported() {
+		return cipher.isSupported();
+	}
+
+	/**
+	 * Creates the cipher for AEAD based cipher suites.
+	 * 
+	 * @param key the encryption key
+	 * @return the cipher initialized with the key
+	 * @throws GeneralSecurityException if the cipher cannot be created, e.g.
+	 *            because the JVM does not support the cipher algorithm
+	 * @throws IllegalStateException if the cipher suite is not AEAD based
+	 */
+	public AeadCipher createAeadCipher(SecretKey key) throws GeneralSecurityException {
+		switch (cipher) {
+		case AES_128_CCM_8:
+			return new CCMCipher(key, cipher.getCiphertextExpansion());
+		case AES_128_GCM:
+			return new GCMCipher(key, cipher.getCiphertextExpansion());
+		default:
+			throw new IllegalStateException("Cipher suite " + name() + " is not AEAD based");
+		}
+	}
+
 	/**
 	 * Gets a cipher suite by its numeric code.
 	 * 
@@ -392,7 +430,8 @@ public enum CipherSuite {
 		B_3DES_EDE_CBC("DESede/CBC/NoPadding", CipherType.BLOCK, 24, 4, 8), // don't know
 		AES_128_CBC("AES/CBC/NoPadding", CipherType.BLOCK, 16, 4, 16), // http://www.ietf.org/mail-archive/web/tls/current/msg08445.html
 		AES_256_CBC("AES/CBC/NoPadding", CipherType.BLOCK, 32, 4, 16),
-		AES_128_CCM_8("CCM", CipherType.AEAD, 16, 4, 8, 8); // explicit nonce (record IV) length = 8
+		AES_128_CCM_8("CCM", CipherType.AEAD, 16, 4, 8, 8), // explicit nonce (record IV) length = 8
+		AES_128_GCM(GCMCipher.CIPHER_NAME, CipherType.AEAD, 16, 4, 8, 16); // http://tools.ietf.org/html/rfc5288#section-3
 
 		/**
 		 * The <em>transformation</em> string of the corresponding Java Cryptography Architecture
@@ -405,6 +444,7 @@ public enum CipherSuite {
 		private int recordIvLength;
 		private CipherType type;
 		private int ciphertextExpansion;
+		private Boolean supported;
 
 
 		private Cipher(String transformation, CipherType type, int keyLength, int fixedIvLength, int recordIvLength) {
@@ -464,6 +504,14 @@ public enum CipherSuite {
 		private int getCiphertextExpansion() {
 			return ciphertextExpansion;
 		}
+
+		private boolean isSupported() {
+			if (supported == null) {
+				// only GCM depends on the JVM, the other ciphers are always available
+				supported = this != AES_128_GCM || GCMCipher.isSupported();
+			}
+			return supported;
+		}
 	}
 
 	public enum KeyExchangeAlgorithm {
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.cipher;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.eclipse.californium.elements.util.NamedThreadFactory;
+import org.eclipse.californium.scandium.dtls.cipher.ECDHECryptography.SupportedGroup;
+
+/**
+ * A pool of pre-generated ephemeral ECDH key pairs.
+ * <p>
+ * Generating a key pair is one of the most expensive steps of a full ECDHE
+ * handshake. While started, the pool generates key pairs in the background,
+ * at a limited rate, for each group a key pair has been requested for. A
+ * handshake then only takes a key pair from the pool and generates it only
+ * if the pool is exhausted.
+ * <p>
+ * Each key pair is handed out at most once.
+ */
+public final class EphemeralKeyPool {
+
+	private static final Logger LOGGER = Logger.getLogger(EphemeralKeyPool.class.getName());
+
+	private final ConcurrentMap<SupportedGroup, BlockingQueue<ECDHECryptography>> pools = new ConcurrentHashMap<>();
+	private final int size;
+	private final int refillRate;
+	private ScheduledExecutorService refiller;
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param size the maximum number of key pairs kept per group
+	 * @param refillRate the maximum number of key pairs generated per second
+	 * @throws IllegalArgumentException if size or rate is &lt; 1
+	 */
+	public EphemeralKeyPool(final int size, final int refillRate) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1");
+		} else if (refillRate < 1) {
+			throw new IllegalArgumentException("Refill rate must be at least 1");
+		}
+		this.size = size;
+		this.refillRate = refillRate;
+	}
+
+	/**
+	 * Starts generating key pairs in the background.
+	 */
+	public synchronized void start() {
+		if (refiller == null) {
+			refiller = Executors.newSingleThreadScheduledExecutor(
+					new DaemonThreadFactory("DTLS EphemeralKeys-", NamedThreadFactory.SCANDIUM_THREAD_GROUP));
+			refiller.scheduleAtFixedRate(new Runnable() {
+
+				@Override
+				public void run() {
+					refill();
+				}
+			}, 0, TimeUnit.SECONDS.toNanos(1) / refillRate, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Stops generating key pairs.
+	 * <p>
+	 * The pooled key pairs are discarded.
+	 */
+	public synchronized void stop() {
+		if (refiller != null) {
+			refiller.shutdownNow();
+			refiller = null;
+		}
+		for (BlockingQueue<ECDHECryptography> pool : pools.values()) {
+			pool.clear();
+		}
+	}
+
+	/**
+	 * Takes a key pair for a group.
+	 * <p>
+	 * The key pair is removed from the pool. If the pool has no key pair for
+	 * the group, it is generated by the calling thread.
+	 *
+	 * @param group the group
+	 * @return the key pair
+	 * @throws GeneralSecurityException if the key pair cannot be generated
+	 */
+	public ECDHECryptography take(final SupportedGroup group) throws GeneralSecurityException {
+		ECDHECryptography keys = getPool(group).poll();
+		if (keys == null) {
+			LOGGER.log(Level.FINER, "No pre-generated key pair for group [{0}] available", group);
+			keys = new ECDHECryptography(group.getEcParams());
+		}
+		return keys;
+	}
+
+	/**
+	 * Gets the number of available key pairs for a group.
+	 *
+	 * @param group the group
+	 * @return the number of key pairs
+	 */
+	public int available(final SupportedGroup group) {
+		BlockingQueue<ECDHECryptography> pool = pools.get(group);
+		return pool == null ? 0 : pool.size();
+	}
+
+	private BlockingQueue<ECDHECryptography> getPool(final SupportedGroup group) {
+		BlockingQueue<ECDHECryptography> pool = pools.get(group);
+		if (pool == null) {
+			BlockingQueue<ECDHECryptography> newPool = new ArrayBlockingQueue<>(size);
+			pool = pools.putIfAbsent(group, newPool);
+			if (pool == null) {
+				pool = newPool;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Generates a key pair for the group with the fewest pooled key pairs.
+	 */
+	void refill() {
+		SupportedGroup group = null;
+		int available = size;
+		for (SupportedGroup candidate : pools.keySet()) {
+			int candidateAvailable = available(candidate);
+			if (candidateAvailable < available) {
+				group = candidate;
+				available = candidateAvailable;
+			}
+		}
+		if (group != null) {
+			try {
+				pools.get(group).offer(new ECDHECryptography(group.getEcParams()));
+			} catch (GeneralSecurityException e) {
+				LOGGER.log(Level.WARNING, "Cannot generate key pair for group " + group, e);
+				pools.remove(group);
+			}
+		}
+	}
+}
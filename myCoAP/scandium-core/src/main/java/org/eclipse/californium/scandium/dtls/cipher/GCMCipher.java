@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.cipher;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The Galois/Counter Mode of the 128-bit block cipher AES bound to a single
+ * key. See <a href="http://tools.ietf.org/html/rfc5288">RFC 5288</a> for
+ * details.
+ * <p>
+ * The cipher is provided by the JVM's <em>AES/GCM/NoPadding</em>
+ * transformation, which is usually backed by hardware instructions. The
+ * same {@link Cipher} instance is re-initialized with the key for every
+ * message, because GCM doesn't permit re-using a nonce without a new
+ * initialization. The provider then doesn't need to expand the unchanged key
+ * again.
+ * <p>
+ * Instances are thread safe, concurrent calls are serialized.
+ */
+public final class GCMCipher implements AeadCipher {
+
+	/**
+	 * The transformation of the underlying cipher.
+	 */
+	public static final String CIPHER_NAME = "AES/GCM/NoPadding";
+
+	private static final String KEY_TYPE = "AES";
+
+	private final Cipher cipher;
+	private final SecretKeySpec keySpec;
+	private final int numAuthenticationBytes;
+
+	/**
+	 * Creates a cipher for a key.
+	 *
+	 * @param key the encryption key K.
+	 * @param numAuthenticationBytes Number of octets in authentication field.
+	 * @throws GeneralSecurityException if the JVM does not support the AES GCM
+	 *             cipher algorithm
+	 */
+	public GCMCipher(final SecretKey key, final int numAuthenticationBytes) throws GeneralSecurityException {
+		this.keySpec = new SecretKeySpec(key.getEncoded(), KEY_TYPE);
+		this.cipher = Cipher.getInstance(CIPHER_NAME);
+		this.numAuthenticationBytes = numAuthenticationBytes;
+	}
+
+	/**
+	 * Checks, if the JVM supports the AES GCM cipher algorithm.
+	 *
+	 * @return {@code true}, if the cipher algorithm is supported
+	 */
+	public static boolean isSupported() {
+		try {
+			Cipher.getInstance(CIPHER_NAME);
+			return true;
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public int getNumAuthenticationBytes() {
+		return numAuthenticationBytes;
+	}
+
+	@Override
+	public synchronized int encrypt(final byte[] nonce, final byte[] a, final byte[] m, final int mOffset,
+			final int mLength, final byte[] out, final int outOffset) throws GeneralSecurityException {
+		cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(numAuthenticationBytes * 8, nonce));
+		cipher.updateAAD(a);
+		return cipher.doFinal(m, mOffset, mLength, out, outOffset);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws javax.crypto.AEADBadTagException if the message could not be
+	 *             authenticated
+	 */
+	@Override
+	public synchronized byte[] decrypt(final byte[] nonce, final byte[] a, final byte[] c, final int cOffset,
+			final int cLength) throws GeneralSecurityException {
+		if (cLength < numAuthenticationBytes) {
+			throw new GeneralSecurityException("Ciphertext too short for authentication field");
+		}
+		cipher.init(Cipher.DECRYPT_MODE, keySpec, new GCMParameterSpec(numAuthenticationBytes * 8, nonce));
+		cipher.updateAAD(a);
+		return cipher.doFinal(c, cOffset, cLength);
+	}
+}
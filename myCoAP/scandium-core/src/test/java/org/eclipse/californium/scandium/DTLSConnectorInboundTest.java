@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium;
+
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.elements.RawDataChannel;
+import org.eclipse.californium.scandium.category.Medium;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.ApplicationMessage;
+import org.eclipse.californium.scandium.dtls.Connection;
+import org.eclipse.californium.scandium.dtls.ContentType;
+import org.eclipse.californium.scandium.dtls.DTLSSession;
+import org.eclipse.californium.scandium.dtls.DTLSSessionTest;
+import org.eclipse.californium.scandium.dtls.InMemoryConnectionStore;
+import org.eclipse.californium.scandium.dtls.Record;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.eclipse.californium.scandium.dtls.pskstore.StaticPskStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies how the {@link DTLSConnector} receives datagrams.
+ * <p>
+ * A plain UDP socket sends records to the connector, which has the session
+ * of the socket in its connection store, so no handshake is required.
+ */
+@Category(Medium.class)
+public class DTLSConnectorInboundTest {
+
+	private static final int RECEIVER_THREADS = 4;
+	private static final int MESSAGES = 2000;
+
+	DatagramSocket peer;
+	InetSocketAddress peerAddress;
+	DTLSSession session;
+	DTLSConnector connector;
+	InetSocketAddress connectorAddress;
+	List<Integer> received = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		peer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		peerAddress = new InetSocketAddress(peer.getLocalAddress(), peer.getLocalPort());
+		session = DTLSSessionTest.newEstablishedServerSession(peerAddress, CipherSuite.TLS_PSK_WITH_AES_128_CCM_8, false);
+		Connection connection = new Connection(peerAddress);
+		connection.sessionEstablished(null, session);
+		InMemoryConnectionStore connectionStore = new InMemoryConnectionStore(10, 60);
+		connectionStore.put(connection);
+
+		DtlsConnectorConfig config = new DtlsConnectorConfig.Builder(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+				.setPskStore(new StaticPskStore("client", "secret".getBytes()))
+				.setReceiverThreadCount(RECEIVER_THREADS)
+				.build();
+		connector = new DTLSConnector(config, connectionStore);
+		connector.setRawDataReceiver(new RawDataChannel() {
+
+			@Override
+			public void receiveData(RawData raw) {
+				synchronized (received) {
+					received.add(ByteBuffer.wrap(raw.getBytes()).getInt());
+					received.notifyAll();
+				}
+			}
+		});
+		connector.start();
+		connectorAddress = connector.getAddress();
+	}
+
+	@After
+	public void tearDown() {
+		connector.destroy();
+		peer.close();
+	}
+
+	@Test
+	public void testMultipleReceiversKeepOrderOfPeer() throws Exception {
+		// GIVEN a connector with several receiver threads
+
+		// WHEN a peer sends many datagrams in a row
+		for (int index = 0; index < MESSAGES; index++) {
+			byte[] payload = ByteBuffer.allocate(4).putInt(index).array();
+			Record record = new Record(ContentType.APPLICATION_DATA, session.getWriteEpoch(), session.getSequenceNumber(),
+					new ApplicationMessage(payload, peerAddress), session);
+			byte[] datagram = record.toByteArray();
+			peer.send(new DatagramPacket(datagram, datagram.length, connectorAddress));
+			if (index % 100 == 99) {
+				// don't overrun the socket's receive buffer
+				Thread.sleep(5);
+			}
+		}
+
+		// THEN the messages are delivered in the order they have been sent
+		List<Integer> messages = awaitMessages(MESSAGES);
+		assertTrue("only " + messages.size() + " messages received", messages.size() > MESSAGES / 2);
+		for (int index = 1; index < messages.size(); index++) {
+			assertTrue("message " + messages.get(index) + " received after " + messages.get(index - 1),
+					messages.get(index) > messages.get(index - 1));
+		}
+	}
+
+	/**
+	 * Waits for the messages, until either all have been received or no more
+	 * messages are received for a while. Datagrams may be dropped.
+	 */
+	private List<Integer> awaitMessages(int count) throws InterruptedException {
+		synchronized (received) {
+			int size = -1;
+			while (received.size() < count && received.size() > size) {
+				size = received.size();
+				received.wait(500);
+			}
+			return new ArrayList<>(received);
+		}
+	}
+}
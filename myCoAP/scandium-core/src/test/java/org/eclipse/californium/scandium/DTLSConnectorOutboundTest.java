@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.elements.CorrelationContext;
+import org.eclipse.californium.elements.MessageCallback;
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.scandium.category.Medium;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.Connection;
+import org.eclipse.californium.scandium.dtls.DTLSSession;
+import org.eclipse.californium.scandium.dtls.DTLSSessionTest;
+import org.eclipse.californium.scandium.dtls.InMemoryConnectionStore;
+import org.eclipse.californium.scandium.dtls.Record;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.eclipse.californium.scandium.dtls.pskstore.StaticPskStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies how the {@link DTLSConnector} packs the records of outbound
+ * application messages into datagrams.
+ * <p>
+ * The connector sends to a plain UDP socket, for which a session has been put
+ * into the connector's connection store, so the datagrams can be inspected
+ * without a handshake.
+ */
+@Category(Medium.class)
+public class DTLSConnectorOutboundTest {
+
+	private static final int OUTBOUND_BUFFER_SIZE = 8;
+	private static final int SILENCE_MILLIS = 500;
+
+	DatagramSocket peer;
+	InetSocketAddress peerAddress;
+	DTLSSession session;
+	DTLSConnector connector;
+
+	@Before
+	public void setUp() throws Exception {
+		peer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		peerAddress = new InetSocketAddress(peer.getLocalAddress(), peer.getLocalPort());
+		session = DTLSSessionTest.newEstablishedServerSession(peerAddress, CipherSuite.TLS_PSK_WITH_AES_128_CCM_8, false);
+		Connection connection = new Connection(peerAddress);
+		connection.sessionEstablished(null, session);
+		InMemoryConnectionStore connectionStore = new InMemoryConnectionStore(10, 60);
+		connectionStore.put(connection);
+
+		DtlsConnectorConfig config = new DtlsConnectorConfig.Builder(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+				.setPskStore(new StaticPskStore("client", "secret".getBytes()))
+				.setOutboundMessageBufferSize(OUTBOUND_BUFFER_SIZE)
+				.build();
+		connector = new DTLSConnector(config, connectionStore);
+		connector.start();
+	}
+
+	@After
+	public void tearDown() {
+		connector.destroy();
+		peer.close();
+	}
+
+	@Test
+	public void testQueuedMessagesArePackedIntoOneDatagram() throws Exception {
+		// GIVEN a message, which blocks the peer's outbound queue while being sent
+		BlockingCallback blocking = sendBlocking();
+
+		// WHEN further messages are queued meanwhile
+		for (int i = 0; i < OUTBOUND_BUFFER_SIZE; i++) {
+			connector.send(RawData.outbound(new byte[10], peerAddress, null, false));
+		}
+		blocking.release.countDown();
+
+		// THEN the first message is sent on its own, and the queued ones share one datagram
+		List<List<Record>> datagrams = receiveDatagrams();
+		assertThat(datagrams.size(), is(2));
+		assertThat(datagrams.get(0).size(), is(1));
+		assertThat(datagrams.get(1).size(), is(OUTBOUND_BUFFER_SIZE));
+		assertSequenceNumbersInOrder(datagrams);
+	}
+
+	@Test
+	public void testPackedDatagramsDoNotExceedMaxDatagramSize() throws Exception {
+		// GIVEN messages, of which only two fit into one datagram
+		int maxDatagramSize = session.getMaxDatagramSize();
+		int messageSize = maxDatagramSize / 3;
+
+		// WHEN they are queued while the peer's outbound queue is blocked
+		BlockingCallback blocking = sendBlocking();
+		for (int i = 0; i < OUTBOUND_BUFFER_SIZE; i++) {
+			connector.send(RawData.outbound(new byte[messageSize], peerAddress, null, false));
+		}
+		blocking.release.countDown();
+
+		// THEN they are packed into datagrams not exceeding the session's max. datagram size
+		List<byte[]> datagrams = new ArrayList<>();
+		List<List<Record>> records = receiveDatagrams(datagrams);
+		assertThat(datagrams.size(), is(1 + OUTBOUND_BUFFER_SIZE / 2));
+		for (int i = 1; i < datagrams.size(); i++) {
+			assertTrue(datagrams.get(i).length <= maxDatagramSize);
+			assertThat(records.get(i).size(), is(2));
+		}
+		assertSequenceNumbersInOrder(records);
+	}
+
+	@Test
+	public void testOutboundMessageBufferIsReleasedOncePerMessage() throws Exception {
+		for (int round = 0; round < 3; round++) {
+			// GIVEN a blocked outbound queue
+			BlockingCallback blocking = sendBlocking();
+
+			// WHEN more messages are sent than the outbound message buffer can take
+			for (int i = 0; i < 2 * OUTBOUND_BUFFER_SIZE; i++) {
+				connector.send(RawData.outbound(new byte[10], peerAddress, null, false));
+			}
+			blocking.release.countDown();
+
+			// THEN only the buffered ones are sent, in each round
+			int records = 0;
+			for (List<Record> datagram : receiveDatagrams()) {
+				records += datagram.size();
+			}
+			assertThat("round " + round, records, is(1 + OUTBOUND_BUFFER_SIZE));
+		}
+	}
+
+	private BlockingCallback sendBlocking() throws InterruptedException {
+		BlockingCallback callback = new BlockingCallback();
+		connector.send(RawData.outbound(new byte[10], peerAddress, callback, false));
+		assertTrue(callback.started.await(2, TimeUnit.SECONDS));
+		return callback;
+	}
+
+	private List<List<Record>> receiveDatagrams() throws Exception {
+		return receiveDatagrams(new ArrayList<byte[]>());
+	}
+
+	/**
+	 * Receives datagrams until the peer doesn't receive anything for a while.
+	 */
+	private List<List<Record>> receiveDatagrams(List<byte[]> datagrams) throws Exception {
+		List<List<Record>> result = new ArrayList<>();
+		byte[] buffer = new byte[2048];
+		peer.setSoTimeout(SILENCE_MILLIS);
+		try {
+			while (true) {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				peer.receive(packet);
+				byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
+				datagrams.add(data);
+				result.add(Record.fromByteArray(data, peerAddress));
+			}
+		} catch (SocketTimeoutException e) {
+			return result;
+		}
+	}
+
+	private static void assertSequenceNumbersInOrder(List<List<Record>> datagrams) {
+		long previous = -1;
+		for (List<Record> records : datagrams) {
+			for (Record record : records) {
+				assertThat(record.getSequenceNumber(), is(previous + 1));
+				previous = record.getSequenceNumber();
+			}
+		}
+	}
+
+	private static class BlockingCallback implements MessageCallback {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void onContextEstablished(CorrelationContext context) {
+			started.countDown();
+			try {
+				release.await(2, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import eu.javaspecialists.tjsn.concurrency.stripedexecutor.StripedExecutorService;
+
+/**
+ * Verifies behavior of {@link PeerTaskDispatcher}.
+ */
+@Category(Small.class)
+public class PeerTaskDispatcherTest {
+
+	private static final int CAPACITY = 4;
+	/** datagrams with this value block processing until released */
+	private static final byte BLOCKING = 1;
+	/** the value recorded for executed tasks */
+	private static final int TASK = -1;
+
+	StripedExecutorService executor;
+	StripedExecutorService handshakeExecutor;
+	RecordingProcessor processor;
+	PeerTaskDispatcher dispatcher;
+
+	@Before
+	public void setUp() {
+		executor = new StripedExecutorService(2);
+		handshakeExecutor = new StripedExecutorService(1);
+		processor = new RecordingProcessor();
+		dispatcher = new PeerTaskDispatcher(executor, handshakeExecutor, CAPACITY, processor);
+	}
+
+	@After
+	public void tearDown() {
+		processor.release.countDown();
+		executor.shutdownNow();
+		handshakeExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testDatagramsOfPeerStayWithHandshakeExecutorUntilProcessed() throws Exception {
+		// GIVEN a handshake datagram of a peer, which is currently processed
+		InetSocketAddress peer = newPeer(1);
+		dispatcher.dispatch(new byte[] { 1 }, peer, true, true);
+		assertTrue(processor.started.await(2, TimeUnit.SECONDS));
+
+		// WHEN a datagram of the peer's established session is received meanwhile
+		dispatcher.dispatch(new byte[] { 2 }, peer, false, false);
+
+		// THEN it is not processed before the handshake datagram
+		Thread.sleep(100);
+		assertTrue(processor.getProcessed().isEmpty());
+		processor.release.countDown();
+		// but afterwards by the same thread
+		processor.awaitProcessed(2);
+		assertThat(processor.getProcessed(), is(Arrays.asList(1, 2)));
+		assertThat(processor.threads.get(1), is(sameInstance(processor.threads.get(0))));
+		assertPendingHandshakeDatagrams(0);
+	}
+
+	@Test
+	public void testNewHandshakesAreLimitedToHalfOfCapacity() throws Exception {
+		// GIVEN a blocked handshake executor
+		assertTrue(dispatcher.dispatch(new byte[] { 1 }, newPeer(1), true, true));
+		assertTrue(processor.started.await(2, TimeUnit.SECONDS));
+
+		// WHEN further peers start new handshakes
+		assertTrue(dispatcher.dispatch(new byte[] { 2 }, newPeer(2), true, true));
+		// THEN they are discarded once half of the capacity is used
+		assertFalse(dispatcher.dispatch(new byte[] { 3 }, newPeer(3), true, true));
+
+		// WHEN peers with ongoing handshakes send datagrams
+		assertTrue(dispatcher.dispatch(new byte[] { 4 }, newPeer(4), true, false));
+		assertTrue(dispatcher.dispatch(new byte[] { 5 }, newPeer(5), true, false));
+		// THEN they are discarded once the capacity is used
+		assertFalse(dispatcher.dispatch(new byte[] { 6 }, newPeer(6), true, false));
+		assertThat(dispatcher.getPendingHandshakeDatagrams(), is(CAPACITY));
+
+		// WHEN the handshake executor continues
+		processor.release.countDown();
+
+		// THEN the admitted datagrams are processed and the capacity is available again
+		processor.awaitProcessed(4);
+		assertThat(processor.getProcessed().size(), is(4));
+		assertPendingHandshakeDatagrams(0);
+		assertTrue(dispatcher.dispatch(new byte[] { 7 }, newPeer(7), true, true));
+	}
+
+	@Test
+	public void testEstablishedSessionsAreNotLimited() throws Exception {
+		// GIVEN a blocked handshake executor at its capacity
+		for (int i = 0; i < CAPACITY; i++) {
+			assertTrue(dispatcher.dispatch(new byte[] { 1 }, newPeer(i), true, false));
+		}
+
+		// WHEN a datagram of an established session is received
+		boolean dispatched = dispatcher.dispatch(new byte[] { 2 }, newPeer(CAPACITY), false, false);
+
+		// THEN it is processed by the executor meanwhile
+		assertTrue(dispatched);
+		processor.awaitProcessed(1);
+		assertThat(processor.getProcessed(), is(Arrays.asList(2)));
+	}
+
+	@Test
+	public void testRetransmissionWaitsForInboundDatagramOfPeer() throws Exception {
+		// GIVEN a datagram of a peer's established session, which is currently processed
+		InetSocketAddress peer = newPeer(1);
+		dispatcher.dispatch(new byte[] { 1 }, peer, false, false);
+		assertTrue(processor.started.await(2, TimeUnit.SECONDS));
+
+		// WHEN the retransmission of a flight to the peer is due meanwhile
+		dispatcher.execute(processor.newTask(), peer, true);
+
+		// THEN it is not executed concurrently by the handshake executor
+		Thread.sleep(100);
+		assertTrue(processor.getProcessed().isEmpty());
+		processor.release.countDown();
+		// but afterwards by the same thread
+		processor.awaitProcessed(2);
+		assertThat(processor.getProcessed(), is(Arrays.asList(1, TASK)));
+		assertThat(getPool(processor.threads.get(1)), is(getPool(processor.threads.get(0))));
+		assertFalse(processor.concurrent);
+	}
+
+	@Test
+	public void testRetransmissionRacingInboundFlightIsNeverExecutedConcurrently() throws Exception {
+		// GIVEN a peer sending its flights while the flights sent to it are retransmitted
+		processor.release.countDown();
+		final InetSocketAddress peer = newPeer(1);
+		final int count = 200;
+		Thread retransmitter = new Thread() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					dispatcher.execute(processor.newTask(), peer, i % 2 == 0);
+				}
+			}
+		};
+
+		// WHEN both are dispatched at the same time, by alternating executors
+		retransmitter.start();
+		int dispatched = 0;
+		for (int i = 0; i < count; i++) {
+			if (dispatcher.dispatch(new byte[] { 2 }, peer, i % 2 == 1, false)) {
+				dispatched++;
+			}
+		}
+		retransmitter.join();
+
+		// THEN all retransmissions are executed, but never concurrently with the peer's datagrams
+		processor.awaitProcessed(count + dispatched);
+		Thread.sleep(100);
+		assertThat(processor.getProcessed().size(), is(count + dispatched));
+		assertFalse(processor.concurrent);
+		assertPendingHandshakeDatagrams(0);
+	}
+
+	private void assertPendingHandshakeDatagrams(int expected) throws InterruptedException {
+		// the counter is decremented after the datagram has been processed
+		long end = System.currentTimeMillis() + 2000;
+		while (dispatcher.getPendingHandshakeDatagrams() != expected && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertThat(dispatcher.getPendingHandshakeDatagrams(), is(expected));
+	}
+
+	private static String getPool(Thread thread) {
+		// the executors' threads are named pool-<pool number>-thread-<thread number>
+		return thread.getName().substring(0, thread.getName().lastIndexOf('-'));
+	}
+
+	private static InetSocketAddress newPeer(int index) {
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), 10000 + index);
+	}
+
+	private class RecordingProcessor implements PeerTaskDispatcher.DatagramProcessor {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final List<Integer> processed = new ArrayList<>();
+		private final List<Thread> threads = new ArrayList<>();
+
+		private final AtomicInteger active = new AtomicInteger();
+		private volatile boolean concurrent;
+
+		@Override
+		public void process(byte[] data, InetSocketAddress peerAddress) {
+			record(data[0]);
+		}
+
+		private Runnable newTask() {
+			return new Runnable() {
+
+				@Override
+				public void run() {
+					record(TASK);
+				}
+			};
+		}
+
+		private void record(int value) {
+			if (active.incrementAndGet() > 1) {
+				concurrent = true;
+			}
+			try {
+				if (value == BLOCKING) {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				synchronized (this) {
+					processed.add(value);
+					threads.add(Thread.currentThread());
+					notifyAll();
+				}
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+
+		private synchronized List<Integer> getProcessed() {
+			return new ArrayList<>(processed);
+		}
+
+		private synchronized void awaitProcessed(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 2000;
+			while (processed.size() < count) {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0) {
+					fail("only " + processed.size() + " of " + count + " datagrams processed");
+				}
+				wait(wait);
+			}
+		}
+	}
+}
@@ -62,6 +62,24 @@ public class DtlsConnectorConfigTest {
 		builder.setSupportedCipherSuites(new CipherSuite[]{});
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetHandshakeThreadCountRejectsNegativeCount() {
+		builder.setHandshakeThreadCount(-1);
+	}
+
+	@Test
+	public void testSetHandshakeThreadCountAcceptsZero() {
+		DtlsConnectorConfig config = builder.setPskStore(new StaticPskStore("ID", "KEY".getBytes()))
+				.setHandshakeThreadCount(0).build();
+		assertThat(config.getHandshakeThreadCount(), is(0));
+	}
+
+	@Test
+	public void testHandshakeExecutorIsDisabledByDefault() {
+		DtlsConnectorConfig config = builder.setPskStore(new StaticPskStore("ID", "KEY".getBytes())).build();
+		assertThat(config.getHandshakeThreadCount(), is(0));
+	}
+
 	@Test(expected = IllegalStateException.class)
 	public void testBuilderFailsWithDefaultConfiguration() {
 		builder.build();
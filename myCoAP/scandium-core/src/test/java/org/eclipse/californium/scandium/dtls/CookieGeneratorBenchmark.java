@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+
+/**
+ * Measures how many CLIENT_HELLOs per second can be checked for a valid
+ * cookie.
+ * <p>
+ * Each CLIENT_HELLO of a flood without a cookie is answered with a
+ * HELLO_VERIFY_REQUEST containing the expected cookie. The benchmark
+ * compares the {@link CookieGenerator} with computing the cookie using a new
+ * HMAC per message and a lock guarded key, as the DTLSConnector did before.
+ * <p>
+ * Usage: <code>CookieGeneratorBenchmark [threads] [seconds]</code>
+ */
+public final class CookieGeneratorBenchmark {
+
+	private static final int PEERS = 1024;
+
+	private CookieGeneratorBenchmark() {
+	}
+
+	public static void main(final String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		final ClientHello[] clientHellos = new ClientHello[PEERS];
+		for (int index = 0; index < PEERS; index++) {
+			InetAddress address = InetAddress.getByAddress(new byte[]{10, 0, (byte) (index >> 8), (byte) index});
+			clientHellos[index] = CookieGeneratorTest.newClientHello(new InetSocketAddress(address, 5684));
+		}
+
+		final CookieGenerator generator = new CookieGenerator();
+		final LegacyCookieGenerator legacy = new LegacyCookieGenerator();
+		for (int round = 0; round < 2; round++) {
+			// the first round warms up the JIT
+			report("HMAC per message", run(threads, seconds, clientHellos, new Verifier() {
+
+				@Override
+				public void verify(final ClientHello clientHello) throws GeneralSecurityException {
+					// the expected cookie is also sent with the HELLO_VERIFY_REQUEST
+					MessageDigest.isEqual(legacy.generateCookie(clientHello), clientHello.getCookie());
+				}
+			}), seconds);
+			report("CookieGenerator", run(threads, seconds, clientHellos, new Verifier() {
+
+				@Override
+				public void verify(final ClientHello clientHello) throws GeneralSecurityException {
+					generator.verifyCookie(clientHello);
+				}
+			}), seconds);
+		}
+	}
+
+	private static void report(final String name, final long count, final int seconds) {
+		System.out.println(String.format("%-20s %,12d ClientHellos/s", name, count / seconds));
+	}
+
+	private static long run(final int threads, final int seconds, final ClientHello[] clientHellos,
+			final Verifier verifier) throws InterruptedException {
+		final AtomicLong count = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		for (int thread = 0; thread < threads; thread++) {
+			final int offset = thread;
+			new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					long local = 0;
+					try {
+						for (int index = offset; System.nanoTime() < end; index++) {
+							verifier.verify(clientHellos[index % PEERS]);
+							++local;
+						}
+					} catch (GeneralSecurityException e) {
+						e.printStackTrace();
+					} finally {
+						count.addAndGet(local);
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		return count.get();
+	}
+
+	private interface Verifier {
+
+		void verify(ClientHello clientHello) throws GeneralSecurityException;
+	}
+
+	/**
+	 * The cookie computation formerly done by the DTLSConnector.
+	 */
+	private static final class LegacyCookieGenerator {
+
+		private final Object lock = new Object();
+		private final SecretKey key;
+
+		private LegacyCookieGenerator() {
+			byte[] secret = new byte[32];
+			new SecureRandom().nextBytes(secret);
+			key = new SecretKeySpec(secret, "MAC");
+		}
+
+		private SecretKey getKey() {
+			synchronized (lock) {
+				return key;
+			}
+		}
+
+		private byte[] generateCookie(final ClientHello clientHello) throws GeneralSecurityException {
+			Mac hmac = Mac.getInstance("HmacSHA256");
+			hmac.init(getKey());
+			hmac.update(clientHello.getPeer().toString().getBytes());
+			hmac.update((byte) clientHello.getClientVersion().getMajor());
+			hmac.update((byte) clientHello.getClientVersion().getMinor());
+			hmac.update(clientHello.getRandom().getRandomBytes());
+			hmac.update(clientHello.getSessionId().getId());
+			hmac.update(CipherSuite.listToByteArray(clientHello.getCipherSuites()));
+			hmac.update(CompressionMethod.listToByteArray(clientHello.getCompressionMethods()));
+			return hmac.doFinal();
+		}
+	}
+}
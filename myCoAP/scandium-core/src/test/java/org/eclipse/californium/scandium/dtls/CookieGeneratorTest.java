@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(Small.class)
+public class CookieGeneratorTest {
+
+	CookieGenerator generator;
+	ClientHello clientHello;
+
+	@Before
+	public void setUp() throws Exception {
+		generator = new CookieGenerator(1, TimeUnit.HOURS);
+		clientHello = newClientHello(new InetSocketAddress(InetAddress.getLoopbackAddress(), 5684));
+	}
+
+	@Test
+	public void testIsValidCookieAcceptsGeneratedCookie() throws Exception {
+		// GIVEN a client hello containing the generated cookie
+		clientHello.setCookie(generator.generateCookie(clientHello));
+
+		// THEN assert that the cookie is valid
+		assertTrue(generator.isValidCookie(clientHello));
+	}
+
+	@Test
+	public void testIsValidCookieRejectsMissingCookie() throws Exception {
+		assertFalse(generator.isValidCookie(clientHello));
+	}
+
+	@Test
+	public void testIsValidCookieRejectsCookieOfOtherPort() throws Exception {
+		// GIVEN a cookie generated for a client hello from another port
+		ClientHello other = newClientHello(new InetSocketAddress(InetAddress.getLoopbackAddress(), 5685));
+		clientHello.setCookie(generator.generateCookie(other));
+
+		// THEN assert that the cookie is not valid
+		assertFalse(generator.isValidCookie(clientHello));
+	}
+
+	@Test
+	public void testIsValidCookieAcceptsCookieOfPreviousKey() throws Exception {
+		// GIVEN a client hello containing a cookie
+		byte[] cookie = generator.generateCookie(clientHello);
+		clientHello.setCookie(cookie);
+
+		// WHEN the key is replaced
+		generator.rotateKeys();
+
+		// THEN assert that the cookie is still valid, but differs from new cookies
+		assertTrue(generator.isValidCookie(clientHello));
+		assertThat(generator.generateCookie(clientHello), is(not(cookie)));
+	}
+
+	@Test
+	public void testIsValidCookieRejectsCookieOfExpiredKey() throws Exception {
+		// GIVEN a client hello containing a cookie
+		clientHello.setCookie(generator.generateCookie(clientHello));
+
+		// WHEN the key is replaced twice
+		generator.rotateKeys();
+		generator.rotateKeys();
+
+		// THEN assert that the cookie is not valid anymore
+		assertFalse(generator.isValidCookie(clientHello));
+	}
+
+	@Test
+	public void testVerifyCookieProvidesCookieToSendForInvalidCookie() throws Exception {
+		// GIVEN a client hello without cookie
+		byte[] expected = generator.generateCookie(clientHello);
+
+		// THEN assert that the generated cookie is provided
+		assertThat(generator.verifyCookie(clientHello), is(expected));
+
+		// WHEN the client hello contains the provided cookie
+		clientHello.setCookie(expected);
+
+		// THEN assert that the cookie is accepted
+		assertThat(generator.verifyCookie(clientHello), is(nullValue()));
+	}
+
+	static ClientHello newClientHello(final InetSocketAddress peerAddress) {
+		ClientHello clientHello = new ClientHello(new ProtocolVersion(), new SecureRandom(), null, null, peerAddress);
+		clientHello.addCipherSuite(CipherSuite.TLS_PSK_WITH_AES_128_CCM_8);
+		clientHello.addCompressionMethod(CompressionMethod.NULL);
+		return clientHello;
+	}
+}
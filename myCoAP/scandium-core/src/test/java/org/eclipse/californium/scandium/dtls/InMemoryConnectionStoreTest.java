@@ -65,6 +65,48 @@ public class InMemoryConnectionStoreTest {
 		assertThat(connectionWithPeer, is(con));
 	}
 
+	@Test
+	public void testFindRetrievesConnectionOfEstablishedSession() throws Exception {
+		// GIVEN a connection store containing a connection without established session
+		Connection connection = new Connection(con.getPeerAddress());
+		store.put(connection);
+		assertThat(store.find(sessionId), is(nullValue()));
+
+		// WHEN a session is established as part of a successful handshake
+		connection.sessionEstablished(null, con.getEstablishedSession());
+		store.sessionEstablished(null, con.getEstablishedSession());
+
+		// THEN assert that the connection is found by its session ID
+		assertThat(store.find(sessionId), is(connection));
+	}
+
+	@Test
+	public void testFindDoesNotRetrieveRemovedConnection() throws Exception {
+		// GIVEN a connection store containing connections with peers
+		Connection other = newConnection(51L);
+		store.put(con);
+		store.put(other);
+
+		// WHEN removing one connection
+		store.remove(con.getPeerAddress());
+
+		// THEN assert that only the other connection is found by its session ID
+		assertThat(store.find(sessionId), is(nullValue()));
+		assertThat(store.find(other.getEstablishedSession().getSessionIdentifier()), is(other));
+	}
+
+	@Test
+	public void testFindDoesNotRetrieveReplacedConnection() throws Exception {
+		// GIVEN a connection store containing a connection with a peer
+		store.put(con);
+
+		// WHEN the peer starts a new handshake
+		store.put(new Connection(con.getPeerAddress()));
+
+		// THEN assert that the session of the replaced connection is not found
+		assertThat(store.find(sessionId), is(nullValue()));
+	}
+
 	@Test
 	public void testFindRetrievesSharedConnection() {
 
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@link MappedFileSessionCache}.
+ * <p>
+ * The file format is verified by the tests of {@code MappedRecordLog}.
+ */
+@Category(Small.class)
+public class MappedFileSessionCacheTest {
+
+	File file;
+	MappedFileSessionCache cache;
+	DTLSSession session;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("sessions", ".bin");
+		file.delete();
+		cache = new MappedFileSessionCache(file);
+		session = newSession(5684);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cache.close();
+		file.delete();
+	}
+
+	@Test
+	public void testGetRetrievesPutSession() {
+		// WHEN putting a session to the cache
+		cache.put(session);
+
+		// THEN assert that the session's ticket can be retrieved
+		assertTicketOf(session, cache.get(session.getSessionIdentifier()));
+	}
+
+	@Test
+	public void testSessionsSurviveRestart() throws Exception {
+		// GIVEN a cache containing two sessions, one of them removed afterwards
+		DTLSSession removed = newSession(5685);
+		cache.put(session);
+		cache.put(removed);
+		cache.remove(removed.getSessionIdentifier());
+
+		// WHEN the cache is loaded from the file again
+		cache.close();
+		cache = new MappedFileSessionCache(file);
+
+		// THEN assert that only the remaining session is contained
+		assertThat(cache.size(), is(1));
+		assertTicketOf(session, cache.get(session.getSessionIdentifier()));
+		assertThat(cache.get(removed.getSessionIdentifier()), is(nullValue()));
+	}
+
+	@Test
+	public void testPutRemovesEldestSessionIfFull() throws Exception {
+		// GIVEN a full cache
+		cache.close();
+		cache = new MappedFileSessionCache(file, 2);
+		DTLSSession second = newSession(5685);
+		DTLSSession third = newSession(5686);
+		cache.put(session);
+		cache.put(second);
+
+		// WHEN adding another session
+		cache.put(third);
+
+		// THEN assert that the eldest session has been removed
+		assertThat(cache.size(), is(2));
+		assertThat(cache.get(session.getSessionIdentifier()), is(nullValue()));
+		assertTicketOf(second, cache.get(second.getSessionIdentifier()));
+		assertTicketOf(third, cache.get(third.getSessionIdentifier()));
+	}
+
+	@Test
+	public void testConnectionStoreResumesSessionAfterRestart() throws Exception {
+		// GIVEN a connection store which has established a session
+		InMemoryConnectionStore store = new InMemoryConnectionStore(10, 1000, cache);
+		store.sessionEstablished(null, session);
+
+		// WHEN the process restarts with an empty connection store
+		cache.close();
+		cache = new MappedFileSessionCache(file);
+		store = new InMemoryConnectionStore(10, 1000, cache);
+
+		// THEN assert that the session can be resumed
+		Connection connection = store.find(session.getSessionIdentifier());
+		assertThat(connection, is(notNullValue()));
+		assertTicketOf(session, connection.getSessionTicket());
+	}
+
+	private static void assertTicketOf(final DTLSSession session, final SessionTicket ticket) {
+		assertThat(ticket, is(notNullValue()));
+		assertThat(ticket.getMasterSecret(), is(session.getMasterSecret()));
+		assertThat(ticket.getCipherSuite(), is(session.getWriteState().getCipherSuite()));
+	}
+
+	private static DTLSSession newSession(final int port) {
+		InetSocketAddress peerAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		return DTLSSessionTest.newEstablishedServerSession(peerAddress, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8, true);
+	}
+}
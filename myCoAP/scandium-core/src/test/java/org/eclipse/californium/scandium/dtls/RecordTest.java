@@ -28,7 +28,9 @@ import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -39,6 +41,7 @@ import org.eclipse.californium.scandium.dtls.cipher.CCMBlockCipher;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
 import org.eclipse.californium.scandium.util.ByteArrayUtils;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -127,6 +130,26 @@ public class RecordTest {
 		assertEquals(protocolVer.getMinor(), record.getVersion().getMinor());
 	}
 	
+	@Test
+	public void testWriteToPacksRecordsLikeToByteArray() throws GeneralSecurityException {
+		// GIVEN two records with a 48 bit sequence number
+		Record first = new Record(ContentType.HANDSHAKE, 1, DtlsTestTools.MAX_SEQUENCE_NO, new HelloRequest(session.getPeer()), session.getPeer());
+		Record second = new Record(ContentType.ALERT, 0, SEQUENCE_NO,
+				new AlertMessage(AlertMessage.AlertLevel.WARNING, AlertMessage.AlertDescription.CLOSE_NOTIFY, session.getPeer()),
+				session.getPeer());
+
+		// WHEN writing both records into one buffer
+		byte[] buffer = new byte[first.size() + second.size() + 2];
+		int length = first.writeTo(buffer, 1);
+		length += second.writeTo(buffer, 1 + length);
+
+		// THEN assert that the buffer contains the concatenated records
+		byte[] expected = ByteArrayUtils.concatenate(first.toByteArray(), second.toByteArray());
+		assertEquals(expected.length, length);
+		Assert.assertArrayEquals(expected, Arrays.copyOfRange(buffer, 1, 1 + length));
+		assertEquals(2, Record.fromByteArray(expected, session.getPeer()).size());
+	}
+
 	@Test
 	public void testFromByteArrayRejectsUnknownTypeCode() throws GeneralSecurityException {
 		
@@ -157,6 +180,50 @@ public class RecordTest {
 		assertTrue(Arrays.equals(decryptedData, payloadData));
 	}
 	
+	/**
+	 * Verifies that the {@link Record#decryptAEAD(byte[], DTLSConnectionState)} method
+	 * decrypts a <i>GenericAEADCipher</i> struct encrypted with AES GCM.
+	 * 
+	 * @throws Exception if decryption fails
+	 */
+	@Test
+	public void testDecryptAEADSupportsGcm() throws Exception {
+		Assume.assumeTrue(CipherSuite.TLS_PSK_WITH_AES_128_GCM_SHA256.isSupported());
+		DTLSConnectionState readState = new DTLSConnectionState(CipherSuite.TLS_PSK_WITH_AES_128_GCM_SHA256,
+				CompressionMethod.NULL, key, new IvParameterSpec(client_iv), null);
+		session.setReadState(readState);
+
+		byte[] explicitNonce = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, key,
+				new GCMParameterSpec(128, ByteArrayUtils.concatenate(client_iv, explicitNonce)));
+		cipher.updateAAD(newAdditionalData());
+		byte[] fragment = ByteArrayUtils.concatenate(explicitNonce, cipher.doFinal(payloadData));
+		Record record = new Record(ContentType.APPLICATION_DATA, protocolVer, EPOCH, SEQUENCE_NO, fragment, session.getPeer());
+		record.setSession(session);
+
+		byte[] decryptedData = record.decryptAEAD(fragment, session.getReadState());
+		assertTrue(Arrays.equals(decryptedData, payloadData));
+
+		// and rejects a modified ciphertext
+		fragment[fragment.length - 1] ^= 0x55;
+		try {
+			record.decryptAEAD(fragment, session.getReadState());
+			Assert.fail("decryptAEAD() should have detected the modified ciphertext");
+		} catch (GeneralSecurityException e) {
+			// all is well
+		}
+	}
+
+	byte[] newAdditionalData() {
+		// 64bit sequence number, consisting of 16bit epoch (0) + 48bit sequence number (5)
+		byte[] seq_num = new byte[]{0x00, (byte) EPOCH, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) SEQUENCE_NO};
+
+		// additional data based on sequence number, type (APPLICATION DATA) and protocol version
+		byte[] additionalData = new byte[]{TYPE_APPL_DATA, (byte) protocolVer.getMajor(), (byte) protocolVer.getMinor(), 0, (byte) payloadLength};
+		return ByteArrayUtils.concatenate(seq_num, additionalData);
+	}
+
 	byte[] newGenericAEADCipherFragment() throws GeneralSecurityException {
 		// 64bit sequence number, consisting of 16bit epoch (0) + 48bit sequence number (5)
 		byte[] seq_num = new byte[]{0x00, (byte) EPOCH, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) SEQUENCE_NO};
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(Small.class)
+public class StripedConnectionStoreTest {
+
+	private static final int INITIAL_CAPACITY = 10;
+	StripedConnectionStore store;
+	Connection con;
+	SessionId sessionId;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new StripedConnectionStore(INITIAL_CAPACITY, 1000, null);
+		con = newConnection(50L);
+		sessionId = con.getEstablishedSession().getSessionIdentifier();
+	}
+
+	@Test
+	public void testPutAddsConnection() {
+		// given an empty connection store
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY));
+
+		// when adding a new connection to the store
+		assertTrue(store.put(con));
+
+		// assert that the store is not empty
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY - 1));
+		assertThat(store.get(con.getPeerAddress()), is(con));
+	}
+
+	@Test
+	public void testPutReplacesConnectionWithSamePeer() {
+		// GIVEN a connection store containing a connection with a peer
+		store.put(con);
+
+		// WHEN the peer starts a new handshake
+		Connection connection = new Connection(con.getPeerAddress());
+		assertTrue(store.put(connection));
+
+		// THEN assert that the connection is replaced without using more capacity
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY - 1));
+		assertThat(store.get(con.getPeerAddress()), is(connection));
+		assertThat(store.find(sessionId), is(nullValue()));
+	}
+
+	@Test
+	public void testPutFailsIfStoreIsFullWithoutStaleConnections() throws Exception {
+		// GIVEN a full connection store without stale connections
+		store = new StripedConnectionStore(2, 1000, null, 4);
+		store.put(newConnection(51L));
+		store.put(newConnection(52L));
+
+		// WHEN adding another connection
+		boolean added = store.put(con);
+
+		// THEN assert that the connection has not been added
+		assertFalse(added);
+		assertThat(store.get(con.getPeerAddress()), is(nullValue()));
+		assertThat(store.remainingCapacity(), is(0));
+	}
+
+	@Test
+	public void testPutEvictsStaleConnectionIfStoreIsFull() throws Exception {
+		// GIVEN a full connection store with a cached session,
+		// where connections become stale immediately
+		SessionCache sessionCache = new InMemorySessionCache();
+		store = new StripedConnectionStore(1, 0, sessionCache, 4);
+		Connection stale = newConnection(51L);
+		store.put(stale);
+		store.sessionEstablished(null, stale.getEstablishedSession());
+
+		// WHEN adding another connection
+		boolean added = store.put(con);
+
+		// THEN assert that the stale connection has been evicted
+		assertTrue(added);
+		assertThat(store.get(con.getPeerAddress()), is(con));
+		assertThat(store.get(stale.getPeerAddress()), is(nullValue()));
+		assertThat(store.find(stale.getEstablishedSession().getSessionIdentifier()), is(nullValue()));
+		assertThat(sessionCache.get(stale.getEstablishedSession().getSessionIdentifier()), is(nullValue()));
+	}
+
+	@Test
+	public void testFindRetrievesLocalConnection() {
+		// given a connection store containing a connection with a peer
+		store.put(con);
+
+		// when retrieving the connection for the given peer
+		Connection connectionWithPeer = store.find(sessionId);
+		assertThat(connectionWithPeer, is(con));
+	}
+
+	@Test
+	public void testFindRetrievesConnectionOfEstablishedSession() throws Exception {
+		// GIVEN a connection store containing a connection without established session
+		Connection connection = new Connection(con.getPeerAddress());
+		store.put(connection);
+		assertThat(store.find(sessionId), is(nullValue()));
+
+		// WHEN a session is established as part of a successful handshake
+		connection.sessionEstablished(null, con.getEstablishedSession());
+		store.sessionEstablished(null, con.getEstablishedSession());
+
+		// THEN assert that the connection is found by its session ID
+		assertThat(store.find(sessionId), is(connection));
+	}
+
+	@Test
+	public void testFindDoesNotRetrieveRemovedConnection() throws Exception {
+		// GIVEN a connection store containing connections with peers
+		Connection other = newConnection(51L);
+		store.put(con);
+		store.put(other);
+
+		// WHEN removing one connection
+		assertThat(store.remove(con.getPeerAddress()), is(con));
+
+		// THEN assert that only the other connection is found by its session ID
+		assertThat(store.find(sessionId), is(nullValue()));
+		assertThat(store.find(other.getEstablishedSession().getSessionIdentifier()), is(other));
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY - 1));
+	}
+
+	@Test
+	public void testFindRemovesStaleConnectionFromStore() {
+
+		// GIVEN a connection store with a cached session shared by another node
+		// and a (local) connection based on this session
+		SessionCache sessionCache = new InMemorySessionCache();
+		sessionCache.put(con.getEstablishedSession());
+		store = new StripedConnectionStore(INITIAL_CAPACITY, 1000, sessionCache);
+		store.put(con);
+
+		// WHEN the session is removed from the cache (e.g. because it became stale)
+		sessionCache.remove(con.getEstablishedSession().getSessionIdentifier());
+
+		// THEN assert that the connection has been removed from the local cache
+		Connection connectionToResume = store.find(sessionId);
+		assertThat(connectionToResume, is(nullValue()));
+		assertThat(store.get(con.getPeerAddress()), is(nullValue()));
+	}
+
+	@Test
+	public void testStoreReusesCapacityOfRemovedConnections() throws Exception {
+		// GIVEN a store with a single stripe
+		store = new StripedConnectionStore(INITIAL_CAPACITY, 1000, null, 1);
+
+		// WHEN connections are repeatedly added and removed
+		for (long ip = 0; ip < 100 * INITIAL_CAPACITY; ip++) {
+			Connection connection = newConnection(100L + ip);
+			assertTrue(store.put(connection));
+			store.remove(connection.getPeerAddress());
+		}
+
+		// THEN assert that the full capacity is still available
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY));
+	}
+
+	@Test
+	public void testClearRemovesAllConnectionsFromStore() throws Exception {
+		// given a non-empty connection store
+		store.put(con);
+		store.put(newConnection(51L));
+		store.put(newConnection(52L));
+
+		// when clearing the store
+		store.clear();
+
+		// assert that the store is empty
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY));
+		assertThat(store.get(con.getPeerAddress()), is(nullValue()));
+		assertThat(store.find(sessionId), is(nullValue()));
+	}
+
+	@Test
+	public void testClearKeepsSessionsInSessionCache() throws Exception {
+		// GIVEN a connection store with an established session shared by a session cache
+		SessionCache sessionCache = new InMemorySessionCache();
+		store = new StripedConnectionStore(INITIAL_CAPACITY, 1000, sessionCache);
+		store.put(con);
+		store.sessionEstablished(null, con.getEstablishedSession());
+
+		// WHEN clearing the store
+		store.clear();
+
+		// THEN assert that the session can still be resumed from the session cache
+		assertThat(sessionCache.get(sessionId), is(notNullValue()));
+		Connection connectionToResume = store.find(sessionId);
+		assertThat(connectionToResume, is(notNullValue()));
+		assertThat(connectionToResume, is(not(con)));
+		assertThat(store.get(con.getPeerAddress()), is(nullValue()));
+	}
+
+	private Connection newConnection(long ip) throws HandshakeException, UnknownHostException {
+		InetAddress addr = InetAddress.getByAddress(longToIp(ip));
+		InetSocketAddress peerAddress = new InetSocketAddress(addr, 0);
+		Connection con = new Connection(peerAddress);
+		con.sessionEstablished(null, newSession(peerAddress));
+		return con;
+	}
+
+	private DTLSSession newSession(InetSocketAddress address) {
+		return DTLSSessionTest.newEstablishedServerSession(address, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8, true);
+	}
+
+	private static byte[] longToIp(long ip) {
+		byte[] result = new byte[4];
+		result[0] = 10;
+		for (int i = 3; i >= 1; i--) {
+			result[i] = (byte) (ip & 0xff);
+			ip >>= 8;
+		}
+		return result;
+	}
+}
@@ -7,6 +7,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
+import javax.crypto.spec.SecretKeySpec;
+
 import org.eclipse.californium.scandium.category.Small;
 import org.eclipse.californium.scandium.dtls.ProtocolVersion;
 import org.eclipse.californium.scandium.util.ByteArrayUtils;
@@ -130,6 +132,52 @@ public class CCMBlockCipherTest {
 		assertTrue(Arrays.equals(decryptedData, payloadData));
 	}
 
+	@Test
+	public void testCachedFastCryption() throws Exception {
+
+		CCMCipher cipher = new CCMCipher(new SecretKeySpec(aesKey, "AES"), 8);
+		byte[] encryptedData = new byte[payloadData.length + 8];
+		cipher.encrypt(nonce, additionalData, payloadData, 0, payloadData.length, encryptedData, 0);
+		byte[] decryptedData = CCMBlockCipher.decrypt(aesKey, nonce, additionalData, encryptedData, 8);
+		assertTrue(Arrays.equals(decryptedData, payloadData));
+	}
+
+	@Test
+	public void testFastCachedCryption() throws Exception {
+
+		CCMCipher cipher = new CCMCipher(new SecretKeySpec(aesKey, "AES"), 8);
+		byte[] encryptedData = CCMBlockCipher.encrypt(aesKey, nonce, additionalData, payloadData, 8);
+		byte[] decryptedData = cipher.decrypt(nonce, additionalData, encryptedData, 0, encryptedData.length);
+		assertTrue(Arrays.equals(decryptedData, payloadData));
+	}
+
+	@Test
+	public void testCachedCryptionInPlaceWithOffset() throws Exception {
+
+		CCMCipher cipher = new CCMCipher(new SecretKeySpec(aesKey, "AES"), 8);
+		byte[] expected = CCMBlockCipher.encrypt(aesKey, nonce, additionalData, payloadData, 8);
+		byte[] buffer = new byte[5 + payloadData.length + 8];
+		System.arraycopy(payloadData, 0, buffer, 5, payloadData.length);
+		// encrypt twice to check, that the cipher state is re-used correctly
+		for (int i = 0; i < 2; i++) {
+			byte[] data = Arrays.copyOf(buffer, buffer.length);
+			int length = cipher.encrypt(nonce, additionalData, data, 5, payloadData.length, data, 5);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(data, 5, 5 + length), expected));
+			byte[] decryptedData = cipher.decrypt(nonce, additionalData, data, 5, length);
+			assertTrue(Arrays.equals(decryptedData, payloadData));
+		}
+	}
+
+	@Test(expected = InvalidMacException.class)
+	public void testCachedDifferentNonce() throws Exception {
+
+		CCMCipher cipher = new CCMCipher(new SecretKeySpec(aesKey, "AES"), 8);
+		byte[] encryptedData = CCMBlockCipher.encrypt(aesKey, nonce, additionalData, payloadData, 8);
+		byte[] nonce2 = Arrays.copyOf(nonce, nonce.length);
+		nonce2[0] ^= 0x55;
+		cipher.decrypt(nonce2, additionalData, encryptedData, 0, encryptedData.length);
+	}
+
 	@Test(expected = InvalidMacException.class)
 	public void testDifferentNonce() throws Exception {
 
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.cipher;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.eclipse.californium.scandium.dtls.cipher.ECDHECryptography.SupportedGroup;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(Small.class)
+public class EphemeralKeyPoolTest {
+
+	private static final int POOL_SIZE = 3;
+
+	EphemeralKeyPool pool;
+
+	@Before
+	public void setUp() {
+		pool = new EphemeralKeyPool(POOL_SIZE, 1);
+	}
+
+	@Test
+	public void testTakeGeneratesKeysIfPoolIsEmpty() throws Exception {
+		// WHEN taking keys from an empty pool
+		ECDHECryptography keys = pool.take(SupportedGroup.secp256r1);
+
+		// THEN the keys are generated nevertheless
+		assertThat(keys, is(notNullValue()));
+		assertThat(keys.getPublicKey(), is(notNullValue()));
+		assertThat(pool.available(SupportedGroup.secp256r1), is(0));
+	}
+
+	@Test
+	public void testRefillFillsPoolUpToSize() throws Exception {
+		// GIVEN a pool that has been asked for a group's keys
+		pool.take(SupportedGroup.secp256r1);
+
+		// WHEN refilling more often than the pool's size
+		for (int i = 0; i < POOL_SIZE + 2; i++) {
+			pool.refill();
+		}
+
+		// THEN the pool contains no more than its size
+		assertThat(pool.available(SupportedGroup.secp256r1), is(POOL_SIZE));
+	}
+
+	@Test
+	public void testRefillIgnoresGroupsNotRequested() {
+		// WHEN refilling a pool that has never been asked for keys
+		pool.refill();
+
+		// THEN no keys are generated
+		assertThat(pool.available(SupportedGroup.secp256r1), is(0));
+	}
+
+	@Test
+	public void testTakeHandsOutKeysOnlyOnce() throws Exception {
+		// GIVEN a filled pool
+		pool.take(SupportedGroup.secp256r1);
+		for (int i = 0; i < POOL_SIZE; i++) {
+			pool.refill();
+		}
+
+		// WHEN taking all pooled keys
+		ECDHECryptography first = pool.take(SupportedGroup.secp256r1);
+		ECDHECryptography second = pool.take(SupportedGroup.secp256r1);
+
+		// THEN each key is removed from the pool and handed out once only
+		assertThat(pool.available(SupportedGroup.secp256r1), is(POOL_SIZE - 2));
+		assertThat(first, is(not(sameInstance(second))));
+		assertThat(first.getPublicKey(), is(not(second.getPublicKey())));
+	}
+
+	@Test
+	public void testStopDiscardsPooledKeys() throws Exception {
+		// GIVEN a pool containing keys
+		pool.take(SupportedGroup.secp256r1);
+		pool.refill();
+
+		// WHEN stopping the pool
+		pool.stop();
+
+		// THEN the keys are discarded
+		assertThat(pool.available(SupportedGroup.secp256r1), is(0));
+	}
+}